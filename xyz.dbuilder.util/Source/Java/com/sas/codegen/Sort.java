@@ -9,6 +9,7 @@
  */
 package com.sas.codegen;
 
+import com.sas.etl.models.job.CodeTemplate;
 import com.sas.metadata.remote.ClassifierMap;
 import com.sas.metadata.remote.DataTable;
 import com.sas.metadata.remote.MdException;
@@ -25,6 +26,28 @@ public class Sort
 
    // constants
    private static final String SORT_OPTIONS   = "SORT";
+   private static final String INDENT         = "          ";
+   
+   // the PROC SORT statement, indented in steps of ten spaces
+   private static final CodeTemplate PROC_SORT_TEMPLATE = new CodeTemplate(
+      "proc sort data = &SYSLAST \n"                    +
+      "#if sourceOptions\n"                             +
+      "                    (${sourceOptions}) \n"       +
+      "#end\n"                                          +
+      "          out = ${target}\\\n"                   +
+      "#if targetOptions\n"                             +
+      "\n"                                              +
+      "                    ${targetOptions}\\\n"        +
+      "#end\n"                                          +
+      "#if sortOptions\n"                               +
+      "\n"                                              +
+      "          ${sortOptions}\\\n"                    +
+      "#end\n"                                          +
+      "; \n", INDENT.length());
+   private static final int SLOT_SOURCE_OPTIONS = PROC_SORT_TEMPLATE.getSlot("sourceOptions");
+   private static final int SLOT_TARGET         = PROC_SORT_TEMPLATE.getSlot("target");
+   private static final int SLOT_TARGET_OPTIONS = PROC_SORT_TEMPLATE.getSlot("targetOptions");
+   private static final int SLOT_SORT_OPTIONS   = PROC_SORT_TEMPLATE.getSlot("sortOptions");
    
    /** 
 	 * constructor
@@ -42,7 +65,7 @@ public class Sort
     * @throws MdException
     * @throws java.rmi.RemoteException
     */
-   public static void executeUtility(CodegenRequest cgReq, ClassifierMap classifierMap) throws MdException, java.rmi.RemoteException
+   public static void executeUtility(final CodegenRequest cgReq, ClassifierMap classifierMap) throws MdException, java.rmi.RemoteException
    {
       // make sure that there is a source and a target table
       cgReq.checkSourceAndTarget(classifierMap);
@@ -86,26 +109,19 @@ public class Sort
          sourceOptions = "";
 
       // proc sort statement
-      cgReq.addSourceCode("proc sort data = &SYSLAST \n");  
-      
-      // data= option
-      if (sourceOptions.trim().length() > 0)
-         cgReq.addSourceCode("                    (" + sourceOptions.trim() + ") \n");
-
-      // out= option
-      cgReq.addSourceCode("          out = " + targetName);
-      
-      if (targetOptions.length() > 0)
-        cgReq.addSourceCode("\n")
-             .addSourceCode("                    " + targetOptions.trim());
-      
-      // proc sort options
-      if (sortOptions.trim().length() > 0) 
-         cgReq.addSourceCode("\n")
-              .addSourceCode("          " + sortOptions.trim()); 
-
-      cgReq.addSourceCode("; \n")
-           .indent();
+      Object[] values = new Object[PROC_SORT_TEMPLATE.getSlotCount()];
+      values[SLOT_SOURCE_OPTIONS] = sourceOptions.trim();
+      values[SLOT_TARGET]         = targetName;
+      values[SLOT_TARGET_OPTIONS] = targetOptions.trim();
+      values[SLOT_SORT_OPTIONS]   = sortOptions.trim();
+      PROC_SORT_TEMPLATE.render(new CodeTemplate.ICodeTarget()
+      {
+         public void addSourceCode(String code)
+         {
+            cgReq.addSourceCode(code);
+         }
+      }, values, INDENT);
+      cgReq.indent();
 
       // by statement
       String byStatement = cgReq.makeByStatement((Select) classifierMap);
@@ -81,10 +81,10 @@ public abstract class AbstractComplexPersistableObject extends AbstractPersistab
    {
       super( sID, model );
       
-      m_lNotes              = new ModelList( this, new String[]{ NOTE_ADDED,               NOTE_REMOVED               }, ModelList.SAVE_CHANGED_OBJECTS,     INote             .class );
-      m_lDocuments          = new ModelList( this, new String[]{ DOCUMENT_ADDED,           DOCUMENT_REMOVED           }, ModelList.SAVE_CHANGED_OBJECTS,     IDocument         .class );
-      m_lExtendedAttributes = new ModelList( this, new String[]{ EXTENDED_ATTRIBUTE_ADDED, EXTENDED_ATTRIBUTE_REMOVED }, ModelList.SAVE_AS_OWNER_OF_OBJECTS, IExtendedAttribute.class );
-      m_lResponsibleParties = new ModelList( this, new String[]{ RESPONSIBLE_PARTY_ADDED,  RESPONSIBLE_PARTY_REMOVED  }, ModelList.SAVE_CHANGED_OBJECTS,     IResponsibleParty .class );
+      m_lNotes              = new ChangeTrackedModelList( this, new String[]{ NOTE_ADDED,               NOTE_REMOVED               }, ModelList.SAVE_CHANGED_OBJECTS,     INote             .class );
+      m_lDocuments          = new ChangeTrackedModelList( this, new String[]{ DOCUMENT_ADDED,           DOCUMENT_REMOVED           }, ModelList.SAVE_CHANGED_OBJECTS,     IDocument         .class );
+      m_lExtendedAttributes = new ChangeTrackedModelList( this, new String[]{ EXTENDED_ATTRIBUTE_ADDED, EXTENDED_ATTRIBUTE_REMOVED }, ModelList.SAVE_AS_OWNER_OF_OBJECTS, IExtendedAttribute.class );
+      m_lResponsibleParties = new ChangeTrackedModelList( this, new String[]{ RESPONSIBLE_PARTY_ADDED,  RESPONSIBLE_PARTY_REMOVED  }, ModelList.SAVE_CHANGED_OBJECTS,     IResponsibleParty .class );
       
       m_sPrivateNoteID = "";
       m_bEditable = true;
@@ -375,16 +375,21 @@ public abstract class AbstractComplexPersistableObject extends AbstractPersistab
 //   }
 //   
    /**
-    * Is the object changed since it was last persisted?
+    * Gets the children whose changed state is part of the object's changed 
+    * state: the notes, documents, extended attributes and responsible 
+    * parties.
     * 
-    * @return true = the object has changed
+    * @param lChildren the list the children are added to
+    * 
+    * @see com.sas.etl.models.impl.BaseObject#getChangeTrackedChildren(java.util.List)
     */
-   public boolean isChanged()
+   protected void getChangeTrackedChildren( List lChildren )
    {
-      return super.isChanged() || m_lNotes.isChanged() 
-                               || m_lDocuments.isChanged() 
-                               || m_lExtendedAttributes.isChanged()
-                               || m_lResponsibleParties.isChanged();
+      super.getChangeTrackedChildren( lChildren );
+      lChildren.addAll( m_lNotes              );
+      lChildren.addAll( m_lDocuments          );
+      lChildren.addAll( m_lExtendedAttributes );
+      lChildren.addAll( m_lResponsibleParties );
    }
    
 //   /**
@@ -559,6 +564,7 @@ public abstract class AbstractComplexPersistableObject extends AbstractPersistab
       finally
       {
          getModel().setUndoSupported( bUndoSupported );
+         syncChangeTrackedChildren();
          setChanged( bChanged );
       }
    }
@@ -599,6 +605,7 @@ public abstract class AbstractComplexPersistableObject extends AbstractPersistab
       
       setUsageVersion(UsageVersion.decode(mdo.getUsageVersion()));
       
+      syncChangeTrackedChildren();
       setChanged( false );
    }
    
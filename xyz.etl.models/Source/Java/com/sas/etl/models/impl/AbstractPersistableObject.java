@@ -101,9 +101,9 @@ public abstract class AbstractPersistableObject extends BaseObject implements IP
    public AbstractPersistableObject( String sID, IModel model )
    {
       super( sID, model );
-      m_mapProperties   = new HashMap();
-      m_mapPropertySets = new HashMap();
-      m_mapCustomLists  = new HashMap();
+      m_mapProperties   = new SmallMap();
+      m_mapPropertySets = new SmallMap();
+      m_mapCustomLists  = new SmallMap();
    }
 
    /**
@@ -11,10 +11,14 @@ package com.sas.etl.models.impl;
 
 import java.io.PrintStream;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.WeakHashMap;
 
 import javax.swing.undo.AbstractUndoableEdit;
 import javax.swing.undo.UndoableEdit;
@@ -38,8 +42,23 @@ public class BaseObject implements IObject, INotifyListener
    private Map     m_mapUserProperties;
 
    private IModel  m_model;
+   private ModelRevision.Counter m_revision;   // revision counter of m_model, looked up once
 
-   private List    m_lListeners;
+   // copy-on-write: replaced, never modified, when a listener is added or 
+   // removed so an event can be dispatched without copying the listeners
+   private INotifyListener[] m_aListeners;
+
+   private ValidationResult m_validation;   // cached result of validation
+
+   // changed state of the objects contained by this object (see 
+   // addChangeTrackedChild), kept so isChanged does not walk the children
+   private BaseObject[] m_aChangeParents;       // objects tracking this object, copy-on-write
+   private Set          m_setTrackedChildren;   // BaseObject children tracked by this object
+   private List         m_lUntrackedChildren;   // IObject children that can not be tracked
+   private int          m_nChangedChildren;     // number of tracked children that are changed
+   
+   // class to Boolean, true = the class does not override isChanged
+   private static final Map s_mapCountableClasses = new WeakHashMap();
    
    /**
     * Constructs the object.
@@ -159,17 +178,245 @@ public class BaseObject implements IObject, INotifyListener
 	  if (getModel().isCopyPaste())
 		  return;
 	  
+      boolean bWasChanged = isTrackedChanged();
       m_bChanged = bChanged;
+      if (bWasChanged != isTrackedChanged())
+         fireChangedCountChange( bChanged ? 1 : -1 );
    }
    
    /**
-    * Is the object changed since it was last persisted?
+    * Is the object changed since it was last persisted?  The object is changed
+    * if it was changed itself or if any of the children it tracks (see 
+    * addChangeTrackedChild) is changed.  The children that can be counted are
+    * not walked, the number of changed children is kept as they change; the
+    * others are asked.
     * 
     * @return true = the object has changed
     */
    public boolean isChanged()
    {
-      return m_bChanged || (getModel()!=null && getModel().isCopyPaste());
+      if (m_bChanged || (m_nChangedChildren > 0) || (getModel()!=null && getModel().isCopyPaste()))
+         return true;
+      
+      List lUntracked = m_lUntrackedChildren;
+      if (lUntracked != null)
+      {
+         for ( int iChild=0; iChild<lUntracked.size(); iChild++ )
+         {
+            if (((IObject) lUntracked.get( iChild )).isChanged())
+               return true;
+         }
+      }
+      return false;
+   }
+   
+   /**
+    * Adds a child whose changed state is part of this object's changed state.
+    * A child that is a BaseObject using BaseObject's isChanged tells this 
+    * object when it becomes changed or unchanged, so isChanged reads a count 
+    * instead of walking the children.  Other children, including those that
+    * override isChanged or that have such children themselves, are asked by 
+    * isChanged.  Children must be contained by this object, that is, a child 
+    * must not track its parent.
+    * 
+    * @param child the child (may be null)
+    */
+   protected final void addChangeTrackedChild( IObject child )
+   {
+      if (child == null)
+         return;
+      
+      if (!isCountable( child ))
+      {
+         if (m_lUntrackedChildren == null)
+            m_lUntrackedChildren = new ArrayList();
+         if (m_lUntrackedChildren.contains( child ))
+            return;
+         m_lUntrackedChildren.add( child );
+         
+         // the objects counting this object must now ask it instead
+         BaseObject[] aParents = m_aChangeParents;
+         for ( int iParent=0; (aParents != null) && (iParent<aParents.length); iParent++ )
+         {
+            aParents[ iParent ].removeChangeTrackedChild( this );
+            aParents[ iParent ].addChangeTrackedChild(    this );
+         }
+         return;
+      }
+      
+      if (m_setTrackedChildren == null)
+         m_setTrackedChildren = Collections.newSetFromMap( new IdentityHashMap() );
+      if (!m_setTrackedChildren.add( child ))
+         return;
+      
+      BaseObject   object   = (BaseObject) child;
+      int          nParents = (object.m_aChangeParents == null) ? 0 : object.m_aChangeParents.length;
+      BaseObject[] aParents = new BaseObject[ nParents + 1 ];
+      if (nParents > 0)
+         System.arraycopy( object.m_aChangeParents, 0, aParents, 0, nParents );
+      aParents[ nParents ] = this;
+      object.m_aChangeParents = aParents;
+      
+      if (object.isTrackedChanged())
+         changedChildrenChanged( 1 );
+   }
+   
+   /**
+    * Can the changed state of a child be counted instead of asked?  It can if
+    * the child is a BaseObject whose changed state is exactly its own flag and
+    * the count of its changed children: its class does not override isChanged
+    * and it has no children that must be asked.
+    * 
+    * @param child the child
+    * 
+    * @return true = the child's changed state can be counted
+    */
+   private static boolean isCountable( IObject child )
+   {
+      if (!(child instanceof BaseObject) || (((BaseObject) child).m_lUntrackedChildren != null))
+         return false;
+      
+      Class cls = child.getClass();
+      synchronized (s_mapCountableClasses)
+      {
+         Boolean bCountable = (Boolean) s_mapCountableClasses.get( cls );
+         if (bCountable == null)
+         {
+            try
+            {
+               bCountable = Boolean.valueOf( cls.getMethod( "isChanged", new Class[ 0 ] ).getDeclaringClass() == BaseObject.class );   // I18NOK:LINE
+            }
+            catch (NoSuchMethodException e)
+            {
+               bCountable = Boolean.FALSE;
+            }
+            s_mapCountableClasses.put( cls, bCountable );
+         }
+         return bCountable.booleanValue();
+      }
+   }
+   
+   /**
+    * Removes a child added by addChangeTrackedChild.
+    * 
+    * @param child the child (may be null)
+    */
+   protected final void removeChangeTrackedChild( IObject child )
+   {
+      if (child == null)
+         return;
+      
+      if ((m_lUntrackedChildren != null) && m_lUntrackedChildren.remove( child ))
+         return;
+      
+      if ((m_setTrackedChildren == null) || !m_setTrackedChildren.remove( child ))
+         return;
+      
+      BaseObject   object   = (BaseObject) child;
+      BaseObject[] aParents = object.m_aChangeParents;
+      for ( int iParent=0; (aParents != null) && (iParent<aParents.length); iParent++ )
+      {
+         if (aParents[ iParent ] != this)
+            continue;
+         
+         BaseObject[] aNewParents = new BaseObject[ aParents.length - 1 ];
+         System.arraycopy( aParents, 0,           aNewParents, 0,       iParent );
+         System.arraycopy( aParents, iParent + 1, aNewParents, iParent, aParents.length - iParent - 1 );
+         object.m_aChangeParents = (aNewParents.length == 0) ? null : aNewParents;
+         break;
+      }
+      
+      if (object.isTrackedChanged())
+         changedChildrenChanged( -1 );
+   }
+   
+   /**
+    * Gets the children whose changed state is part of this object's changed
+    * state.  Subclasses that track children add them to the list and call
+    * the superclass.
+    * 
+    * @param lChildren the list the children (IObject) are added to
+    */
+   protected void getChangeTrackedChildren( List lChildren )
+   {
+   }
+   
+   /**
+    * Sets the tracked children to the children from getChangeTrackedChildren, 
+    * adding and removing children as needed.  Use this after a bulk change to
+    * the children, such as a load, that does not add or remove the children
+    * one at a time.
+    */
+   protected final void syncChangeTrackedChildren()
+   {
+      List lChildren = new ArrayList();
+      getChangeTrackedChildren( lChildren );
+      setChangeTrackedChildren( lChildren );
+   }
+   
+   /**
+    * Sets the children whose changed state is part of this object's changed 
+    * state, adding and removing children as needed.
+    * 
+    * @param children the children (IObject)
+    */
+   private void setChangeTrackedChildren( Collection children )
+   {
+      Set setChildren = Collections.newSetFromMap( new IdentityHashMap() );
+      setChildren.addAll( children );
+      
+      List lOld = new ArrayList();
+      if (m_setTrackedChildren != null)
+         lOld.addAll( m_setTrackedChildren );
+      if (m_lUntrackedChildren != null)
+         lOld.addAll( m_lUntrackedChildren );
+      for ( int iOld=0; iOld<lOld.size(); iOld++ )
+      {
+         if (!setChildren.contains( lOld.get( iOld ) ))
+            removeChangeTrackedChild( (IObject) lOld.get( iOld ) );
+      }
+      
+      Iterator iter = setChildren.iterator();
+      while (iter.hasNext())
+         addChangeTrackedChild( (IObject) iter.next() );
+   }
+   
+   /**
+    * Is the object or any of its tracked children changed?
+    * 
+    * @return true = changed
+    */
+   private boolean isTrackedChanged()
+   {
+      return m_bChanged || (m_nChangedChildren > 0);
+   }
+   
+   /**
+    * Changes the number of tracked children that are changed.
+    * 
+    * @param nDelta the change
+    */
+   private void changedChildrenChanged( int nDelta )
+   {
+      boolean bWasChanged = isTrackedChanged();
+      m_nChangedChildren += nDelta;
+      if (bWasChanged != isTrackedChanged())
+         fireChangedCountChange( nDelta );
+   }
+   
+   /**
+    * Tells the objects tracking this object that it became changed or 
+    * unchanged.
+    * 
+    * @param nDelta 1 = became changed, -1 = became unchanged
+    */
+   private void fireChangedCountChange( int nDelta )
+   {
+      BaseObject[] aParents = m_aChangeParents;
+      if (aParents == null)
+         return;
+      for ( int iParent=0; iParent<aParents.length; iParent++ )
+         aParents[ iParent ].changedChildrenChanged( nDelta );
    }
  
    /**
@@ -230,6 +477,76 @@ public class BaseObject implements IObject, INotifyListener
       return false;
    }
    
+   /**
+    * Gets the result of validating the object.  The result is computed once 
+    * per revision of the model and shared by all callers, so code generation
+    * and the user interface do not each walk the object to find out whether 
+    * it is complete.  Any change to the model invalidates the result.  An 
+    * object that is not in a model has no revision to check the result 
+    * against, so its result is not cached.
+    * 
+    * @return the validation result
+    */
+   public ValidationResult getValidationResult()
+   {
+      if (m_model == null)
+         return createValidationResult( 0 );
+      
+      long lRevision = getRevisionCounter().getRevision();
+      if ((m_validation == null) || (m_validation.getRevision() != lRevision))
+         m_validation = createValidationResult( lRevision );
+      return m_validation;
+   }
+   
+   /**
+    * Creates the result of validating the object.  The reasons incomplete and 
+    * warnings are only collected when the object is incomplete or has 
+    * warnings.  Override this method to change how completeness is decided.
+    * 
+    * @param lRevision the current revision of the model
+    * 
+    * @return the validation result
+    */
+   protected ValidationResult createValidationResult( long lRevision )
+   {
+      boolean bComplete = isComplete();
+      boolean bWarnings = hasWarnings();
+      return new ValidationResult( lRevision,
+                                   bComplete,
+                                   bComplete ? new ArrayList() : getReasonsIncomplete(),
+                                   bWarnings,
+                                   bWarnings ? getWarnings() : new ArrayList() );
+   }
+   
+   /**
+    * Records a change to the object that fires no model event, such as a 
+    * change to an option that is not persisted, so the results derived from
+    * the model, such as validation results, are recomputed.
+    */
+   protected void incrementModelRevision()
+   {
+      m_validation = null;
+      if (m_model != null)
+         getRevisionCounter().increment();
+   }
+   
+   /**
+    * Gets the revision counter of the object's model.  The counter is looked
+    * up once, so firing an event does not take the lock of ModelRevision.
+    * 
+    * @return the counter
+    */
+   private ModelRevision.Counter getRevisionCounter()
+   {
+      ModelRevision.Counter revision = m_revision;
+      if (revision == null)
+      {
+         revision   = ModelRevision.getCounter( m_model );
+         m_revision = revision;
+      }
+      return revision;
+   }
+   
    /**
     * Gets the model of which this object is a part.
     * 
@@ -245,7 +562,8 @@ public class BaseObject implements IObject, INotifyListener
 	   if (m_model==model)
 		   return;
 	   
-	   m_model = model;
+	   m_model    = model;
+	   m_revision = null;
 	   
 	   m_model.putObject(this);
    }
@@ -265,7 +583,7 @@ public class BaseObject implements IObject, INotifyListener
    public void setUserProperty( String sName, String sValue )
    {
       if (m_mapUserProperties == null)
-         m_mapUserProperties = new HashMap();
+         m_mapUserProperties = new SmallMap();
       
       // if the old value equals the new value, done
       String sOldValue = (String) m_mapUserProperties.get( sName );
@@ -354,7 +672,12 @@ public class BaseObject implements IObject, INotifyListener
    protected void fireModelChangedEvent( ModelEvent ev )
    {
       setChanged( true );
-      m_model.fireModelEvent( ev );
+      if (m_model != null)
+         getRevisionCounter().increment();
+      if (ModelEventStatistics.isCollecting())
+         ModelEventStatistics.recordModelEvent( ev );
+      if (!ModelEventBatcher.queue( m_model, ev ))
+         ModelEventStatistics.fireModelEvent( m_model, ev );
       fireNotifyEvent( NotifyEvent.OBJECT_CHANGED, ev );
    }
    
@@ -402,19 +725,63 @@ public class BaseObject implements IObject, INotifyListener
    }
    
    /**
-    * Tells the model to start a compound undoable.
+    * Tells the model to start a compound undoable.  Model events fired until
+    * the compound undoable ends are batched if the model batches events (see
+    * ModelEventBatcher).  The compound undoable is a write region of the 
+    * model (see ModelLock).
     */
    protected void startCompoundUndoable()
    {
-      m_model.startCompoundUndoable();
+      startCompoundUndoable( m_model );
    }
 
    /**
-    * Tells the model to end a compound undoable.
+    * Tells the model to end a compound undoable.  The batched model events are
+    * delivered when the outermost compound undoable ends.
     */
    protected void endCompoundUndoable()
    {
-      m_model.endCompoundUndoable();
+      endCompoundUndoable( m_model );
+   }
+   
+   /**
+    * Tells a model to start a compound undoable, for code that changes objects
+    * of the model from outside them, such as listeners.  See 
+    * {@link #startCompoundUndoable()}.  Every call must be followed by a call
+    * to {@link #endCompoundUndoable(IModel)} in a finally block.
+    * 
+    * @param model the model
+    */
+   protected static void startCompoundUndoable( IModel model )
+   {
+      ModelLock.beginWrite( model );
+      model.startCompoundUndoable();
+      ModelEventBatcher.begin( model );
+   }
+
+   /**
+    * Tells a model to end a compound undoable started with 
+    * {@link #startCompoundUndoable(IModel)}.
+    * 
+    * @param model the model
+    */
+   protected static void endCompoundUndoable( IModel model )
+   {
+      try
+      {
+         model.endCompoundUndoable();
+      }
+      finally
+      {
+         try
+         {
+            ModelEventBatcher.end( model );
+         }
+         finally
+         {
+            ModelLock.endWrite( model );
+         }
+      }
    }
    
    /**
@@ -464,15 +831,17 @@ public class BaseObject implements IObject, INotifyListener
     */
    public void addNotifyListener( INotifyListener lsnr )
    {
-      if (m_lListeners == null)
-         m_lListeners = new ArrayList();
-      
       // don't add the same listener to the listener list more than once
       //  this will avoid duplicate notification to the same listener for the same event
-      if (m_lListeners.contains(lsnr))
+      if (indexOfNotifyListener( lsnr ) != -1)
          return;
       
-      m_lListeners.add( lsnr );
+      int               nListeners = (m_aListeners == null) ? 0 : m_aListeners.length;
+      INotifyListener[] aListeners = new INotifyListener[ nListeners + 1 ];
+      if (nListeners > 0)
+         System.arraycopy( m_aListeners, 0, aListeners, 0, nListeners );
+      aListeners[ nListeners ] = lsnr;
+      m_aListeners = aListeners;
    }
    
    /**
@@ -484,8 +853,98 @@ public class BaseObject implements IObject, INotifyListener
     */
    public void removeNotifyListener( INotifyListener lsnr )
    {
-      if (m_lListeners!=null)
-         m_lListeners.remove( lsnr );
+      int iListener = indexOfNotifyListener( lsnr );
+      if (iListener == -1)
+         return;
+      
+      int nListeners = m_aListeners.length;
+      if (nListeners == 1)
+      {
+         m_aListeners = null;
+         return;
+      }
+      
+      INotifyListener[] aListeners = new INotifyListener[ nListeners - 1 ];
+      System.arraycopy( m_aListeners, 0,             aListeners, 0,         iListener );
+      System.arraycopy( m_aListeners, iListener + 1, aListeners, iListener, nListeners - iListener - 1 );
+      m_aListeners = aListeners;
+   }
+   
+   /**
+    * Adds a notify listener that is held weakly by the object.  The listener
+    * does not have to be removed: once it has been garbage collected, it is
+    * removed the next time an event is fired.  Removing the listener with
+    * removeNotifyListener removes the weak registration.
+    * 
+    * @param lsnr the notification listener
+    * 
+    * @see WeakListeners
+    */
+   public void addWeakNotifyListener( INotifyListener lsnr )
+   {
+      if (indexOfNotifyListener( lsnr ) != -1)
+         return;
+      
+      addNotifyListener( new WeakListeners.WeakNotifyListener( this, lsnr ) );
+   }
+   
+   /**
+    * Removes the weak notify listeners that have been garbage collected.
+    * 
+    * @return the number of listeners removed
+    */
+   public int purgeNotifyListeners()
+   {
+      INotifyListener[] aListeners = getNotifyListeners();
+      int               nPurged    = 0;
+      for ( int iListener=0; iListener<aListeners.length; iListener++ )
+      {
+         if ((aListeners[ iListener ] instanceof WeakListeners.WeakNotifyListener) &&
+             (((WeakListeners.WeakNotifyListener) aListeners[ iListener ]).getListener() == null))
+         {
+            removeNotifyListener( aListeners[ iListener ] );
+            nPurged++;
+         }
+      }
+      return nPurged;
+   }
+   
+   /**
+    * Gets the notify listeners as they were added, weak listeners as their
+    * proxies.
+    * 
+    * @return the notify listeners (not to be modified)
+    */
+   INotifyListener[] getNotifyListeners()
+   {
+      INotifyListener[] aListeners = m_aListeners;
+      return (aListeners == null) ? new INotifyListener[ 0 ] : aListeners;
+   }
+   
+   /**
+    * Gets the index of a notify listener in the listeners.  A listener added
+    * weakly is found through its proxy.
+    * 
+    * @param lsnr the notify listener
+    * 
+    * @return the index of the listener or -1 if it is not a listener
+    */
+   private int indexOfNotifyListener( INotifyListener lsnr )
+   {
+      INotifyListener[] aListeners = m_aListeners;
+      if (aListeners == null)
+         return -1;
+      
+      for ( int iListener=0; iListener<aListeners.length; iListener++ )
+      {
+         INotifyListener lsnrAdded = aListeners[ iListener ];
+         if (ObjectComparator.isEqual( lsnrAdded, lsnr ))
+            return iListener;
+         if ((lsnrAdded instanceof WeakListeners.WeakNotifyListener) &&
+             (((WeakListeners.WeakNotifyListener) lsnrAdded).getListener() == lsnr))
+            return iListener;
+      }
+      return -1;
    }
    
    /**
@@ -507,7 +966,10 @@ public class BaseObject implements IObject, INotifyListener
     */
    protected final void fireNotifyEvent( int eNotifyType, ModelEvent modelEvent )
    {
-      if ((m_lListeners == null) || m_lListeners.isEmpty())
+      if (modelEvent == null && m_model != null)
+         getRevisionCounter().increment();
+      
+      if (m_aListeners == null)
          return;
       
       fireNotifyEventImpl( new NotifyEvent( this, eNotifyType, modelEvent ) );
@@ -520,7 +982,7 @@ public class BaseObject implements IObject, INotifyListener
     */
    protected final void fireNotifyEvent( NotifyEvent ev )
    {
-      if ((m_lListeners == null) || m_lListeners.isEmpty())
+      if (m_aListeners == null)
          return;
 
       fireNotifyEventImpl( ev );
@@ -528,13 +990,26 @@ public class BaseObject implements IObject, INotifyListener
 
 
    /**
-    * Fires a notify event.
+    * Fires a notify event.  The listeners are not copied: a listener added or 
+    * removed during the dispatch replaces the array, so the dispatch goes on
+    * over the listeners there were when it started.
     * 
     * @param ev the notify event
     */
    private void fireNotifyEventImpl( NotifyEvent ev )
    {
-      INotifyListener[] aListeners = (INotifyListener[]) m_lListeners.toArray( new INotifyListener[ m_lListeners.size() ] );
+      INotifyListener[] aListeners = m_aListeners;
+      if (aListeners == null)
+         return;
+      if (ModelEventStatistics.isCollecting())
+      {
+         // forwarded events were counted by the object they originate from
+         if (ev.getSource() == this)
+            ModelEventStatistics.recordNotifyEvent( this );
+         for ( int iListener=0; iListener<aListeners.length; iListener++ )
+            ModelEventStatistics.notify( aListeners[ iListener ], ev );
+         return;
+      }
       for ( int iListener=0; iListener<aListeners.length; iListener++ )
          aListeners[ iListener ].notify( ev );
    }
@@ -548,7 +1023,8 @@ public class BaseObject implements IObject, INotifyListener
     */
    public void notify( NotifyEvent ev )
    {
-      // ripple the event up to any listeners
+      // ripple the same event up to any listeners, no event is created for
+      // each ancestor
       fireNotifyEvent( ev );
    }
    
@@ -566,12 +1042,13 @@ public class BaseObject implements IObject, INotifyListener
    }
 
    /**
-    * Dispose of the object
+    * Dispose of the object.  The object is remembered weakly so the listeners
+    * still attached to it can be reported (see WeakListeners.dumpLeaks).
     *
     */
    public void dispose()
    {
-      
+      WeakListeners.disposed( this );
    }
    
    /**
@@ -0,0 +1,69 @@
+/* $Id$ */
+/**
+ * Title:       ChangeTrackedModelList.java
+ * Description: A model list whose objects are part of the owner's changed state.
+ * Copyright:   Copyright (c) 2012
+ * Company:     SAS Institute
+ */
+package com.sas.etl.models.impl;
+
+import com.sas.etl.models.IObject;
+
+/**
+ * ChangeTrackedModelList is a model list whose objects' changed state is part
+ * of the owner's changed state.  Adding or removing an object changes the
+ * owner, and the objects in the list are tracked by the owner (see
+ * {@link BaseObject#addChangeTrackedChild}), so the owner does not have to
+ * ask the list whether it changed.  An owner that fills the list without
+ * adding the objects one at a time, such as a load, must include the
+ * objects in its change tracked children (see
+ * {@link BaseObject#getChangeTrackedChildren}) and sync them afterwards.
+ */
+public class ChangeTrackedModelList extends ModelList
+{
+   private BaseObject m_owner;
+
+   /**
+    * Constructs the list.
+    *
+    * @param owner       the owner of the list
+    * @param aEventTypes the types of the events fired when an object is added
+    *                    and removed
+    * @param iSaveType   how the objects are saved (see ModelList)
+    * @param cls         the class of the objects
+    */
+   public ChangeTrackedModelList( BaseObject owner, String[] aEventTypes, int iSaveType, Class cls )
+   {
+      super( owner, aEventTypes, iSaveType, cls );
+      m_owner = owner;
+   }
+
+   /**
+    * Tracks the added object and marks the owner changed.
+    *
+    * @param obj the object added
+    *
+    * @see com.sas.etl.models.impl.ModelList#postAdd(java.lang.Object)
+    */
+   protected void postAdd( Object obj )
+   {
+      super.postAdd( obj );
+      m_owner.addChangeTrackedChild( (IObject) obj );
+      m_owner.setChanged( true );
+   }
+
+   /**
+    * Stops tracking the removed object and marks the owner changed.
+    *
+    * @param obj the object removed
+    *
+    * @see com.sas.etl.models.impl.ModelList#postRemove(java.lang.Object)
+    */
+   protected void postRemove( Object obj )
+   {
+      super.postRemove( obj );
+      if (!contains( obj ))
+         m_owner.removeChangeTrackedChild( (IObject) obj );
+      m_owner.setChanged( true );
+   }
+}
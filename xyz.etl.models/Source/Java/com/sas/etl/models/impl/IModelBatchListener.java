@@ -0,0 +1,26 @@
+/* $Id$ */
+/**
+ * Title:       IModelBatchListener.java
+ * Description: A listener for coalesced batches of model events.
+ * Copyright:   Copyright (c) 2012
+ * Company:     SAS Institute
+ */
+package com.sas.etl.models.impl;
+
+import java.util.EventListener;
+
+/**
+ * IModelBatchListener describes a listener that is told about the model
+ * events of a compound edit all at once, after the edit ends, instead of one
+ * event at a time.  Batch listeners are registered with
+ * {@link ModelEventBatcher#addBatchListener}.
+ */
+public interface IModelBatchListener extends EventListener
+{
+   /**
+    * Notifies the listener that a compound edit ended.
+    *
+    * @param ev the batch of model events of the edit
+    */
+   void modelChanged( ModelBatchEvent ev );
+}
@@ -0,0 +1,85 @@
+/* $Id$ */
+/**
+ * Title:       ModelBatchEvent.java
+ * Description: A coalesced batch of model events.
+ * Copyright:   Copyright (c) 2012
+ * Company:     SAS Institute
+ */
+package com.sas.etl.models.impl;
+
+import java.util.Collections;
+import java.util.EventObject;
+import java.util.List;
+
+import com.sas.etl.models.IModel;
+
+/**
+ * ModelBatchEvent is the coalesced batch of the model events fired during a
+ * compound edit.  Repeated events that report a change of state of the same
+ * object and child are merged into the last of them (see ModelEventBatcher);
+ * every other event is kept in the order it was fired.
+ */
+public class ModelBatchEvent extends EventObject
+{
+   private List  m_lEvents;   // ModelEvent in the order fired
+   private int[] m_aCounts;   // number of events merged into each event
+
+   /**
+    * Constructs the batch event.
+    *
+    * @param model   the model
+    * @param lEvents the coalesced events (ModelEvent)
+    * @param aCounts the number of events merged into each event
+    */
+   ModelBatchEvent( IModel model, List lEvents, int[] aCounts )
+   {
+      super( model );
+      m_lEvents = Collections.unmodifiableList( lEvents );
+      m_aCounts = aCounts;
+   }
+
+   /**
+    * Gets the model.
+    *
+    * @return the model
+    */
+   public IModel getModel()
+   {
+      return (IModel) getSource();
+   }
+
+   /**
+    * Gets the coalesced events.
+    *
+    * @return an unmodifiable list of the events (ModelEvent)
+    */
+   public List getEvents()
+   {
+      return m_lEvents;
+   }
+
+   /**
+    * Gets the number of events merged into one of the coalesced events.
+    *
+    * @param iEvent the index of the event in the coalesced events
+    *
+    * @return the number of events merged into the event, 1 if it was not merged
+    */
+   public int getCount( int iEvent )
+   {
+      return m_aCounts[ iEvent ];
+   }
+
+   /**
+    * Gets the number of events fired during the edit before they were merged.
+    *
+    * @return the number of events
+    */
+   public int getTotalCount()
+   {
+      int nTotal = 0;
+      for ( int i=0; i<m_aCounts.length; i++ )
+         nTotal += m_aCounts[i];
+      return nTotal;
+   }
+}
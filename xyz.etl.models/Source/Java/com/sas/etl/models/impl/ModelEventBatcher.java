@@ -0,0 +1,327 @@
+/* $Id$ */
+/**
+ * Title:       ModelEventBatcher.java
+ * Description: Coalesces the model events fired during compound edits.
+ * Copyright:   Copyright (c) 2012
+ * Company:     SAS Institute
+ */
+package com.sas.etl.models.impl;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import com.sas.etl.models.IModel;
+import com.sas.etl.models.IObject;
+
+/**
+ * ModelEventBatcher holds back the model events fired during a compound edit
+ * and delivers them when the outermost compound edit ends.  Bulk edits such
+ * as mapping or propagating columns otherwise fire thousands of events, one
+ * per change, at the listeners of the model.
+ * <p>
+ * Batching is enabled per model with {@link #setEnabled}.  While a compound
+ * edit started through {@link BaseObject} is open, the model events are
+ * queued.  Only events that report a change of state, whose type ends in
+ * "Changed", are merged: repeated events for the same object, type and
+ * changed child (the event's data when it is a model object) are merged into
+ * the last of them, which moves to the position of the last.  Every other
+ * event, such as the addition or removal of a child, is kept as it was fired.
+ * When the outermost compound edit ends:
+ * <ul>
+ * <li>the batch listeners registered with {@link #addBatchListener} receive
+ *     one {@link ModelBatchEvent} holding the coalesced events, and
+ * <li>the coalesced events are replayed through the model, in order, for the
+ *     model's listeners, which do not understand batches.
+ * </ul>
+ * Notify events are not held back, because model objects use them to keep
+ * each other consistent during the edit.  Models are held weakly so a
+ * discarded model drops its batch.
+ */
+public final class ModelEventBatcher
+{
+   // model to Batch, weak so an abandoned model drops its batch
+   private static final Map s_mapBatches = new WeakHashMap();
+
+   /**
+    * Not instantiable.
+    */
+   private ModelEventBatcher()
+   {
+   }
+
+   /**
+    * Sets whether the model events of compound edits are batched for a model.
+    *
+    * @param model    the model
+    * @param bEnabled true = batch the events
+    */
+   public static void setEnabled( IModel model, boolean bEnabled )
+   {
+      getBatch( model ).m_bEnabled = bEnabled;
+   }
+
+   /**
+    * Are the model events of compound edits batched for a model?
+    *
+    * @param model the model
+    *
+    * @return true = the events are batched
+    */
+   public static boolean isEnabled( IModel model )
+   {
+      return getBatch( model ).m_bEnabled;
+   }
+
+   /**
+    * Adds a listener that receives the batches of a model.
+    *
+    * @param model the model
+    * @param lsnr  the listener
+    */
+   public static void addBatchListener( IModel model, IModelBatchListener lsnr )
+   {
+      List lListeners = getBatch( model ).m_lListeners;
+      if (!lListeners.contains( lsnr ))
+         lListeners.add( lsnr );
+   }
+
+   /**
+    * Removes a listener that receives the batches of a model.
+    *
+    * @param model the model
+    * @param lsnr  the listener
+    */
+   public static void removeBatchListener( IModel model, IModelBatchListener lsnr )
+   {
+      getBatch( model ).m_lListeners.remove( lsnr );
+   }
+
+   /**
+    * Records the start of a compound edit.  This must be called after the
+    * model is told to start a compound undoable and matched by a call to
+    * {@link #end}.
+    *
+    * @param model the model (may be null)
+    */
+   public static void begin( IModel model )
+   {
+      if (model == null)
+         return;
+
+      Batch batch = getBatch( model );
+      if (batch.m_nDepth++ == 0)
+         batch.m_bQueuing = batch.m_bEnabled;
+   }
+
+   /**
+    * Queues a model event if a batched compound edit is open.
+    *
+    * @param model the model (may be null)
+    * @param ev    the model event
+    *
+    * @return true = the event was queued, false = the event must be fired now
+    */
+   static boolean queue( IModel model, ModelEvent ev )
+   {
+      if (model == null)
+         return false;
+
+      Batch batch = getBatch( model );
+      if (!batch.m_bQueuing)
+         return false;
+
+      Key   key   = createKey( batch, ev );
+      Entry entry = (Entry) batch.m_mapEvents.remove( key );
+      if (entry == null)
+         entry = new Entry( ev );
+      else
+      {
+         entry.m_event = ev;
+         entry.m_nCount++;
+      }
+      batch.m_mapEvents.put( key, entry );
+      return true;
+   }
+
+   /**
+    * Records the end of a compound edit.  When the outermost compound edit
+    * ends, the queued events are delivered.
+    *
+    * @param model the model (may be null)
+    */
+   public static void end( IModel model )
+   {
+      if (model == null)
+         return;
+
+      Batch batch = getBatch( model );
+      if (batch.m_nDepth == 0 || --batch.m_nDepth > 0 || !batch.m_bQueuing)
+         return;
+
+      batch.m_bQueuing = false;
+      if (batch.m_mapEvents.isEmpty())
+         return;
+
+      List     lEvents = new ArrayList( batch.m_mapEvents.size() );
+      int[]    aCounts = new int[ batch.m_mapEvents.size() ];
+      Iterator iter    = batch.m_mapEvents.values().iterator();
+      while (iter.hasNext())
+      {
+         Entry entry = (Entry) iter.next();
+         aCounts[ lEvents.size() ] = entry.m_nCount;
+         lEvents.add( entry.m_event );
+      }
+      batch.m_mapEvents.clear();
+      batch.m_nSequence = 0;
+
+      if (!batch.m_lListeners.isEmpty())
+      {
+         ModelBatchEvent       evBatch    = new ModelBatchEvent( model, lEvents, aCounts );
+         IModelBatchListener[] aListeners = (IModelBatchListener[]) batch.m_lListeners.toArray( new IModelBatchListener[ batch.m_lListeners.size() ] );
+         for ( int iListener=0; iListener<aListeners.length; iListener++ )
+            aListeners[ iListener ].modelChanged( evBatch );
+      }
+
+      // replay for the listeners of the model
+      for ( int iEvent=0; iEvent<lEvents.size(); iEvent++ )
+         ModelEventStatistics.fireModelEvent( model, (ModelEvent) lEvents.get( iEvent ) );
+   }
+
+   /**
+    * Creates the key of a queued event.  Events whose type ends in "Changed"
+    * report the current state of their object, so repeated ones are merged:
+    * the key is the object, the type and, when the event's data is a model
+    * object, the changed child.  Any other data of such an event is the new
+    * value, which the last event carries.  Every other event gets a key of
+    * its own, so it is never merged.
+    *
+    * @param batch the batch
+    * @param ev    the model event
+    *
+    * @return the key
+    */
+   private static Key createKey( Batch batch, ModelEvent ev )
+   {
+      String sType = ev.getType();
+      if (sType != null && sType.endsWith( "Changed" ))   // I18NOK:LINE
+      {
+         Object data = (ev.getData() instanceof IObject) ? ev.getData() : null;
+         return new Key( ev.getModelObject(), sType, data, 0 );
+      }
+      return new Key( ev.getModelObject(), sType, null, ++batch.m_nSequence );
+   }
+
+   /**
+    * Gets the batch of a model, creating it if necessary.
+    *
+    * @param model the model
+    *
+    * @return the batch
+    */
+   private static Batch getBatch( IModel model )
+   {
+      synchronized (s_mapBatches)
+      {
+         Batch batch = (Batch) s_mapBatches.get( model );
+         if (batch == null)
+         {
+            batch = new Batch();
+            s_mapBatches.put( model, batch );
+         }
+         return batch;
+      }
+   }
+
+   /**
+    * Batch is the state of the batching of a model.
+    */
+   private static class Batch
+   {
+      private boolean m_bEnabled;
+      private boolean m_bQueuing;                            // true = the open compound edit is batched
+      private int     m_nDepth;                              // compound edit nesting depth
+      private int     m_nSequence;                           // number of queued events that are not merged
+      private Map     m_mapEvents  = new LinkedHashMap();    // Key to Entry in the order last fired
+      private List    m_lListeners = new ArrayList();        // IModelBatchListener
+   } // Batch
+
+   /**
+    * Key identifies the events that are merged: the same object, type and
+    * changed child.  Events that are not merged have a unique sequence number.
+    */
+   private static class Key
+   {
+      private Object m_object;
+      private String m_sType;
+      private Object m_data;        // the changed child or null
+      private int    m_nSequence;   // 0 for merged events
+
+      /**
+       * Constructs the key.
+       *
+       * @param object    the object of the event
+       * @param sType     the type of the event
+       * @param data      the changed child (may be null)
+       * @param nSequence the sequence number of an event that is not merged,
+       *                  0 for an event that is merged
+       */
+      Key( Object object, String sType, Object data, int nSequence )
+      {
+         m_object    = object;
+         m_sType     = sType;
+         m_data      = data;
+         m_nSequence = nSequence;
+      }
+
+      /**
+       * Is the key equal to another key?
+       *
+       * @param object the other key
+       *
+       * @return true = same object, type, changed child and sequence number
+       */
+      public boolean equals( Object object )
+      {
+         if (!(object instanceof Key))
+            return false;
+         Key key = (Key) object;
+         return (key.m_object == m_object) && (key.m_data == m_data) && (key.m_nSequence == m_nSequence) &&
+                ObjectComparator.isEqual( key.m_sType, m_sType );
+      }
+
+      /**
+       * Gets the hash code of the key.
+       *
+       * @return the hash code
+       */
+      public int hashCode()
+      {
+         int nHash = System.identityHashCode( m_object ) * 31 + ((m_sType == null) ? 0 : m_sType.hashCode());
+         return (nHash * 31 + System.identityHashCode( m_data )) * 31 + m_nSequence;
+      }
+   } // Key
+
+   /**
+    * Entry is a queued event and the number of events merged into it.
+    */
+   private static class Entry
+   {
+      private ModelEvent m_event;
+      private int        m_nCount;
+
+      /**
+       * Constructs the entry.
+       *
+       * @param event the first event
+       */
+      Entry( ModelEvent event )
+      {
+         m_event  = event;
+         m_nCount = 1;
+      }
+   } // Entry
+}
@@ -0,0 +1,455 @@
+/* $Id$ */
+/**
+ * Title:       ModelEventBus.java
+ * Description: Asynchronous delivery of model events to opted in listeners.
+ * Copyright:   Copyright (c) 2012
+ * Company:     SAS Institute
+ */
+package com.sas.etl.models.impl;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+
+import com.sas.etl.models.IModel;
+import com.sas.etl.models.IModelListener;
+
+/**
+ * ModelEventBus delivers model events asynchronously to the listeners that
+ * opt in to it.  IModel.fireModelEvent calls its listeners on the thread that
+ * made the change, so an expensive listener, such as validation or a property
+ * tab refresh, stalls the edit.  A listener added with
+ * {@link #addAsyncModelListener} is instead added to the model through a
+ * proxy that queues the events and delivers them, in order, on the listener's
+ * own executor.
+ * <p>
+ * Each asynchronous listener has:
+ * <ul>
+ * <li>an executor, by default a daemon thread of its own,
+ * <li>a bounded queue; when the queue is full the queued events are
+ *     replaced by one IModel.UNKNOWN_CHANGES event, so a listener that can
+ *     not keep up refreshes everything once instead of growing the queue or
+ *     stalling the edit, and
+ * <li>coalescing: an event supersedes a queued event for the same object,
+ *     type and data, and IModel.UNKNOWN_CHANGES supersedes all queued events.
+ * </ul>
+ * The events of one listener are never delivered concurrently, and never on
+ * the thread that fires them.  Code that needs the asynchronous listeners to
+ * have seen all the changes made so far calls {@link #flush}, which waits for
+ * the listeners' executors to deliver the queued events.
+ * <p>
+ * Only the listeners that opt in are affected.  The other listeners, the
+ * undo bookkeeping and the notify events stay synchronous.
+ */
+public final class ModelEventBus
+{
+   /** the default capacity of the queue of a listener */
+   public static final int DEFAULT_CAPACITY = 1000;
+
+   // model to List of AsyncModelListener, weak so an abandoned model drops its listeners
+   private static final Map s_mapListeners = new WeakHashMap();
+
+   /**
+    * Not instantiable.
+    */
+   private ModelEventBus()
+   {
+   }
+
+   /**
+    * Adds a listener to a model that receives the model's events on a thread
+    * of its own.
+    *
+    * @param model the model
+    * @param lsnr  the listener
+    */
+   public static void addAsyncModelListener( IModel model, IModelListener lsnr )
+   {
+      addAsyncModelListener( model, lsnr, null, DEFAULT_CAPACITY );
+   }
+
+   /**
+    * Adds a listener to a model that receives the model's events through an
+    * executor.
+    *
+    * @param model     the model
+    * @param lsnr      the listener
+    * @param executor  the executor that delivers the events or null for a
+    *                  daemon thread of the listener's own
+    * @param nCapacity the maximum number of queued events
+    */
+   public static void addAsyncModelListener( IModel model, IModelListener lsnr, Executor executor, int nCapacity )
+   {
+      if (nCapacity < 1)
+         throw new IllegalArgumentException( "capacity must be at least 1" );   // I18NOK:EMS
+
+      AsyncModelListener async;
+      synchronized (s_mapListeners)
+      {
+         List lListeners = getListeners( model );
+         if (find( lListeners, lsnr ) != null)
+            return;
+         async = new AsyncModelListener( model, lsnr, executor, nCapacity );
+         lListeners.add( async );
+      }
+      model.addModelListener( async );
+   }
+
+   /**
+    * Removes a listener added with addAsyncModelListener.  Events still queued
+    * for the listener are discarded.
+    *
+    * @param model the model
+    * @param lsnr  the listener
+    */
+   public static void removeAsyncModelListener( IModel model, IModelListener lsnr )
+   {
+      AsyncModelListener async;
+      synchronized (s_mapListeners)
+      {
+         List lListeners = getListeners( model );
+         async = find( lListeners, lsnr );
+         if (async == null)
+            return;
+         lListeners.remove( async );
+      }
+      model.removeModelListener( async );
+      async.dispose();
+   }
+
+   /**
+    * Waits until the events queued for the asynchronous listeners of a model
+    * have been delivered.  When this returns, every asynchronous listener has
+    * been told about every change made before the call, unless the calling
+    * thread is interrupted.  A listener that flushes while handling an event
+    * does not wait for itself.
+    * <p>
+    * This must not be called on the thread of a listener's executor, such as
+    * the event dispatch thread for a listener delivered through it, or while
+    * holding the write lock of the model (see ModelLock), because the
+    * listener could then never deliver the events.
+    *
+    * @param model the model
+    */
+   public static void flush( IModel model )
+   {
+      AsyncModelListener[] aListeners;
+      synchronized (s_mapListeners)
+      {
+         List lListeners = getListeners( model );
+         aListeners = (AsyncModelListener[]) lListeners.toArray( new AsyncModelListener[ lListeners.size() ] );
+      }
+      for ( int iListener=0; iListener<aListeners.length; iListener++ )
+         aListeners[ iListener ].flush();
+   }
+
+   /**
+    * Gets the number of events queued for the asynchronous listeners of a
+    * model.
+    *
+    * @param model the model
+    *
+    * @return the number of queued events
+    */
+   public static int getQueuedEventCount( IModel model )
+   {
+      synchronized (s_mapListeners)
+      {
+         int  nEvents    = 0;
+         List lListeners = getListeners( model );
+         for ( int iListener=0; iListener<lListeners.size(); iListener++ )
+            nEvents += ((AsyncModelListener) lListeners.get( iListener )).getQueuedEventCount();
+         return nEvents;
+      }
+   }
+
+   /**
+    * Gets the asynchronous listeners of a model, creating the list if
+    * necessary.  The caller must hold the lock on the listeners map.
+    *
+    * @param model the model
+    *
+    * @return the list of AsyncModelListener
+    */
+   private static List getListeners( IModel model )
+   {
+      List lListeners = (List) s_mapListeners.get( model );
+      if (lListeners == null)
+      {
+         lListeners = new ArrayList();
+         s_mapListeners.put( model, lListeners );
+      }
+      return lListeners;
+   }
+
+   /**
+    * Finds the proxy of a listener.
+    *
+    * @param lListeners the list of AsyncModelListener
+    * @param lsnr       the listener
+    *
+    * @return the proxy or null if the listener was not added
+    */
+   private static AsyncModelListener find( List lListeners, IModelListener lsnr )
+   {
+      for ( int iListener=0; iListener<lListeners.size(); iListener++ )
+      {
+         AsyncModelListener async = (AsyncModelListener) lListeners.get( iListener );
+         if (async.m_lsnr == lsnr)
+            return async;
+      }
+      return null;
+   }
+
+   /**
+    * AsyncModelListener is the proxy added to the model for an asynchronous
+    * listener.
+    */
+   private static class AsyncModelListener implements IModelListener, Runnable
+   {
+      private WeakReference   m_refModel;      // IModel, weak so the listeners map does not hold its key
+      private IModelListener  m_lsnr;
+      private Executor        m_executor;
+      private ExecutorService m_ownExecutor;   // the executor created for the listener, if any
+      private int             m_nCapacity;
+      private LinkedList      m_lQueue;        // ModelEvent in the order fired, also the lock of the proxy
+      private boolean         m_bScheduled;    // true = a delivery task is scheduled or running
+      private boolean         m_bDisposed;
+      private volatile Thread m_threadDelivering;   // the thread running the delivery task, if any
+
+      /**
+       * Constructs the proxy.
+       *
+       * @param model     the model
+       * @param lsnr      the listener
+       * @param executor  the executor or null for a thread of its own
+       * @param nCapacity the maximum number of queued events
+       */
+      AsyncModelListener( IModel model, IModelListener lsnr, Executor executor, int nCapacity )
+      {
+         m_refModel  = new WeakReference( model );
+         m_lsnr      = lsnr;
+         m_nCapacity = nCapacity;
+         m_lQueue    = new LinkedList();
+         if (executor == null)
+         {
+            final String sName = "ModelEventBus-" + lsnr.getClass().getName();   // I18NOK:LINE
+            m_ownExecutor = Executors.newSingleThreadExecutor( new ThreadFactory()
+            {
+               public Thread newThread( Runnable runnable )
+               {
+                  Thread thread = new Thread( runnable, sName );
+                  thread.setDaemon( true );
+                  return thread;
+               }
+            } );
+            executor = m_ownExecutor;
+         }
+         m_executor = executor;
+      }
+
+      /**
+       * Queues a model event.  The firing thread never delivers the event: a
+       * full queue is replaced by one IModel.UNKNOWN_CHANGES event.
+       *
+       * @param ev the model event
+       *
+       * @see com.sas.etl.models.IModelListener#modelChanged(com.sas.etl.models.impl.ModelEvent)
+       */
+      public void modelChanged( ModelEvent ev )
+      {
+         synchronized (m_lQueue)
+         {
+            if (m_bDisposed)
+               return;
+
+            supersede( ev );
+            if (m_lQueue.size() >= m_nCapacity)
+            {
+               // the listener can not keep up, tell it that anything may have changed
+               m_lQueue.clear();
+               ev = new ModelEvent( (IModel) m_refModel.get(), null, IModel.UNKNOWN_CHANGES, null );
+            }
+            m_lQueue.add( ev );
+            if (m_bScheduled)
+               return;
+            m_bScheduled = true;
+         }
+
+         try
+         {
+            m_executor.execute( this );
+         }
+         catch (RejectedExecutionException e)
+         {
+            // the executor was shut down, the events are not delivered
+            synchronized (m_lQueue)
+            {
+               m_lQueue.clear();
+               m_bScheduled = false;
+               m_lQueue.notifyAll();
+            }
+         }
+      }
+
+      /**
+       * Delivers the queued events.  This is the task run by the executor.
+       *
+       * @see java.lang.Runnable#run()
+       */
+      public void run()
+      {
+         Thread threadPrevious = m_threadDelivering;
+         m_threadDelivering = Thread.currentThread();
+         try
+         {
+            while (true)
+            {
+               ModelEvent ev;
+               synchronized (m_lQueue)
+               {
+                  if (m_lQueue.isEmpty())
+                  {
+                     m_bScheduled = false;
+                     m_lQueue.notifyAll();
+                     return;
+                  }
+                  ev = (ModelEvent) m_lQueue.removeFirst();
+               }
+               deliver( ev );
+            }
+         }
+         finally
+         {
+            m_threadDelivering = threadPrevious;
+         }
+      }
+
+      /**
+       * Waits until the queued events have been delivered.
+       */
+      void flush()
+      {
+         // the listener itself may flush while handling an event
+         if (m_threadDelivering == Thread.currentThread())
+            return;
+
+         synchronized (m_lQueue)
+         {
+            while (m_bScheduled && !m_bDisposed)
+            {
+               try
+               {
+                  m_lQueue.wait();
+               }
+               catch (InterruptedException e)
+               {
+                  Thread.currentThread().interrupt();
+                  return;
+               }
+            }
+         }
+      }
+
+      /**
+       * Discards the queued events and stops the listener's own thread.
+       */
+      void dispose()
+      {
+         synchronized (m_lQueue)
+         {
+            m_bDisposed = true;
+            m_lQueue.clear();
+            m_lQueue.notifyAll();
+         }
+         if (m_ownExecutor != null)
+            m_ownExecutor.shutdown();
+      }
+
+      /**
+       * Gets the number of queued events.
+       *
+       * @return the number of events
+       */
+      int getQueuedEventCount()
+      {
+         synchronized (m_lQueue)
+         {
+            return m_lQueue.size();
+         }
+      }
+
+      /**
+       * Delivers an event to the listener.
+       *
+       * @param ev the model event
+       */
+      private void deliver( ModelEvent ev )
+      {
+         boolean bTimed = ModelEventStatistics.isCollecting();
+         long    lOuter = bTimed ? ModelEventStatistics.beginTiming() : 0;
+         long    lStart = bTimed ? System.nanoTime() : 0;
+         try
+         {
+            m_lsnr.modelChanged( ev );
+         }
+         catch (RuntimeException e)
+         {
+            ModelLogger.getDefaultLogger().error( "RuntimeException", e );   // I18NOK:LINE
+         }
+         finally
+         {
+            if (bTimed)
+               ModelEventStatistics.endTiming( m_lsnr.getClass().getName(), lStart, lOuter );
+         }
+      }
+      /**
+       * Does an event supersede all queued events?
+       *
+       * @param ev the model event
+       *
+       * @return true = the event supersedes all queued events
+       */
+      private boolean isSuperseding( ModelEvent ev )
+      {
+         return IModel.UNKNOWN_CHANGES.equals( ev.getType() );
+      }
+
+      /**
+       * Removes the queued events an event supersedes.  The caller must hold
+       * the lock on the queue.
+       *
+       * @param ev the model event
+       */
+      private void supersede( ModelEvent ev )
+      {
+         if (isSuperseding( ev ))
+         {
+            m_lQueue.clear();
+            return;
+         }
+
+         Iterator iter = m_lQueue.iterator();
+         while (iter.hasNext())
+         {
+            ModelEvent evQueued = (ModelEvent) iter.next();
+            if ((evQueued.getModelObject() == ev.getModelObject()) &&
+                ObjectComparator.isEqual( evQueued.getType(), ev.getType() ) &&
+                ObjectComparator.isEqual( evQueued.getData(), ev.getData() ))
+            {
+               iter.remove();
+               return;
+            }
+         }
+      }
+   } // AsyncModelListener
+}
@@ -0,0 +1,464 @@
+/* $Id$ */
+/**
+ * Title:       ModelEventStatistics.java
+ * Description: Counts model and notify events and times their listeners.
+ * Copyright:   Copyright (c) 2012
+ * Company:     SAS Institute
+ */
+package com.sas.etl.models.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.sas.etl.models.IModel;
+import com.sas.etl.models.INotifyListener;
+import com.sas.etl.models.NotifyEvent;
+
+/**
+ * ModelEventStatistics counts the model and notify events fired by model
+ * objects and times the listeners that handle them, to find out which
+ * listeners make edits slow.  It records:
+ * <ul>
+ * <li>the number of model events of each type, such as USER_PROPERTY_SET,
+ * <li>the number of model and notify events fired by each class of object.
+ *     A notify event is counted once, by the object that fired it, not again
+ *     by each ancestor that forwards it up the containment chain, and
+ * <li>for each class of listener, a histogram of the self time it took to
+ *     handle an event: the time of the timed listeners it set off, such as an
+ *     ancestor's listeners reached by forwarding the event, is left out.
+ *     Notify listeners and listeners added to the {@link ModelEventBus} are
+ *     timed one by one.  The model's own listeners are not broken down per
+ *     listener: they are timed together, as "IModel.fireModelEvent", because
+ *     the model dispatches to them itself.
+ * </ul>
+ * Collection is off by default and costs one volatile read per event while
+ * off.  It is switched on with {@link #setEnabled}, or through the MBean
+ * registered with {@link #registerMBean}, and read with {@link #dump}.
+ */
+public final class ModelEventStatistics implements ModelEventStatisticsMBean
+{
+   /** the name the MBean is registered under */
+   public static final String MBEAN_NAME = "com.sas.etl.models:type=ModelEventStatistics";   // I18NOK:LINE
+
+   /** the name the model's listeners are timed under */
+   public static final String MODEL_LISTENERS = "IModel.fireModelEvent";   // I18NOK:LINE
+
+   // bucket i of a histogram counts the times from 2^i to 2^(i+1) nanoseconds
+   private static final int BUCKETS = 40;
+
+   private static volatile boolean s_bEnabled;
+
+   private static final ModelEventStatistics s_instance = new ModelEventStatistics();
+
+   // the time of the timed listeners called by the listener being timed on a thread
+   private static final ThreadLocal s_tlNested = new ThreadLocal()
+   {
+      protected Object initialValue()
+      {
+         return new long[ 1 ];
+      }
+   };
+
+   private Map        m_mapTypeCounts;       // model event type to AtomicLong
+   private Map        m_mapSourceCounts;     // source class name to AtomicLong
+   private Map        m_mapListenerTimes;    // listener name to Histogram
+   private AtomicLong m_lModelEvents;
+   private AtomicLong m_lNotifyEvents;
+
+   /**
+    * Constructs the statistics.
+    */
+   private ModelEventStatistics()
+   {
+      m_mapTypeCounts    = new ConcurrentHashMap();
+      m_mapSourceCounts  = new ConcurrentHashMap();
+      m_mapListenerTimes = new ConcurrentHashMap();
+      m_lModelEvents     = new AtomicLong();
+      m_lNotifyEvents    = new AtomicLong();
+   }
+
+   /**
+    * Gets the statistics.
+    *
+    * @return the statistics
+    */
+   public static ModelEventStatistics getStatistics()
+   {
+      return s_instance;
+   }
+
+   /**
+    * Is the collection of statistics enabled?  This is the check made for
+    * every event, so it is static.
+    *
+    * @return true = statistics are collected
+    */
+   public static boolean isCollecting()
+   {
+      return s_bEnabled;
+   }
+
+   /**
+    * Registers the statistics MBean with the platform MBean server.
+    */
+   public static void registerMBean()
+   {
+      try
+      {
+         MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+         ObjectName  name   = new ObjectName( MBEAN_NAME );
+         if (!server.isRegistered( name ))
+            server.registerMBean( s_instance, name );
+      }
+      catch (JMException e)
+      {
+         ModelLogger.getDefaultLogger().error( "JMException", e );   // I18NOK:LINE
+      }
+   }
+
+   /**
+    * Fires a model event through the model, timing the model's listeners if
+    * statistics are collected.
+    *
+    * @param model the model
+    * @param ev    the model event
+    */
+   static void fireModelEvent( IModel model, ModelEvent ev )
+   {
+      if (!s_bEnabled)
+      {
+         model.fireModelEvent( ev );
+         return;
+      }
+
+      long lOuter = beginTiming();
+      long lStart = System.nanoTime();
+      try
+      {
+         model.fireModelEvent( ev );
+      }
+      finally
+      {
+         endTiming( MODEL_LISTENERS, lStart, lOuter );
+      }
+   }
+
+   /**
+    * Records a model event fired by an object.
+    *
+    * @param ev the model event
+    */
+   static void recordModelEvent( ModelEvent ev )
+   {
+      s_instance.m_lModelEvents.incrementAndGet();
+      increment( s_instance.m_mapTypeCounts, ev.getType() );
+      if (ev.getModelObject() != null)
+         increment( s_instance.m_mapSourceCounts, ev.getModelObject().getClass().getName() );
+   }
+
+   /**
+    * Records a notify event fired by an object.  This is called by the object
+    * the event originates from, not by the objects forwarding it.
+    *
+    * @param source the object firing the event
+    */
+   static void recordNotifyEvent( Object source )
+   {
+      s_instance.m_lNotifyEvents.incrementAndGet();
+      increment( s_instance.m_mapSourceCounts, source.getClass().getName() );
+   }
+
+   /**
+    * Delivers a notify event to a listener and records the time it took.
+    *
+    * @param lsnr the listener
+    * @param ev   the notify event
+    */
+   static void notify( INotifyListener lsnr, NotifyEvent ev )
+   {
+      long lOuter = beginTiming();
+      long lStart = System.nanoTime();
+      try
+      {
+         lsnr.notify( ev );
+      }
+      finally
+      {
+         endTiming( lsnr.getClass().getName(), lStart, lOuter );
+      }
+   }
+
+   /**
+    * Starts timing a listener on the current thread.  The time of the timed
+    * listeners the listener sets off is collected from here on, so it can be
+    * left out of the listener's time.  Call nanoTime after this and pass both
+    * values to {@link #endTiming}.
+    *
+    * @return the nested time collected so far for the enclosing listener
+    */
+   static long beginTiming()
+   {
+      long[] aNested = (long[]) s_tlNested.get();
+      long   lOuter  = aNested[0];
+      aNested[0] = 0;
+      return lOuter;
+   }
+
+   /**
+    * Ends timing a listener on the current thread and records its self time.
+    *
+    * @param sListener the name of the listener
+    * @param lStart    the nanoTime when the listener was called
+    * @param lOuter    the value returned by beginTiming
+    */
+   static void endTiming( String sListener, long lStart, long lOuter )
+   {
+      long[] aNested = (long[]) s_tlNested.get();
+      long   lTotal  = System.nanoTime() - lStart;
+      s_instance.recordListener( sListener, lTotal - aNested[0] );
+      aNested[0] = lOuter + lTotal;
+   }
+
+   /**
+    * Records the time a listener took to handle an event.
+    *
+    * @param sListener the name of the listener
+    * @param lNanos    the time in nanoseconds
+    */
+   void recordListener( String sListener, long lNanos )
+   {
+      Histogram histogram = (Histogram) m_mapListenerTimes.get( sListener );
+      if (histogram == null)
+      {
+         histogram = new Histogram();
+         Histogram previous = (Histogram) ((ConcurrentHashMap) m_mapListenerTimes).putIfAbsent( sListener, histogram );
+         if (previous != null)
+            histogram = previous;
+      }
+      histogram.record( lNanos );
+   }
+
+   /**
+    * Increments a counter in a map of counters.
+    *
+    * @param mapCounts the map of key to AtomicLong
+    * @param key       the key
+    */
+   private static void increment( Map mapCounts, Object key )
+   {
+      if (key == null)
+         return;
+      AtomicLong count = (AtomicLong) mapCounts.get( key );
+      if (count == null)
+      {
+         count = new AtomicLong();
+         AtomicLong previous = (AtomicLong) ((ConcurrentHashMap) mapCounts).putIfAbsent( key, count );
+         if (previous != null)
+            count = previous;
+      }
+      count.incrementAndGet();
+   }
+
+   /**
+    * @see com.sas.etl.models.impl.ModelEventStatisticsMBean#isEnabled()
+    */
+   public boolean isEnabled()
+   {
+      return s_bEnabled;
+   }
+
+   /**
+    * @see com.sas.etl.models.impl.ModelEventStatisticsMBean#setEnabled(boolean)
+    */
+   public void setEnabled( boolean bEnabled )
+   {
+      s_bEnabled = bEnabled;
+   }
+
+   /**
+    * @see com.sas.etl.models.impl.ModelEventStatisticsMBean#getModelEventCount()
+    */
+   public long getModelEventCount()
+   {
+      return m_lModelEvents.get();
+   }
+
+   /**
+    * @see com.sas.etl.models.impl.ModelEventStatisticsMBean#getNotifyEventCount()
+    */
+   public long getNotifyEventCount()
+   {
+      return m_lNotifyEvents.get();
+   }
+
+   /**
+    * Gets the number of model events of a type.
+    *
+    * @param sType the model event type
+    *
+    * @return the number of events
+    */
+   public long getModelEventCount( String sType )
+   {
+      AtomicLong count = (AtomicLong) m_mapTypeCounts.get( sType );
+      return (count == null) ? 0 : count.get();
+   }
+
+   /**
+    * @see com.sas.etl.models.impl.ModelEventStatisticsMBean#getReport()
+    */
+   public String getReport()
+   {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      PrintStream           strm  = new PrintStream( bytes );
+      dump( strm );
+      strm.flush();
+      return bytes.toString();
+   }
+
+   /**
+    * @see com.sas.etl.models.impl.ModelEventStatisticsMBean#reset()
+    */
+   public void reset()
+   {
+      m_mapTypeCounts   .clear();
+      m_mapSourceCounts .clear();
+      m_mapListenerTimes.clear();
+      m_lModelEvents .set( 0 );
+      m_lNotifyEvents.set( 0 );
+   }
+
+   /**
+    * Dumps the statistics, largest counts and slowest listeners first.
+    *
+    * @param strm the stream to dump to
+    */
+   public void dump( PrintStream strm )
+   {
+      DecimalFormat format = new DecimalFormat( "0.000" );   // I18NOK:LINE
+      strm.println( "<ModelEventStatistics enabled=" + s_bEnabled + " modelEvents=" + m_lModelEvents.get() +
+                    " notifyEvents=" + m_lNotifyEvents.get() + ">" );   // I18NOK:LINE
+
+      strm.println( "<EventTypes>" );   // I18NOK:LINE
+      dumpCounts( strm, m_mapTypeCounts );
+      strm.println( "</EventTypes>" );   // I18NOK:LINE
+
+      strm.println( "<SourceClasses>" );   // I18NOK:LINE
+      dumpCounts( strm, m_mapSourceCounts );
+      strm.println( "</SourceClasses>" );   // I18NOK:LINE
+
+      strm.println( "<Listeners>" );   // I18NOK:LINE
+      List lEntries = new ArrayList( m_mapListenerTimes.entrySet() );
+      Collections.sort( lEntries, new Comparator()
+      {
+         public int compare( Object o1, Object o2 )
+         {
+            long l1 = ((Histogram) ((Map.Entry) o1).getValue()).m_lTotal.get();
+            long l2 = ((Histogram) ((Map.Entry) o2).getValue()).m_lTotal.get();
+            return (l1 < l2) ? 1 : ((l1 == l2) ? 0 : -1);
+         }
+      } );
+      for ( int iEntry=0; iEntry<lEntries.size(); iEntry++ )
+      {
+         Map.Entry entry     = (Map.Entry) lEntries.get( iEntry );
+         Histogram histogram = (Histogram) entry.getValue();
+         long      lCount    = histogram.m_lCount.get();
+         strm.println( entry.getKey() + "\tcount=" + lCount +
+                       "\ttotal=" + format.format( histogram.m_lTotal.get() / 1e6 ) + "ms" +
+                       "\tp50<"   + format.format( histogram.getPercentile( 0.50 ) / 1e6 ) + "ms" +
+                       "\tp99<"   + format.format( histogram.getPercentile( 0.99 ) / 1e6 ) + "ms" +
+                       "\tmax="   + format.format( histogram.m_lMax.get() / 1e6 ) + "ms" );   // I18NOK:LINE
+      }
+      strm.println( "</Listeners>" );   // I18NOK:LINE
+      strm.println( "</ModelEventStatistics>" );   // I18NOK:LINE
+   }
+
+   /**
+    * Dumps a map of counters, largest first.
+    *
+    * @param strm      the stream to dump to
+    * @param mapCounts the map of key to AtomicLong
+    */
+   private void dumpCounts( PrintStream strm, Map mapCounts )
+   {
+      List lEntries = new ArrayList( mapCounts.entrySet() );
+      Collections.sort( lEntries, new Comparator()
+      {
+         public int compare( Object o1, Object o2 )
+         {
+            long l1 = ((AtomicLong) ((Map.Entry) o1).getValue()).get();
+            long l2 = ((AtomicLong) ((Map.Entry) o2).getValue()).get();
+            return (l1 < l2) ? 1 : ((l1 == l2) ? 0 : -1);
+         }
+      } );
+      for ( int iEntry=0; iEntry<lEntries.size(); iEntry++ )
+      {
+         Map.Entry entry = (Map.Entry) lEntries.get( iEntry );
+         strm.println( entry.getKey() + "\t" + entry.getValue() );   // I18NOK:LINE
+      }
+   }
+
+   /**
+    * Histogram is a histogram of the times a listener took, in buckets of
+    * powers of two nanoseconds.
+    */
+   private static class Histogram
+   {
+      private AtomicLongArray m_aBuckets = new AtomicLongArray( BUCKETS );
+      private AtomicLong      m_lCount   = new AtomicLong();
+      private AtomicLong      m_lTotal   = new AtomicLong();
+      private AtomicLong      m_lMax     = new AtomicLong();
+
+      /**
+       * Records a time.
+       *
+       * @param lNanos the time in nanoseconds
+       */
+      void record( long lNanos )
+      {
+         int iBucket = (lNanos <= 0) ? 0 : Math.min( 63 - Long.numberOfLeadingZeros( lNanos ), BUCKETS - 1 );
+         m_aBuckets.incrementAndGet( iBucket );
+         m_lCount.incrementAndGet();
+         m_lTotal.addAndGet( lNanos );
+
+         long lMax = m_lMax.get();
+         while (lNanos > lMax && !m_lMax.compareAndSet( lMax, lNanos ))
+            lMax = m_lMax.get();
+      }
+
+      /**
+       * Gets an upper bound of a percentile of the times.
+       *
+       * @param dPercentile the percentile, from 0 to 1
+       *
+       * @return the upper bound of the bucket holding the percentile in
+       *         nanoseconds
+       */
+      long getPercentile( double dPercentile )
+      {
+         long lTarget = (long) Math.ceil( m_lCount.get() * dPercentile );
+         long lSeen   = 0;
+         for ( int iBucket=0; iBucket<BUCKETS; iBucket++ )
+         {
+            lSeen += m_aBuckets.get( iBucket );
+            if (lSeen >= lTarget)
+               return 1L << (iBucket + 1);
+         }
+         return m_lMax.get();
+      }
+   } // Histogram
+}
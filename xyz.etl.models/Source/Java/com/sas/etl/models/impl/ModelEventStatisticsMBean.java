@@ -0,0 +1,56 @@
+/* $Id$ */
+/**
+ * Title:       ModelEventStatisticsMBean.java
+ * Description: The management interface of the model event statistics.
+ * Copyright:   Copyright (c) 2012
+ * Company:     SAS Institute
+ */
+package com.sas.etl.models.impl;
+
+/**
+ * ModelEventStatisticsMBean is the management interface of
+ * {@link ModelEventStatistics}, so the statistics can be switched on and read
+ * from a JMX console while the application runs.
+ */
+public interface ModelEventStatisticsMBean
+{
+   /**
+    * Is the collection of statistics enabled?
+    *
+    * @return true = statistics are collected
+    */
+   boolean isEnabled();
+
+   /**
+    * Sets whether statistics are collected.
+    *
+    * @param bEnabled true = collect statistics
+    */
+   void setEnabled( boolean bEnabled );
+
+   /**
+    * Gets the number of model events fired since the statistics were reset.
+    *
+    * @return the number of model events
+    */
+   long getModelEventCount();
+
+   /**
+    * Gets the number of notify events fired since the statistics were reset.
+    *
+    * @return the number of notify events
+    */
+   long getNotifyEventCount();
+
+   /**
+    * Gets the statistics as text.
+    *
+    * @return the statistics
+    */
+   String getReport();
+
+   /**
+    * Discards the statistics collected so far.
+    */
+   void reset();
+}
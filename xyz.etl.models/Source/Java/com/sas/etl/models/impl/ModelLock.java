@@ -0,0 +1,194 @@
+/* $Id$ */
+/**
+ * Title:       ModelLock.java
+ * Description: Read-write locks for models.
+ * Copyright:   Copyright (c) 2012
+ * Company:     SAS Institute
+ */
+package com.sas.etl.models.impl;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.sas.etl.models.IModel;
+
+/**
+ * ModelLock is the read-write lock of a model.  It keeps background readers
+ * out of the compound edits of a model, not out of every edit:
+ * <ul>
+ * <li>Write regions are the compound edits started through
+ *     {@link BaseObject}, which take the write lock for their whole length,
+ *     and any code wrapped in {@link #beginWrite} and {@link #endWrite}.
+ * <li>Read regions are the code wrapped in {@link #beginRead} and
+ *     {@link #endRead}.  A read region must not edit the model: a thread
+ *     holding the read lock can not take the write lock, and beginWrite
+ *     fails instead of deadlocking.
+ * </ul>
+ * Both locks are reentrant.  Locking is enabled per model with
+ * {@link #setEnabled}; while it is disabled, the regions cost a map lookup
+ * and do not lock.
+ * <p>
+ * The setters of model objects do not take the write lock, so an edit made
+ * outside a compound edit, such as a single setter called on its own, can run
+ * while another thread is in a read region.  A read region therefore only
+ * guarantees a consistent view of a model whose edits are all compound edits.
+ * Background work on any other model reads a snapshot (see JobSnapshot) taken
+ * on the thread that edits the model, and code that must read the model
+ * itself, such as code generation, runs on that thread.
+ * <p>
+ * A listener called on another thread, such as an asynchronous model
+ * listener, must not wait for the read lock while it handles an event,
+ * because the thread firing the event may be waiting for the listener while
+ * holding the write lock.
+ * <p>
+ * Models are held weakly so a discarded model drops its lock.
+ */
+public final class ModelLock
+{
+   // model to State, weak so an abandoned model drops its lock
+   private static final Map s_mapLocks = new WeakHashMap();
+
+   /**
+    * Not instantiable.
+    */
+   private ModelLock()
+   {
+   }
+
+   /**
+    * Sets whether the regions of a model lock.
+    *
+    * @param model    the model
+    * @param bEnabled true = lock
+    */
+   public static void setEnabled( IModel model, boolean bEnabled )
+   {
+      getState( model ).m_bEnabled = bEnabled;
+   }
+
+   /**
+    * Do the regions of a model lock?
+    *
+    * @param model the model
+    *
+    * @return true = the regions lock
+    */
+   public static boolean isEnabled( IModel model )
+   {
+      return getState( model ).m_bEnabled;
+   }
+
+   /**
+    * Starts a read region, waiting for any write region on another thread to
+    * end.  This must be matched by a call to {@link #endRead}.
+    *
+    * @param model the model (may be null)
+    */
+   public static void beginRead( IModel model )
+   {
+      if (model == null)
+         return;
+
+      State state = getState( model );
+      if (state.m_bEnabled)
+         state.m_lock.readLock().lock();
+   }
+
+   /**
+    * Ends a read region.
+    *
+    * @param model the model (may be null)
+    */
+   public static void endRead( IModel model )
+   {
+      if (model == null)
+         return;
+
+      // unlocks only what was locked, in case locking was enabled in the region
+      State state = getState( model );
+      if (state.m_lock.getReadHoldCount() > 0)
+         state.m_lock.readLock().unlock();
+   }
+
+   /**
+    * Starts a write region, waiting for the read regions and any write region
+    * on other threads to end.  This must be matched by a call to
+    * {@link #endWrite}.
+    *
+    * @param model the model (may be null)
+    *
+    * @throws IllegalStateException if the thread is in a read region of the
+    *         model
+    */
+   public static void beginWrite( IModel model )
+   {
+      if (model == null)
+         return;
+
+      State state = getState( model );
+      if (!state.m_bEnabled)
+         return;
+      if (state.m_lock.getReadHoldCount() > 0 && !state.m_lock.isWriteLockedByCurrentThread())
+         throw new IllegalStateException( "the model can not be edited in a read region" );   // I18NOK:EMS
+      state.m_lock.writeLock().lock();
+   }
+
+   /**
+    * Ends a write region.
+    *
+    * @param model the model (may be null)
+    */
+   public static void endWrite( IModel model )
+   {
+      if (model == null)
+         return;
+
+      // unlocks only what was locked, in case locking was enabled in the region
+      State state = getState( model );
+      if (state.m_lock.isWriteLockedByCurrentThread())
+         state.m_lock.writeLock().unlock();
+   }
+
+   /**
+    * Is the current thread in a write region of a model?
+    *
+    * @param model the model
+    *
+    * @return true = the thread holds the write lock
+    */
+   public static boolean isWriting( IModel model )
+   {
+      return getState( model ).m_lock.isWriteLockedByCurrentThread();
+   }
+
+   /**
+    * Gets the lock state of a model, creating it if necessary.
+    *
+    * @param model the model
+    *
+    * @return the state
+    */
+   private static State getState( IModel model )
+   {
+      synchronized (s_mapLocks)
+      {
+         State state = (State) s_mapLocks.get( model );
+         if (state == null)
+         {
+            state = new State();
+            s_mapLocks.put( model, state );
+         }
+         return state;
+      }
+   }
+
+   /**
+    * State is the lock of a model and whether it is used.
+    */
+   private static class State
+   {
+      private volatile boolean        m_bEnabled;
+      private ReentrantReadWriteLock  m_lock = new ReentrantReadWriteLock();
+   } // State
+}
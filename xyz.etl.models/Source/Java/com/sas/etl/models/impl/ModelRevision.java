@@ -0,0 +1,113 @@
+/* $Id$ */
+/**
+ * Title:       ModelRevision.java
+ * Description: Revision counters for models.
+ * Copyright:   Copyright (c) 2012
+ * Company:     SAS Institute
+ */
+package com.sas.etl.models.impl;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import com.sas.etl.models.IModel;
+
+/**
+ * ModelRevision keeps a revision number for each model.  The revision is
+ * incremented whenever an object in the model fires a change or records a
+ * change that fires no event (see BaseObject#incrementModelRevision), so anything
+ * derived from the model can be cached along with the revision it was derived
+ * from and recomputed only when the revision moves on.  Models are held weakly
+ * so a discarded model drops its counter.
+ * <p>
+ * Looking a counter up takes a lock, so objects that change often keep the
+ * counter of their model (see {@link #getCounter(IModel)}) and increment it
+ * directly.
+ */
+public final class ModelRevision
+{
+   // model to Counter, weak so an abandoned model drops its counter
+   private static final Map s_mapRevisions = new WeakHashMap();
+
+   /**
+    * Not instantiable.
+    */
+   private ModelRevision()
+   {
+   }
+
+   /**
+    * Gets the current revision of a model.
+    *
+    * @param model the model (may be null)
+    *
+    * @return the current revision
+    */
+   public static long getRevision( IModel model )
+   {
+      if (model == null)
+         return 0;
+      return getCounter( model ).m_lRevision;
+   }
+
+   /**
+    * Increments the revision of a model.  This is called when an object in the
+    * model changes.
+    *
+    * @param model the model (may be null)
+    */
+   public static void increment( IModel model )
+   {
+      if (model == null)
+         return;
+      getCounter( model ).increment();
+   }
+
+   /**
+    * Gets the counter of a model, creating it if necessary.  The counter stays
+    * the model's counter for the life of the model, so it can be kept.
+    *
+    * @param model the model
+    *
+    * @return the counter
+    */
+   static Counter getCounter( IModel model )
+   {
+      synchronized (s_mapRevisions)
+      {
+         Counter counter = (Counter) s_mapRevisions.get( model );
+         if (counter == null)
+         {
+            counter = new Counter();
+            s_mapRevisions.put( model, counter );
+         }
+         return counter;
+      }
+   }
+
+   /**
+    * Counter is the revision counter of a model.
+    */
+   static final class Counter
+   {
+      private volatile long m_lRevision;
+
+      /**
+       * Increments the revision.
+       */
+      void increment()
+      {
+         m_lRevision++;
+      }
+
+      /**
+       * Gets the revision.
+       *
+       * @return the revision
+       */
+      long getRevision()
+      {
+         return m_lRevision;
+      }
+   } // Counter
+}
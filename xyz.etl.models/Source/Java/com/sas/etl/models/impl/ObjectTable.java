@@ -0,0 +1,342 @@
+/* $Id$ */
+/**
+ * Title:       ObjectTable.java
+ * Description: A table of the objects of a model keyed by numeric id handles.
+ * Copyright:   Copyright (c) 2012
+ * Company:     SAS Institute
+ */
+package com.sas.etl.models.impl;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * ObjectTable is the table of the objects of a model, the store behind
+ * IModel.putObject, getObject and removeObject.  A model holds one entry for
+ * every column, mapping, property and other object it has loaded, and looks
+ * them up by id while loading and while updating the ids after a save, so
+ * the table is kept compact and its lookups avoid hashing and comparing id
+ * strings.
+ * <p>
+ * A metadata id such as "A5XXXXXX.B6000123" is a repository id, a period and
+ * an object id of eight characters.  The table interns the repository ids,
+ * of which a model has a few, into a small index and encodes the object id
+ * in six bits a character, so the id becomes a numeric handle (see
+ * {@link #getHandle}).  The handles are the keys of an open addressing table
+ * of primitive longs, next to an array of the objects.  An id that does not
+ * have that form, such as the id of an object that has not been saved yet,
+ * is kept in a HashMap instead.
+ * <p>
+ * The objects keep their ids as strings for persistence; the table does not
+ * keep the id strings at all.  Like HashMap, the table is not synchronized.
+ */
+public class ObjectTable
+{
+   /** the handle of an id that can not be encoded */
+   public static final long NO_HANDLE = 0;
+
+   private static final int  REPOSITORY_LENGTH = 8;
+   private static final int  OBJECT_LENGTH     = 8;
+   private static final int  ID_LENGTH         = REPOSITORY_LENGTH + 1 + OBJECT_LENGTH;
+   private static final int  BITS_PER_CHAR     = 6;
+   private static final int  OBJECT_BITS       = OBJECT_LENGTH * BITS_PER_CHAR;
+   private static final int  MAX_REPOSITORIES  = 0xFFFF;
+   private static final int  INITIAL_CAPACITY  = 64;
+
+   private long[]   m_aKeys;            // handles, NO_HANDLE = empty slot
+   private Object[] m_aObjects;         // objects, parallel to the handles
+   private int      m_nHandles;         // number of objects keyed by handle
+   private Map      m_mapOther;         // String id to object for other ids
+   private List     m_lRepositories;    // String repository ids by index
+   private Map      m_mapRepositories;  // String repository id to Integer index
+
+   /**
+    * Constructs an empty table.
+    */
+   public ObjectTable()
+   {
+      m_aKeys           = new long[   INITIAL_CAPACITY ];
+      m_aObjects        = new Object[ INITIAL_CAPACITY ];
+      m_mapOther        = new HashMap();
+      m_lRepositories   = new ArrayList();
+      m_mapRepositories = new HashMap();
+   }
+
+   /**
+    * Puts an object in the table, replacing the object that had the id.
+    *
+    * @param sID the id of the object
+    * @param obj the object
+    *
+    * @return the object that had the id or null
+    */
+   public Object put( String sID, Object obj )
+   {
+      long lHandle = encode( sID, true );
+      if (lHandle == NO_HANDLE)
+         return m_mapOther.put( sID, obj );
+
+      int iSlot = find( lHandle );
+      if (m_aKeys[ iSlot ] == lHandle)
+      {
+         Object objOld = m_aObjects[ iSlot ];
+         m_aObjects[ iSlot ] = obj;
+         return objOld;
+      }
+
+      m_aKeys[    iSlot ] = lHandle;
+      m_aObjects[ iSlot ] = obj;
+      m_nHandles++;
+      if (m_nHandles * 2 > m_aKeys.length)
+         resize( m_aKeys.length * 2 );
+      return null;
+   }
+
+   /**
+    * Gets the object that has an id.
+    *
+    * @param sID the id
+    *
+    * @return the object or null if no object has the id
+    */
+   public Object get( String sID )
+   {
+      long lHandle = encode( sID, false );
+      if (lHandle == NO_HANDLE)
+         return m_mapOther.isEmpty() ? null : m_mapOther.get( sID );
+
+      int iSlot = find( lHandle );
+      return (m_aKeys[ iSlot ] == lHandle) ? m_aObjects[ iSlot ] : null;
+   }
+
+   /**
+    * Removes the object that has an id.
+    *
+    * @param sID the id
+    *
+    * @return the object removed or null if no object had the id
+    */
+   public Object remove( String sID )
+   {
+      long lHandle = encode( sID, false );
+      if (lHandle == NO_HANDLE)
+         return m_mapOther.isEmpty() ? null : m_mapOther.remove( sID );
+
+      int iSlot = find( lHandle );
+      if (m_aKeys[ iSlot ] != lHandle)
+         return null;
+
+      Object objOld = m_aObjects[ iSlot ];
+      delete( iSlot );
+      m_nHandles--;
+      return objOld;
+   }
+
+   /**
+    * Gets the number of objects in the table.
+    *
+    * @return the number of objects
+    */
+   public int size()
+   {
+      return m_nHandles + m_mapOther.size();
+   }
+
+   /**
+    * Removes all the objects.  The interned repository ids are kept.
+    */
+   public void clear()
+   {
+      m_aKeys    = new long[   INITIAL_CAPACITY ];
+      m_aObjects = new Object[ INITIAL_CAPACITY ];
+      m_nHandles = 0;
+      m_mapOther.clear();
+   }
+
+   /**
+    * Gets the handle of an id.  The handle is the same for every copy of the
+    * id string, and the table looks objects up by it.
+    *
+    * @param sID the id
+    *
+    * @return the handle or NO_HANDLE if the id is not a metadata id or its
+    *         repository is not in the table
+    */
+   public long getHandle( String sID )
+   {
+      return encode( sID, false );
+   }
+
+   /**
+    * Gets the id of a handle.
+    *
+    * @param lHandle the handle
+    *
+    * @return the id
+    */
+   public String getID( long lHandle )
+   {
+      int          iRepository = (int) (lHandle >>> OBJECT_BITS) - 1;
+      StringBuffer sb          = new StringBuffer( ID_LENGTH );
+      sb.append( (String) m_lRepositories.get( iRepository ) ).append( '.' );
+      for ( int iChar=OBJECT_LENGTH-1; iChar>=0; iChar-- )
+         sb.append( decodeChar( (int) (lHandle >>> (iChar * BITS_PER_CHAR)) & 0x3F ) );
+      return sb.toString();
+   }
+
+   /**
+    * Encodes an id as a handle.  The top bits are the index of the repository
+    * id plus one, so a handle is never NO_HANDLE, and the low bits are the
+    * characters of the object id.
+    *
+    * @param sID       the id
+    * @param bRegister true = intern the repository id if it is not interned
+    *
+    * @return the handle or NO_HANDLE
+    */
+   private long encode( String sID, boolean bRegister )
+   {
+      if (sID == null || sID.length() != ID_LENGTH || sID.charAt( REPOSITORY_LENGTH ) != '.')
+         return NO_HANDLE;
+
+      long lObject = 0;
+      for ( int iChar=REPOSITORY_LENGTH+1; iChar<ID_LENGTH; iChar++ )
+      {
+         int iCode = encodeChar( sID.charAt( iChar ) );
+         if (iCode == 0)
+            return NO_HANDLE;
+         lObject = (lObject << BITS_PER_CHAR) | iCode;
+      }
+
+      String  sRepository = sID.substring( 0, REPOSITORY_LENGTH );
+      Integer index       = (Integer) m_mapRepositories.get( sRepository );
+      if (index == null)
+      {
+         if (!bRegister || m_lRepositories.size() >= MAX_REPOSITORIES)
+            return NO_HANDLE;
+         index = new Integer( m_lRepositories.size() );
+         m_lRepositories  .add( sRepository );
+         m_mapRepositories.put( sRepository, index );
+      }
+
+      return ((long) (index.intValue() + 1) << OBJECT_BITS) | lObject;
+   }
+
+   /**
+    * Encodes a character of an object id in six bits.
+    *
+    * @param c the character
+    *
+    * @return the code, 1 to 63, or 0 if the character can not be encoded
+    */
+   private static int encodeChar( char c )
+   {
+      if (c >= '0' && c <= '9')
+         return c - '0' + 1;
+      if (c >= 'A' && c <= 'Z')
+         return c - 'A' + 11;
+      if (c >= 'a' && c <= 'z')
+         return c - 'a' + 37;
+      if (c == '$')
+         return 63;
+      return 0;
+   }
+
+   /**
+    * Decodes a character of an object id.
+    *
+    * @param iCode the code, 1 to 63
+    *
+    * @return the character
+    */
+   private static char decodeChar( int iCode )
+   {
+      if (iCode <= 10)
+         return (char) ('0' + iCode - 1);
+      if (iCode <= 36)
+         return (char) ('A' + iCode - 11);
+      if (iCode <= 62)
+         return (char) ('a' + iCode - 37);
+      return '$';
+   }
+
+   /**
+    * Finds the slot of a handle or the empty slot where it goes.
+    *
+    * @param lHandle the handle
+    *
+    * @return the slot
+    */
+   private int find( long lHandle )
+   {
+      int iMask = m_aKeys.length - 1;
+      int iSlot = hash( lHandle ) & iMask;
+      while (m_aKeys[ iSlot ] != NO_HANDLE && m_aKeys[ iSlot ] != lHandle)
+         iSlot = (iSlot + 1) & iMask;
+      return iSlot;
+   }
+
+   /**
+    * Empties a slot and moves the handles after it that probed past it back,
+    * so that every handle can still be found without tombstones.
+    *
+    * @param iSlot the slot
+    */
+   private void delete( int iSlot )
+   {
+      int iMask = m_aKeys.length - 1;
+      int iHole = iSlot;
+      int iNext = (iSlot + 1) & iMask;
+      while (m_aKeys[ iNext ] != NO_HANDLE)
+      {
+         int iHome = hash( m_aKeys[ iNext ] ) & iMask;
+         // move the handle if its home slot is not between the hole and it
+         if (((iNext - iHome) & iMask) >= ((iNext - iHole) & iMask))
+         {
+            m_aKeys[    iHole ] = m_aKeys[    iNext ];
+            m_aObjects[ iHole ] = m_aObjects[ iNext ];
+            iHole = iNext;
+         }
+         iNext = (iNext + 1) & iMask;
+      }
+      m_aKeys[    iHole ] = NO_HANDLE;
+      m_aObjects[ iHole ] = null;
+   }
+
+   /**
+    * Rehashes the handles into new arrays.
+    *
+    * @param nCapacity the new capacity, a power of two
+    */
+   private void resize( int nCapacity )
+   {
+      long[]   aKeys    = m_aKeys;
+      Object[] aObjects = m_aObjects;
+      m_aKeys    = new long[   nCapacity ];
+      m_aObjects = new Object[ nCapacity ];
+      for ( int iSlot=0; iSlot<aKeys.length; iSlot++ )
+      {
+         if (aKeys[ iSlot ] == NO_HANDLE)
+            continue;
+         int iNew = find( aKeys[ iSlot ] );
+         m_aKeys[    iNew ] = aKeys[    iSlot ];
+         m_aObjects[ iNew ] = aObjects[ iSlot ];
+      }
+   }
+
+   /**
+    * Spreads the bits of a handle.  Object ids are handed out in sequence, so
+    * the low bits alone would cluster.
+    *
+    * @param lHandle the handle
+    *
+    * @return the hash
+    */
+   private static int hash( long lHandle )
+   {
+      long l = lHandle * 0x9E3779B97F4A7C15L;
+      return (int) (l ^ (l >>> 32));
+   }
+}
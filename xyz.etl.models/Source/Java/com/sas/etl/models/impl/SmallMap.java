@@ -0,0 +1,381 @@
+/* $Id$ */
+/**
+ * Title:       SmallMap.java
+ * Description: A map that stores a few entries in an array.
+ * Copyright:   Copyright (c) 2012
+ * Company:     SAS Institute
+ */
+package com.sas.etl.models.impl;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * SmallMap is a map for the many model objects that hold zero to a few
+ * entries, such as user properties and the property trackers of persistable
+ * objects.  Up to {@link #MAX_INLINE} entries are stored as keys and values
+ * in one array, which is searched linearly, and an empty map shares one
+ * empty array.  The map is promoted to a HashMap when it grows past that, and
+ * goes back to the array when it is cleared.
+ * <p>
+ * Like HashMap, the map allows null keys and values and is not synchronized.
+ * The entries returned by the iterator of the entry set hold the key and
+ * value they had when they were returned, so an entry kept after the map
+ * changes still reports its own key; setValue writes through to the map
+ * while the entry's key is in it.
+ */
+public class SmallMap extends AbstractMap
+{
+   /** the maximum number of entries stored in the array */
+   public static final int MAX_INLINE = 8;
+
+   private static final Object[] EMPTY = new Object[ 0 ];
+
+   private Object[] m_aEntries;   // key, value, key, value, ... while not promoted
+   private int      m_nSize;      // number of entries in the array
+   private Map      m_mapHash;    // the entries once promoted
+   private int      m_nModCount;  // structural modifications of the array
+
+   /**
+    * Constructs an empty map.
+    */
+   public SmallMap()
+   {
+      m_aEntries = EMPTY;
+   }
+
+   /**
+    * @see java.util.Map#size()
+    */
+   public int size()
+   {
+      return (m_mapHash != null) ? m_mapHash.size() : m_nSize;
+   }
+
+   /**
+    * @see java.util.Map#isEmpty()
+    */
+   public boolean isEmpty()
+   {
+      return size() == 0;
+   }
+
+   /**
+    * @see java.util.Map#containsKey(java.lang.Object)
+    */
+   public boolean containsKey( Object key )
+   {
+      if (m_mapHash != null)
+         return m_mapHash.containsKey( key );
+      return indexOf( key ) != -1;
+   }
+
+   /**
+    * @see java.util.Map#get(java.lang.Object)
+    */
+   public Object get( Object key )
+   {
+      if (m_mapHash != null)
+         return m_mapHash.get( key );
+      int iKey = indexOf( key );
+      return (iKey == -1) ? null : m_aEntries[ iKey + 1 ];
+   }
+
+   /**
+    * @see java.util.Map#put(java.lang.Object, java.lang.Object)
+    */
+   public Object put( Object key, Object value )
+   {
+      if (m_mapHash != null)
+         return m_mapHash.put( key, value );
+
+      int iKey = indexOf( key );
+      if (iKey != -1)
+      {
+         Object oldValue = m_aEntries[ iKey + 1 ];
+         m_aEntries[ iKey + 1 ] = value;
+         return oldValue;
+      }
+
+      if (m_nSize == MAX_INLINE)
+      {
+         promote();
+         return m_mapHash.put( key, value );
+      }
+
+      if (m_nSize * 2 == m_aEntries.length)
+      {
+         Object[] aEntries = new Object[ (m_nSize == 0) ? 4 : m_nSize * 4 ];
+         System.arraycopy( m_aEntries, 0, aEntries, 0, m_nSize * 2 );
+         m_aEntries = aEntries;
+      }
+      m_aEntries[ m_nSize * 2     ] = key;
+      m_aEntries[ m_nSize * 2 + 1 ] = value;
+      m_nSize++;
+      m_nModCount++;
+      return null;
+   }
+
+   /**
+    * @see java.util.Map#remove(java.lang.Object)
+    */
+   public Object remove( Object key )
+   {
+      if (m_mapHash != null)
+         return m_mapHash.remove( key );
+
+      int iKey = indexOf( key );
+      if (iKey == -1)
+         return null;
+      Object oldValue = m_aEntries[ iKey + 1 ];
+      removeAt( iKey );
+      return oldValue;
+   }
+
+   /**
+    * Removes all the entries and goes back to the shared empty array.
+    *
+    * @see java.util.Map#clear()
+    */
+   public void clear()
+   {
+      m_mapHash  = null;
+      m_aEntries = EMPTY;
+      m_nSize    = 0;
+      m_nModCount++;
+   }
+
+   /**
+    * Are the entries stored in the array, that is, has the map not been
+    * promoted to a HashMap since it was created or last cleared?
+    *
+    * @return true = the entries are stored in the array
+    */
+   public boolean isInline()
+   {
+      return m_mapHash == null;
+   }
+
+   /**
+    * @see java.util.Map#entrySet()
+    */
+   public Set entrySet()
+   {
+      if (m_mapHash != null)
+         return m_mapHash.entrySet();
+      return new EntrySet();
+   }
+
+   /**
+    * Gets the index in the array of a key.
+    *
+    * @param key the key
+    *
+    * @return the index of the key or -1 if the key is not in the array
+    */
+   private int indexOf( Object key )
+   {
+      for ( int iKey=0; iKey<m_nSize*2; iKey+=2 )
+      {
+         Object keyEntry = m_aEntries[ iKey ];
+         if ((keyEntry == key) || ((key != null) && key.equals( keyEntry )))
+            return iKey;
+      }
+      return -1;
+   }
+
+   /**
+    * Removes the entry at an index in the array.
+    *
+    * @param iKey the index of the entry's key
+    */
+   private void removeAt( int iKey )
+   {
+      int nLast = m_nSize * 2 - 2;
+      System.arraycopy( m_aEntries, iKey + 2, m_aEntries, iKey, nLast - iKey );
+      m_aEntries[ nLast     ] = null;
+      m_aEntries[ nLast + 1 ] = null;
+      m_nSize--;
+      m_nModCount++;
+   }
+
+   /**
+    * Moves the entries from the array to a hash map.
+    */
+   private void promote()
+   {
+      Map mapHash = new HashMap( MAX_INLINE * 4 );
+      for ( int iKey=0; iKey<m_nSize*2; iKey+=2 )
+         mapHash.put( m_aEntries[ iKey ], m_aEntries[ iKey + 1 ] );
+      m_mapHash  = mapHash;
+      m_aEntries = EMPTY;
+      m_nSize    = 0;
+      m_nModCount++;
+   }
+
+   /**
+    * EntrySet is the view of the entries in the array.
+    */
+   private class EntrySet extends AbstractSet
+   {
+      /**
+       * @see java.util.AbstractCollection#size()
+       */
+      public int size()
+      {
+         return SmallMap.this.size();
+      }
+
+      /**
+       * @see java.util.AbstractCollection#iterator()
+       */
+      public Iterator iterator()
+      {
+         if (m_mapHash != null)
+            return m_mapHash.entrySet().iterator();
+         return new EntryIterator();
+      }
+   } // EntrySet
+
+   /**
+    * EntryIterator iterates over the entries in the array.
+    */
+   private class EntryIterator implements Iterator
+   {
+      private int m_iNext     = 0;    // index of the next key
+      private int m_iLast     = -1;   // index of the key last returned
+      private int m_nExpected = m_nModCount;
+
+      /**
+       * @see java.util.Iterator#hasNext()
+       */
+      public boolean hasNext()
+      {
+         return m_iNext < m_nSize * 2;
+      }
+
+      /**
+       * @see java.util.Iterator#next()
+       */
+      public Object next()
+      {
+         if (m_nExpected != m_nModCount)
+            throw new ConcurrentModificationException();
+         if (!hasNext())
+            throw new NoSuchElementException();
+         m_iLast  = m_iNext;
+         m_iNext += 2;
+         return new Entry( m_iLast );
+      }
+
+      /**
+       * @see java.util.Iterator#remove()
+       */
+      public void remove()
+      {
+         if (m_iLast == -1)
+            throw new IllegalStateException();
+         if (m_nExpected != m_nModCount)
+            throw new ConcurrentModificationException();
+         removeAt( m_iLast );
+         m_iNext     = m_iLast;
+         m_iLast     = -1;
+         m_nExpected = m_nModCount;
+      }
+   } // EntryIterator
+
+   /**
+    * Entry is an entry returned by the iterator over the array.  It holds the
+    * key and value the entry had when it was returned and writes setValue
+    * through to the map while its key is in the map.
+    */
+   private class Entry implements Map.Entry
+   {
+      private Object m_key;
+      private Object m_value;
+
+      /**
+       * Constructs the entry.
+       *
+       * @param iKey the index of the entry's key
+       */
+      Entry( int iKey )
+      {
+         m_key   = m_aEntries[ iKey ];
+         m_value = m_aEntries[ iKey + 1 ];
+      }
+
+      /**
+       * @see java.util.Map.Entry#getKey()
+       */
+      public Object getKey()
+      {
+         return m_key;
+      }
+
+      /**
+       * @see java.util.Map.Entry#getValue()
+       */
+      public Object getValue()
+      {
+         return m_value;
+      }
+
+      /**
+       * @see java.util.Map.Entry#setValue(java.lang.Object)
+       */
+      public Object setValue( Object value )
+      {
+         Object oldValue = m_value;
+         m_value = value;
+         if (m_mapHash != null)
+         {
+            if (m_mapHash.containsKey( m_key ))
+               m_mapHash.put( m_key, value );
+         }
+         else
+         {
+            int iKey = indexOf( m_key );
+            if (iKey != -1)
+               m_aEntries[ iKey + 1 ] = value;
+         }
+         return oldValue;
+      }
+
+      /**
+       * @see java.lang.Object#equals(java.lang.Object)
+       */
+      public boolean equals( Object object )
+      {
+         if (!(object instanceof Map.Entry))
+            return false;
+         Map.Entry entry = (Map.Entry) object;
+         return ObjectComparator.isEqual( getKey(), entry.getKey() ) &&
+                ObjectComparator.isEqual( getValue(), entry.getValue() );
+      }
+
+      /**
+       * @see java.lang.Object#hashCode()
+       */
+      public int hashCode()
+      {
+         Object key   = getKey();
+         Object value = getValue();
+         return ((key == null) ? 0 : key.hashCode()) ^ ((value == null) ? 0 : value.hashCode());
+      }
+
+      /**
+       * @see java.lang.Object#toString()
+       */
+      public String toString()
+      {
+         return getKey() + "=" + getValue();   // I18NOK:LINE
+      }
+   } // Entry
+}
@@ -0,0 +1,399 @@
+/* $Id$ */
+/**
+ * Title:       UndoHistory.java
+ * Description: A bounded undo history: an undo manager with a memory budget.
+ * Copyright:   Copyright (c) 2012
+ * Company:     SAS Institute
+ */
+package com.sas.etl.models.impl;
+
+import java.io.PrintStream;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import javax.swing.undo.UndoManager;
+import javax.swing.undo.UndoableEdit;
+
+/**
+ * UndoHistory is an undo manager bounded by memory instead of by the number
+ * of edits.  Every setter of a model object records an undoable edit, so a
+ * large propagation records tens of thousands of them, and an undo manager
+ * limited by count either keeps all of them or throws away whole user
+ * actions at random sizes.
+ * <p>
+ * The history estimates the memory held by each edit when it is added.  The
+ * estimate counts the edit's fields and the values the edit owns, such as
+ * strings, arrays, collections and child edits, but not the model objects
+ * it refers to, which are shared with the model.  When the estimated
+ * footprint goes over the budget, the oldest edits are discarded until it is
+ * not.  The most recent edit is always kept, and every edit that is kept is
+ * undone and redone as the user made it.  The count limit of UndoManager is
+ * not used.
+ * <p>
+ * The history only bounds the edits; it does not make them smaller.  Edits
+ * are kept as the model records them, one object per setter call, and old
+ * history is discarded, not collapsed into snapshots.  The estimate is a
+ * rough count of the edit's own fields, so the budget is approximate.
+ * <p>
+ * UndoHistory is an UndoManager, so it plugs in wherever an editor creates
+ * the undo manager it registers as the undoable edit listener of a model;
+ * the model's compound undoables reach it as one CompoundEdit per user
+ * action.
+ */
+public class UndoHistory extends UndoManager
+{
+   /** the default memory budget in bytes */
+   public static final long DEFAULT_BUDGET = 16 * 1024 * 1024;
+
+   // estimated sizes in bytes of the parts of an object
+   private static final int OBJECT_HEADER = 16;
+   private static final int REFERENCE     = 8;
+   private static final int MAX_DEPTH     = 8;
+
+   // class to Field[] of the instance fields of the class and its superclasses
+   private static final Map s_mapFields = new HashMap();
+
+   private long m_lBudget;
+   private long m_lFootprint;      // estimated bytes held by the edits
+   private Map  m_mapSizes;        // UndoableEdit to Long estimated bytes
+   private int  m_nDiscarded;      // number of edits discarded for the budget
+
+   /**
+    * Constructs the undo history with the default budget.
+    */
+   public UndoHistory()
+   {
+      this( DEFAULT_BUDGET );
+   }
+
+   /**
+    * Constructs the undo history.
+    *
+    * @param lBudget the memory budget in bytes
+    */
+   public UndoHistory( long lBudget )
+   {
+      m_lBudget  = lBudget;
+      m_mapSizes = new IdentityHashMap();
+      super.setLimit( Integer.MAX_VALUE );
+   }
+
+   /**
+    * Sets the memory budget.  The history is trimmed to the new budget
+    * immediately.
+    *
+    * @param lBudget the memory budget in bytes
+    */
+   public synchronized void setMemoryBudget( long lBudget )
+   {
+      m_lBudget = lBudget;
+      trimForBudget();
+   }
+
+   /**
+    * Gets the memory budget.
+    *
+    * @return the memory budget in bytes
+    */
+   public synchronized long getMemoryBudget()
+   {
+      return m_lBudget;
+   }
+
+   /**
+    * Gets the estimated memory held by the edits.
+    *
+    * @return the estimated footprint in bytes
+    */
+   public synchronized long getFootprint()
+   {
+      return m_lFootprint;
+   }
+
+   /**
+    * Gets the number of edits in the history.
+    *
+    * @return the number of edits
+    */
+   public synchronized int getEditCount()
+   {
+      return edits.size();
+   }
+
+   /**
+    * The undo history is limited by memory, not by a number of edits.
+    *
+    * @param nLimit ignored
+    *
+    * @see javax.swing.undo.UndoManager#setLimit(int)
+    */
+   public synchronized void setLimit( int nLimit )
+   {
+   }
+
+   /**
+    * Adds an edit to the history and trims the history to the budget.
+    *
+    * @param edit the edit
+    *
+    * @return true = the edit was added
+    *
+    * @see javax.swing.undo.UndoManager#addEdit(javax.swing.undo.UndoableEdit)
+    */
+   public synchronized boolean addEdit( UndoableEdit edit )
+   {
+      // drop the edits that can be redone first so the edit added is last
+      trimEdits( indexOfNextAdd, edits.size() - 1 );
+
+      UndoableEdit editLast = lastEdit();
+      boolean      bAdded   = super.addEdit( edit );
+      if (!bAdded)
+         return false;
+
+      UndoableEdit editNewLast = lastEdit();
+      if ((editNewLast == editLast) && (editLast != null))
+      {
+         // absorbed by the last edit, such as a compound edit in progress
+         remember( editLast, forget( editLast ) + estimate( edit ) );
+      }
+      else
+      {
+         // added or replaced the last edit
+         if (editLast != null && !containsLast( editLast ))
+            forget( editLast );
+         remember( edit, estimate( edit ) );
+      }
+
+      trimForBudget();
+      return true;
+   }
+
+   /**
+    * Discards all the edits.
+    *
+    * @see javax.swing.undo.UndoManager#discardAllEdits()
+    */
+   public synchronized void discardAllEdits()
+   {
+      super.discardAllEdits();
+      m_mapSizes.clear();
+      m_lFootprint = 0;
+      m_nDiscarded = 0;
+   }
+
+   /**
+    * Removes a range of edits, forgetting their sizes.
+    *
+    * @param iFrom the index of the first edit to remove
+    * @param iTo   the index of the last edit to remove
+    *
+    * @see javax.swing.undo.UndoManager#trimEdits(int, int)
+    */
+   protected void trimEdits( int iFrom, int iTo )
+   {
+      for ( int iEdit=iFrom; iEdit<=iTo; iEdit++ )
+         forget( (UndoableEdit) edits.elementAt( iEdit ) );
+      super.trimEdits( iFrom, iTo );
+   }
+
+   /**
+    * Dumps the footprint of the history.
+    *
+    * @param strm the stream to dump to
+    */
+   public synchronized void dump( PrintStream strm )
+   {
+      strm.println( "<UndoHistory edits=" + edits.size() + " undoable=" + indexOfNextAdd +
+                    " footprint=" + m_lFootprint + " budget=" + m_lBudget +
+                    " discarded=" + m_nDiscarded + "/>" );   // I18NOK:LINE
+   }
+
+   /**
+    * Discards the oldest edits until the footprint is within the budget.
+    */
+   private void trimForBudget()
+   {
+      while (m_lFootprint > m_lBudget && indexOfNextAdd > 1)
+      {
+         m_nDiscarded++;
+         trimEdits( 0, 0 );
+      }
+   }
+
+   /**
+    * Is an edit the last or second to last edit?
+    *
+    * @param edit the edit
+    *
+    * @return true = the edit is at the end of the edits
+    */
+   private boolean containsLast( UndoableEdit edit )
+   {
+      int nEdits = edits.size();
+      return (nEdits > 0 && edits.elementAt( nEdits - 1 ) == edit) ||
+             (nEdits > 1 && edits.elementAt( nEdits - 2 ) == edit);
+   }
+
+   /**
+    * Records the size of an edit.
+    *
+    * @param edit  the edit
+    * @param lSize the estimated size in bytes
+    */
+   private void remember( UndoableEdit edit, long lSize )
+   {
+      m_mapSizes.put( edit, new Long( lSize ) );
+      m_lFootprint += lSize;
+   }
+
+   /**
+    * Forgets the size of an edit.
+    *
+    * @param edit the edit
+    *
+    * @return the size the edit had or 0 if its size was not recorded
+    */
+   private long forget( UndoableEdit edit )
+   {
+      Long size = (Long) m_mapSizes.remove( edit );
+      if (size == null)
+         return 0;
+      m_lFootprint -= size.longValue();
+      return size.longValue();
+   }
+
+   /**
+    * Estimates the memory held by an edit.
+    *
+    * @param edit the edit
+    *
+    * @return the estimated size in bytes
+    */
+   static long estimate( UndoableEdit edit )
+   {
+      return estimate( edit, 0 );
+   }
+
+   /**
+    * Estimates the memory owned by a value.  Strings, boxed primitives,
+    * arrays, collections, maps and undoable edits are owned; other objects
+    * are shared with the model and only cost the reference to them.
+    *
+    * @param value  the value
+    * @param nDepth the depth of the value from the edit
+    *
+    * @return the estimated size in bytes
+    */
+   private static long estimate( Object value, int nDepth )
+   {
+      if (value == null || nDepth > MAX_DEPTH)
+         return 0;
+
+      if (value instanceof String)
+         return OBJECT_HEADER + 24 + 2 * ((String) value).length();
+      if (value instanceof Number || value instanceof Boolean || value instanceof Character)
+         return OBJECT_HEADER + REFERENCE;
+
+      if (value.getClass().isArray())
+      {
+         int  nLength = Array.getLength( value );
+         long lSize   = OBJECT_HEADER + REFERENCE * (long) nLength;
+         if (!value.getClass().getComponentType().isPrimitive())
+         {
+            for ( int i=0; i<nLength; i++ )
+               lSize += estimate( Array.get( value, i ), nDepth + 1 );
+         }
+         return lSize;
+      }
+
+      if (value instanceof Collection)
+      {
+         long     lSize = OBJECT_HEADER * 2 + REFERENCE * (long) ((Collection) value).size();
+         Iterator iter  = ((Collection) value).iterator();
+         while (iter.hasNext())
+            lSize += estimate( iter.next(), nDepth + 1 );
+         return lSize;
+      }
+
+      if (value instanceof Map)
+      {
+         long     lSize = OBJECT_HEADER * 2 + (OBJECT_HEADER + 3 * REFERENCE) * (long) ((Map) value).size();
+         Iterator iter  = ((Map) value).entrySet().iterator();
+         while (iter.hasNext())
+         {
+            Map.Entry entry = (Map.Entry) iter.next();
+            lSize += estimate( entry.getKey(),   nDepth + 1 );
+            lSize += estimate( entry.getValue(), nDepth + 1 );
+         }
+         return lSize;
+      }
+
+      if (!(value instanceof UndoableEdit))
+         return 0;
+
+      Field[] aFields = getFields( value.getClass() );
+      long    lSize   = OBJECT_HEADER + REFERENCE * (long) aFields.length;
+      for ( int iField=0; iField<aFields.length; iField++ )
+      {
+         if (aFields[ iField ].getType().isPrimitive())
+            continue;
+         try
+         {
+            lSize += estimate( aFields[ iField ].get( value ), nDepth + 1 );
+         }
+         catch (IllegalAccessException e)
+         {
+            // not accessible, count the reference only
+         }
+      }
+      return lSize;
+   }
+
+   /**
+    * Gets the instance fields of a class and its superclasses.
+    *
+    * @param cls the class
+    *
+    * @return the fields, made accessible where allowed
+    */
+   private static Field[] getFields( Class cls )
+   {
+      synchronized (s_mapFields)
+      {
+         Field[] aFields = (Field[]) s_mapFields.get( cls );
+         if (aFields != null)
+            return aFields;
+
+         List lFields = new ArrayList();
+         for ( Class clsField=cls; clsField!=null && clsField!=Object.class; clsField=clsField.getSuperclass() )
+         {
+            Field[] aDeclared = clsField.getDeclaredFields();
+            for ( int iField=0; iField<aDeclared.length; iField++ )
+            {
+               if (Modifier.isStatic( aDeclared[ iField ].getModifiers() ))
+                  continue;
+               try
+               {
+                  aDeclared[ iField ].setAccessible( true );
+               }
+               catch (SecurityException e)
+               {
+                  // estimated as a reference only
+               }
+               lFields.add( aDeclared[ iField ] );
+            }
+         }
+         aFields = (Field[]) lFields.toArray( new Field[ lFields.size() ] );
+         s_mapFields.put( cls, aFields );
+         return aFields;
+      }
+   }
+}
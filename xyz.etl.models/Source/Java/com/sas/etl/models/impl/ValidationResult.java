@@ -0,0 +1,97 @@
+/* $Id$ */
+/**
+ * Title:       ValidationResult.java
+ * Description: The result of validating an object.
+ * Copyright:   Copyright (c) 2012
+ * Company:     SAS Institute
+ */
+package com.sas.etl.models.impl;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * ValidationResult records whether an object is complete, the reasons it is
+ * incomplete and its warnings, as of a revision of the object's model.  The
+ * result is computed once and shared by everything that needs to know the
+ * object's state (code generation, diagram indicators, property tabs) until
+ * the model changes.
+ *
+ * @see BaseObject#getValidationResult()
+ */
+public class ValidationResult
+{
+   private long    m_lRevision;
+   private boolean m_bComplete;
+   private List    m_lReasons;
+   private boolean m_bWarnings;
+   private List    m_lWarnings;
+
+   /**
+    * Constructs the validation result.
+    *
+    * @param lRevision the revision of the model the result was computed from
+    * @param bComplete true = the object is complete
+    * @param lReasons  the reasons the object is incomplete (Strings)
+    * @param bWarnings true = the object has warnings
+    * @param lWarnings the object's warnings (Strings)
+    */
+   public ValidationResult( long lRevision, boolean bComplete, List lReasons, boolean bWarnings, List lWarnings )
+   {
+      m_lRevision = lRevision;
+      m_bComplete = bComplete;
+      m_lReasons  = Collections.unmodifiableList( lReasons  );
+      m_bWarnings = bWarnings;
+      m_lWarnings = Collections.unmodifiableList( lWarnings );
+   }
+
+   /**
+    * Gets the revision of the model the result was computed from.
+    *
+    * @return the model revision
+    */
+   public long getRevision()
+   {
+      return m_lRevision;
+   }
+
+   /**
+    * Is the object complete?
+    *
+    * @return true = the object is complete
+    */
+   public boolean isComplete()
+   {
+      return m_bComplete;
+   }
+
+   /**
+    * Gets the reasons the object is incomplete.
+    *
+    * @return an unmodifiable list of Strings that are the reasons
+    */
+   public List getReasonsIncomplete()
+   {
+      return m_lReasons;
+   }
+
+   /**
+    * Does the object have warnings?
+    *
+    * @return true = the object has warnings
+    */
+   public boolean hasWarnings()
+   {
+      return m_bWarnings;
+   }
+
+   /**
+    * Gets the object's warnings.
+    *
+    * @return an unmodifiable list of Strings that are the warnings
+    */
+   public List getWarnings()
+   {
+      return m_lWarnings;
+   }
+}
@@ -0,0 +1,307 @@
+/* $Id$ */
+/**
+ * Title:       WeakListeners.java
+ * Description: Weakly held notify and model listeners and a leak report.
+ * Copyright:   Copyright (c) 2012
+ * Company:     SAS Institute
+ */
+package com.sas.etl.models.impl;
+
+import java.io.PrintStream;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import com.sas.etl.models.IModel;
+import com.sas.etl.models.IModelListener;
+import com.sas.etl.models.INotifyListener;
+import com.sas.etl.models.NotifyEvent;
+
+/**
+ * WeakListeners registers listeners that do not keep themselves alive.
+ * Editors, adapters and property tabs that listen to model objects are
+ * otherwise reachable from the objects, and through them from the model,
+ * until they remember to remove themselves, so a closed editor keeps its
+ * whole job graph in memory for the rest of the session.
+ * <p>
+ * A weak listener is added through a proxy that holds the listener weakly.
+ * When the listener has been garbage collected, the proxy removes itself the
+ * next time an event is dispatched to it.  Notify listeners are added weakly
+ * with {@link BaseObject#addWeakNotifyListener} and model listeners with
+ * {@link #addWeakModelListener}.  Removing the listener itself removes the
+ * weak registration.
+ * <p>
+ * Disposed objects are remembered weakly, so {@link #dumpLeaks} can list the
+ * listeners still attached to objects that have been disposed, which are the
+ * listeners that forgot to remove themselves.
+ */
+public final class WeakListeners
+{
+   // model to List of WeakModelListener, weak so an abandoned model drops its listeners
+   private static final Map s_mapModelListeners = new WeakHashMap();
+
+   // disposed objects, weak so the report does not keep them alive
+   private static final Map s_mapDisposed       = new WeakHashMap();
+
+   /**
+    * Not instantiable.
+    */
+   private WeakListeners()
+   {
+   }
+
+   /**
+    * Adds a model listener that is held weakly by the model.
+    *
+    * @param model the model
+    * @param lsnr  the listener
+    */
+   public static void addWeakModelListener( IModel model, IModelListener lsnr )
+   {
+      WeakModelListener weak;
+      synchronized (s_mapModelListeners)
+      {
+         List lListeners = getModelListeners( model );
+         if (findModelListener( lListeners, lsnr ) != null)
+            return;
+         weak = new WeakModelListener( model, lsnr );
+         lListeners.add( weak );
+      }
+      model.addModelListener( weak );
+   }
+
+   /**
+    * Removes a model listener added with addWeakModelListener.
+    *
+    * @param model the model
+    * @param lsnr  the listener
+    */
+   public static void removeWeakModelListener( IModel model, IModelListener lsnr )
+   {
+      WeakModelListener weak;
+      synchronized (s_mapModelListeners)
+      {
+         List lListeners = getModelListeners( model );
+         weak = findModelListener( lListeners, lsnr );
+         if (weak == null)
+            return;
+         lListeners.remove( weak );
+      }
+      model.removeModelListener( weak );
+   }
+
+   /**
+    * Removes the weak model listeners of a model whose listeners have been
+    * garbage collected.
+    *
+    * @param model the model
+    *
+    * @return the number of listeners removed
+    */
+   public static int purgeModelListeners( IModel model )
+   {
+      List lPurged = new ArrayList();
+      synchronized (s_mapModelListeners)
+      {
+         Iterator iter = getModelListeners( model ).iterator();
+         while (iter.hasNext())
+         {
+            WeakModelListener weak = (WeakModelListener) iter.next();
+            if (weak.m_ref.get() == null)
+            {
+               iter.remove();
+               lPurged.add( weak );
+            }
+         }
+      }
+      for ( int iListener=0; iListener<lPurged.size(); iListener++ )
+         model.removeModelListener( (IModelListener) lPurged.get( iListener ) );
+      return lPurged.size();
+   }
+
+   /**
+    * Records that an object has been disposed.
+    *
+    * @param object the object
+    */
+   static void disposed( BaseObject object )
+   {
+      synchronized (s_mapDisposed)
+      {
+         s_mapDisposed.put( object, null );
+      }
+   }
+
+   /**
+    * Dumps the listeners still attached to disposed objects that are still
+    * in memory.  Weak listeners that have been garbage collected are not
+    * listed.
+    *
+    * @param strm the stream to dump to
+    *
+    * @return the number of listeners listed
+    */
+   public static int dumpLeaks( PrintStream strm )
+   {
+      BaseObject[] aObjects;
+      synchronized (s_mapDisposed)
+      {
+         aObjects = (BaseObject[]) s_mapDisposed.keySet().toArray( new BaseObject[ s_mapDisposed.size() ] );
+      }
+
+      int nLeaks = 0;
+      strm.println( "<ListenerLeaks>" );   // I18NOK:LINE
+      for ( int iObject=0; iObject<aObjects.length; iObject++ )
+      {
+         INotifyListener[] aListeners = aObjects[ iObject ].getNotifyListeners();
+         for ( int iListener=0; iListener<aListeners.length; iListener++ )
+         {
+            INotifyListener lsnr = aListeners[ iListener ];
+            if (lsnr instanceof WeakNotifyListener)
+            {
+               lsnr = ((WeakNotifyListener) lsnr).getListener();
+               if (lsnr == null)
+                  continue;
+            }
+            strm.println( aObjects[ iObject ] + "\t" + lsnr.getClass().getName() + "\t" + lsnr );   // I18NOK:LINE
+            nLeaks++;
+         }
+      }
+      strm.println( "</ListenerLeaks>" );   // I18NOK:LINE
+      return nLeaks;
+   }
+
+   /**
+    * Gets the weak model listeners of a model, creating the list if
+    * necessary.  The caller must hold the lock on the listeners map.
+    *
+    * @param model the model
+    *
+    * @return the list of WeakModelListener
+    */
+   private static List getModelListeners( IModel model )
+   {
+      List lListeners = (List) s_mapModelListeners.get( model );
+      if (lListeners == null)
+      {
+         lListeners = new ArrayList();
+         s_mapModelListeners.put( model, lListeners );
+      }
+      return lListeners;
+   }
+
+   /**
+    * Finds the proxy of a model listener.
+    *
+    * @param lListeners the list of WeakModelListener
+    * @param lsnr       the listener
+    *
+    * @return the proxy or null if the listener was not added
+    */
+   private static WeakModelListener findModelListener( List lListeners, IModelListener lsnr )
+   {
+      for ( int iListener=0; iListener<lListeners.size(); iListener++ )
+      {
+         WeakModelListener weak = (WeakModelListener) lListeners.get( iListener );
+         if (weak.m_ref.get() == lsnr)
+            return weak;
+      }
+      return null;
+   }
+
+   /**
+    * WeakNotifyListener is the proxy added to an object for a weak notify
+    * listener.
+    */
+   static class WeakNotifyListener implements INotifyListener
+   {
+      private WeakReference m_ref;      // the INotifyListener
+      private BaseObject    m_object;   // the object listened to
+
+      /**
+       * Constructs the proxy.
+       *
+       * @param object the object listened to
+       * @param lsnr   the listener
+       */
+      WeakNotifyListener( BaseObject object, INotifyListener lsnr )
+      {
+         m_ref    = new WeakReference( lsnr );
+         m_object = object;
+      }
+
+      /**
+       * Gets the listener.
+       *
+       * @return the listener or null if it has been garbage collected
+       */
+      INotifyListener getListener()
+      {
+         return (INotifyListener) m_ref.get();
+      }
+
+      /**
+       * Forwards the notify event to the listener or removes the proxy if the
+       * listener has been garbage collected.
+       *
+       * @param ev the notify event
+       *
+       * @see com.sas.etl.models.INotifyListener#notify(com.sas.etl.models.NotifyEvent)
+       */
+      public void notify( NotifyEvent ev )
+      {
+         INotifyListener lsnr = getListener();
+         if (lsnr == null)
+            m_object.removeNotifyListener( this );
+         else
+            lsnr.notify( ev );
+      }
+   } // WeakNotifyListener
+
+   /**
+    * WeakModelListener is the proxy added to a model for a weak model
+    * listener.
+    */
+   private static class WeakModelListener implements IModelListener
+   {
+      private WeakReference m_ref;     // the IModelListener
+      private WeakReference m_model;   // the IModel, weak so the map of listeners can drop it
+
+      /**
+       * Constructs the proxy.
+       *
+       * @param model the model
+       * @param lsnr  the listener
+       */
+      WeakModelListener( IModel model, IModelListener lsnr )
+      {
+         m_ref   = new WeakReference( lsnr );
+         m_model = new WeakReference( model );
+      }
+
+      /**
+       * Forwards the model event to the listener or removes the proxy if the
+       * listener has been garbage collected.
+       *
+       * @param ev the model event
+       *
+       * @see com.sas.etl.models.IModelListener#modelChanged(com.sas.etl.models.impl.ModelEvent)
+       */
+      public void modelChanged( ModelEvent ev )
+      {
+         IModelListener lsnr = (IModelListener) m_ref.get();
+         if (lsnr != null)
+         {
+            lsnr.modelChanged( ev );
+            return;
+         }
+
+         IModel model = (IModel) m_model.get();
+         if (model != null)
+            purgeModelListeners( model );
+      }
+   } // WeakModelListener
+}
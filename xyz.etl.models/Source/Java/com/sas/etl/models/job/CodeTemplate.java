@@ -0,0 +1,415 @@
+/* $Id$ */
+/**
+ * Title:       CodeTemplate.java
+ * Description: A precompiled skeleton of generated code with named slots.
+ * Copyright:   Copyright (c) 2012
+ * Company:     SAS Institute
+ */
+package com.sas.etl.models.job;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * CodeTemplate is a skeleton of generated code that is parsed once, typically
+ * into a static field when the transform's class is loaded, and then rendered
+ * straight into a code segment for each step.  Rendering adds the template's
+ * constant text and the slot values to the code segment without building any
+ * intermediate strings.
+ * <p>
+ * The template text is made of lines:
+ * <ul>
+ * <li><code>${name}</code> anywhere in a line is a slot that is replaced by
+ *     the slot's value, a String or a StringBuffer.
+ * <li>The leading spaces of a line give its indentation: each indent width of
+ *     spaces (3 by default) is one level of indentation relative to the
+ *     indentation of the code segment when rendering starts.
+ * <li>A line ending with a backslash is not ended, so the next line continues
+ *     it.  The indentation of a continuing line is ignored.  An empty line
+ *     only ends the current line.
+ * <li>The lines between <code>#if name</code> and <code>#end</code> are only
+ *     rendered when the slot's value is not null and not empty.  Sections can
+ *     be nested.
+ * </ul>
+ * For example:
+ * <pre>
+ * proc sort data = &amp;SYSLAST
+ * #if options
+ *       (${options})
+ * #end
+ *    out = ${target};
+ * </pre>
+ * The values are passed in an array indexed by slot number.  The slot numbers
+ * are looked up by name once, with {@link #getSlot(String)}.
+ * <p>
+ * Code generators that do not write to a code segment render the template
+ * into an {@link ICodeTarget}, with the indentation given as text.
+ */
+public class CodeTemplate
+{
+   /** the default number of spaces per level of indentation */
+   public static final int DEFAULT_INDENT_WIDTH = 3;
+
+   private static final int OP_LEVEL   = 0;   // set the indentation level to the argument
+   private static final int OP_TEXT    = 1;   // add the constant text
+   private static final int OP_SLOT    = 2;   // add the value of the slot in the argument
+   private static final int OP_NEWLINE = 3;   // end the line
+   private static final int OP_IF      = 4;   // jump when the slot in the argument is empty
+
+   private static final String NEWLINE = "\n";   // I18NOK:LINE
+
+   private int[]    m_aOps;
+   private int[]    m_aArgs;
+   private int[]    m_aJumps;    // op index to jump to for OP_IF
+   private String[] m_aTexts;    // constant text for OP_TEXT
+   private List     m_lSlots;    // slot names in slot number order
+
+   /**
+    * Constructs a template with the default indent width.
+    *
+    * @param sTemplate the template text
+    */
+   public CodeTemplate( String sTemplate )
+   {
+      this( sTemplate, DEFAULT_INDENT_WIDTH );
+   }
+
+   /**
+    * Constructs a template.
+    *
+    * @param sTemplate    the template text
+    * @param nIndentWidth the number of leading spaces per level of indentation
+    *
+    * @throws IllegalArgumentException if the template is malformed
+    */
+   public CodeTemplate( String sTemplate, int nIndentWidth )
+   {
+      m_lSlots = new ArrayList();
+
+      List     lOps       = new ArrayList();   // Op
+      List     lIfs       = new ArrayList();   // Op of the open #if sections
+      int      nSection   = 0;                 // index of the first op of the current section
+      boolean  bContinued = false;
+      String[] aLines     = sTemplate.split( NEWLINE, -1 );
+      for ( int iLine=0; iLine<aLines.length; iLine++ )
+      {
+         String sLine    = aLines[iLine];
+         String sTrimmed = sLine.trim();
+
+         if (sTrimmed.startsWith( "#if " ))   // I18NOK:LINE
+         {
+            Op op = new Op( OP_IF, getSlot( sTrimmed.substring( 4 ).trim(), true ), null );
+            lOps.add( op );
+            lIfs.add( op );
+            nSection = lOps.size();
+            continue;
+         }
+         if (sTrimmed.equals( "#end" ))   // I18NOK:LINE
+         {
+            if (lIfs.isEmpty())
+               throw new IllegalArgumentException( "#end without #if in line " + (iLine + 1) );   // I18NOK:EMS
+            ((Op) lIfs.remove( lIfs.size() - 1 )).m_iJump = lOps.size();
+            nSection = lOps.size();
+            continue;
+         }
+
+         // the text after the last line of the template is not a line
+         if ((iLine == aLines.length - 1) && (sLine.length() == 0))
+            break;
+
+         int nSpaces = 0;
+         while ((nSpaces < sLine.length()) && (sLine.charAt( nSpaces ) == ' '))
+            nSpaces++;
+         if (!bContinued && (nSpaces < sLine.length()))
+            lOps.add( new Op( OP_LEVEL, nSpaces / nIndentWidth, null ) );
+
+         String sText = bContinued ? sLine : sLine.substring( nSpaces );
+         bContinued = sText.endsWith( "\\" );
+         if (bContinued)
+            sText = sText.substring( 0, sText.length() - 1 );
+
+         addText( lOps, sText );
+         if (!bContinued)
+            addNewline( lOps, nSection );
+      }
+      if (!lIfs.isEmpty())
+         throw new IllegalArgumentException( "#if without #end" );   // I18NOK:EMS
+
+      int nOps = lOps.size();
+      m_aOps   = new int[    nOps ];
+      m_aArgs  = new int[    nOps ];
+      m_aJumps = new int[    nOps ];
+      m_aTexts = new String[ nOps ];
+      for ( int iOp=0; iOp<nOps; iOp++ )
+      {
+         Op op = (Op) lOps.get( iOp );
+         m_aOps[   iOp ] = op.m_eOp;
+         m_aArgs[  iOp ] = op.m_iArg;
+         m_aJumps[ iOp ] = op.m_iJump;
+         m_aTexts[ iOp ] = op.m_sText;
+      }
+   }
+
+   /**
+    * Adds the ops for a line's text and slots.
+    *
+    * @param lOps  the ops
+    * @param sText the text of the line
+    */
+   private void addText( List lOps, String sText )
+   {
+      int iStart = 0;
+      while (iStart < sText.length())
+      {
+         int iSlot = sText.indexOf( "${", iStart );   // I18NOK:LINE
+         if (iSlot < 0)
+         {
+            lOps.add( new Op( OP_TEXT, 0, sText.substring( iStart ) ) );
+            return;
+         }
+
+         int iEnd = sText.indexOf( '}', iSlot );
+         if (iEnd < 0)
+            throw new IllegalArgumentException( "unterminated slot: " + sText );   // I18NOK:EMS
+         if (iSlot > iStart)
+            lOps.add( new Op( OP_TEXT, 0, sText.substring( iStart, iSlot ) ) );
+         lOps.add( new Op( OP_SLOT, getSlot( sText.substring( iSlot + 2, iEnd ).trim(), true ), null ) );
+         iStart = iEnd + 1;
+      }
+   }
+
+   /**
+    * Adds the op that ends a line.  The line end is merged into the preceding
+    * constant text of the same section, so most lines are added to the code
+    * segment at once.
+    *
+    * @param lOps     the ops
+    * @param nSection the index of the first op of the current section
+    */
+   private void addNewline( List lOps, int nSection )
+   {
+      Op last = (lOps.size() > nSection) ? (Op) lOps.get( lOps.size() - 1 ) : null;
+      if ((last != null) && (last.m_eOp == OP_TEXT))
+         last.m_sText = last.m_sText + NEWLINE;
+      else
+         lOps.add( new Op( OP_NEWLINE, 0, null ) );
+   }
+
+   /**
+    * Gets the number of a slot, optionally adding the slot.
+    *
+    * @param sName the slot's name
+    * @param bAdd  true = add the slot if the template does not have it yet
+    *
+    * @return the slot number or -1 if there is no such slot
+    */
+   private int getSlot( String sName, boolean bAdd )
+   {
+      int iSlot = m_lSlots.indexOf( sName );
+      if ((iSlot < 0) && bAdd)
+      {
+         m_lSlots.add( sName );
+         iSlot = m_lSlots.size() - 1;
+      }
+      return iSlot;
+   }
+
+   /**
+    * Gets the number of a slot.
+    *
+    * @param sName the slot's name
+    *
+    * @return the slot number
+    *
+    * @throws IllegalArgumentException if the template has no such slot
+    */
+   public int getSlot( String sName )
+   {
+      int iSlot = getSlot( sName, false );
+      if (iSlot < 0)
+         throw new IllegalArgumentException( "no slot named " + sName );   // I18NOK:EMS
+      return iSlot;
+   }
+
+   /**
+    * Gets the number of slots.  The values passed to render are an array of
+    * this size.
+    *
+    * @return the number of slots
+    */
+   public int getSlotCount()
+   {
+      return m_lSlots.size();
+   }
+
+   /**
+    * Renders the template into a code segment.  The code segment's
+    * indentation is the same after rendering as before.
+    *
+    * @param codeSegment the code segment
+    * @param aValues     the slot values (String or StringBuffer) by slot number
+    *
+    * @return the code segment
+    */
+   public ICodeSegment render( ICodeSegment codeSegment, Object[] aValues )
+   {
+      int nLevel = 0;
+      for ( int iOp=0; iOp<m_aOps.length; iOp++ )
+      {
+         switch (m_aOps[ iOp ])
+         {
+            case OP_LEVEL:
+               for ( ; nLevel<m_aArgs[ iOp ]; nLevel++ )
+                  codeSegment.indent();
+               for ( ; nLevel>m_aArgs[ iOp ]; nLevel-- )
+                  codeSegment.unIndent();
+               break;
+
+            case OP_TEXT:
+               codeSegment.addSourceCode( m_aTexts[ iOp ] );
+               break;
+
+            case OP_SLOT:
+               Object value = aValues[ m_aArgs[ iOp ] ];
+               if (value instanceof StringBuffer)
+                  codeSegment.addSourceCode( (StringBuffer) value );
+               else if (value != null)
+                  codeSegment.addSourceCode( (String) value );
+               break;
+
+            case OP_NEWLINE:
+               codeSegment.addSourceCode( NEWLINE );
+               break;
+
+            case OP_IF:
+               if (isEmpty( aValues[ m_aArgs[ iOp ] ] ))
+                  iOp = m_aJumps[ iOp ] - 1;
+               break;
+         }
+      }
+
+      for ( ; nLevel>0; nLevel-- )
+         codeSegment.unIndent();
+      return codeSegment;
+   }
+
+   /**
+    * Renders the template into a code target, for code generators that do not
+    * write to a code segment.  Each level of indentation is rendered as the
+    * indent string.
+    *
+    * @param target  the code target
+    * @param aValues the slot values (String or StringBuffer) by slot number
+    * @param sIndent the text of one level of indentation
+    *
+    * @return the code target
+    */
+   public ICodeTarget render( ICodeTarget target, Object[] aValues, String sIndent )
+   {
+      int     nLevel     = 0;
+      boolean bLineStart = true;
+      for ( int iOp=0; iOp<m_aOps.length; iOp++ )
+      {
+         switch (m_aOps[ iOp ])
+         {
+            case OP_LEVEL:
+               nLevel = m_aArgs[ iOp ];
+               break;
+
+            case OP_TEXT:
+               if (bLineStart)
+                  addIndent( target, sIndent, nLevel );
+               target.addSourceCode( m_aTexts[ iOp ] );
+               bLineStart = m_aTexts[ iOp ].endsWith( NEWLINE );
+               break;
+
+            case OP_SLOT:
+               Object value = aValues[ m_aArgs[ iOp ] ];
+               if (isEmpty( value ))
+                  break;
+               if (bLineStart)
+                  addIndent( target, sIndent, nLevel );
+               target.addSourceCode( value.toString() );
+               bLineStart = false;
+               break;
+
+            case OP_NEWLINE:
+               target.addSourceCode( NEWLINE );
+               bLineStart = true;
+               break;
+
+            case OP_IF:
+               if (isEmpty( aValues[ m_aArgs[ iOp ] ] ))
+                  iOp = m_aJumps[ iOp ] - 1;
+               break;
+         }
+      }
+      return target;
+   }
+
+   /**
+    * Adds the indentation of a level.
+    *
+    * @param target  the code target
+    * @param sIndent the text of one level of indentation
+    * @param nLevel  the level
+    */
+   private void addIndent( ICodeTarget target, String sIndent, int nLevel )
+   {
+      for ( int i=0; i<nLevel; i++ )
+         target.addSourceCode( sIndent );
+   }
+
+   /**
+    * Is a slot value empty?
+    *
+    * @param value the value
+    *
+    * @return true = the value is null or has no characters
+    */
+   private static boolean isEmpty( Object value )
+   {
+      if (value instanceof StringBuffer)
+         return ((StringBuffer) value).length() == 0;
+      return (value == null) || (((String) value).length() == 0);
+   }
+
+   /**
+    * ICodeTarget receives the code of a template rendered with the
+    * indentation given as text.
+    */
+   public interface ICodeTarget
+   {
+      /**
+       * Adds code.
+       *
+       * @param sCode the code
+       */
+      void addSourceCode( String sCode );
+   } // ICodeTarget
+
+   /**
+    * Op is an operation of a template while it is parsed.
+    */
+   private static class Op
+   {
+      private int    m_eOp;
+      private int    m_iArg;
+      private int    m_iJump;
+      private String m_sText;
+
+      /**
+       * Constructs an op.
+       *
+       * @param eOp   the operation
+       * @param iArg  the argument
+       * @param sText the constant text
+       */
+      public Op( int eOp, int iArg, String sText )
+      {
+         m_eOp   = eOp;
+         m_iArg  = iArg;
+         m_sText = sText;
+      }
+   } // Op
+}
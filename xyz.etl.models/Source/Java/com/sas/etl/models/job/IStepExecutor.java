@@ -0,0 +1,44 @@
+/* $Id$ */
+/**
+ * Title:       IStepExecutor.java
+ * Description: The interface that describes an executor of simulated job steps.
+ * Copyright:   Copyright (c) 2012
+ * Company:     SAS Institute
+ */
+package com.sas.etl.models.job;
+
+import com.sas.etl.models.data.IDataObject;
+
+/**
+ * IStepExecutor describes something that runs, or models the running of, a
+ * step of a job during a simulated run of the job.  The simulator asks the
+ * executor how long each step takes and how many rows it writes, so jobs can
+ * be benchmarked without a SAS server.
+ */
+public interface IStepExecutor
+{
+   /** the row count used when the number of rows is not known */
+   static final long UNKNOWN_ROWS = -1;
+
+   /**
+    * Executes a step.
+    *
+    * @param step        the step
+    * @param aSourceRows the number of rows in each of the step's data sources
+    *                    or UNKNOWN_ROWS
+    * @param aTargetRows filled in with the number of rows written to each of
+    *                    the step's data targets
+    *
+    * @return the time the step took in seconds
+    */
+   double execute( ITransform step, long[] aSourceRows, long[] aTargetRows );
+
+   /**
+    * Gets the average length of a row of a table in bytes.
+    *
+    * @param table the table
+    *
+    * @return the row length in bytes
+    */
+   long getRowLength( IDataObject table );
+}
@@ -0,0 +1,28 @@
+/* $Id$ */
+/**
+ * Title:       IStepRuntimeEstimator.java
+ * Description: The interface that describes a source of step runtime estimates.
+ * Copyright:   Copyright (c) 2012
+ * Company:     SAS Institute
+ */
+package com.sas.etl.models.job;
+
+/**
+ * IStepRuntimeEstimator describes a source of runtime estimates for the steps
+ * of a job, such as the runtimes measured by previous runs.  The estimates are
+ * used to order and schedule the steps.
+ */
+public interface IStepRuntimeEstimator
+{
+   /** the estimate returned when the runtime of a step is not known */
+   static final double UNKNOWN_RUNTIME = -1;
+
+   /**
+    * Gets the estimated runtime of a step.
+    *
+    * @param step the step
+    *
+    * @return the estimated runtime in seconds or UNKNOWN_RUNTIME
+    */
+   double getEstimatedRuntime( ITransform step );
+}
@@ -0,0 +1,30 @@
+/* $Id$ */
+/**
+ * Title:       ITableRowCountEstimator.java
+ * Description: The interface that describes a source of table row count estimates.
+ * Copyright:   Copyright (c) 2012
+ * Company:     SAS Institute
+ */
+package com.sas.etl.models.job;
+
+import com.sas.etl.models.data.IPhysicalTable;
+
+/**
+ * ITableRowCountEstimator describes a source of row count estimates for
+ * tables, such as statistics collected by previous runs of a job.  Code
+ * generation uses the estimates to make cost based decisions.
+ */
+public interface ITableRowCountEstimator
+{
+   /** the estimate returned when the row count of a table is not known */
+   static final long UNKNOWN_ROW_COUNT = -1;
+
+   /**
+    * Gets the estimated number of rows in a table.
+    *
+    * @param table the table
+    *
+    * @return the estimated number of rows or UNKNOWN_ROW_COUNT
+    */
+   long getEstimatedRowCount( IPhysicalTable table );
+}
@@ -0,0 +1,45 @@
+/* $Id$ */
+/**
+ * Title:       IValidationExecutor.java
+ * Description: The interface that describes an executor of validation programs.
+ * Copyright:   Copyright (c) 2012
+ * Company:     SAS Institute
+ */
+package com.sas.etl.models.job;
+
+import com.sas.etl.models.ServerException;
+import com.sas.etl.models.other.IServer;
+
+/**
+ * IValidationExecutor describes something that supplies the code generation
+ * environments and runs the programs of a job-wide validation.  The validator
+ * generates the validation code of the steps one after another, each step in
+ * its own environment, and then submits one combined program to each server.
+ */
+public interface IValidationExecutor
+{
+   /**
+    * Creates a code generation environment for generating validation code
+    * that runs on a server.  The environment's current server must be the
+    * specified server, so that no remote submit code is generated for steps
+    * that run on it.  The environment is used by one thread only.
+    *
+    * @param server the server
+    *
+    * @return the code generation environment
+    */
+   ICodeGenerationEnvironment createEnvironment( IServer server );
+
+   /**
+    * Submits a validation program to a server and waits for it to end.  This
+    * may be called concurrently for different servers.
+    *
+    * @param server the server
+    * @param sCode  the program
+    *
+    * @return the SAS log of the program
+    *
+    * @throws ServerException
+    */
+   String submit( IServer server, String sCode ) throws ServerException;
+}
@@ -20,6 +20,7 @@ import org.apache.commons.lang.StringUtils;
 
 import com.sas.etl.models.IModel;
 import com.sas.etl.models.data.impl.AbstractParametersContainer;
+import com.sas.etl.models.impl.ChangeTrackedModelList;
 import com.sas.etl.models.impl.ModelList;
 import com.sas.etl.models.impl.OMRAdapter;
 import com.sas.etl.models.job.IConditionActionSetContainer;
@@ -55,7 +56,7 @@ public abstract class AbstractConditionActionSetContainer extends AbstractParame
    public AbstractConditionActionSetContainer(String sID, IModel model)
    {
       super(sID, model);
-      m_lConditionActionSets = new ModelList( this, new String[]{ CONDITIONACTIONSET_ADDED, CONDITIONACTIONSET_REMOVED }, ModelList.SAVE_AS_OWNER_OF_OBJECTS, IConditionActionSet.class );
+      m_lConditionActionSets = new ChangeTrackedModelList( this, new String[]{ CONDITIONACTIONSET_ADDED, CONDITIONACTIONSET_REMOVED }, ModelList.SAVE_AS_OWNER_OF_OBJECTS, IConditionActionSet.class );
       m_lDefinedConditionActionSetUniqueIds = new ArrayList();
       m_lTemplateConditionActionSets = new ArrayList();
    }
@@ -260,6 +261,7 @@ public abstract class AbstractConditionActionSetContainer extends AbstractParame
         if (set != null && getConditionActionSetsList().indexOf(set) == -1)	
            getConditionActionSetsList().add(set);
       }  
+      syncChangeTrackedChildren();
       setChanged(false);
    }
     
@@ -294,19 +296,17 @@ public abstract class AbstractConditionActionSetContainer extends AbstractParame
    }   
    
    /**
-    * Is the table changed?  This method is overridden to check all the columns
-    * to see if one has changed.
+    * Gets the children whose changed state is part of the object's changed 
+    * state, which include the condition action sets.
     * 
-    * @return true the condition action set is changed.
+    * @param lChildren the list the children are added to
     * 
-    * @see com.sas.etl.models.IObject#isChanged()
+    * @see com.sas.etl.models.impl.BaseObject#getChangeTrackedChildren(java.util.List)
     */
-   public boolean isChanged()
+   protected void getChangeTrackedChildren( List lChildren )
    {
-      if (super.isChanged() || m_lConditionActionSets.isChanged())
-         return true;
-      
-      return false;
+      super.getChangeTrackedChildren( lChildren );
+      lChildren.addAll( m_lConditionActionSets );
    }
 }
 
@@ -93,6 +93,9 @@ implements IDataTransform
    // custom option names
    private static final String INCLUDED_IN_MAPPING       = "IncludedInMapping";
    private static final String INCLUDED_IN_PROPAGATION   = "IncludedInPropagation";
+   private static final String DELETE_WORK_TABLES_AFTER_LAST_USE = "DeleteWorkTablesAfterLastUse";
+   private static final String ROW_COUNT_STRATEGY        = "RowCountStrategy";
+   private static final String ROW_COUNT_SAMPLE_SIZE     = "RowCountSampleSize";
         
    // custom list names
    private static final String COLUMNS_EXCLUDED_FROM_MAPPING_NAME       = "ColumnsExcludedFromMapping"; 
@@ -129,6 +132,9 @@ implements IDataTransform
    private boolean m_bIncludedInMapping;
    private boolean m_collectSourceTableRowCounts;  // default
    private boolean m_collectTargetTableRowCounts;
+   private boolean m_bDeleteWorkTablesAfterLastUse;
+   private int     m_iRowCountStrategy;
+   private long    m_lRowCountSampleSize;
 
    private String m_sClassifierMapID;
    private String m_sGenerateFormatsInformats;
@@ -147,6 +153,27 @@ implements IDataTransform
    
    private static final String[] DBI_DIRECT_VALUES = {BLANK, DBI_DIRECT_EXEC, NO_DBI_DIRECT_EXEC};
    
+   /** row count strategy: count every row of the table */
+   public static final int ROW_COUNT_EXACT    = 0;
+   /** row count strategy: use the row count the engine keeps, never read the table; 
+    *  the count is -1 for views and for DBMS tables, whose engines keep no count */
+   public static final int ROW_COUNT_METADATA = 1;
+   /** row count strategy: use the engine's row count when it keeps one, otherwise count a sample of rows */
+   public static final int ROW_COUNT_SAMPLED  = 2;
+   
+   /** the default number of rows read by the sampled row count strategy */
+   public static final long DEFAULT_ROW_COUNT_SAMPLE_SIZE = 1000000;
+   
+   private static final String ROW_COUNT_MACRO_VARIABLE = "etls_recnt";   // I18NOK:LINE
+   private static final String ROW_COUNT_METADATA_MACRO = "etls_rowCountMetadata";   // I18NOK:LINE
+   
+   /** event type: the delete work tables after last use attribute changed */
+   public static final String DELETE_WORK_TABLES_AFTER_LAST_USE_CHANGED = "DataTransform:DeleteWorkTablesAfterLastUseChanged";   // I18NOK:EMS
+   /** event type: the row count strategy changed */
+   public static final String ROW_COUNT_STRATEGY_CHANGED                = "DataTransform:RowCountStrategyChanged";                // I18NOK:EMS
+   /** event type: the row count sample size changed */
+   public static final String ROW_COUNT_SAMPLE_SIZE_CHANGED             = "DataTransform:RowCountSampleSizeChanged";              // I18NOK:EMS
+   
    private String m_sDBIDirectExec;
    
    /**
@@ -181,6 +208,9 @@ implements IDataTransform
       
       m_collectSourceTableRowCounts = true;
       m_collectTargetTableRowCounts = false;
+      m_bDeleteWorkTablesAfterLastUse = false;
+      m_iRowCountStrategy = ROW_COUNT_EXACT;
+      m_lRowCountSampleSize = DEFAULT_ROW_COUNT_SAMPLE_SIZE;
       m_bTargetDataAutomaticallyMoved = false;
       //default is sas execution
       m_iDBMSType = IDataTransform.SAS_DBMS_EXECUTION_TYPE;
@@ -994,6 +1024,7 @@ implements IDataTransform
    protected void clearDataTargetsBeforeLoad()
    {
       m_lDataTargets.clear();
+      syncChangeTrackedChildren();
    }     
 
    /**
@@ -2813,6 +2844,7 @@ implements IDataTransform
    {
       removeFromDeletedObjects( mapping );
       m_lMappings.add( iMapping, mapping );
+      addChangeTrackedChild( mapping );
       fireModelChangedEvent( MAPPING_ADDED, mapping );
       if (isUndoSupported())
          undoableEditHappened( new AddMappingUndoable( iMapping, mapping ) );
@@ -2833,6 +2865,7 @@ implements IDataTransform
          return;  // mappings can be automatically removed
       addToDeletedObjects( mapping );
       m_lMappings.remove( iMapping );
+      removeChangeTrackedChild( mapping );
       fireModelChangedEvent( MAPPING_REMOVED, mapping );
       if (isUndoSupported())
          undoableEditHappened( new RemoveMappingUndoable( iMapping, mapping ) );
@@ -3458,50 +3491,20 @@ implements IDataTransform
    }
    
    /**
-    * Is the transform changed?  This method is overridden to return true if any
-    * of the sources, any of the targets, or any of the mappings have changed.
+    * Gets the children whose changed state is part of the transform's changed
+    * state (see BaseObject.addChangeTrackedChild): the sources, targets, 
+    * mappings and table options.  The children are normally tracked as they 
+    * are added and removed; this is used after the lists are cleared in bulk.
     * 
-    * @return true = the object has changed
-    * 
-    * @see com.sas.etl.models.IObject#isChanged()
+    * @param lChildren the list the children are added to
     */
-   public boolean isChanged()
+   protected void getChangeTrackedChildren( List lChildren )
    {
-      if (super.isChanged())
-         return true;
-      
-      // TODO should source be checked too in isChanged?
-      // check sources
-      for ( int iSource=0; iSource<m_lDataSources.size(); iSource++ )
-      {
-         IDataObject data = (IDataObject) m_lDataSources.get( iSource );
-         if (data.isChanged())
-            return true;
-      }
-
-      // check targets
-      for ( int iTarget=0; iTarget<m_lDataTargets.size(); iTarget++ )
-      {
-         IDataObject data = (IDataObject) m_lDataTargets.get( iTarget );
-         if (data.isChanged())
-            return true;
-      }
-      
-      // check mappings
-      List lMappings = getMappingsList();
-      for ( int iMapping=0; iMapping<lMappings.size(); iMapping++ )
-      {
-         IMapping mapping = (IMapping) lMappings.get( iMapping );
-         if (mapping.isChanged())
-            return true;
-      }
-      
-      ITransformTableOptions[] tableOpts = getTableOptionObjects();
-      for (int i=0; i<tableOpts.length; i++)
-         if (tableOpts[i].isChanged())
-            return true;
-      
-      return false;
+      super.getChangeTrackedChildren( lChildren );
+      lChildren.addAll( m_lDataSources       );
+      lChildren.addAll( m_lDataTargets       );
+      lChildren.addAll( m_lMappings          );
+      lChildren.addAll( m_lTableOptionModels );
    }
    
    /**
@@ -3551,6 +3554,10 @@ implements IDataTransform
 
       saveBooleanOptionToOMR( omr, GENERATE_INDEXES_ON_TARGETS, isGenerateIndexesOnTargetTables() );
       
+      saveBooleanOptionToOMR( omr, DELETE_WORK_TABLES_AFTER_LAST_USE, m_bDeleteWorkTablesAfterLastUse );
+      saveIntOptionToOMR(     omr, ROW_COUNT_STRATEGY,                m_iRowCountStrategy );
+      saveStringOptionToOMR(  omr, ROW_COUNT_SAMPLE_SIZE,             Long.toString( m_lRowCountSampleSize ) );
+      
       saveStringOptionToOMR( omr, OPTION_DBI_DIRECT_EXEC, getDBIDirectExecValue() );
       
       saveCustomListToOMR( omr, COLUMNS_EXCLUDED_FROM_MAPPING_NAME,     getColumnsExcludedFromMapping()     );
@@ -3786,6 +3793,22 @@ implements IDataTransform
 
       setGenerateIndexesOnTargetTables( loadBooleanOptionFromOMR( omr, GENERATE_INDEXES_ON_TARGETS, true ));
       
+      setDeleteWorkTablesAfterLastUse( loadBooleanOptionFromOMR( omr, DELETE_WORK_TABLES_AFTER_LAST_USE, false ) );
+      
+      int iRowCountStrategy = loadIntOptionFromOMR( omr, ROW_COUNT_STRATEGY, ROW_COUNT_EXACT );
+      if (iRowCountStrategy==ROW_COUNT_EXACT || iRowCountStrategy==ROW_COUNT_METADATA || iRowCountStrategy==ROW_COUNT_SAMPLED)
+         setRowCountStrategy( iRowCountStrategy );
+      try
+      {
+         long lSampleSize = Long.parseLong( loadStringOptionFromOMR( omr, ROW_COUNT_SAMPLE_SIZE, Long.toString( DEFAULT_ROW_COUNT_SAMPLE_SIZE ) ) );
+         if (lSampleSize > 0)
+            setRowCountSampleSize( lSampleSize );
+      }
+      catch (NumberFormatException e)
+      {
+         ModelLogger.getDefaultLogger().debug( "NumberFormatException", e );
+      }
+      
       setIncludedInPropagation( loadBooleanOptionFromOMR( omr, INCLUDED_IN_PROPAGATION, true ) );
       setIncludedInMapping(     loadBooleanOptionFromOMR( omr, INCLUDED_IN_MAPPING,     true ) );
 
@@ -3862,6 +3885,7 @@ implements IDataTransform
    {
       m_lDataSources.clear();
       m_lDataTargets.clear();
+      syncChangeTrackedChildren();
       
       List lTransformations = mdoStep.getTransformations();
       
@@ -4899,6 +4923,98 @@ implements IDataTransform
       if (genComments)
          codeSegment.genPercentPutStatement( RB.getStringResource( "AbstractDataTransform.MappingColumnsNote.msg.sasmacro.notrans" ));
       
+      if (mappingTargetTableName==null || mappingTargetTableName.length()==0)
+         mappingTargetTableName = DEFAULT_MAPPING_TARGET_NAME;
+      else if (mappingTargetTableName.indexOf( '.' ) == -1 && (targetTable==null || !targetTable.isWebStreamDataTarget()))
+         mappingTargetTableName = ILibrary.WORK_LIBREF + "." + mappingTargetTableName;
+      
+      if (inputTableName==null || inputTableName.length()==0)
+         inputTableName = sourceTable.getFullNameQuotedAsNeeded( codeSegment );
+
+      // structurally identical mapping code is shared through a macro when 
+      // the run asks for it, the shape of the code is generated with the 
+      // macro's parameters in place of the table names and options and 
+      // resolved to the inline code when it is not shared.  A step that may
+      // be skipped on rerun is hashed without the definitions shared with 
+      // other steps, and only a step that always runs defines a macro that
+      // later steps rely on.
+      CodeGenerationCache cache  = CodeGenerationCache.getCache( codeSegment.getCodeGenerationEnvironment() );
+      MappingMacroPlanner macros = cache.getMappingMacroPlanner();
+      if (macros != null && !isSkippable())
+      {
+         ICodeSegment shape = codeSegment.getCodeGenerationEnvironment().createNewCodeSegment( this );
+         genOrdinaryMappingSql( shape, sourceTable, targetTable, 
+                                MappingMacroPlanner.TARGET_REFERENCE, 
+                                MappingMacroPlanner.INPUT_REFERENCE,
+                                MappingMacroPlanner.getOptionsReference( sourceTableOptions, MappingMacroPlanner.SOURCE_OPTIONS_REFERENCE ), 
+                                MappingMacroPlanner.getOptionsReference( targetTableOptions, MappingMacroPlanner.TARGET_OPTIONS_REFERENCE ), 
+                                createView, genLabelStatements, bGenerateFormatsInformats, lstPassedOnlyColumns, lstExcludeColumns,
+                                useDistinctKeyword, whereClause, groupByClause, orderByClause, bIsValidate );
+         String sShape = shape.toString();
+         if (!macros.genCall( codeSegment, sShape, mappingTargetTableName, inputTableName, sourceTableOptions, targetTableOptions, cache.isAlwaysRun( this ) ))
+            codeSegment.addSourceCode( MappingMacroPlanner.resolveShape( sShape, mappingTargetTableName, inputTableName, sourceTableOptions, targetTableOptions ) );
+      }
+      else
+         genOrdinaryMappingSql( codeSegment, sourceTable, targetTable, mappingTargetTableName, inputTableName, sourceTableOptions, targetTableOptions,
+                                createView, genLabelStatements, bGenerateFormatsInformats, lstPassedOnlyColumns, lstExcludeColumns,
+                                useDistinctKeyword, whereClause, groupByClause, orderByClause, bIsValidate );
+
+      codeSegment.addSourceCode( "%let SYSLAST = " ).addSourceCode( mappingTargetTableName ).addSourceCode(";\n\n");
+
+      return codeSegment;
+   }
+
+   /**
+    * Generates the PROC SQL step that maps the source table's columns to the
+    * target table's columns.
+    * 
+    * @param codeSegment codeSegment to add source to  
+    * @param sourceTable source table (object)
+    * @param targetTable target table (object)
+    * @param mappingTargetTableName output table name
+    * @param inputTableName input table name
+    * @param sourceTableOptions table options for source table
+    * @param targetTableOptions table options for the target table
+    * @param createView  flag to create a view instead of a table
+    * @param genLabelStatements flag for generating label statements 
+    * @param bGenerateFormatsInformats flag for generating formats and informats
+    * @param lstPassedOnlyColumns list of 'ignore' and 'extra' columns to add to select without an assignment, 
+    *                             the columns are removed from the list as they are generated
+    * @param lstExcludeColumns  list of columns to exclude entirely
+    * @param useDistinctKeyword add DISTINCT keyword to select
+    * @param whereClause     where clause
+    * @param groupByClause  the group-by clause
+    * @param orderByClause  the order-by clause
+    * @param bIsValidate true if the step should not execute
+    * @throws CodegenException
+    * @throws BadLibraryDefinitionException
+    * @throws BadServerDefinitionException
+    * @throws RemoteException
+    * @throws MdException
+    * @throws ServerException
+    */
+   private void genOrdinaryMappingSql(ICodeSegment codeSegment, 
+            ITable sourceTable, 
+            ITable targetTable,
+            String mappingTargetTableName,
+            String inputTableName,
+            String sourceTableOptions,
+            String targetTableOptions,
+            boolean createView,
+            boolean genLabelStatements,
+            boolean bGenerateFormatsInformats,
+            List lstPassedOnlyColumns,
+            List lstExcludeColumns,
+            boolean useDistinctKeyword,
+            String whereClause,
+            IGroupBy groupByClause,
+            ISorting orderByClause,
+            boolean bIsValidate
+   )
+   throws CodegenException, BadLibraryDefinitionException, RemoteException, MdException, BadServerDefinitionException, ServerException
+   {
+      IColumn[] targetColumns = targetTable.getColumns();
+
       codeSegment.addSourceCode( "proc sql" );
       if (bIsValidate)
          codeSegment.addSourceCode( " noexec" );
@@ -4910,11 +5026,6 @@ implements IDataTransform
       else
          codeSegment.addSourceCode( " table " );
 
-      if (mappingTargetTableName==null || mappingTargetTableName.length()==0)
-         mappingTargetTableName = DEFAULT_MAPPING_TARGET_NAME;
-      else if (mappingTargetTableName.indexOf( '.' ) == -1 && (targetTable==null || !targetTable.isWebStreamDataTarget()))
-         mappingTargetTableName = ILibrary.WORK_LIBREF + "." + mappingTargetTableName;
-      
       codeSegment.addSourceCode(mappingTargetTableName);
       
       if (targetTableOptions!=null && targetTableOptions.length()>0)
@@ -5058,9 +5169,6 @@ implements IDataTransform
       
       codeSegment.addSourceCode( "\n" );
       
-      if (inputTableName==null || inputTableName.length()==0)
-         inputTableName = sourceTable.getFullNameQuotedAsNeeded( codeSegment );
-
       codeSegment.unIndent()
       .unIndent()
       .addSourceCode( "from ")
@@ -5114,10 +5222,6 @@ implements IDataTransform
       codeSegment.addSourceCode( ";\n" )
       .unIndent()
       .addSourceCode( "quit;\n\n" );   
-
-      codeSegment.addSourceCode( "%let SYSLAST = " ).addSourceCode( mappingTargetTableName ).addSourceCode(";\n\n");
-
-      return codeSegment;
    }
 
    protected void generateMappingWarnings(ICodeSegment codeSegment, IMapping[] mappings)
@@ -5557,17 +5661,39 @@ implements IDataTransform
    public final ICodeSegment getSyslastCode(ICodeSegment codeSegment)
    throws CodegenException, BadLibraryDefinitionException
    {
+      ICodeGenerationEnvironment environment = codeSegment.getCodeGenerationEnvironment();
+      CodeGenerationCache        cache       = (environment == null) ? null : CodeGenerationCache.getCache( environment );
       
-      IPhysicalTable prevTable = getPreviousSyslastTable();
+      IPhysicalTable prevTable = getPreviousSyslastTable( cache );
       if (prevTable!=null)
          codeSegment.genSyslast( prevTable );
       
       return codeSegment;
    }
 
-   private IPhysicalTable getPreviousSyslastTable()
+   /**
+    * Gets the table SYSLAST is set to for this step.
+    * 
+    * @return the SYSLAST table or null if SYSLAST is not set
+    */
+   protected final IPhysicalTable getPreviousSyslastTable()
    {
-      IDataTransform transform = getSyslastDataTransform( this );
+      return getPreviousSyslastTable( null );
+   }
+   
+   /**
+    * Gets the table SYSLAST is set to for this step.  The SYSLAST producers
+    * resolved while walking back through the predecessors are remembered in 
+    * the code generation cache, so resolving SYSLAST for every step of a job 
+    * walks each predecessor only once.
+    * 
+    * @param cache the code generation cache of the run (may be null)
+    * 
+    * @return the SYSLAST table or null if SYSLAST is not set
+    */
+   protected final IPhysicalTable getPreviousSyslastTable( CodeGenerationCache cache )
+   {
+      IDataTransform transform = getSyslastDataTransform( this, cache );
       IDataObject[] sources =  getDataSources();
       if (transform!=null )
       {
@@ -5612,7 +5738,33 @@ implements IDataTransform
       return false;
    }
    
-   private IDataTransform getSyslastDataTransform(IDataTransform transform)
+   /**
+    * Gets the transform whose source SYSLAST refers to for a transform, using
+    * the code generation cache when there is one.
+    * 
+    * @param transform the transform
+    * @param cache     the code generation cache of the run (may be null)
+    * 
+    * @return the SYSLAST transform or null
+    */
+   private static IDataTransform getSyslastDataTransform(IDataTransform transform, CodeGenerationCache cache)
+   {
+      if (cache!=null)
+         return cache.getSyslastDataTransform( transform );
+      return findSyslastDataTransform( transform, null );
+   }
+   
+   /**
+    * Finds the transform whose source SYSLAST refers to for a transform by 
+    * walking back through the producers that do not generate code.
+    * 
+    * @param transform the transform
+    * @param cache     the code generation cache used to resolve the 
+    *                  predecessors (may be null)
+    * 
+    * @return the SYSLAST transform or null
+    */
+   static IDataTransform findSyslastDataTransform(IDataTransform transform, CodeGenerationCache cache)
    {
       IDataObject[] sources = transform.getDataSources();
       
@@ -5630,7 +5782,7 @@ implements IDataTransform
                // if codegen is enabled return this one, if not search farther back
                if (!producer.isCodeGenerationEnabled())
                {
-                  IDataTransform prevTransform = getSyslastDataTransform( producer );
+                  IDataTransform prevTransform = getSyslastDataTransform( producer, cache );
                   // this should stop at the first one if none of the priors are active
                   if (prevTransform==null)
                      return producer;
@@ -5640,7 +5792,7 @@ implements IDataTransform
                   }
                   else
                   {
-                     return getSyslastDataTransform( prevTransform );
+                     return getSyslastDataTransform( prevTransform, cache );
                   }
                }
                else
@@ -5670,12 +5822,68 @@ implements IDataTransform
          {
             IPhysicalTable table = (IPhysicalTable)sources[i];
             
-            table.genAccessPath( codeSegment,codeSegment.getCodeGenerationEnvironment().isGenerateRCSetCalls(),-1, codeSegment.getRuntimeStatsConnectMacros( codeSegment ), codeSegment.isRunStatisticsEnabled(), codeSegment.isRunTableStatisticsEnabled(), getTableOptionObject( table, true ) );   
+            genLibnameCode( codeSegment, table, true );
          }
       }   
       return codeSegment;
    }
 
+   /**
+    * Generates the access path (LIBNAME) code for a source or target table.  
+    * When the job's LIBNAME assignment planner shows the table's library was 
+    * already assigned on the current server earlier in this run, the 
+    * assignment is not repeated.  Tables with transform table options are 
+    * always given their own assignment because the options may change it, 
+    * and so are the tables of a step that may be skipped on rerun.  Only the
+    * assignments of steps that always run (see 
+    * {@link CodeGenerationCache#isAlwaysRun(ITransform)}) are recorded, so a 
+    * later step never relies on the assignment of a step that may not run.
+    * 
+    * @param codeSegment the code segment
+    * @param table       the table
+    * @param isSource    true = the table is a source, false = a target
+    * 
+    * @return the code segment
+    */
+   private ICodeSegment genLibnameCode( ICodeSegment codeSegment, IPhysicalTable table, boolean isSource )
+   throws MdException, 
+   RemoteException, 
+   BadServerDefinitionException, 
+   BadLibraryDefinitionException, 
+   CodegenException,
+   ServerException
+   {
+      ITransformTableOptions options = getTableOptionObject( table, isSource );
+      IServer                server  = codeSegment.getCurrentServer();
+      
+      // a step that may be skipped on rerun assigns its own libraries, since
+      // its assignments may not run and its fingerprint must not depend on 
+      // the steps before it
+      LibnameAssignmentPlanner planner   = null;
+      ILibrary                 library   = null;
+      boolean                  bProvides = false;
+      if (options==null && getJob()!=null && !isSkippable())
+      {
+         ICodeGenerationEnvironment environment = codeSegment.getCodeGenerationEnvironment();
+         CodeGenerationCache        cache       = CodeGenerationCache.getCache( environment );
+         planner   = cache.getLibnameAssignmentPlanner( getJob(), environment.getDefaultServer() );
+         library   = table.getCodeGenLibrary( server );
+         bProvides = cache.isAlwaysRun( this );
+      }
+      
+      if (library!=null && planner.isAssigned( library, server ))
+         return codeSegment;
+      
+      table.genAccessPath( codeSegment,codeSegment.getCodeGenerationEnvironment().isGenerateRCSetCalls(),-1, codeSegment.getRuntimeStatsConnectMacros( codeSegment ), codeSegment.isRunStatisticsEnabled(), codeSegment.isRunTableStatisticsEnabled(), options );
+      
+      // a step that may not run, such as one skipped on a checkpoint restart,
+      // can not provide the assignment to the steps after it
+      if (library!=null && bProvides)
+         planner.setAssigned( library, server, true );
+      
+      return codeSegment;
+   }
+
    /**
     * Append the post code for the transform
     * @param codeSegment segment to append to 
@@ -5720,9 +5928,37 @@ implements IDataTransform
          if (isCollectTargetTableRowCounts())
             getGeneratedTargetRowCountCode( codeSegment );
       
+      getDeleteWorkTablesAfterLastUseCode( codeSegment );
+      
       return super.getTransformCompletion( codeSegment );
    }
 
+   /**
+    * Generates the deletion of the intermediate work tables whose last reader
+    * is this step.  Only tables whose producer has deletion after last use 
+    * enabled are deleted.  Nothing is deleted inside loops.
+    * 
+    * @param codeSegment the code segment
+    * 
+    * @return the code segment
+    * 
+    * @see WorkTableLifetimeAnalyzer
+    */
+   protected ICodeSegment getDeleteWorkTablesAfterLastUseCode( ICodeSegment codeSegment )
+   throws CodegenException, BadLibraryDefinitionException, BadServerDefinitionException
+   {
+      IJob job = getJob();
+      if (job==null || codeSegment.getLoopCount()>0)
+         return codeSegment;
+      
+      ICodeGenerationEnvironment environment = codeSegment.getCodeGenerationEnvironment();
+      IWorkTable[] tables = CodeGenerationCache.getCache( environment ).getWorkTableLifetimes( job, environment.getDefaultServer() ).getTablesToDeleteAfter( this );
+      if (tables.length>0)
+         codeSegment.genTableDelete( Arrays.asList( tables ) );
+      
+      return codeSegment;
+   }
+
    public ICodeSegment getGenerateTableIndexes(ICodeSegment codeSegment)
    throws CodegenException, MdException, RemoteException, BadServerDefinitionException, BadLibraryDefinitionException, ServerException
    {
@@ -5747,7 +5983,7 @@ implements IDataTransform
                {
                   library.genAccessPath( codeSegment );
                
-                  libServer = library.getBestServer( codeSegment.getCurrentServer() );
+                  libServer = CodeGenerationCache.getCache( environment ).getBestServer( library, codeSegment.getCurrentServer() );
                   
                   remote = !ObjectComparator.isEqual( libServer,codeSegment.getCurrentServer());
                   if (remote)
@@ -5822,7 +6058,7 @@ implements IDataTransform
          {
             IPhysicalTable table = (IPhysicalTable)targets[i];
 
-            table.genAccessPath( codeSegment,codeSegment.getCodeGenerationEnvironment().isGenerateRCSetCalls(),-1,codeSegment.getRuntimeStatsConnectMacros(codeSegment), codeSegment.isRunStatisticsEnabled(), codeSegment.isRunTableStatisticsEnabled(), getTableOptionObject( table, false ) );
+            genLibnameCode( codeSegment, table, false );
           
          }
       }   
@@ -5845,6 +6081,7 @@ implements IDataTransform
    public void setCollectSourceTableRowCounts(boolean collectSourceTableRowCounts)
    {
       m_collectSourceTableRowCounts = collectSourceTableRowCounts;
+      incrementModelRevision();
    }
 
    /**
@@ -5863,8 +6100,92 @@ implements IDataTransform
    public void setCollectTargetTableRowCounts(boolean collectTargetTableRowCounts)
    {
       m_collectTargetTableRowCounts = collectTargetTableRowCounts;
+      incrementModelRevision();
    } 
    
+   /**
+    * Returns whether the work tables produced by this transform are deleted
+    * as soon as their last reader in the job has run
+    * @return true if the work tables are deleted after their last use
+    */
+   public boolean isDeleteWorkTablesAfterLastUse()
+   {
+      return m_bDeleteWorkTablesAfterLastUse;
+   }
+   
+   /**
+    * Sets whether the work tables produced by this transform are deleted as
+    * soon as their last reader in the job has run
+    * @param bDelete true if they should be deleted after their last use
+    */
+   public void setDeleteWorkTablesAfterLastUse(boolean bDelete)
+   {
+      if (m_bDeleteWorkTablesAfterLastUse == bDelete)
+         return;
+      
+      if (isUndoSupported())
+         undoableEditHappened( new SetDeleteWorkTablesAfterLastUseUndoable( m_bDeleteWorkTablesAfterLastUse, bDelete ) );
+      m_bDeleteWorkTablesAfterLastUse = bDelete;
+      fireModelChangedEvent( DELETE_WORK_TABLES_AFTER_LAST_USE_CHANGED, null );
+   }
+   
+   /**
+    * Returns how table row counts are collected
+    * @return ROW_COUNT_EXACT, ROW_COUNT_METADATA or ROW_COUNT_SAMPLED
+    */
+   public int getRowCountStrategy()
+   {
+      return m_iRowCountStrategy;
+   }
+   
+   /**
+    * Sets how table row counts are collected.  An exact count may read the 
+    * whole table, which is expensive for views and DBMS tables.  The metadata
+    * strategy never reads the table but has no count, and sets the count to
+    * -1, for views and DBMS tables, whose engines do not keep one.  The 
+    * sampled strategy reads at most the sample size rows of such tables, so 
+    * it is the strategy to use for DBMS tables.
+    * @param iStrategy ROW_COUNT_EXACT, ROW_COUNT_METADATA or ROW_COUNT_SAMPLED
+    */
+   public void setRowCountStrategy(int iStrategy)
+   {
+      if (iStrategy!=ROW_COUNT_EXACT && iStrategy!=ROW_COUNT_METADATA && iStrategy!=ROW_COUNT_SAMPLED)
+         throw new IllegalArgumentException( "invalid row count strategy: " + iStrategy );   // I18NOK:EMS
+      if (m_iRowCountStrategy == iStrategy)
+         return;
+      
+      if (isUndoSupported())
+         undoableEditHappened( new SetRowCountStrategyUndoable( m_iRowCountStrategy, iStrategy ) );
+      m_iRowCountStrategy = iStrategy;
+      fireModelChangedEvent( ROW_COUNT_STRATEGY_CHANGED, null );
+   }
+   
+   /**
+    * Returns the maximum number of rows read by the sampled row count strategy
+    * @return the sample size
+    */
+   public long getRowCountSampleSize()
+   {
+      return m_lRowCountSampleSize;
+   }
+   
+   /**
+    * Sets the maximum number of rows read by the sampled row count strategy
+    * @param lSampleSize the sample size
+    */
+   public void setRowCountSampleSize(long lSampleSize)
+   {
+      if (lSampleSize<1)
+         throw new IllegalArgumentException( "row count sample size must be positive" );   // I18NOK:EMS
+      if (m_lRowCountSampleSize == lSampleSize)
+         return;
+      
+      if (isUndoSupported())
+         undoableEditHappened( new SetRowCountSampleSizeUndoable( m_lRowCountSampleSize, lSampleSize ) );
+      m_lRowCountSampleSize = lSampleSize;
+      fireModelChangedEvent( ROW_COUNT_SAMPLE_SIZE_CHANGED, null );
+   }
+   
    /**
     * Default implementation for gathering table counts for a source table
     * This method should be overridden to only return a code segment if table 
@@ -5925,17 +6246,165 @@ implements IDataTransform
    throws RemoteException, MdException, BadLibraryDefinitionException, BadServerDefinitionException,
    CodegenException, ServerException
    {               
-      return codeSegment.genRowsProcessedCount(table, macroVar);
+      switch (getRowCountStrategy())
+      {
+         case ROW_COUNT_METADATA:
+            return getGeneratedMetadataRowCountCode( codeSegment, table, macroVar );
+            
+         case ROW_COUNT_SAMPLED:
+            // SAS data files keep an exact count, only views and DBMS tables
+            // have to be read
+            IDBMSType dbmsType = table.getDBMSType();
+            if (!table.isView() && dbmsType != null && IDBMSType.SAS_DBMS_TYPE_NAME.equals( dbmsType.getDBMSTypeName() ))
+               return getGeneratedMetadataRowCountCode( codeSegment, table, macroVar );
+            return getGeneratedSampledRowCountCode( codeSegment, table, macroVar );
+            
+         default:
+            return codeSegment.genRowsProcessedCount(table, macroVar);
+      }
+   }
+   
+   /**
+    * Generates code that sets the row count macro variable to the number of 
+    * rows the table's engine records for the table, without reading the 
+    * table.  The macro variable of the same name suffixed with _bound is set
+    * to EQ, because the recorded count is exact.  The count is -1, and the 
+    * _bound macro variable is blank, when the engine does not record one, as
+    * is the case for views and DBMS tables.  The macro that reads the count 
+    * is defined once per session by the first step that always runs, and 
+    * again by every step that may not run.
+    * @param codeSegment segment
+    * @param table physical table
+    * @param macroVar the macro variable (null for the default)
+    * @return code segment
+    */
+   protected ICodeSegment getGeneratedMetadataRowCountCode(ICodeSegment codeSegment,
+         IPhysicalTable table, String macroVar) 
+   throws RemoteException, MdException, BadLibraryDefinitionException, BadServerDefinitionException,
+   CodegenException, ServerException
+   {
+      String sMacroVar = (macroVar==null) ? ROW_COUNT_MACRO_VARIABLE : macroVar;
+      
+      // a step that may not run, such as one skipped on rerun or on a 
+      // checkpoint restart, defines the macro for itself, since the steps 
+      // after it can not rely on its definition
+      CodeGenerationCache cache = CodeGenerationCache.getCache( codeSegment.getCodeGenerationEnvironment() );
+      if (!cache.isAlwaysRun( this ))
+         genMetadataRowCountMacro( codeSegment );
+      else if (!cache.isMacroDefined( ROW_COUNT_METADATA_MACRO, codeSegment.getCurrentServer() ))
+      {
+         genMetadataRowCountMacro( codeSegment );
+         cache.setMacroDefined( ROW_COUNT_METADATA_MACRO, codeSegment.getCurrentServer() );
+      }
+      
+      codeSegment.addSourceCode( "%global " ).addSourceCode( sMacroVar ).addSourceCode( " " ).addSourceCode( sMacroVar ).addSourceCode( "_bound;\n" );
+      codeSegment.addSourceCode( "%" ).addSourceCode( ROW_COUNT_METADATA_MACRO ).addSourceCode( "(" )
+      .addSourceCode( table.getFullNameQuotedAsNeeded( codeSegment ) ).addSourceCode( ", " ).addSourceCode( sMacroVar ).addSourceCode( ");\n\n" );
+      
+      return codeSegment;
+   }
+   
+   /**
+    * Generates the definition of the macro that sets a macro variable to the
+    * row count the engine records for a table.  The macro variable and its 
+    * _bound macro variable must be declared global before the macro is 
+    * called.
+    * @param codeSegment segment
+    * @return code segment
+    */
+   private ICodeSegment genMetadataRowCountMacro(ICodeSegment codeSegment)
+   {
+      codeSegment.addSourceCode( "%macro " ).addSourceCode( ROW_COUNT_METADATA_MACRO ).addSourceCode( "(table, mvar);\n" ).indent();
+      codeSegment.addSourceCode( "%local etls_dsid;\n" );
+      codeSegment.addSourceCode( "%let &mvar = -1;\n" );
+      codeSegment.addSourceCode( "%let &mvar._bound = ;\n" );
+      codeSegment.addSourceCode( "%let etls_dsid = %sysfunc(open(&table));\n" );
+      codeSegment.addSourceCode( "%if (&etls_dsid > 0) %then\n" );
+      codeSegment.addSourceCode( "%do;\n" ).indent();
+      codeSegment.addSourceCode( "%let &mvar = %sysfunc(attrn(&etls_dsid, NLOBS));\n" );
+      codeSegment.addSourceCode( "%if (&&&mvar >= 0) %then\n" ).indent();
+      codeSegment.addSourceCode( "%let &mvar._bound = EQ;\n" ).unIndent();
+      codeSegment.addSourceCode( "%let etls_dsid = %sysfunc(close(&etls_dsid));\n" );
+      codeSegment.unIndent().addSourceCode( "%end;\n" );
+      codeSegment.unIndent().addSourceCode( "%mend " ).addSourceCode( ROW_COUNT_METADATA_MACRO ).addSourceCode( ";\n\n" );
+      
+      return codeSegment;
+   }
+   
+   /**
+    * Generates code that counts at most the sample size rows of the table.  
+    * The OBS= limit is passed to the DBMS, so a DBMS table is not scanned in
+    * full.  The row count macro variable is set to the number of rows 
+    * counted and the macro variable of the same name suffixed with _bound is 
+    * set to EQ when that is the table's row count or to GE when the table has
+    * at least that many rows.  When the count fails, the row count is -1 and
+    * the _bound macro variable is blank.
+    * @param codeSegment segment
+    * @param table physical table
+    * @param macroVar the macro variable (null for the default)
+    * @return code segment
+    */
+   protected ICodeSegment getGeneratedSampledRowCountCode(ICodeSegment codeSegment,
+         IPhysicalTable table, String macroVar) 
+   throws RemoteException, MdException, BadLibraryDefinitionException, BadServerDefinitionException,
+   CodegenException, ServerException
+   {
+      String sMacroVar   = (macroVar==null) ? ROW_COUNT_MACRO_VARIABLE : macroVar;
+      String sSampleSize = Long.toString( getRowCountSampleSize() );
+      
+      codeSegment.addSourceCode( "%global " ).addSourceCode( sMacroVar ).addSourceCode( " " ).addSourceCode( sMacroVar ).addSourceCode( "_bound;\n" );
+      codeSegment.addSourceCode( "%let " ).addSourceCode( sMacroVar ).addSourceCode( " = -1;\n" );
+      codeSegment.addSourceCode( "proc sql noprint;\n" ).indent();
+      codeSegment.addSourceCode( "select count(*) into :" ).addSourceCode( sMacroVar ).addSourceCode( " trimmed\n" );
+      codeSegment.addSourceCode( "from " ).addSourceCode( table.getFullNameQuotedAsNeeded( codeSegment ) ).addSourceCode( "(obs=" ).addSourceCode( sSampleSize ).addSourceCode( ");\n" );
+      codeSegment.unIndent().addSourceCode( "quit;\n" );
+      // a failed count leaves -1, which is no count, so its bound is blank
+      codeSegment.addSourceCode( "data _null_;\n" ).indent();
+      codeSegment.addSourceCode( "if (&" ).addSourceCode( sMacroVar ).addSourceCode( " < 0) then call symputx('" ).addSourceCode( sMacroVar ).addSourceCode( "_bound', '', 'G');\n" );
+      codeSegment.addSourceCode( "else if (&" ).addSourceCode( sMacroVar ).addSourceCode( " < " ).addSourceCode( sSampleSize ).addSourceCode( ") then call symputx('" ).addSourceCode( sMacroVar ).addSourceCode( "_bound', 'EQ', 'G');\n" );
+      codeSegment.addSourceCode( "else call symputx('" ).addSourceCode( sMacroVar ).addSourceCode( "_bound', 'GE', 'G');\n" );
+      codeSegment.unIndent().addSourceCode( "run;\n\n" );
+      
+      return codeSegment;
    }
 
    public IPhysicalTable[] getTablesForTransfer(IServer defaultServer)
    throws BadServerDefinitionException, BadLibraryDefinitionException
+   {
+      return getTablesForTransfer( defaultServer, null );
+   }
+   
+   /**
+    * Gets the source tables that have to be moved to this step's server before
+    * the step runs.  When a code generation environment is supplied, the step
+    * servers are resolved through the run's code generation cache, otherwise
+    * through a cache of their own in which the job's transfers are planned, 
+    * so the tables agree with the code generated for the step.
+    * 
+    * @param defaultServer the default server
+    * @param environment   the code generation environment (may be null)
+    * 
+    * @return the tables to transfer
+    * 
+    * @throws BadServerDefinitionException
+    * @throws BadLibraryDefinitionException
+    */
+   public IPhysicalTable[] getTablesForTransfer(IServer defaultServer, ICodeGenerationEnvironment environment)
+   throws BadServerDefinitionException, BadLibraryDefinitionException
    {
 	   List<IPhysicalTable> transfers = new ArrayList<IPhysicalTable>();
 
 	   // have to move data to next step's server
 	   IDataObject[] sources = getDataSources();
 
+	   // every server is resolved through one cache, in which the job's 
+	   // transfers are planned, so moved steps are seen on their servers
+	   CodeGenerationCache cache = getServerCache( defaultServer, environment );
+	   
+	   // resolved once, on first need
+	   IServer stepServer = null;
+	   boolean bStepServerResolved = false;
+
 	   for (int i=0; i<sources.length; i++)
 	   {
 		   if (sources[i] instanceof IWorkTable)
@@ -5949,9 +6418,12 @@ implements IDataTransform
 
 			   if (tableProducer!=null && !tableProducer.isTargetDataAutomaticallyMoved())
 			   {
-				   IServer stepServer = getServerForStep(defaultServer);
-				   
-				   IServer previousServer = tableProducer.getServerForStep( defaultServer );
+				   if (!bStepServerResolved)
+				   {
+					   stepServer = cache.getServerForStep( this, defaultServer );
+					   bStepServerResolved = true;
+				   }
+				   IServer previousServer = cache.getServerForStep( tableProducer, defaultServer );
 
 				   if (!ObjectComparator.isEqual(previousServer,stepServer ) )
 				   {
@@ -5961,7 +6433,11 @@ implements IDataTransform
 		   }
 		   else if (sources[i] instanceof IPhysicalTable)
 		   {
-			   IServer stepServer = getServerForStep(defaultServer);
+			   if (!bStepServerResolved)
+			   {
+				   stepServer = cache.getServerForStep( this, defaultServer );
+				   bStepServerResolved = true;
+			   }
 			   IPhysicalTable table = (IPhysicalTable)sources[i];
 			   if (table.isRemoteToServer(stepServer))
 				   transfers.add(table);
@@ -5971,6 +6447,28 @@ implements IDataTransform
 	   return transfers.toArray(new IPhysicalTable[transfers.size()]);
    }
    
+   /**
+    * Gets the server for another step, using the run's code generation cache
+    * when an environment is supplied.
+    * 
+    * @param transform     the other step
+    * @param defaultServer the default server
+    * @param environment   the code generation environment (may be null)
+    * 
+    * @return the server for the other step
+    * 
+    * @throws BadServerDefinitionException
+    * @throws BadLibraryDefinitionException
+    */
+   protected static IServer getServerForStep( IDataTransform transform, IServer defaultServer, ICodeGenerationEnvironment environment )
+   throws BadServerDefinitionException, BadLibraryDefinitionException
+   {
+      if (environment==null)
+         return transform.getServerForStep( defaultServer );
+      
+      return CodeGenerationCache.getCache( environment ).getServerForStep( transform, defaultServer );
+   }
+   
    public boolean isTransformPerformingDataTransfer( IServer defaultServer)
    throws BadServerDefinitionException, BadLibraryDefinitionException
    {
@@ -5984,9 +6482,22 @@ implements IDataTransform
       ICodeGenerationEnvironment environment = codeSegment.getCodeGenerationEnvironment();
 
       // need to move source data if it was from different server than this step
+      // tables already moved to the step's server earlier in the run are not moved again
+      // and all remaining tables are moved in a single remote submit
+      // only the moves of a step that always runs are reused by later steps, 
+      // since a step skipped on a checkpoint restart does not move its tables
+      CodeGenerationCache cache = CodeGenerationCache.getCache( environment );
+      DataTransferPlanner planner = cache.getDataTransferPlanner();
+      boolean bReuseTransfers = codeSegment.getLoopCount()==0;
+      boolean bRecordTransfers = bReuseTransfers && cache.isAlwaysRun( this );
 
       // have to move data to next step's server
+      // the libref of every remote table is assigned again even when the table
+      // was moved earlier, because the libref may have been cleared since
       IDataObject[] sources = getDataSources();
+      List lRemoteTables = new ArrayList();
+      List lTransfers = new ArrayList();
+      boolean bQuoted = false;
 
       for (int i=0; i<sources.length; i++)
       {
@@ -6001,69 +6512,84 @@ implements IDataTransform
             
             if (tableProducer!=null && !tableProducer.isTargetDataAutomaticallyMoved())
             {
-               IServer previousServer = tableProducer.getServerForStep( currentServer );
+               IServer previousServer = getServerForStep( tableProducer, currentServer, environment );
               
-               if (!ObjectComparator.isEqual(previousServer,stepServer ) )
+               if (!ObjectComparator.isEqual(previousServer,stepServer ) && 
+                   !lRemoteTables.contains( table ))
                {
-                  ISASClientConnection conn = stepServer.getConnectClient();
-
-                  if (conn==null)
-                     throw new CodegenException(MessageFormat.format( RB.getStringResource( "Connect.MissingConnection.txt" ),new String[]{stepServer.getName()}), this);
-
-                  if (conn!=null)
+                  lRemoteTables.add( table );
+                  if (!(bReuseTransfers && planner.isTransferred( table, stepServer )))
                   {
-                     codeSegment.addSectionComment(RB.getStringResource("Transfer.ImplicitComment.msg.txt"));
-                     if (!environment.isOnSignonCache( stepServer ))
-                     {
-                     	 //S0953027: submit quoting table options if needed
-                        if (table.isQuoted())
-                        	codeSegment.addSourceCode(CodeSegment.getValidvarnameOptionAny( false ) );
-                        
-                        conn.genAccessCode( codeSegment);
+                     lTransfers.add( table );
+                     bQuoted |= table.isQuoted();
+                  }
+               }
+            }
+         }
+      }   
 
-                        environment.addToSignonCache( stepServer );
-                     }
-//stwatk S0523533
-                     IJob job = getJob();
-                     codeSegment.genReturnCodeRemoteSetup(conn, codeSegment.getRuntimeStatsConnectMacros( codeSegment ), isValidate, job.isRCSetSYSCCEnabled());
-                     codeSegment.genRemoteMacroVariablesSetup(environment.getRemoteMacroVariables(),conn.getHostName(), true).addSourceCode("\n");
+      if (!lRemoteTables.isEmpty())
+      {
+         ISASClientConnection conn = stepServer.getConnectClient();
 
-                     conn.genStartSubmit(ICodeSegment.SYSRPUTSYNC_YES,codeSegment,true, codeSegment.isRunStatisticsEnabled(),codeSegment.isRunTableStatisticsEnabled());
-                     codeSegment.indent().addSourceCode("\n");
+         if (conn==null)
+            throw new CodegenException(MessageFormat.format( RB.getStringResource( "Connect.MissingConnection.txt" ),new String[]{stepServer.getName()}), this);
 
-                     // wrap remote code in macro call to avoid %let statements not resolving when
-                     //   rsubmit is within macro
-                     codeSegment.addSourceCode("%macro ").addSourceCode(TRANSFORM_MACRO_NAME).addSourceCode("(); \n")
-                     .indent();
+         codeSegment.addSectionComment(RB.getStringResource("Transfer.ImplicitComment.msg.txt"));
+         if (!environment.isOnSignonCache( stepServer ))
+         {
+            //S0953027: submit quoting table options if needed
+            if (bQuoted)
+               codeSegment.addSourceCode(CodeSegment.getValidvarnameOptionAny( false ) );
 
-//                   cgReq.addSourceCode(nextServSupp.doReturnCodeSetup());
-                     if (!isValidate)
-                     table.genUploadCode(codeSegment,getTableOptionObject( table, true )).addSourceCode("\n")
-                     .genRCSetCall( "&syserr" );
+            conn.genAccessCode( codeSegment);
 
-                     ILibrary lib = table.getCodeGenLibrary( stepServer );
-                    
-                     if (lib != null)
-                     {
-                        codeSegment.addSourceCode("libname ").addSourceCode(lib.getLibref())
-                        .addSourceCode(" (").addSourceCode(ILibrary.WORK_LIBREF).addSourceCode("); \n");
-                        // capture return code into macros
-                        codeSegment.genRCSetCall("&syslibrc");   /*I18nOK:LINE*/
-                     }
+            environment.addToSignonCache( stepServer );
+         }
 //stwatk S0523533
-                     codeSegment.genReturnCodeRemoteEnding(isValidate, false, getJob().isRCSetSYSCCEnabled());
-                     codeSegment.unIndent();
-                     codeSegment.addSourceCode("\n%mend ").addSourceCode(TRANSFORM_MACRO_NAME).addSourceCode("; \n\n")
-                     .addSourceCode("%").addSourceCode(TRANSFORM_MACRO_NAME).addSourceCode(";\n\n"); //S0359689
-                     codeSegment.unIndent();
+         IJob job = getJob();
+         codeSegment.genReturnCodeRemoteSetup(conn, codeSegment.getRuntimeStatsConnectMacros( codeSegment ), isValidate, job.isRCSetSYSCCEnabled());
+         codeSegment.genRemoteMacroVariablesSetup(environment.getRemoteMacroVariables(),conn.getHostName(), true).addSourceCode("\n");
 
-                    conn.genEndSubmit(codeSegment, getJob().isRCSetSYSCCEnabled());
-                  }
+         conn.genStartSubmit(ICodeSegment.SYSRPUTSYNC_YES,codeSegment,true, codeSegment.isRunStatisticsEnabled(),codeSegment.isRunTableStatisticsEnabled());
+         codeSegment.indent().addSourceCode("\n");
 
-               }
+         // wrap remote code in macro call to avoid %let statements not resolving when
+         //   rsubmit is within macro
+         codeSegment.addSourceCode("%macro ").addSourceCode(TRANSFORM_MACRO_NAME).addSourceCode("(); \n")
+         .indent();
+
+         for (int i=0; i<lRemoteTables.size(); i++)
+         {
+            IWorkTable table = (IWorkTable)lRemoteTables.get(i);
+            
+            if (!isValidate && lTransfers.contains( table ))
+            {
+               table.genUploadCode(codeSegment,getTableOptionObject( table, true )).addSourceCode("\n")
+               .genRCSetCall( "&syserr" );
+               if (bRecordTransfers)
+                  planner.setTransferred( table, stepServer );
+            }
+
+            ILibrary lib = table.getCodeGenLibrary( stepServer );
+
+            if (lib != null)
+            {
+               codeSegment.addSourceCode("libname ").addSourceCode(lib.getLibref())
+               .addSourceCode(" (").addSourceCode(ILibrary.WORK_LIBREF).addSourceCode("); \n");
+               // capture return code into macros
+               codeSegment.genRCSetCall("&syslibrc");   /*I18nOK:LINE*/
             }
          }
-      }   
+//stwatk S0523533
+         codeSegment.genReturnCodeRemoteEnding(isValidate, false, getJob().isRCSetSYSCCEnabled());
+         codeSegment.unIndent();
+         codeSegment.addSourceCode("\n%mend ").addSourceCode(TRANSFORM_MACRO_NAME).addSourceCode("; \n\n")
+         .addSourceCode("%").addSourceCode(TRANSFORM_MACRO_NAME).addSourceCode(";\n\n"); //S0359689
+         codeSegment.unIndent();
+
+         conn.genEndSubmit(codeSegment, getJob().isRCSetSYSCCEnabled());
+      }
 
       return super.getGeneratedRemoteCodeStart( stepServer, codeSegment,currentServer, isValidate );
    }
@@ -6073,6 +6599,7 @@ implements IDataTransform
    CodegenException, ServerException
    {
       // this step was remote
+      ICodeGenerationEnvironment environment = codeSegment.getCodeGenerationEnvironment();
 
       // have to move data to next step's server
       IDataObject[] targets = getDataTargets();
@@ -6085,14 +6612,15 @@ implements IDataTransform
 
             IDataTransform[] tableConsumers = table.getConsumerTransforms();
 
+            // one download serves every consumer on another server
             for (int j=0; j<tableConsumers.length; j++)
             {
-               if (!ObjectComparator.isEqual(stepServer,tableConsumers[j].getServerForStep( defaultServer )))
+               if (!ObjectComparator.isEqual(stepServer,getServerForStep( tableConsumers[j], defaultServer, environment )))
                {
                   codeSegment.addSectionComment(RB.getStringResource("Transfer.ImplicitComment.msg.txt"));
                   table.genDownloadCode(codeSegment,getTableOptionObject( table, false )).addSourceCode("\n")
                   .genRCSetCall( "&syserr" );
-                  
+                  break;
                }
             }
          }
@@ -6177,6 +6705,7 @@ implements IDataTransform
    protected void setTargetDataAutomaticallyMoved(boolean bTargetDataMoved)
    {
       m_bTargetDataAutomaticallyMoved = bTargetDataMoved;
+      incrementModelRevision();
    }
    
    /**
@@ -6352,6 +6881,7 @@ implements IDataTransform
          removeTransformTableOption( lddOpts );
 
       m_lTableOptionModels.add( optionSet );
+      addChangeTrackedChild( optionSet );
       
       fireModelChangedEvent( TRANSFORM_TABLE_OPTION_ADDED, optionSet );
    }
@@ -6372,6 +6902,7 @@ implements IDataTransform
          undoableEditHappened( new RemoveTransformTableOptionUndoable(optionSet) );
       
       m_lTableOptionModels.remove(optionSet);
+      removeChangeTrackedChild( optionSet );
 
       fireModelChangedEvent( TRANSFORM_TABLE_OPTION_REMOVED, optionSet );
    }
@@ -6404,16 +6935,19 @@ implements IDataTransform
    }
 
    /**
-    * Get the app server for this step, takes default server passed in as consideration for the host selection.
+    * Resolves the app server for this step, takes default server passed in as consideration for the host selection.
+    * The best servers of the target libraries are resolved through the cache.
     * 
     * @param defaultServer the default app server, if this method is to take the default server into consideration, otherwise null
+    * @param cache         the code generation cache resolving the server
     * 
     * @return The ServerContext for this step
     * @throws BadServerDefinitionException  if the appserver is not valid 
     * @throws BadLibraryDefinitionException if the library is not valid
     * 
+    * @see AbstractTransform#resolveServerForStep(IServer, CodeGenerationCache)
     */
-   public IServer getServerForStep(IServer defaultServer) 
+   protected IServer resolveServerForStep(IServer defaultServer, CodeGenerationCache cache) 
    throws BadServerDefinitionException, BadLibraryDefinitionException
    {
       IServer serverStep = null;
@@ -6428,7 +6962,7 @@ implements IDataTransform
             ILibrary library = target.getCodeGenLibrary( defaultServer );
             if (library!=null)
             {
-               serverStep = library.getBestServer( defaultServer );
+               serverStep = cache.getBestServer( library, defaultServer );
             }
          }
       }
@@ -6581,7 +7115,7 @@ implements IDataTransform
 //      
 //      return (ServerContext)lHosts.get(0);
 //      
-   } // method: getServerForStep
+   } // method: resolveServerForStep
    
 
    /**
@@ -6615,6 +7149,7 @@ implements IDataTransform
       protected void addTo( Object secondary )
       {
          ((IDataObject) secondary).addProducerTransform( AbstractDataTransform.this );
+         addChangeTrackedChild( (IDataObject) secondary );
       }
 
       /**
@@ -6628,6 +7163,8 @@ implements IDataTransform
       protected void removeFrom( Object secondary )
       {
          ((IDataObject) secondary).removeProducerTransform( AbstractDataTransform.this );
+         if (!m_lDataSources.contains( secondary ))
+            removeChangeTrackedChild( (IDataObject) secondary );
       }
 
       /**
@@ -6733,6 +7270,7 @@ implements IDataTransform
       protected void addTo( Object secondary )
       {
          ((IDataObject) secondary).addConsumerTransform( AbstractDataTransform.this );
+         addChangeTrackedChild( (IDataObject) secondary );
       }
 
       /**
@@ -6746,6 +7284,8 @@ implements IDataTransform
       protected void removeFrom( Object secondary )
       {
          ((IDataObject) secondary).removeConsumerTransform( AbstractDataTransform.this );
+         if (!m_lDataTargets.contains( secondary ))
+            removeChangeTrackedChild( (IDataObject) secondary );
       }
 
       /**
@@ -7355,6 +7895,138 @@ implements IDataTransform
       }
    } // SetIncludedInPropagationUndoable
    
+   /**
+    * SetDeleteWorkTablesAfterLastUseUndoable is the undoable for setting the 
+    * transform's delete work tables after last use attribute.
+    */
+   private class SetDeleteWorkTablesAfterLastUseUndoable extends AbstractUndoableEdit
+   {
+      private boolean m_bOldDelete;
+      private boolean m_bNewDelete;
+      
+      /**
+       * Constructs the set delete work tables after last use attribute undoable
+       * 
+       * @param bOldDelete the old delete work tables after last use attribute
+       * @param bNewDelete the new delete work tables after last use attribute
+       */
+      public SetDeleteWorkTablesAfterLastUseUndoable( boolean bOldDelete, boolean bNewDelete )
+      {
+         m_bOldDelete = bOldDelete;
+         m_bNewDelete = bNewDelete;
+      }
+      
+      /**
+       * Undoes the setting of the delete work tables after last use attribute.
+       * 
+       * @see javax.swing.undo.UndoableEdit#undo()
+       */
+      public void undo()
+      {
+         super.undo();
+         setDeleteWorkTablesAfterLastUse( m_bOldDelete );
+      }
+      
+      /**
+       * Redoes the setting of the delete work tables after last use attribute.
+       * 
+       * @see javax.swing.undo.UndoableEdit#redo()
+       */
+      public void redo()
+      {
+         super.redo();
+         setDeleteWorkTablesAfterLastUse( m_bNewDelete );
+      }
+   } // SetDeleteWorkTablesAfterLastUseUndoable
+   
+   /**
+    * SetRowCountStrategyUndoable is the undoable for setting the transform's
+    * row count strategy.
+    */
+   private class SetRowCountStrategyUndoable extends AbstractUndoableEdit
+   {
+      private int m_iOldStrategy;
+      private int m_iNewStrategy;
+      
+      /**
+       * Constructs the set row count strategy undoable
+       * 
+       * @param iOldStrategy the old row count strategy
+       * @param iNewStrategy the new row count strategy
+       */
+      public SetRowCountStrategyUndoable( int iOldStrategy, int iNewStrategy )
+      {
+         m_iOldStrategy = iOldStrategy;
+         m_iNewStrategy = iNewStrategy;
+      }
+      
+      /**
+       * Undoes the setting of the row count strategy.
+       * 
+       * @see javax.swing.undo.UndoableEdit#undo()
+       */
+      public void undo()
+      {
+         super.undo();
+         setRowCountStrategy( m_iOldStrategy );
+      }
+      
+      /**
+       * Redoes the setting of the row count strategy.
+       * 
+       * @see javax.swing.undo.UndoableEdit#redo()
+       */
+      public void redo()
+      {
+         super.redo();
+         setRowCountStrategy( m_iNewStrategy );
+      }
+   } // SetRowCountStrategyUndoable
+   
+   /**
+    * SetRowCountSampleSizeUndoable is the undoable for setting the 
+    * transform's row count sample size.
+    */
+   private class SetRowCountSampleSizeUndoable extends AbstractUndoableEdit
+   {
+      private long m_lOldSampleSize;
+      private long m_lNewSampleSize;
+      
+      /**
+       * Constructs the set row count sample size undoable
+       * 
+       * @param lOldSampleSize the old row count sample size
+       * @param lNewSampleSize the new row count sample size
+       */
+      public SetRowCountSampleSizeUndoable( long lOldSampleSize, long lNewSampleSize )
+      {
+         m_lOldSampleSize = lOldSampleSize;
+         m_lNewSampleSize = lNewSampleSize;
+      }
+      
+      /**
+       * Undoes the setting of the row count sample size.
+       * 
+       * @see javax.swing.undo.UndoableEdit#undo()
+       */
+      public void undo()
+      {
+         super.undo();
+         setRowCountSampleSize( m_lOldSampleSize );
+      }
+      
+      /**
+       * Redoes the setting of the row count sample size.
+       * 
+       * @see javax.swing.undo.UndoableEdit#redo()
+       */
+      public void redo()
+      {
+         super.redo();
+         setRowCountSampleSize( m_lNewSampleSize );
+      }
+   } // SetRowCountSampleSizeUndoable
+   
    /**
     * SetIncludedInMappingUndoable is the undoable for setting the 
     * transform's included in propagation attribute.
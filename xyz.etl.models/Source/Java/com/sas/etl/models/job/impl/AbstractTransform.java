@@ -37,11 +37,14 @@ import com.sas.etl.models.impl.AbstractSecondaryAttributeHelper;
 import com.sas.etl.models.impl.ModelLogger;
 import com.sas.etl.models.impl.OMRAdapter;
 import com.sas.etl.models.impl.ObjectComparator;
+import com.sas.etl.models.impl.ValidationResult;
 import com.sas.etl.models.job.ICheckpointRestart;
 import com.sas.etl.models.job.ICodeGenerationEnvironment;
 import com.sas.etl.models.job.ICodeSegment;
 import com.sas.etl.models.job.ICodeSource;
 import com.sas.etl.models.job.IJob;
+import com.sas.etl.models.job.IStepRuntimeEstimator;
+import com.sas.etl.models.job.ITableRowCountEstimator;
 import com.sas.etl.models.job.ITransform;
 import com.sas.etl.models.job.IUIPlacement;
 import com.sas.etl.models.job.IUserWrittenCodeContainer;
@@ -71,6 +74,15 @@ public abstract class AbstractTransform extends AbstractPrePostCodeContainer imp
 {
    protected static final String OPTIONS_PROPERTYSET = "OPTIONS";
    protected static final String UI_PROPERTY = "UI_PLACEMENT";
+   
+   // custom option names
+   private static final String ESTIMATED_RUNTIME = "EstimatedRuntime";
+   private static final String SKIP_IF_UNCHANGED = "SkipIfUnchanged";
+   
+   /** event type: the estimated runtime changed */
+   public static final String ESTIMATED_RUNTIME_CHANGED = "Transform:EstimatedRuntimeChanged";   // I18NOK:EMS
+   /** event type: the skip if unchanged attribute changed */
+   public static final String SKIP_IF_UNCHANGED_CHANGED = "Transform:SkipIfUnchangedChanged";   // I18NOK:EMS
 
    private IPromptModel m_optionModel;
    
@@ -104,6 +116,8 @@ public abstract class AbstractTransform extends AbstractPrePostCodeContainer imp
    private boolean m_bCheckpointEnabled;
 //   private boolean m_bRequiredForRestart;
    private boolean m_bRunAlways;
+   private boolean m_bSkipIfUnchanged;
+   private double  m_dEstimatedRuntime;
    
    private boolean m_bExplicitOn;
        
@@ -134,6 +148,8 @@ public abstract class AbstractTransform extends AbstractPrePostCodeContainer imp
       
       m_bCheckpointEnabled = false;
       m_bRunAlways = false;
+      m_bSkipIfUnchanged = false;
+      m_dEstimatedRuntime = IStepRuntimeEstimator.UNKNOWN_RUNTIME;
       
       m_sClearLibrefs = CLEARLIBREFS_JOB;
             
@@ -333,6 +349,27 @@ public abstract class AbstractTransform extends AbstractPrePostCodeContainer imp
 	   }
    }
 
+   /**
+    * Creates the result of validating the transform.  A transform that uses
+    * complete user written code is complete regardless of its other settings.
+    * 
+    * @param lRevision the current revision of the model
+    * 
+    * @return the validation result
+    * 
+    * @see com.sas.etl.models.impl.BaseObject#createValidationResult(long)
+    */
+   protected ValidationResult createValidationResult( long lRevision )
+   {
+      boolean bComplete = isCompleteWithUserWritten();
+      boolean bWarnings = hasWarnings();
+      return new ValidationResult( lRevision,
+                                   bComplete,
+                                   bComplete ? new ArrayList() : getReasonsIncomplete(),
+                                   bWarnings,
+                                   bWarnings ? getWarnings() : new ArrayList() );
+   }
+
    /**
     * Gets the reasons the transform is incomplete.
     * 
@@ -469,6 +506,93 @@ public abstract class AbstractTransform extends AbstractPrePostCodeContainer imp
       return m_iInstanceVersion;
    }
    
+   /**
+    * Gets the user's estimate of the runtime of the transform.  The estimate
+    * is used to order the steps of the job when the transform has not been 
+    * measured.
+    * 
+    * @return the estimated runtime in seconds or 
+    *         IStepRuntimeEstimator.UNKNOWN_RUNTIME if there is no estimate
+    */
+   public double getEstimatedRuntime()
+   {
+      return m_dEstimatedRuntime;
+   }
+   
+   /**
+    * Sets the user's estimate of the runtime of the transform.
+    * 
+    * @param dRuntime the estimated runtime in seconds or 
+    *                 IStepRuntimeEstimator.UNKNOWN_RUNTIME to remove the estimate
+    */
+   public void setEstimatedRuntime(double dRuntime)
+   {
+      if (dRuntime < 0)
+         dRuntime = IStepRuntimeEstimator.UNKNOWN_RUNTIME;
+      if (m_dEstimatedRuntime==dRuntime)
+         return;
+      
+      if (isUndoSupported())
+         undoableEditHappened( new SetEstimatedRuntimeUndoable(m_dEstimatedRuntime, dRuntime));
+      
+      m_dEstimatedRuntime = dRuntime;
+      
+      fireModelChangedEvent( ESTIMATED_RUNTIME_CHANGED, null );
+   }
+   
+   /**
+    * Is the transform skipped by a rerun of the job when its code and inputs
+    * are unchanged since it last succeeded?
+    * 
+    * @return true = the transform is skipped when unchanged
+    * 
+    * @see StepFingerprint
+    */
+   public boolean isSkipIfUnchanged()
+   {
+      return m_bSkipIfUnchanged;
+   }
+   
+   /**
+    * Sets whether the transform is skipped by a rerun of the job when its code
+    * and inputs are unchanged since it last succeeded.  The transform's code 
+    * is run inside a macro, so macro variables the code creates without 
+    * declaring them global are local to the transform.
+    * 
+    * @param bSkipIfUnchanged true = skip the transform when unchanged
+    * 
+    * @see StepFingerprint
+    */
+   public void setSkipIfUnchanged(boolean bSkipIfUnchanged)
+   {
+      if (m_bSkipIfUnchanged==bSkipIfUnchanged)
+         return;
+      
+      if (isUndoSupported())
+         undoableEditHappened( new SetSkipIfUnchangedUndoable(m_bSkipIfUnchanged, bSkipIfUnchanged));
+      
+      m_bSkipIfUnchanged = bSkipIfUnchanged;
+      
+      fireModelChangedEvent( SKIP_IF_UNCHANGED_CHANGED, null );
+   }
+   
+   /**
+    * May the transform's code be skipped by a rerun of the job?  This is 
+    * decided without the code generation run, so it is also true for 
+    * transforms that end up always run (see 
+    * {@link StepFingerprint#isSupported(ITransform, IServer, ICodeGenerationEnvironment)}).
+    * The code of such a transform must not rely on or provide definitions 
+    * shared with other transforms, such as librefs and macros, because it may
+    * not run, and must not depend on what other transforms generated, so its
+    * fingerprint does not change with them.
+    * 
+    * @return true = the transform's code may be skipped
+    */
+   boolean isSkippable()
+   {
+      return isSkipIfUnchanged() && StepFingerprint.isSupported( this );
+   }
+   
    public boolean isRunAlways()
    {
       return m_bRunAlways;
@@ -816,7 +940,18 @@ public abstract class AbstractTransform extends AbstractPrePostCodeContainer imp
    public final ICodeSegment getCompleteCode( ICodeGenerationEnvironment environment )
    throws CodegenException, MdException, RemoteException, BadServerDefinitionException, BadLibraryDefinitionException, ServerException
    {
-      return getCompleteCode( environment.createNewCodeSegment( this ) );
+      CodeGenerationCache.beginRun( environment );
+      try
+      {
+         planTransfers( environment );
+         ICodeSegment codeSegment = getCompleteCode( environment.createNewCodeSegment( this ) );
+         genMappingMacroReport( codeSegment );
+         return codeSegment;
+      }
+      finally
+      {
+         CodeGenerationCache.endRun( environment );
+      }
    }
    
    
@@ -830,7 +965,7 @@ public abstract class AbstractTransform extends AbstractPrePostCodeContainer imp
       
       if (isCodeGenerationEnabled())
       {
-         if (isCompleteWithUserWritten())
+         if (getValidationResult().isComplete())
          {
             // get environment quoting flag set (and validvarname code gen'd) before genRemoteCodeStart needs flag
             getValidVarNameCode(codeSegment,false);
@@ -839,7 +974,7 @@ public abstract class AbstractTransform extends AbstractPrePostCodeContainer imp
            
             getGeneratedDefaultParameterCode( codeSegment );
 
-            IServer stepServer = getServerForStep( codeSegment.getCurrentServer() );
+            IServer stepServer = getServerForStep( codeSegment.getCurrentServer(), codeSegment.getCodeGenerationEnvironment() );
             
             if (isRemote)
                getGeneratedRemoteCodeStart( stepServer, codeSegment, defaultServer , isValidate);
@@ -856,7 +991,7 @@ public abstract class AbstractTransform extends AbstractPrePostCodeContainer imp
    {
       if (isCodeGenerationEnabled())
       {
-         if (isCompleteWithUserWritten())
+         if (getValidationResult().isComplete())
          {
         	// for transform keep the default parameters local, so that if a transform down stream
         	// has a parameter by the same name, it will generate its default value instead of using
@@ -886,7 +1021,16 @@ public abstract class AbstractTransform extends AbstractPrePostCodeContainer imp
    public ICodeSegment getCompleteValidateCode( ICodeGenerationEnvironment environment )
    throws CodegenException, MdException, RemoteException, BadServerDefinitionException, BadLibraryDefinitionException, ServerException
    {
-      return getCompleteValidateCode( environment.createNewCodeSegment( this ) );  
+      CodeGenerationCache.beginRun( environment );
+      try
+      {
+         planTransfers( environment );
+         return getCompleteValidateCode( environment.createNewCodeSegment( this ) );
+      }
+      finally
+      {
+         CodeGenerationCache.endRun( environment );
+      }
    }
    
    protected ICodeSegment getPreValidateCode(ICodeSegment codeSegment)
@@ -930,7 +1074,7 @@ public abstract class AbstractTransform extends AbstractPrePostCodeContainer imp
             return getValidateExplicitOnComment( codeSegment );
          }
          
-         IServer stepServer = getServerForStep( previousServer );
+         IServer stepServer = getServerForStep( previousServer, environment );
 
          boolean isRemote = !ObjectComparator.isEqual(previousServer,stepServer);
          
@@ -946,7 +1090,8 @@ public abstract class AbstractTransform extends AbstractPrePostCodeContainer imp
    
             if (isCodeGenerationEnabled())
             {
-               if (isCompleteWithUserWritten())
+               ValidationResult validation = getValidationResult();
+               if (validation.isComplete())
                {
                   getPreValidateCode( codeSegment );
                   getGeneratedCode( codeSegment, true );
@@ -954,9 +1099,7 @@ public abstract class AbstractTransform extends AbstractPrePostCodeContainer imp
                }
                else
                {
-                  // TODO fix this because this is redundant and should not have to
-                  // call in both cases
-                  List inc = getReasonsIncomplete();
+                  List inc = validation.getReasonsIncomplete();
                   for ( int i = 0; i < inc.size(); i++ )
                      codeSegment.addCommentLine( inc.get( i ).toString() );
                   codeSegment.addSourceCode( "\n" );
@@ -1036,22 +1179,40 @@ public abstract class AbstractTransform extends AbstractPrePostCodeContainer imp
       IServer previousServer = environment.getCurrentServer();
       try
       {
-         IServer stepServer = getServerForStep( previousServer );
+         IServer stepServer = getServerForStep( previousServer, environment );
 
          boolean isRemote = previousServer!=null ? !ObjectComparator.isEqual(previousServer,stepServer) : false;
 
-         boolean bIsComplete = isCompleteWithUserWritten();
+         ValidationResult validation  = getValidationResult();
+         boolean          bIsComplete = validation.isComplete();
          ICheckpointRestart cpr = createNewCheckpointRestart();
 
         cpr.getCheckpointRestartPreStepCode(codeSegment);   
          
+         StepFingerprint fingerprint = null;
+         if (bIsComplete && isSkipIfUnchanged() && StepFingerprint.isSupported( this, previousServer, environment ))
+            fingerprint = new StepFingerprint( (AbstractDataTransform) this );
+         
+         // the header is generated before the macro of a step skipped when 
+         // unchanged, so the macro variables it sets are not local to the macro
+         ICodeSegment header = null;
          if (isGenerateDISHeaderAndFooters())
          {
-            ICodeSegment header = codeSegment.createNewCodeSegment( getPreProcessCode() ); 
+            header = codeSegment.createNewCodeSegment( getPreProcessCode() ); 
             header.setIndent(codeSegment.getIndents());
             getGeneratedCodeHeader( header, previousServer,  isRemote, false );
             codeSegment.setIndent( header.getIndents() );
          }
+         
+         // steps skipped when unchanged are generated into their own segment
+         // so the fingerprint can be taken of their code
+         ICodeSegment stepSegment = codeSegment;
+         if (fingerprint != null)
+         {
+            fingerprint.genPreStepCode( codeSegment );
+            stepSegment = codeSegment.createNewCodeSegment( this );
+            stepSegment.setIndent( codeSegment.getIndents() );
+         }
 
          if (isCodeGenerationEnabled())
          {
@@ -1060,32 +1221,33 @@ public abstract class AbstractTransform extends AbstractPrePostCodeContainer imp
 
                if (!isUsingUserWrittenCode())
                {
-                  getGeneratedCode( codeSegment );
+                  getGeneratedCode( stepSegment );
                }
                else
                {
-                  codeSegment.genUserWrittenCode( this, false );
+                  stepSegment.genUserWrittenCode( this, false );
                }
                
             }
             else
             {
-               // TODO fix this because this is redundant and should not have to
-               // call in both cases
-               List inc = getReasonsIncomplete();
+               List inc = validation.getReasonsIncomplete();
                for ( int i = 0; i < inc.size(); i++ )
-                  codeSegment.addCommentLine( inc.get( i ).toString() );
-               codeSegment.addSourceCode( "\n" );
+                  stepSegment.addCommentLine( inc.get( i ).toString() );
+               stepSegment.addSourceCode( "\n" );
             }
          }
          
          if (isGenerateDISHeaderAndFooters())
          {
-            ICodeSegment footer = codeSegment.createNewCodeSegment( getPostProcessCode() );
-            footer.setIndent( codeSegment.getIndents() );
+            ICodeSegment footer = stepSegment.createNewCodeSegment( getPostProcessCode() );
+            footer.setIndent( stepSegment.getIndents() );
             getGeneratedCodeFooter( footer,previousServer, isRemote, false );
          }
 
+         if (fingerprint != null)
+            fingerprint.genPostStepCode( codeSegment, ((header == null) ? "" : header.toString()) + stepSegment.toString() );
+
          cpr.getCheckpointRestartPostStepCode(codeSegment);         
 
       }
@@ -1169,7 +1331,25 @@ public abstract class AbstractTransform extends AbstractPrePostCodeContainer imp
 	   
 	   ILibrary altTempLib = currentJob.getAlternateTemporaryLibrary();
 
-	   List localLiblist = codeSegment.getCodeGenerationEnvironment().getLibrariesGeneratedList();
+	   ICodeGenerationEnvironment environment = codeSegment.getCodeGenerationEnvironment();
+	   List localLiblist = environment.getLibrariesGeneratedList();
+	   
+	   // libraries a step that always runs assigned for a later step on this 
+	   // server stay assigned (see LibnameAssignmentPlanner)
+	   LibnameAssignmentPlanner planner = null;
+	   IServer server = codeSegment.getCurrentServer();
+	   try
+	   {
+		   planner = CodeGenerationCache.getCache( environment ).getLibnameAssignmentPlanner( currentJob, environment.getDefaultServer() );
+	   }
+	   catch (BadServerDefinitionException e)
+	   {
+		   ModelLogger.getDefaultLogger().debug( "BadServerDefinitionException",e );
+	   }
+	   catch (BadLibraryDefinitionException e)
+	   {
+		   ModelLogger.getDefaultLogger().debug( "BadLibraryDefinitionException",e );
+	   }
 
 	   if (localLiblist != null && localLiblist.size() > 0)
 	   {
@@ -1182,10 +1362,14 @@ public abstract class AbstractTransform extends AbstractPrePostCodeContainer imp
 				   continue;
 			   if (lib.isPreAssigned())
 				   continue;
+			   if (planner != null && planner.isAssigned( lib, server ) && planner.isUsedAfter( lib, server, this ))
+				   continue;
 			   codeSegment.addSourceCode("/* ").addSourceCode("libname " + lib.getLibref() + " clear; */\n");
-			   if (codeSegment.getCodeGenerationEnvironment().isGenerateRCSetCalls())
+			   if (environment.isGenerateRCSetCalls())
 				   codeSegment.genRCSetCall("&syslibrc");    /*I18nOK:LINE*/
 			   localLiblist.remove(lib);
+			   if (planner != null)
+				   planner.setAssigned( lib, server, false );
 		   }
        }
 	   return codeSegment;
@@ -1247,13 +1431,14 @@ public abstract class AbstractTransform extends AbstractPrePostCodeContainer imp
          {
             if (!isUsingUserWrittenCode())
             {
-               if (isCompleteWithUserWritten())
+               ValidationResult validation = getValidationResult();
+               if (validation.isComplete())
                {
                   getGeneratedCode( codeSegment );
                }
                else
                {
-                  List inc = getReasonsIncomplete();
+                  List inc = validation.getReasonsIncomplete();
                   for (int i=0; i<inc.size(); i++)
                      codeSegment.addCommentLine( inc.get(i).toString() );
                   codeSegment.addSourceCode( "\n" );
@@ -1315,6 +1500,20 @@ public abstract class AbstractTransform extends AbstractPrePostCodeContainer imp
       return codeSegment;
    }
 
+   /**
+    * Gets the measurements of the transform's previous runs.  The measurements
+    * are read from the ARM logs of runs with runtime statistics enabled (see
+    * getRuntimeStatistics) and kept in the default step statistics store.
+    * 
+    * @return the runtime history or null if the transform has not been measured
+    * 
+    * @see StepStatisticsStore#getDefaultStore()
+    */
+   public StepStatistics getRuntimeHistory()
+   {
+      return StepStatisticsStore.getDefaultStore().getStatistics( getID() );
+   }
+
    public ICodeSegment getRuntimeStatisticsComplete(ICodeSegment codeSegment)
    throws CodegenException
    {
@@ -1600,11 +1799,12 @@ public abstract class AbstractTransform extends AbstractPrePostCodeContainer imp
       if (!isCodeGenerationEnabled())
          codeSegment.genCommentNotActive(divider + "*");
 
-      if (hasWarnings())
+      ValidationResult validation = getValidationResult();
+      if (validation.hasWarnings())
       {
          codeSegment.genCommentLine("","","");
          codeSegment.genCommentLine( RB.getStringResource( "AbstractTransform.Warnings.txt" ),"","");
-         List warnings = getWarnings();
+         List warnings = validation.getWarnings();
          for (int i=0; i<warnings.size(); i++)
             codeSegment.genCommentLine( codeSegment.splitString( warnings.get( i ).toString(), ICodeSegment.LINE_LENGTH-5, false ) );
       }
@@ -1853,21 +2053,88 @@ public abstract class AbstractTransform extends AbstractPrePostCodeContainer imp
    
    /**
     * Get the IServer for this step, takes default server passed in as consideration for the host selection.
+    * The server is the one the job's code runs the step on, so a step the 
+    * data transfer planner moves to another server is on that server.
     * 
     * @param defaultServer the default IServer, if this method is to take the default server into consideration, otherwise null
     * 
     * @return The IServer for this step
     * 
+    * @see #getServerForStep(IServer, ICodeGenerationEnvironment)
     */
    public IServer getServerForStep(IServer defaultServer) 
    throws BadServerDefinitionException, BadLibraryDefinitionException
+   {
+      return getServerForStep( defaultServer, null );
+   } // method: getServerForStep
+   
+   /**
+    * Get the IServer for this step during a code generation run.  The server is
+    * resolved once per run and default server and then reused from the run's
+    * code generation cache.  Without an environment the server is resolved
+    * through a cache of its own, in which the job's data transfers are 
+    * planned the way a run plans them.
+    * 
+    * @param defaultServer the default IServer
+    * @param environment   the code generation environment (may be null)
+    * 
+    * @return The IServer for this step
+    * 
+    * @see CodeGenerationCache#getServerForStep(ITransform, IServer)
+    */
+   public IServer getServerForStep(IServer defaultServer, ICodeGenerationEnvironment environment) 
+   throws BadServerDefinitionException, BadLibraryDefinitionException
+   {
+      return getServerCache( defaultServer, environment ).getServerForStep( this, defaultServer );
+   }
+   
+   /**
+    * Resolves the IServer for this step from the step itself.  The code 
+    * generation cache calls this the first time a step's server is requested;
+    * everything else gets the server through the cache, so that it sees the
+    * servers the cache planned for moved steps.
+    * 
+    * @param defaultServer the default IServer
+    * @param cache         the code generation cache resolving the server
+    * 
+    * @return The IServer for this step
+    * 
+    * @throws BadServerDefinitionException
+    * @throws BadLibraryDefinitionException
+    */
+   protected IServer resolveServerForStep(IServer defaultServer, CodeGenerationCache cache) 
+   throws BadServerDefinitionException, BadLibraryDefinitionException
    {
       IServer server = getExecutionServer();
       if (server==null)
          server = defaultServer;
       
       return server;
-   } // method: getServerForStep
+   } // method: resolveServerForStep
+   
+   /**
+    * Gets the code generation cache that the servers of the job's steps are 
+    * resolved through.  During a run this is the run's cache, whose transfers
+    * the run planned when it began.  Outside a run it is a new cache in which
+    * the job's transfers are planned for the default server.
+    * 
+    * @param defaultServer the default IServer
+    * @param environment   the code generation environment (may be null)
+    * 
+    * @return the code generation cache
+    * 
+    * @throws BadServerDefinitionException
+    * @throws BadLibraryDefinitionException
+    */
+   CodeGenerationCache getServerCache(IServer defaultServer, ICodeGenerationEnvironment environment)
+   throws BadServerDefinitionException, BadLibraryDefinitionException
+   {
+      CodeGenerationCache cache = CodeGenerationCache.getCache( environment );
+      IJob                job   = getJob();
+      if (environment==null && job!=null)
+         cache.planTransfers( job, defaultServer, StepStatisticsStore.getDefaultStore() );
+      return cache;
+   }
    
 
    /**
@@ -1990,6 +2257,10 @@ public abstract class AbstractTransform extends AbstractPrePostCodeContainer imp
       
       saveBooleanOptionToOMR( omr, OPTION_RUN_ALWAYS, isRunAlways() );
       
+      saveDoubleOptionToOMR( omr, ESTIMATED_RUNTIME, (m_dEstimatedRuntime < 0) ? null : new Double( m_dEstimatedRuntime ) );
+      
+      saveBooleanOptionToOMR( omr, SKIP_IF_UNCHANGED, isSkipIfUnchanged() );
+      
       savePropertyToOMR( omr, OPTIONS_PROPERTYSET, CLEAR_LIBRREFS, CLEAR_LIBRREFS, CLEAR_LIBRREFS, m_sClearLibrefs, Types.VARCHAR, USE_PROPERTYSET_PROPERTIES );
 
       saveStringOptionToOMR( omr, UI_PROPERTY, UIPlacementUtil.createXMLFromUIPlacement(getUIPlacement()));
@@ -2124,6 +2395,11 @@ public abstract class AbstractTransform extends AbstractPrePostCodeContainer imp
       setCheckpointEnabled( loadBooleanOptionFromOMR( omr, OPTIONS_PROPERTYSET, OPTION_ENABLE_CHECKPOINTS, false ) );
       
       setRunAlways( loadBooleanOptionFromOMR( omr, OPTION_RUN_ALWAYS, false ) );
+      
+      Double dEstimatedRuntime = loadDoubleOptionFromOMR( omr, ESTIMATED_RUNTIME, null );
+      setEstimatedRuntime( (dEstimatedRuntime == null) ? IStepRuntimeEstimator.UNKNOWN_RUNTIME : dEstimatedRuntime.doubleValue() );
+      
+      setSkipIfUnchanged( loadBooleanOptionFromOMR( omr, SKIP_IF_UNCHANGED, false ) );
 
       
       setUIPlacement(UIPlacementUtil.createUIPlacementFromXML(loadStringOptionFromOMR(omr, UI_PROPERTY, "")));
@@ -2500,6 +2776,92 @@ public abstract class AbstractTransform extends AbstractPrePostCodeContainer imp
       }
    } // SetRunAlwaysUndoable
    
+   /**
+    * SetEstimatedRuntimeUndoable is the undoable for setEstimatedRuntime 
+    */
+   private class SetEstimatedRuntimeUndoable extends AbstractUndoableEdit
+   {
+      private double m_dOldValue;
+      private double m_dNewValue;
+      
+      /**
+       * Constructs the set estimated runtime undoable.
+       * 
+       * @param dOldValue the old estimated runtime
+       * @param dNewValue the new estimated runtime
+       */
+      public SetEstimatedRuntimeUndoable( double dOldValue, double dNewValue )
+      {
+         m_dOldValue = dOldValue;
+         m_dNewValue = dNewValue;
+      }
+      
+      /**
+       * Undoes the setting of the estimated runtime.
+       * 
+       * @see javax.swing.undo.UndoableEdit#undo()
+       */
+      public void undo()
+      {
+         super.undo();
+         setEstimatedRuntime( m_dOldValue );
+      }
+      
+      /**
+       * Redoes the setting of the estimated runtime.
+       * 
+       * @see javax.swing.undo.UndoableEdit#redo()
+       */
+      public void redo()
+      {
+         super.redo();
+         setEstimatedRuntime( m_dNewValue );
+      }
+   } // SetEstimatedRuntimeUndoable
+   
+   /**
+    * SetSkipIfUnchangedUndoable is the undoable for setSkipIfUnchanged 
+    */
+   private class SetSkipIfUnchangedUndoable extends AbstractUndoableEdit
+   {
+      private boolean m_bOldValue;
+      private boolean m_bNewValue;
+      
+      /**
+       * Constructs the set skip if unchanged undoable.
+       * 
+       * @param bOldValue the old skip if unchanged attribute
+       * @param bNewValue the new skip if unchanged attribute
+       */
+      public SetSkipIfUnchangedUndoable( boolean bOldValue, boolean bNewValue )
+      {
+         m_bOldValue = bOldValue;
+         m_bNewValue = bNewValue;
+      }
+      
+      /**
+       * Undoes the setting of the skip if unchanged attribute.
+       * 
+       * @see javax.swing.undo.UndoableEdit#undo()
+       */
+      public void undo()
+      {
+         super.undo();
+         setSkipIfUnchanged( m_bOldValue );
+      }
+      
+      /**
+       * Redoes the setting of the skip if unchanged attribute.
+       * 
+       * @see javax.swing.undo.UndoableEdit#redo()
+       */
+      public void redo()
+      {
+         super.redo();
+         setSkipIfUnchanged( m_bNewValue );
+      }
+   } // SetSkipIfUnchangedUndoable
+   
    /**
     * SetGenerateDISHeaderAndFooters is the undoable for setting whether the 
     * job is automatically generating the DIS header and footer code.
@@ -2890,16 +3252,76 @@ public abstract class AbstractTransform extends AbstractPrePostCodeContainer imp
    
    public final ICodeSegment[] getCodeSegments( ICodeGenerationEnvironment environment )
    throws MdException, RemoteException, BadLibraryDefinitionException, BadServerDefinitionException, ServerException, CodegenException
+   {
+      CodeGenerationCache.beginRun( environment );
+      try
+      {
+         planTransfers( environment );
+         ICodeSegment[] codeSegments = genCodeSegments( environment );
+         if (codeSegments.length > 0)
+            genMappingMacroReport( codeSegments[ codeSegments.length - 1 ] );
+         return codeSegments;
+      }
+      finally
+      {
+         CodeGenerationCache.endRun( environment );
+      }
+   }
+   
+   /**
+    * Generates the report of the mapping code shared through macros at the
+    * end of the program of the outermost code generation run.  The generator
+    * of a program of several steps reports it itself, after the last step.
+    * 
+    * @param codeSegment the last code segment of the program
+    * 
+    * @see MappingMacroPlanner#genReportComment(ICodeSegment)
+    */
+   private void genMappingMacroReport( ICodeSegment codeSegment )
+   {
+      CodeGenerationCache cache  = CodeGenerationCache.getCache( codeSegment.getCodeGenerationEnvironment() );
+      MappingMacroPlanner macros = cache.getMappingMacroPlanner();
+      if ((macros != null) && cache.isOutermostRun())
+         macros.genReportComment( codeSegment );
+   }
+   
+   /**
+    * Plans the servers of the steps of the step's job for the run, using the
+    * row counts recorded by earlier runs, so the step is generated on the
+    * server the job's code runs it on.
+    * 
+    * @param environment the code generation environment
+    * 
+    * @see CodeGenerationCache#planTransfers(IJob, IServer, ITableRowCountEstimator)
+    */
+   private void planTransfers( ICodeGenerationEnvironment environment )
+   throws BadServerDefinitionException, BadLibraryDefinitionException
+   {
+      IJob job = getJob();
+      if (job != null)
+         CodeGenerationCache.getCache( environment ).planTransfers( job, environment.getDefaultServer(), StepStatisticsStore.getDefaultStore() );
+   }
+   
+   /**
+    * Generates the code of the step as header, body and footer segments.
+    * 
+    * @param environment the code generation environment
+    * 
+    * @return the code segments
+    */
+   private ICodeSegment[] genCodeSegments( ICodeGenerationEnvironment environment )
+   throws MdException, RemoteException, BadLibraryDefinitionException, BadServerDefinitionException, ServerException, CodegenException
    {
       List segments = new ArrayList();
       
       IServer previousServer = environment.getDefaultServer();
       
-      IServer stepServer = getServerForStep( previousServer );
+      IServer stepServer = getServerForStep( previousServer, environment );
 
       boolean isRemote = !ObjectComparator.isEqual(previousServer,stepServer);
 
-      boolean bIsComplete = isCompleteWithUserWritten();
+      ValidationResult validation  = getValidationResult();
+      boolean          bIsComplete = validation.isComplete();
 
       //header 
       ICodeSegment header = environment.createNewCodeSegment(getPreProcessCode());
@@ -2928,9 +3350,7 @@ public abstract class AbstractTransform extends AbstractPrePostCodeContainer imp
          }
          else
          {
-            // TODO fix this because this is redundant and should not have to
-            // call in both cases
-            List inc = getReasonsIncomplete();
+            List inc = validation.getReasonsIncomplete();
             for ( int i = 0; i < inc.size(); i++ )
             	body.addCommentLine( inc.get( i ).toString() );
             body.addSourceCode( "\n" );
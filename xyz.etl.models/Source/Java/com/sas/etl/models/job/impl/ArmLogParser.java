@@ -0,0 +1,237 @@
+/* $Id$ */
+/**
+ * Title:       ArmLogParser.java
+ * Description: Reads ARM logs written by jobs run with statistics collection.
+ * Copyright:   Copyright (c) 2012
+ * Company:     SAS Institute
+ */
+package com.sas.etl.models.job.impl;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.sas.etl.models.impl.ModelLogger;
+
+/**
+ * ArmLogParser reads the ARM log of a job run with runtime statistics enabled
+ * and records the runs of the job's steps in a {@link StepStatisticsStore}.
+ * The steps are measured by the %perfstrt and %perfstop calls generated by
+ * {@link AbstractTransform#getRuntimeStatistics(com.sas.etl.models.job.ICodeSegment)},
+ * whose transaction names have the form
+ * <code>_DISARM|transform id|host|step name</code>.
+ * <p>
+ * The log is made of comma separated records.  The records used are:
+ * <pre>
+ *   G,time,application id,transaction id,transaction name,description[,metric name,metric type]...
+ *   S,time,application id,transaction id,start handle,user CPU,system CPU[,metric value]...
+ *   P,time,application id,transaction id,start handle,user CPU,system CPU,status[,metric value]...
+ * </pre>
+ * Times are in seconds.  The row count of a step is the value of the
+ * _DISROWCNT metric, the only metric the generated code defines.  Other
+ * records and transactions not generated for a step are ignored.
+ */
+public class ArmLogParser
+{
+   /** the prefix of the transaction names of steps */
+   public static final String TRANSACTION_PREFIX = "_DISARM|";           // I18NOK:LINE
+
+   /** the name of the row count metric */
+   public static final String ROW_COUNT_METRIC   = "_DISROWCNT";         // I18NOK:LINE
+
+   private static final String TRANSACTION_RECORD = "G";                 // I18NOK:LINE
+   private static final String START_RECORD       = "S";                 // I18NOK:LINE
+   private static final String STOP_RECORD        = "P";                 // I18NOK:LINE
+
+   private StepStatisticsStore m_store;
+   private Map                 m_mapTransactions;   // application id + transaction id to Transaction
+   private Map                 m_mapStarts;         // application id + transaction id + start handle to Start
+   private int                 m_nRuns;             // number of runs recorded
+
+   /**
+    * Constructs the parser.
+    *
+    * @param store the store the runs are recorded in
+    */
+   public ArmLogParser( StepStatisticsStore store )
+   {
+      m_store           = store;
+      m_mapTransactions = new HashMap();
+      m_mapStarts       = new HashMap();
+   }
+
+   /**
+    * Reads an ARM log.  The reader is not closed.
+    *
+    * @param reader the reader of the log
+    *
+    * @throws IOException
+    */
+   public void parse( Reader reader )
+   throws IOException
+   {
+      BufferedReader in = (reader instanceof BufferedReader) ? (BufferedReader) reader : new BufferedReader( reader );
+      String         sLine;
+      while ((sLine = in.readLine()) != null)
+         parseRecord( sLine );
+   }
+
+   /**
+    * Reads a record of an ARM log.  Records that are not understood are
+    * ignored.
+    *
+    * @param sRecord the record
+    */
+   public void parseRecord( String sRecord )
+   {
+      String[] aFields = sRecord.split( ",", -1 );
+      if (aFields.length < 5)
+         return;
+      for ( int i=0; i<aFields.length; i++ )
+         aFields[i] = aFields[i].trim();
+
+      try
+      {
+         String sType = aFields[0];
+         if (TRANSACTION_RECORD.equals( sType ))
+            parseTransaction( aFields );
+         else if (START_RECORD.equals( sType ) && (aFields.length >= 7))
+            parseStart( aFields );
+         else if (STOP_RECORD.equals( sType ) && (aFields.length >= 8))
+            parseStop( aFields );
+      }
+      catch (NumberFormatException e)
+      {
+         ModelLogger.getDefaultLogger().debug( "NumberFormatException", e );
+      }
+   }
+
+   /**
+    * Gets the number of step runs recorded so far.
+    *
+    * @return the number of runs
+    */
+   public int getRunCount()
+   {
+      return m_nRuns;
+   }
+
+   /**
+    * Reads a transaction definition record.
+    *
+    * @param aFields the fields of the record
+    */
+   private void parseTransaction( String[] aFields )
+   {
+      String sName = aFields[4];
+      if (!sName.startsWith( TRANSACTION_PREFIX ))
+         return;
+
+      int iEnd = sName.indexOf( '|', TRANSACTION_PREFIX.length() );
+      if (iEnd < 0)
+         return;
+
+      boolean bRowCount = false;
+      for ( int i=5; i<aFields.length; i++ )
+         bRowCount |= ROW_COUNT_METRIC.equals( aFields[i] );
+
+      m_mapTransactions.put( getKey( aFields[2], aFields[3] ),
+                             new Transaction( sName.substring( TRANSACTION_PREFIX.length(), iEnd ), bRowCount ) );
+   }
+
+   /**
+    * Reads a transaction start record.
+    *
+    * @param aFields the fields of the record
+    */
+   private void parseStart( String[] aFields )
+   {
+      String sKey = getKey( aFields[2], aFields[3] );
+      if (!m_mapTransactions.containsKey( sKey ))
+         return;
+
+      m_mapStarts.put( sKey + "|" + aFields[4],
+                       new Start( Double.parseDouble( aFields[1] ),
+                                  Double.parseDouble( aFields[5] ) + Double.parseDouble( aFields[6] ) ) );
+   }
+
+   /**
+    * Reads a transaction stop record and records the step run.
+    *
+    * @param aFields the fields of the record
+    */
+   private void parseStop( String[] aFields )
+   {
+      String      sKey        = getKey( aFields[2], aFields[3] );
+      Transaction transaction = (Transaction) m_mapTransactions.get( sKey );
+      Start       start       = (Start) m_mapStarts.remove( sKey + "|" + aFields[4] );
+      if ((transaction == null) || (start == null))
+         return;
+
+      double dElapsed = Double.parseDouble( aFields[1] ) - start.m_dTime;
+      double dCPU     = Double.parseDouble( aFields[5] ) + Double.parseDouble( aFields[6] ) - start.m_dCPU;
+      long   lRows    = StepStatistics.UNKNOWN;
+      if (transaction.m_bRowCount && (aFields.length > 8) && (aFields[8].length() > 0))
+         lRows = (long) Double.parseDouble( aFields[8] );
+
+      m_store.addRun( transaction.m_sTransformID, dElapsed, dCPU, lRows );
+      m_nRuns++;
+   }
+
+   /**
+    * Gets the key of a transaction.
+    *
+    * @param sApplication the application id
+    * @param sTransaction the transaction id
+    *
+    * @return the key
+    */
+   private String getKey( String sApplication, String sTransaction )
+   {
+      return sApplication + "|" + sTransaction;
+   }
+
+   /**
+    * Transaction is a step transaction defined in the log.
+    */
+   private static class Transaction
+   {
+      private String  m_sTransformID;
+      private boolean m_bRowCount;     // true = the row count metric is defined
+
+      /**
+       * Constructs the transaction.
+       *
+       * @param sTransformID the id of the measured transform
+       * @param bRowCount    true = the row count metric is defined
+       */
+      public Transaction( String sTransformID, boolean bRowCount )
+      {
+         m_sTransformID = sTransformID;
+         m_bRowCount    = bRowCount;
+      }
+   } // Transaction
+
+   /**
+    * Start is a started step transaction.
+    */
+   private static class Start
+   {
+      private double m_dTime;   // start time
+      private double m_dCPU;    // CPU used at start
+
+      /**
+       * Constructs the start.
+       *
+       * @param dTime the start time
+       * @param dCPU  the CPU used at start
+       */
+      public Start( double dTime, double dCPU )
+      {
+         m_dTime = dTime;
+         m_dCPU  = dCPU;
+      }
+   } // Start
+}
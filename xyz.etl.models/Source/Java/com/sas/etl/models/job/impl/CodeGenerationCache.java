@@ -0,0 +1,610 @@
+/* $Id$ */
+/**
+ * Title:       CodeGenerationCache.java
+ * Description: Per code generation run memoization of job-wide resolutions.
+ * Copyright:   Copyright (c) 2012
+ * Company:     SAS Institute
+ */
+package com.sas.etl.models.job.impl;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import com.sas.etl.models.data.BadLibraryDefinitionException;
+import com.sas.etl.models.data.ILibrary;
+import com.sas.etl.models.job.ICodeGenerationEnvironment;
+import com.sas.etl.models.job.IDataTransform;
+import com.sas.etl.models.job.IJob;
+import com.sas.etl.models.job.IStepRuntimeEstimator;
+import com.sas.etl.models.job.ITableRowCountEstimator;
+import com.sas.etl.models.job.ITransform;
+import com.sas.etl.models.other.BadServerDefinitionException;
+import com.sas.etl.models.other.IServer;
+
+/**
+ * CodeGenerationCache holds resolutions that do not change for the duration
+ * of a code generation run but are expensive to recompute, such as the server
+ * a step runs on and the best server for a library.  One cache is associated
+ * with each code generation environment.
+ * <p>
+ * A run is bracketed by {@link #beginRun} and {@link #endRun}.  Runs nest:
+ * the code generation entry points of a step begin and end a run of their
+ * own, and the cache is released when the outermost run ends, so an
+ * environment reused for another run starts with an empty cache.  Code that
+ * generates several steps as one run, such as the code of a whole job, must
+ * begin a run around all of them so the steps share the cache.  The cache is
+ * also dropped when the environment itself is garbage collected.  Outside a
+ * run, {@link #getCache} answers a throwaway cache, so nothing is memoized.
+ * <p>
+ * The model must not be edited while a run is using the cache.  Code that
+ * reuses an environment across model edits must release the cache first.
+ */
+public class CodeGenerationCache
+{
+   // environment to cache, weak so an abandoned environment drops its cache
+   private static final Map s_mapCaches = new WeakHashMap();
+   // environment to Boolean, whether its runs share mapping code through macros
+   private static final Map s_mapMappingMacros = new WeakHashMap();
+
+   private Map m_mapStepServers;      // transform to (default server key to step server)
+   private Map m_mapLibraryServers;   // library to (default server key to best server)
+   private Map m_mapSyslastSteps;     // transform to the transform SYSLAST refers to
+   private Set m_setMacros;           // server key and name of the macros defined in the sessions
+   private Map m_mapAlwaysRun;        // step to Boolean, whether its code runs whenever the job runs
+   private IJob m_jobAlwaysRun;       // the job m_mapAlwaysRun was computed for
+
+   private LibnameAssignmentPlanner  m_libnamePlanner;
+   private WorkTableLifetimeAnalyzer m_workTableLifetimes;
+   private DataTransferPlanner       m_transferPlanner;
+   private JobDependencyGraph        m_dependencyGraph;
+   private MappingMacroPlanner       m_mappingMacros;
+   private boolean                   m_bMappingMacros;
+   private boolean                   m_bTransfersPlanned;
+   private int                       m_nRuns;   // nesting depth of the runs using the cache
+
+   /**
+    * Constructs an empty cache.
+    */
+   protected CodeGenerationCache()
+   {
+      m_mapStepServers    = new IdentityHashMap();
+      m_mapLibraryServers = new IdentityHashMap();
+      m_mapSyslastSteps   = new IdentityHashMap();
+      m_setMacros         = new HashSet();
+   }
+
+   /**
+    * Gets the cache associated with the code generation environment.  Only a
+    * run registers a cache with its environment.  Outside a run a new, empty
+    * cache is returned that is not kept, so callers such as the UI always
+    * resolve against the current model and do not pin a cache to the
+    * environment.
+    *
+    * @param environment the code generation environment (may be null, which
+    *                    is never in a run)
+    *
+    * @return the cache for the environment
+    */
+   public static CodeGenerationCache getCache( ICodeGenerationEnvironment environment )
+   {
+      synchronized (s_mapCaches)
+      {
+         CodeGenerationCache cache = (CodeGenerationCache) s_mapCaches.get( environment );
+         return (cache == null) ? createCache( environment ) : cache;
+      }
+   }
+
+   /**
+    * Creates a cache for a code generation environment.
+    *
+    * @param environment the code generation environment
+    *
+    * @return the new cache
+    */
+   private static CodeGenerationCache createCache( ICodeGenerationEnvironment environment )
+   {
+      CodeGenerationCache cache = new CodeGenerationCache();
+      cache.m_bMappingMacros = Boolean.TRUE.equals( s_mapMappingMacros.get( environment ) );
+      return cache;
+   }
+
+   /**
+    * Sets whether the code generation runs using an environment share 
+    * structurally identical mapping code through generated macros.  The 
+    * setting is kept with the environment, so it applies to every run using
+    * the environment, including a run already started.
+    *
+    * @param environment    the code generation environment
+    * @param bMappingMacros true = share mapping code through macros
+    *
+    * @see MappingMacroPlanner
+    */
+   public static void setMappingMacrosEnabled( ICodeGenerationEnvironment environment, boolean bMappingMacros )
+   {
+      synchronized (s_mapCaches)
+      {
+         s_mapMappingMacros.put( environment, Boolean.valueOf( bMappingMacros ) );
+         CodeGenerationCache cache = (CodeGenerationCache) s_mapCaches.get( environment );
+         if (cache != null)
+            cache.m_bMappingMacros = bMappingMacros;
+      }
+   }
+
+   /**
+    * Do the code generation runs using an environment share structurally 
+    * identical mapping code through generated macros?
+    *
+    * @param environment the code generation environment
+    *
+    * @return true = mapping code is shared through macros
+    */
+   public static boolean isMappingMacrosEnabled( ICodeGenerationEnvironment environment )
+   {
+      synchronized (s_mapCaches)
+      {
+         return Boolean.TRUE.equals( s_mapMappingMacros.get( environment ) );
+      }
+   }
+
+   /**
+    * Begins a code generation run using an environment.  This must be matched
+    * by a call to {@link #endRun}, in a finally block.
+    *
+    * @param environment the code generation environment
+    *
+    * @return the cache for the environment
+    */
+   public static CodeGenerationCache beginRun( ICodeGenerationEnvironment environment )
+   {
+      synchronized (s_mapCaches)
+      {
+         CodeGenerationCache cache = (CodeGenerationCache) s_mapCaches.get( environment );
+         if (cache == null)
+         {
+            cache = createCache( environment );
+            s_mapCaches.put( environment, cache );
+         }
+         cache.m_nRuns++;
+         return cache;
+      }
+   }
+
+   /**
+    * Ends a code generation run using an environment.  When the outermost run
+    * ends, the cache is released.
+    *
+    * @param environment the code generation environment
+    */
+   public static void endRun( ICodeGenerationEnvironment environment )
+   {
+      synchronized (s_mapCaches)
+      {
+         CodeGenerationCache cache = (CodeGenerationCache) s_mapCaches.get( environment );
+         if (cache != null && --cache.m_nRuns <= 0)
+            s_mapCaches.remove( environment );
+      }
+   }
+
+   /**
+    * Is the cache used by the outermost run only?  The code generated by the
+    * outermost run is a whole program.
+    *
+    * @return true = the cache is used by one run that is not nested
+    */
+   public boolean isOutermostRun()
+   {
+      synchronized (s_mapCaches)
+      {
+         return m_nRuns == 1;
+      }
+   }
+
+   /**
+    * Releases the cache associated with the code generation environment 
+    * whatever runs are open.
+    *
+    * @param environment the code generation environment
+    */
+   public static void release( ICodeGenerationEnvironment environment )
+   {
+      synchronized (s_mapCaches)
+      {
+         s_mapCaches.remove( environment );
+      }
+   }
+
+   /**
+    * Gets the server a step runs on.  The first request for a transform and
+    * default server is resolved by the transform, subsequent requests are
+    * answered from the cache.
+    *
+    * @param transform     the transform (step)
+    * @param defaultServer the default server
+    *
+    * @return the server for the step
+    *
+    * @throws BadServerDefinitionException
+    * @throws BadLibraryDefinitionException
+    */
+   public IServer getServerForStep( ITransform transform, IServer defaultServer )
+   throws BadServerDefinitionException, BadLibraryDefinitionException
+   {
+      Map    mapServers = getServerMap( m_mapStepServers, transform );
+      Object key        = getServerKey( defaultServer );
+      if (mapServers.containsKey( key ))
+         return (IServer) mapServers.get( key );
+
+      IServer server = (transform instanceof AbstractTransform) ? ((AbstractTransform) transform).resolveServerForStep( defaultServer, this ) 
+                                                                : transform.getServerForStep( defaultServer );
+      mapServers.put( key, server );
+      return server;
+   }
+
+   /**
+    * Gets the best server for a library.  The first request for a library and
+    * default server is resolved by the library, subsequent requests are
+    * answered from the cache.
+    *
+    * @param library       the library
+    * @param defaultServer the default server
+    *
+    * @return the best server for the library
+    *
+    * @throws BadServerDefinitionException
+    * @throws BadLibraryDefinitionException
+    */
+   public IServer getBestServer( ILibrary library, IServer defaultServer )
+   throws BadServerDefinitionException, BadLibraryDefinitionException
+   {
+      Map    mapServers = getServerMap( m_mapLibraryServers, library );
+      Object key        = getServerKey( defaultServer );
+      if (mapServers.containsKey( key ))
+         return (IServer) mapServers.get( key );
+
+      IServer server = library.getBestServer( defaultServer );
+      mapServers.put( key, server );
+      return server;
+   }
+
+   /**
+    * Does the code of a step run whenever the job runs?  Only the code of such
+    * a step may provide definitions shared with later steps, such as library
+    * assignments, uploaded tables and macros, because the later steps rely on
+    * it having run.  The code of a step may not run when:
+    * <ul>
+    * <li>the step may be skipped by a rerun (see {@link AbstractTransform#isSkippable()}),
+    * <li>the job restarts from a checkpoint, which skips the steps completed 
+    *     before, so no step of a job with checkpoints enabled on any step 
+    *     provides shared definitions, or
+    * <li>the step follows a step that is not a data transform, such as a loop
+    *     or a condition, which may run the steps after it repeatedly or not
+    *     at all.
+    * </ul>
+    * A step whose code may not run must generate the definitions it uses 
+    * itself.
+    * 
+    * @param step the step
+    * 
+    * @return true = the step's code always runs and may provide shared 
+    *         definitions
+    */
+   public boolean isAlwaysRun( ITransform step )
+   {
+      IJob job = step.getJob();
+      if (job == null)
+         return false;
+      
+      if (m_mapAlwaysRun == null || m_jobAlwaysRun != job)
+      {
+         m_mapAlwaysRun = new IdentityHashMap();
+         m_jobAlwaysRun = job;
+         
+         List lSteps = job.getControlOrderedTransformsList();
+         for ( int iStep=0; iStep<lSteps.size(); iStep++ )
+         {
+            Object obj = lSteps.get( iStep );
+            if ((obj instanceof AbstractTransform) && ((AbstractTransform) obj).isCPRStepSetupComplete())
+               return false;
+         }
+         
+         for ( int iStep=0; iStep<lSteps.size(); iStep++ )
+         {
+            Object obj = lSteps.get( iStep );
+            if (!(obj instanceof IDataTransform))
+               break;
+            if (obj instanceof AbstractTransform)
+               m_mapAlwaysRun.put( obj, Boolean.valueOf( !((AbstractTransform) obj).isSkippable() ) );
+         }
+      }
+      
+      return Boolean.TRUE.equals( m_mapAlwaysRun.get( step ) );
+   }
+
+   /**
+    * Gets the transform whose source SYSLAST refers to for a transform.  The 
+    * first request for a transform walks back through its predecessors, 
+    * which are resolved through the cache as well, so resolving every step of 
+    * a job visits each step once.
+    * 
+    * @param transform the transform
+    * 
+    * @return the SYSLAST transform or null if there is none
+    */
+   public IDataTransform getSyslastDataTransform( IDataTransform transform )
+   {
+      if (m_mapSyslastSteps.containsKey( transform ))
+         return (IDataTransform) m_mapSyslastSteps.get( transform );
+
+      IDataTransform syslast = AbstractDataTransform.findSyslastDataTransform( transform, this );
+      m_mapSyslastSteps.put( transform, syslast );
+      return syslast;
+   }
+
+   /**
+    * Gets the LIBNAME assignment planner for the job being generated.  The 
+    * planner is created on first use.
+    *
+    * @param job           the job
+    * @param defaultServer the default server of the run
+    *
+    * @return the LIBNAME assignment planner
+    *
+    * @throws BadServerDefinitionException
+    * @throws BadLibraryDefinitionException
+    */
+   public LibnameAssignmentPlanner getLibnameAssignmentPlanner( IJob job, IServer defaultServer )
+   throws BadServerDefinitionException, BadLibraryDefinitionException
+   {
+      if (m_libnamePlanner == null)
+         m_libnamePlanner = new LibnameAssignmentPlanner( job, defaultServer, this );
+      return m_libnamePlanner;
+   }
+
+   /**
+    * Gets the work table lifetime analysis for the job being generated.  The
+    * analysis is done on first use.
+    *
+    * @param job           the job
+    * @param defaultServer the default server of the run
+    *
+    * @return the work table lifetime analysis
+    *
+    * @throws BadServerDefinitionException
+    * @throws BadLibraryDefinitionException
+    */
+   public WorkTableLifetimeAnalyzer getWorkTableLifetimes( IJob job, IServer defaultServer )
+   throws BadServerDefinitionException, BadLibraryDefinitionException
+   {
+      if (m_workTableLifetimes == null)
+         m_workTableLifetimes = new WorkTableLifetimeAnalyzer( job, defaultServer, this );
+      return m_workTableLifetimes;
+   }
+
+   /**
+    * Gets the dependency graph of the steps of the job being generated.  The
+    * graph is built on first use.
+    *
+    * @param job the job
+    *
+    * @return the dependency graph
+    */
+   public JobDependencyGraph getDependencyGraph( IJob job )
+   {
+      if (m_dependencyGraph == null)
+         m_dependencyGraph = new JobDependencyGraph( job, this );
+      return m_dependencyGraph;
+   }
+
+   /**
+    * Creates a plan for running the independent steps of the job being 
+    * generated concurrently.
+    *
+    * @param job             the job
+    * @param defaultServer   the default server of the run
+    * @param estimator       the runtime estimator used to balance the 
+    *                        sessions (may be null)
+    * @param nMaxParallelism the maximum number of child sessions
+    *
+    * @return the parallel execution plan
+    *
+    * @throws BadServerDefinitionException
+    * @throws BadLibraryDefinitionException
+    */
+   public ParallelExecutionPlan createParallelExecutionPlan( IJob job, IServer defaultServer, IStepRuntimeEstimator estimator, int nMaxParallelism )
+   throws BadServerDefinitionException, BadLibraryDefinitionException
+   {
+      return new ParallelExecutionPlan( job, defaultServer, this, estimator, nMaxParallelism );
+   }
+
+   /**
+    * Orders the steps of the job being generated by their critical paths.
+    *
+    * @param job          the job
+    * @param estimator    the runtime estimator (may be null)
+    * @param nParallelism the number of steps that can run at the same time
+    *
+    * @return the scheduler holding the new order and its expected effect
+    */
+   public CriticalPathScheduler createCriticalPathSchedule( IJob job, IStepRuntimeEstimator estimator, int nParallelism )
+   {
+      return new CriticalPathScheduler( getDependencyGraph( job ), estimator, nParallelism );
+   }
+
+   /**
+    * Gets the data transfer planner of the run.
+    *
+    * @return the data transfer planner
+    */
+   public DataTransferPlanner getDataTransferPlanner()
+   {
+      if (m_transferPlanner == null)
+         m_transferPlanner = new DataTransferPlanner();
+      return m_transferPlanner;
+   }
+
+   /**
+    * Plans the servers of the job's steps using row count estimates so that
+    * the fewest rows are moved between servers.  Steps the planner moves to
+    * another server are recorded as the steps' servers for the rest of the
+    * run.  The code generation entry points of a step call this at the start
+    * of the run, before any code is generated, and the job is planned only
+    * once in a run, so later calls do nothing.
+    *
+    * @param job           the job
+    * @param defaultServer the default server of the run
+    * @param estimator     the row count estimator
+    *
+    * @throws BadServerDefinitionException
+    * @throws BadLibraryDefinitionException
+    *
+    * @see DataTransferPlanner#planStepServers(IJob, IServer, CodeGenerationCache, ITableRowCountEstimator)
+    */
+   public void planTransfers( IJob job, IServer defaultServer, ITableRowCountEstimator estimator )
+   throws BadServerDefinitionException, BadLibraryDefinitionException
+   {
+      if (m_bTransfersPlanned)
+         return;
+      m_bTransfersPlanned = true;
+
+      Map mapServers = getDataTransferPlanner().planStepServers( job, defaultServer, this, estimator );
+      
+      Iterator iter = mapServers.entrySet().iterator();
+      while (iter.hasNext())
+      {
+         Map.Entry entry = (Map.Entry) iter.next();
+         getServerMap( m_mapStepServers, entry.getKey() ).put( getServerKey( defaultServer ), entry.getValue() );
+      }
+   }
+
+   /**
+    * Has a shared macro already been defined in the session on a server 
+    * during this run?  Definitions are tracked per server, because a macro
+    * defined in a remote submit is not defined in the local session.
+    *
+    * @param sName  the name of the macro
+    * @param server the server the code runs on (may be null)
+    *
+    * @return true = the macro is defined and its definition need not be repeated
+    */
+   public boolean isMacroDefined( String sName, IServer server )
+   {
+      return m_setMacros.contains( getMacroKey( sName, server ) );
+   }
+
+   /**
+    * Records that a shared macro has been defined in the session on a server.
+    *
+    * @param sName  the name of the macro
+    * @param server the server the code runs on (may be null)
+    */
+   public void setMacroDefined( String sName, IServer server )
+   {
+      m_setMacros.add( getMacroKey( sName, server ) );
+   }
+
+   /**
+    * Forgets all shared macro definitions.  Call this when code starts to be
+    * generated for new SAS sessions, in which no macro is defined yet.
+    */
+   public void clearMacroDefinitions()
+   {
+      m_setMacros.clear();
+   }
+
+   /**
+    * Is structurally identical mapping code shared through generated macros
+    * during this run?
+    *
+    * @return true = mapping code is shared through macros
+    *
+    * @see #setMappingMacrosEnabled(ICodeGenerationEnvironment, boolean)
+    */
+   public boolean isMappingMacrosEnabled()
+   {
+      return m_bMappingMacros;
+   }
+
+   /**
+    * Gets the planner that shares mapping code through macros.
+    *
+    * @return the planner or null if mapping macros are not enabled
+    */
+   public MappingMacroPlanner getMappingMacroPlanner()
+   {
+      if (!m_bMappingMacros)
+         return null;
+      if (m_mappingMacros == null)
+         m_mappingMacros = new MappingMacroPlanner( this );
+      return m_mappingMacros;
+   }
+
+   /**
+    * Clears all cached resolutions.
+    */
+   public void clear()
+   {
+      m_mapStepServers   .clear();
+      m_mapLibraryServers.clear();
+      m_mapSyslastSteps  .clear();
+      m_setMacros        .clear();
+      m_libnamePlanner     = null;
+      m_workTableLifetimes = null;
+      m_transferPlanner    = null;
+      m_dependencyGraph    = null;
+      m_mappingMacros      = null;
+      m_bTransfersPlanned  = false;
+      m_mapAlwaysRun       = null;
+      m_jobAlwaysRun       = null;
+   }
+
+   /**
+    * Gets the map of default server to resolved server for an owner.
+    *
+    * @param mapOwners the map of owners
+    * @param owner     the owner (transform or library)
+    *
+    * @return the map of default server keys to resolved servers
+    */
+   private Map getServerMap( Map mapOwners, Object owner )
+   {
+      Map mapServers = (Map) mapOwners.get( owner );
+      if (mapServers == null)
+      {
+         mapServers = new HashMap( 4 );
+         mapOwners.put( owner, mapServers );
+      }
+      return mapServers;
+   }
+
+   /**
+    * Gets the key used for a default server.  Servers are keyed by id so that
+    * equivalent server instances share an entry.
+    *
+    * @param server the server (may be null)
+    *
+    * @return the key
+    */
+   private Object getServerKey( IServer server )
+   {
+      return (server == null) ? "" : server.getID();
+   }
+
+   /**
+    * Gets the key of a macro defined on a server.
+    *
+    * @param sName  the name of the macro
+    * @param server the server (may be null)
+    *
+    * @return the key
+    */
+   private String getMacroKey( String sName, IServer server )
+   {
+      return getServerKey( server ) + "|" + sName.toLowerCase();   // I18NOK:LINE
+   }
+}
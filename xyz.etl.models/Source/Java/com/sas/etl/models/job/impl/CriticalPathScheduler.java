@@ -0,0 +1,458 @@
+/* $Id$ */
+/**
+ * Title:       CriticalPathScheduler.java
+ * Description: Orders the steps of a job by their critical paths.
+ * Copyright:   Copyright (c) 2012
+ * Company:     SAS Institute
+ */
+package com.sas.etl.models.job.impl;
+
+import java.text.DecimalFormat;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.sas.etl.models.data.IDataObject;
+import com.sas.etl.models.data.IWorkTable;
+import com.sas.etl.models.job.ICodeSegment;
+import com.sas.etl.models.job.IDataTransform;
+import com.sas.etl.models.job.IStepRuntimeEstimator;
+import com.sas.etl.models.job.ITransform;
+
+/**
+ * CriticalPathScheduler orders the steps of a job so that the steps on the
+ * longest chains of dependent work start first.  The length of a step's chain
+ * (its bottom level) is the step's runtime plus the longest chain of the steps
+ * that depend on it.  Runtimes come from the user's estimate on the transform,
+ * then from the runtime estimator (usually the measured runtimes of previous
+ * runs), and otherwise default to the average of the known runtimes.
+ * <p>
+ * The order always respects the job's {@link JobDependencyGraph}.  To show
+ * the effect of the order, the job is simulated with the steps started in
+ * control order and in the new order.  The simulation reports the makespan
+ * (the time the job takes) and the WORK occupancy (the sum over the work tables
+ * of the time from when a table is written until its last reader ends).  With
+ * one session the makespan does not change, but downstream steps start
+ * earlier and work tables are held for less time.
+ * <p>
+ * The order is advisory.  The scheduler computes and reports it, and the
+ * steps are generated in the new order only by code that generates the job
+ * from {@link #getOrderedSteps}; code generation otherwise keeps control
+ * order.
+ */
+public class CriticalPathScheduler
+{
+   /** the runtime used for steps when no runtime is known at all */
+   public static final double DEFAULT_RUNTIME = 1;
+
+   private JobDependencyGraph m_graph;
+   private int                m_nParallelism;
+   private double[]           m_aRuntimes;       // step index to runtime
+   private double[]           m_aBottomLevels;   // step index to bottom level
+   private List               m_lOrdered;        // steps in the new order
+   private Schedule           m_before;
+   private Schedule           m_after;
+
+   /**
+    * Constructs the scheduler and orders the steps.
+    *
+    * @param graph        the job's dependency graph
+    * @param estimator    the runtime estimator (may be null)
+    * @param nParallelism the number of steps that can run at the same time
+    */
+   public CriticalPathScheduler( JobDependencyGraph graph, IStepRuntimeEstimator estimator, int nParallelism )
+   {
+      if (nParallelism < 1)
+         throw new IllegalArgumentException( "parallelism must be at least 1" );   // I18NOK:EMS
+
+      m_graph        = graph;
+      m_nParallelism = nParallelism;
+
+      List lSteps = graph.getSteps();
+      int  nSteps = lSteps.size();
+
+      // runtimes, unknown runtimes default to the average of the known ones
+      m_aRuntimes = new double[ nSteps ];
+      double dKnown = 0;
+      int    nKnown = 0;
+      for ( int iStep=0; iStep<nSteps; iStep++ )
+      {
+         m_aRuntimes[ iStep ] = getKnownRuntime( (ITransform) lSteps.get( iStep ), estimator );
+         if (m_aRuntimes[ iStep ] >= 0)
+         {
+            dKnown += m_aRuntimes[ iStep ];
+            nKnown++;
+         }
+      }
+      double dDefault = (nKnown == 0) ? DEFAULT_RUNTIME : dKnown / nKnown;
+      for ( int iStep=0; iStep<nSteps; iStep++ )
+      {
+         if (m_aRuntimes[ iStep ] < 0)
+            m_aRuntimes[ iStep ] = dDefault;
+      }
+
+      // bottom levels, successors always come later in control order
+      m_aBottomLevels = new double[ nSteps ];
+      for ( int iStep=nSteps-1; iStep>=0; iStep-- )
+      {
+         double dLongest    = 0;
+         List   lSuccessors = graph.getSuccessors( (ITransform) lSteps.get( iStep ) );
+         for ( int iSucc=0; iSucc<lSuccessors.size(); iSucc++ )
+            dLongest = Math.max( dLongest, m_aBottomLevels[ graph.getIndex( (ITransform) lSuccessors.get( iSucc ) ) ] );
+         m_aBottomLevels[ iStep ] = m_aRuntimes[ iStep ] + dLongest;
+      }
+
+      // control order ranks are the index, critical path ranks follow the bottom level
+      int[] aControlRanks = new int[ nSteps ];
+      for ( int iStep=0; iStep<nSteps; iStep++ )
+         aControlRanks[ iStep ] = iStep;
+
+      Integer[] aByLevel = new Integer[ nSteps ];
+      for ( int iStep=0; iStep<nSteps; iStep++ )
+         aByLevel[ iStep ] = new Integer( iStep );
+      Arrays.sort( aByLevel, new Comparator()
+      {
+         public int compare( Object o1, Object o2 )
+         {
+            int i1 = ((Integer) o1).intValue();
+            int i2 = ((Integer) o2).intValue();
+            int iCompare = Double.compare( m_aBottomLevels[ i2 ], m_aBottomLevels[ i1 ] );
+            return (iCompare != 0) ? iCompare : (i1 - i2);
+         }
+      } );
+      int[] aCriticalRanks = new int[ nSteps ];
+      for ( int iRank=0; iRank<nSteps; iRank++ )
+         aCriticalRanks[ aByLevel[ iRank ].intValue() ] = iRank;
+
+      m_before = simulate( aControlRanks  );
+      m_after  = simulate( aCriticalRanks );
+
+      m_lOrdered = new ArrayList( nSteps );
+      for ( int i=0; i<nSteps; i++ )
+         m_lOrdered.add( lSteps.get( m_after.m_aStartOrder[i] ) );
+   }
+
+   /**
+    * Gets the known runtime of a step.
+    *
+    * @param step      the step
+    * @param estimator the runtime estimator (may be null)
+    *
+    * @return the runtime or UNKNOWN_RUNTIME
+    */
+   private double getKnownRuntime( ITransform step, IStepRuntimeEstimator estimator )
+   {
+      if (!step.isCodeGenerationEnabled())
+         return 0;
+
+      if ((step instanceof AbstractTransform) && (((AbstractTransform) step).getEstimatedRuntime() >= 0))
+         return ((AbstractTransform) step).getEstimatedRuntime();
+
+      if (estimator != null)
+      {
+         double dRuntime = estimator.getEstimatedRuntime( step );
+         if (dRuntime >= 0)
+            return dRuntime;
+      }
+      return IStepRuntimeEstimator.UNKNOWN_RUNTIME;
+   }
+
+   /**
+    * Simulates running the job, starting the ready step with the lowest rank
+    * whenever a session is free.
+    *
+    * @param aRanks the rank of each step
+    *
+    * @return the simulated schedule
+    */
+   private Schedule simulate( int[] aRanks )
+   {
+      List      lSteps   = m_graph.getSteps();
+      int       nSteps   = lSteps.size();
+      int[]     aWaiting = new int[ nSteps ];   // number of unfinished predecessors
+      boolean[] aReady   = new boolean[ nSteps ];
+      boolean[] aRunning = new boolean[ nSteps ];
+      Schedule  schedule = new Schedule( nSteps );
+
+      for ( int iStep=0; iStep<nSteps; iStep++ )
+      {
+         aWaiting[ iStep ] = m_graph.getPredecessors( (ITransform) lSteps.get( iStep ) ).size();
+         aReady[   iStep ] = (aWaiting[ iStep ] == 0);
+      }
+
+      double dTime    = 0;
+      int    nRunning = 0;
+      int    nStarted = 0;
+      while (nStarted < nSteps || nRunning > 0)
+      {
+         // start ready steps on the free sessions
+         while (nRunning < m_nParallelism)
+         {
+            int iBest = -1;
+            for ( int iStep=0; iStep<nSteps; iStep++ )
+            {
+               if (aReady[ iStep ] && ((iBest < 0) || (aRanks[ iStep ] < aRanks[ iBest ])))
+                  iBest = iStep;
+            }
+            if (iBest < 0)
+               break;
+
+            aReady[   iBest ] = false;
+            aRunning[ iBest ] = true;
+            schedule.m_aStarts[     iBest    ] = dTime;
+            schedule.m_aFinishes[   iBest    ] = dTime + m_aRuntimes[ iBest ];
+            schedule.m_aStartOrder[ nStarted ] = iBest;
+            nStarted++;
+            nRunning++;
+         }
+
+         // advance to the next step to finish
+         double dNext = Double.MAX_VALUE;
+         for ( int iStep=0; iStep<nSteps; iStep++ )
+         {
+            if (aRunning[ iStep ])
+               dNext = Math.min( dNext, schedule.m_aFinishes[ iStep ] );
+         }
+         if (dNext == Double.MAX_VALUE)
+            break;
+
+         dTime = dNext;
+         for ( int iStep=0; iStep<nSteps; iStep++ )
+         {
+            if (!aRunning[ iStep ] || (schedule.m_aFinishes[ iStep ] > dTime))
+               continue;
+
+            aRunning[ iStep ] = false;
+            nRunning--;
+            List lSuccessors = m_graph.getSuccessors( (ITransform) lSteps.get( iStep ) );
+            for ( int iSucc=0; iSucc<lSuccessors.size(); iSucc++ )
+            {
+               int iSuccIndex = m_graph.getIndex( (ITransform) lSuccessors.get( iSucc ) );
+               if (--aWaiting[ iSuccIndex ] == 0)
+                  aReady[ iSuccIndex ] = true;
+            }
+         }
+      }
+
+      schedule.m_dMakespan      = dTime;
+      schedule.m_dWorkOccupancy = getWorkOccupancy( schedule );
+      return schedule;
+   }
+
+   /**
+    * Gets the WORK occupancy of a schedule: the sum over the work tables of
+    * the time from the end of the step that writes the table until the end of
+    * the last step that reads it.  A table that is not read is held until the
+    * job ends.
+    *
+    * @param schedule the schedule
+    *
+    * @return the WORK occupancy in table-seconds
+    */
+   private double getWorkOccupancy( Schedule schedule )
+   {
+      List lSteps   = m_graph.getSteps();
+      Map  mapWrite = new IdentityHashMap();   // work table to Double time written
+      Map  mapRead  = new IdentityHashMap();   // work table to Double time of last read
+
+      for ( int iStep=0; iStep<lSteps.size(); iStep++ )
+      {
+         Object obj = lSteps.get( iStep );
+         if (!(obj instanceof IDataTransform))
+            continue;
+
+         IDataTransform step    = (IDataTransform) obj;
+         IDataObject[]  targets = step.getDataTargets();
+         for ( int i=0; i<targets.length; i++ )
+         {
+            if (targets[i] instanceof IWorkTable)
+               mapWrite.put( targets[i], new Double( schedule.m_aFinishes[ iStep ] ) );
+         }
+
+         IDataObject[] sources = step.getDataSources();
+         for ( int i=0; i<sources.length; i++ )
+         {
+            if (!(sources[i] instanceof IWorkTable))
+               continue;
+            Double dRead = (Double) mapRead.get( sources[i] );
+            if ((dRead == null) || (dRead.doubleValue() < schedule.m_aFinishes[ iStep ]))
+               mapRead.put( sources[i], new Double( schedule.m_aFinishes[ iStep ] ) );
+         }
+      }
+
+      double   dOccupancy = 0;
+      Object[] aTables    = mapWrite.keySet().toArray();
+      for ( int i=0; i<aTables.length; i++ )
+      {
+         double dWritten = ((Double) mapWrite.get( aTables[i] )).doubleValue();
+         Double dRead    = (Double) mapRead.get( aTables[i] );
+         double dEnd     = (dRead == null) ? schedule.m_dMakespan : dRead.doubleValue();
+         dOccupancy += Math.max( dEnd - dWritten, 0 );
+      }
+      return dOccupancy;
+   }
+
+   /**
+    * Gets the steps in critical path order.
+    *
+    * @return an unmodifiable list of the steps (ITransform)
+    */
+   public List getOrderedSteps()
+   {
+      return Collections.unmodifiableList( m_lOrdered );
+   }
+
+   /**
+    * Gets the runtime used for a step.
+    *
+    * @param step the step
+    *
+    * @return the runtime in seconds
+    */
+   public double getRuntime( ITransform step )
+   {
+      return m_aRuntimes[ m_graph.getIndex( step ) ];
+   }
+
+   /**
+    * Gets the length of the job's critical path, which is the shortest time
+    * the job can take however many sessions it uses.
+    *
+    * @return the critical path length in seconds
+    */
+   public double getCriticalPathLength()
+   {
+      double dLongest = 0;
+      for ( int i=0; i<m_aBottomLevels.length; i++ )
+         dLongest = Math.max( dLongest, m_aBottomLevels[i] );
+      return dLongest;
+   }
+
+   /**
+    * Gets the steps on the critical path, in order.
+    *
+    * @return the steps (ITransform)
+    */
+   public List getCriticalPath()
+   {
+      List lPath  = new ArrayList();
+      List lSteps = m_graph.getSteps();
+
+      // start from the first step with the longest chain
+      int iStep = -1;
+      for ( int i=0; i<lSteps.size(); i++ )
+      {
+         if (m_graph.getPredecessors( (ITransform) lSteps.get( i ) ).isEmpty() &&
+             ((iStep < 0) || (m_aBottomLevels[i] > m_aBottomLevels[ iStep ])))
+            iStep = i;
+      }
+
+      while (iStep >= 0)
+      {
+         ITransform step = (ITransform) lSteps.get( iStep );
+         lPath.add( step );
+
+         int  iNext       = -1;
+         List lSuccessors = m_graph.getSuccessors( step );
+         for ( int i=0; i<lSuccessors.size(); i++ )
+         {
+            int iSucc = m_graph.getIndex( (ITransform) lSuccessors.get( i ) );
+            if ((iNext < 0) || (m_aBottomLevels[ iSucc ] > m_aBottomLevels[ iNext ]))
+               iNext = iSucc;
+         }
+         iStep = iNext;
+      }
+      return lPath;
+   }
+
+   /**
+    * Gets the simulated makespan of the job with the steps in control order.
+    *
+    * @return the makespan in seconds
+    */
+   public double getMakespanBefore()
+   {
+      return m_before.m_dMakespan;
+   }
+
+   /**
+    * Gets the simulated makespan of the job with the steps in critical path
+    * order.
+    *
+    * @return the makespan in seconds
+    */
+   public double getMakespanAfter()
+   {
+      return m_after.m_dMakespan;
+   }
+
+   /**
+    * Gets the simulated WORK occupancy with the steps in control order.
+    *
+    * @return the WORK occupancy in table-seconds
+    */
+   public double getWorkOccupancyBefore()
+   {
+      return m_before.m_dWorkOccupancy;
+   }
+
+   /**
+    * Gets the simulated WORK occupancy with the steps in critical path order.
+    *
+    * @return the WORK occupancy in table-seconds
+    */
+   public double getWorkOccupancyAfter()
+   {
+      return m_after.m_dWorkOccupancy;
+   }
+
+   /**
+    * Generates comments that report the effect of the new order.
+    *
+    * @param codeSegment the code segment
+    *
+    * @return the code segment
+    */
+   public ICodeSegment genReportComment( ICodeSegment codeSegment )
+   {
+      DecimalFormat format = new DecimalFormat( "0.0" );   // I18NOK:LINE
+      codeSegment.addCommentLine( MessageFormat.format( RB.getStringResource( "CriticalPathScheduler.Report.Order.txt" ), 
+                                                        new Object[] { new Integer( m_nParallelism ) } ) );
+      codeSegment.addCommentLine( MessageFormat.format( RB.getStringResource( "CriticalPathScheduler.Report.CriticalPath.txt" ), 
+                                                        new Object[] { format.format( getCriticalPathLength() ) } ) );
+      codeSegment.addCommentLine( MessageFormat.format( RB.getStringResource( "CriticalPathScheduler.Report.Makespan.txt" ), 
+                                                        new Object[] { format.format( getMakespanBefore() ), format.format( getMakespanAfter() ) } ) );
+      codeSegment.addCommentLine( MessageFormat.format( RB.getStringResource( "CriticalPathScheduler.Report.WorkOccupancy.txt" ), 
+                                                        new Object[] { format.format( getWorkOccupancyBefore() ), format.format( getWorkOccupancyAfter() ) } ) );
+      return codeSegment;
+   }
+
+   /**
+    * Schedule is the result of a simulation.
+    */
+   private static class Schedule
+   {
+      private double[] m_aStarts;
+      private double[] m_aFinishes;
+      private int[]    m_aStartOrder;      // step indexes in the order started
+      private double   m_dMakespan;
+      private double   m_dWorkOccupancy;
+
+      /**
+       * Constructs an empty schedule.
+       *
+       * @param nSteps the number of steps
+       */
+      public Schedule( int nSteps )
+      {
+         m_aStarts     = new double[ nSteps ];
+         m_aFinishes   = new double[ nSteps ];
+         m_aStartOrder = new int[    nSteps ];
+      }
+   } // Schedule
+}
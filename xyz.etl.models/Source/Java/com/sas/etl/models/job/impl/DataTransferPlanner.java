@@ -0,0 +1,273 @@
+/* $Id$ */
+/**
+ * Title:       DataTransferPlanner.java
+ * Description: Job-wide planning of data transfers between servers.
+ * Copyright:   Copyright (c) 2012
+ * Company:     SAS Institute
+ */
+package com.sas.etl.models.job.impl;
+
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.sas.etl.models.data.BadLibraryDefinitionException;
+import com.sas.etl.models.data.IDataObject;
+import com.sas.etl.models.data.IPhysicalTable;
+import com.sas.etl.models.data.IWorkTable;
+import com.sas.etl.models.impl.ObjectComparator;
+import com.sas.etl.models.job.IDataTransform;
+import com.sas.etl.models.job.IJob;
+import com.sas.etl.models.job.ITableRowCountEstimator;
+import com.sas.etl.models.other.BadServerDefinitionException;
+import com.sas.etl.models.other.IServer;
+
+/**
+ * DataTransferPlanner plans the movement of tables between servers for a
+ * code generation run.  It has two responsibilities:
+ * <ul>
+ * <li>It remembers which tables have been moved to which server during the
+ *     run so that a table needed by several steps on the same server is only
+ *     moved once.  Only the moves of steps that always run are remembered
+ *     (see {@link CodeGenerationCache#isAlwaysRun}), since a later step can
+ *     not rely on a move that may not have run.
+ * <li>Given row count estimates, it chooses the cheaper direction for steps
+ *     that are not tied to a server: instead of moving a step's inputs to the
+ *     step, the step is moved to the server where its inputs are produced.
+ * </ul>
+ */
+public class DataTransferPlanner
+{
+   private Set m_setTransferred;   // server key + table id of tables moved in the run
+
+   /**
+    * Constructs the planner.
+    */
+   public DataTransferPlanner()
+   {
+      m_setTransferred = new HashSet();
+   }
+
+   /**
+    * Has the table already been moved to the server during this run?
+    *
+    * @param table  the table
+    * @param server the server
+    *
+    * @return true = the table is already on the server
+    */
+   public boolean isTransferred( IPhysicalTable table, IServer server )
+   {
+      return m_setTransferred.contains( getKey( table, server ) );
+   }
+
+   /**
+    * Records that the table has been moved to the server.
+    *
+    * @param table  the table
+    * @param server the server
+    */
+   public void setTransferred( IPhysicalTable table, IServer server )
+   {
+      m_setTransferred.add( getKey( table, server ) );
+   }
+
+   /**
+    * Chooses the server for each step of the job that is not tied to a server
+    * by an execution server or by its target tables.  Such a step is moved to
+    * the server its remote inputs are produced on when the estimated rows
+    * moved that way are fewer than the estimated rows moved by running the
+    * step where it is.  Steps are considered in control order so that a moved
+    * step is taken into account by its successors.
+    *
+    * @param job           the job
+    * @param defaultServer the default server of the run
+    * @param cache         the code generation cache of the run
+    * @param estimator     the row count estimator
+    *
+    * @return a map of step to the server the step should run on
+    *
+    * @throws BadServerDefinitionException
+    * @throws BadLibraryDefinitionException
+    */
+   public Map planStepServers( IJob job, IServer defaultServer, CodeGenerationCache cache, ITableRowCountEstimator estimator )
+   throws BadServerDefinitionException, BadLibraryDefinitionException
+   {
+      Map  mapServers = new IdentityHashMap();
+      List lSteps     = job.getControlOrderedTransformsList();
+      for ( int iStep=0; iStep<lSteps.size(); iStep++ )
+      {
+         Object obj = lSteps.get( iStep );
+         if (!(obj instanceof AbstractDataTransform))
+            continue;
+
+         AbstractDataTransform step = (AbstractDataTransform) obj;
+         if (step.getExecutionServer() != null)
+            continue;
+
+         IServer serverStep = getServer( step, defaultServer, cache, mapServers );
+         if (!ObjectComparator.isEqual( serverStep, defaultServer ) || !isMovable( step ))
+            continue;
+
+         IServer serverOther = getOnlyOtherProducerServer( step, serverStep, defaultServer, cache, mapServers );
+         if (serverOther == null)
+            continue;
+
+         long lStay = getRowsProducedOn( step, serverOther, defaultServer, cache, mapServers, estimator );
+         long lMove = getRowsProducedOn( step, serverStep,  defaultServer, cache, mapServers, estimator );
+         long lBack = getTargetRows( step, estimator );
+         if ((lStay < 0) || (lMove < 0) || (lBack < 0))
+            continue;
+
+         if (lMove + lBack < lStay)
+            mapServers.put( step, serverOther );
+      }
+      return mapServers;
+   }
+
+   /**
+    * Is the step free to run on another server?  It is when all its targets
+    * are work tables and all its sources are work tables produced by other
+    * steps, so nothing ties the step to a library's server.  Steps running
+    * user written code are not moved, because the code may rely on the 
+    * session it was written for, and neither are steps with checkpoints 
+    * enabled, because a restart that skips them must find their tables where
+    * the job left them.
+    *
+    * @param step the step
+    *
+    * @return true = the step can be moved
+    */
+   private boolean isMovable( AbstractDataTransform step )
+   {
+      if (step.isUsingUserWrittenCode() || step.isCPRStepSetupComplete())
+         return false;
+      
+      IDataObject[] targets = step.getDataTargets();
+      if (targets.length == 0)
+         return false;
+      for ( int iTarget=0; iTarget<targets.length; iTarget++ )
+      {
+         if (!(targets[iTarget] instanceof IWorkTable))
+            return false;
+      }
+
+      IDataObject[] sources = step.getDataSources();
+      for ( int iSource=0; iSource<sources.length; iSource++ )
+      {
+         if (!(sources[iSource] instanceof IWorkTable) || (getProducer( (IWorkTable) sources[iSource] ) == null))
+            return false;
+      }
+      return true;
+   }
+
+   /**
+    * Gets the single server, other than the step's own, that the step's
+    * sources are produced on.
+    *
+    * @return the other server or null if there is none or more than one
+    */
+   private IServer getOnlyOtherProducerServer( IDataTransform step, IServer serverStep, IServer defaultServer, CodeGenerationCache cache, Map mapServers )
+   throws BadServerDefinitionException, BadLibraryDefinitionException
+   {
+      IServer       serverOther = null;
+      IDataObject[] sources     = step.getDataSources();
+      for ( int iSource=0; iSource<sources.length; iSource++ )
+      {
+         IServer server = getServer( getProducer( (IWorkTable) sources[iSource] ), defaultServer, cache, mapServers );
+         if (ObjectComparator.isEqual( server, serverStep ))
+            continue;
+         if ((serverOther != null) && !ObjectComparator.isEqual( server, serverOther ))
+            return null;
+         serverOther = server;
+      }
+      return serverOther;
+   }
+
+   /**
+    * Gets the estimated rows of the step's sources that are produced on the
+    * server.
+    *
+    * @return the estimated rows or a negative number if any estimate is unknown
+    */
+   private long getRowsProducedOn( IDataTransform step, IServer server, IServer defaultServer, CodeGenerationCache cache, Map mapServers, ITableRowCountEstimator estimator )
+   throws BadServerDefinitionException, BadLibraryDefinitionException
+   {
+      long          lRows   = 0;
+      IDataObject[] sources = step.getDataSources();
+      for ( int iSource=0; iSource<sources.length; iSource++ )
+      {
+         IWorkTable table = (IWorkTable) sources[iSource];
+         if (!ObjectComparator.isEqual( getServer( getProducer( table ), defaultServer, cache, mapServers ), server ))
+            continue;
+
+         long lTable = estimator.getEstimatedRowCount( table );
+         if (lTable < 0)
+            return ITableRowCountEstimator.UNKNOWN_ROW_COUNT;
+         lRows += lTable;
+      }
+      return lRows;
+   }
+
+   /**
+    * Gets the estimated rows of the step's targets.  The targets may have to
+    * be moved back when the step is moved.
+    *
+    * @return the estimated rows or a negative number if any estimate is unknown
+    */
+   private long getTargetRows( IDataTransform step, ITableRowCountEstimator estimator )
+   {
+      long          lRows   = 0;
+      IDataObject[] targets = step.getDataTargets();
+      for ( int iTarget=0; iTarget<targets.length; iTarget++ )
+      {
+         long lTable = estimator.getEstimatedRowCount( (IWorkTable) targets[iTarget] );
+         if (lTable < 0)
+            return ITableRowCountEstimator.UNKNOWN_ROW_COUNT;
+         lRows += lTable;
+      }
+      return lRows;
+   }
+
+   /**
+    * Gets the server of a step, taking steps already moved into account.
+    */
+   private IServer getServer( IDataTransform step, IServer defaultServer, CodeGenerationCache cache, Map mapServers )
+   throws BadServerDefinitionException, BadLibraryDefinitionException
+   {
+      if (mapServers.containsKey( step ))
+         return (IServer) mapServers.get( step );
+      return cache.getServerForStep( step, defaultServer );
+   }
+
+   /**
+    * Gets the producer of a work table.
+    *
+    * @param table the work table
+    *
+    * @return the producer or null if it has none
+    */
+   private IDataTransform getProducer( IWorkTable table )
+   {
+      IDataTransform[] producers = table.getProducerTransforms();
+      if ((producers == null) || (producers.length == 0) || producers[0].isTargetDataAutomaticallyMoved())
+         return null;
+      return producers[0];
+   }
+
+   /**
+    * Gets the key for a table on a server.
+    *
+    * @param table  the table
+    * @param server the server (may be null)
+    *
+    * @return the key
+    */
+   private String getKey( IPhysicalTable table, IServer server )
+   {
+      String sServer = (server == null) ? "" : server.getID();
+      return sServer + "|" + table.getID();
+   }
+}
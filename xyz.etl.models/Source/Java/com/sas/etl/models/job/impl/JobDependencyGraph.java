@@ -0,0 +1,282 @@
+/* $Id$ */
+/**
+ * Title:       JobDependencyGraph.java
+ * Description: The dependency graph of the steps of a job.
+ * Copyright:   Copyright (c) 2012
+ * Company:     SAS Institute
+ */
+package com.sas.etl.models.job.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.sas.etl.models.data.IDataObject;
+import com.sas.etl.models.data.IWorkTable;
+import com.sas.etl.models.job.IDataTransform;
+import com.sas.etl.models.job.IJob;
+import com.sas.etl.models.job.ITransform;
+
+/**
+ * JobDependencyGraph is the directed acyclic graph of the dependencies between
+ * the steps of a job.  A step depends on an earlier step (in control order)
+ * when:
+ * <ul>
+ * <li>it reads a data object the earlier step writes (including the step's
+ *     SYSLAST table),
+ * <li>it writes a data object the earlier step reads or writes, or
+ * <li>either step is a serialization point.
+ * </ul>
+ * Serialization points are steps whose effects can not be known from their
+ * data sources and targets: steps that are not data transforms, steps that
+ * use user written code and steps that always run.  A serialization point
+ * depends on every earlier step and every later step depends on it.
+ * <p>
+ * Steps that are not related by the graph can run in any order or at the same
+ * time.
+ */
+public class JobDependencyGraph
+{
+   private List m_lSteps;           // steps in control order
+   private Map  m_mapIndexes;       // step to Integer index in control order
+   private Map  m_mapPredecessors;  // step to List of steps it depends on
+   private Map  m_mapSuccessors;    // step to List of steps that depend on it
+   private Map  m_mapWorkEdges;     // step to Set of predecessors it exchanges work tables with
+   private Set  m_setSerialization; // serialization points
+
+   /**
+    * Constructs the graph of a job.
+    *
+    * @param job   the job
+    * @param cache the code generation cache of the run (may be null)
+    */
+   public JobDependencyGraph( IJob job, CodeGenerationCache cache )
+   {
+      m_lSteps           = new ArrayList( job.getControlOrderedTransformsList() );
+      m_mapIndexes       = new IdentityHashMap();
+      m_mapPredecessors  = new IdentityHashMap();
+      m_mapSuccessors    = new IdentityHashMap();
+      m_mapWorkEdges     = new IdentityHashMap();
+      m_setSerialization = Collections.newSetFromMap( new IdentityHashMap() );
+
+      Map    mapWriters = new IdentityHashMap();   // data object to last step writing it
+      Map    mapReaders = new IdentityHashMap();   // data object to List of steps reading it since the last write
+      Object barrier    = null;                    // last serialization point
+
+      for ( int iStep=0; iStep<m_lSteps.size(); iStep++ )
+      {
+         ITransform step = (ITransform) m_lSteps.get( iStep );
+         m_mapIndexes.put( step, new Integer( iStep ) );
+         m_mapPredecessors.put( step, new ArrayList() );
+         m_mapSuccessors  .put( step, new ArrayList() );
+
+         if (isSerializationPoint( step ))
+         {
+            m_setSerialization.add( step );
+            int iFirst = (barrier == null) ? 0 : ((Integer) m_mapIndexes.get( barrier )).intValue();
+            for ( int iPrev=iFirst; iPrev<iStep; iPrev++ )
+               addEdge( (ITransform) m_lSteps.get( iPrev ), step, false );
+            barrier = step;
+         }
+         else if (barrier != null)
+            addEdge( (ITransform) barrier, step, false );
+
+         if (!(step instanceof IDataTransform))
+            continue;
+
+         IDataTransform dataStep = (IDataTransform) step;
+
+         // reads depend on the last writer
+         List lReads = new ArrayList();
+         IDataObject[] sources = dataStep.getDataSources();
+         for ( int iSource=0; iSource<sources.length; iSource++ )
+            lReads.add( sources[iSource] );
+         if (step instanceof AbstractDataTransform)
+         {
+            IDataObject syslast = ((AbstractDataTransform) step).getPreviousSyslastTable( cache );
+            if (syslast != null)
+               lReads.add( syslast );
+         }
+         for ( int iRead=0; iRead<lReads.size(); iRead++ )
+         {
+            IDataObject data   = (IDataObject) lReads.get( iRead );
+            ITransform  writer = (ITransform) mapWriters.get( data );
+            if (writer != null)
+               addEdge( writer, step, data instanceof IWorkTable );
+            getList( mapReaders, data ).add( step );
+         }
+
+         // writes depend on the last writer and the readers since
+         IDataObject[] targets = dataStep.getDataTargets();
+         for ( int iTarget=0; iTarget<targets.length; iTarget++ )
+         {
+            IDataObject data    = targets[iTarget];
+            boolean     bWork   = data instanceof IWorkTable;
+            ITransform  writer  = (ITransform) mapWriters.get( data );
+            if (writer != null)
+               addEdge( writer, step, bWork );
+
+            List lReaders = getList( mapReaders, data );
+            for ( int iReader=0; iReader<lReaders.size(); iReader++ )
+               addEdge( (ITransform) lReaders.get( iReader ), step, bWork );
+            lReaders.clear();
+
+            mapWriters.put( data, step );
+         }
+      }
+   }
+
+   /**
+    * Is the step a serialization point?  Serialization points are steps that 
+    * are not data transforms, use user written code or always run.
+    *
+    * @param step the step
+    *
+    * @return true = the step is a serialization point
+    */
+   public static boolean isSerializationPoint( ITransform step )
+   {
+      if (!(step instanceof AbstractDataTransform))
+         return true;
+
+      AbstractDataTransform transform = (AbstractDataTransform) step;
+      return transform.isUsingUserWrittenCode() || transform.isRunAlways();
+   }
+
+   /**
+    * Adds a dependency.
+    *
+    * @param from  the step depended on
+    * @param to    the dependent step
+    * @param bWork true = the steps exchange a work table
+    */
+   private void addEdge( ITransform from, ITransform to, boolean bWork )
+   {
+      if (from == to)
+         return;
+
+      List lPredecessors = (List) m_mapPredecessors.get( to );
+      if (!containsIdentical( lPredecessors, from ))
+      {
+         lPredecessors.add( from );
+         ((List) m_mapSuccessors.get( from )).add( to );
+      }
+
+      if (bWork)
+      {
+         Set setWork = (Set) m_mapWorkEdges.get( to );
+         if (setWork == null)
+         {
+            setWork = Collections.newSetFromMap( new IdentityHashMap() );
+            m_mapWorkEdges.put( to, setWork );
+         }
+         setWork.add( from );
+      }
+   }
+
+   /**
+    * Gets a list from a map of lists, creating it if necessary.
+    */
+   private static List getList( Map map, Object key )
+   {
+      List list = (List) map.get( key );
+      if (list == null)
+      {
+         list = new ArrayList();
+         map.put( key, list );
+      }
+      return list;
+   }
+
+   /**
+    * Does the list contain the object itself (not an equal object)?
+    */
+   private static boolean containsIdentical( List list, Object obj )
+   {
+      for ( int i=0; i<list.size(); i++ )
+      {
+         if (list.get( i ) == obj)
+            return true;
+      }
+      return false;
+   }
+
+   /**
+    * Gets the steps of the job in control order.
+    *
+    * @return an unmodifiable list of the steps (ITransform)
+    */
+   public List getSteps()
+   {
+      return Collections.unmodifiableList( m_lSteps );
+   }
+
+   /**
+    * Gets the index of a step in control order.
+    *
+    * @param step the step
+    *
+    * @return the index or -1 if the step is not in the job
+    */
+   public int getIndex( ITransform step )
+   {
+      Integer iStep = (Integer) m_mapIndexes.get( step );
+      return (iStep == null) ? -1 : iStep.intValue();
+   }
+
+   /**
+    * Gets the steps a step depends on.
+    *
+    * @param step the step
+    *
+    * @return an unmodifiable list of the steps (ITransform), in control order
+    */
+   public List getPredecessors( ITransform step )
+   {
+      List lSteps = (List) m_mapPredecessors.get( step );
+      return (lSteps == null) ? Collections.EMPTY_LIST : Collections.unmodifiableList( lSteps );
+   }
+
+   /**
+    * Gets the steps that depend on a step.
+    *
+    * @param step the step
+    *
+    * @return an unmodifiable list of the steps (ITransform), in control order
+    */
+   public List getSuccessors( ITransform step )
+   {
+      List lSteps = (List) m_mapSuccessors.get( step );
+      return (lSteps == null) ? Collections.EMPTY_LIST : Collections.unmodifiableList( lSteps );
+   }
+
+   /**
+    * Is the step a serialization point of this graph?
+    *
+    * @param step the step
+    *
+    * @return true = the step is a serialization point
+    */
+   public boolean isSerialized( ITransform step )
+   {
+      return m_setSerialization.contains( step );
+   }
+
+   /**
+    * Does a step exchange a work table with one of its predecessors?  Steps 
+    * that exchange work tables must run in the same SAS session.
+    *
+    * @param predecessor the predecessor
+    * @param step        the step
+    *
+    * @return true = the steps exchange a work table
+    */
+   public boolean isWorkTableDependency( ITransform predecessor, ITransform step )
+   {
+      Set setWork = (Set) m_mapWorkEdges.get( step );
+      return (setWork != null) && setWork.contains( predecessor );
+   }
+}
@@ -0,0 +1,277 @@
+/* $Id$ */
+/**
+ * Title:       JobSimulator.java
+ * Description: Offline simulation of a run of a job.
+ * Copyright:   Copyright (c) 2012
+ * Company:     SAS Institute
+ */
+package com.sas.etl.models.job.impl;
+
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.sas.etl.models.data.BadLibraryDefinitionException;
+import com.sas.etl.models.data.IDataObject;
+import com.sas.etl.models.data.IWorkTable;
+import com.sas.etl.models.impl.ObjectComparator;
+import com.sas.etl.models.job.IDataTransform;
+import com.sas.etl.models.job.IJob;
+import com.sas.etl.models.job.IStepExecutor;
+import com.sas.etl.models.job.ITransform;
+import com.sas.etl.models.other.BadServerDefinitionException;
+import com.sas.etl.models.other.IServer;
+
+/**
+ * JobSimulator simulates a run of a job without a SAS server so that step
+ * ordering, concurrent execution and work table cleanup can be evaluated
+ * offline.  The steps are run as the generated code would run them: a step
+ * starts once the steps it depends on have ended (see
+ * {@link JobDependencyGraph}) and a session is free.  Each step is run through
+ * an {@link IStepExecutor}, which says how long the step takes and how many
+ * rows it writes.
+ * <p>
+ * While simulating, the simulator tracks:
+ * <ul>
+ * <li>the bytes moved to a step's server for the tables it reads that were
+ *     written on another server, each table being moved once per server as
+ *     in {@link DataTransferPlanner}, and
+ * <li>the WORK space held by the work tables written by the steps, less the
+ *     tables deleted after their last use as planned by the
+ *     {@link WorkTableLifetimeAnalyzer}.
+ * </ul>
+ */
+public class JobSimulator
+{
+   private IJob                m_job;
+   private IServer             m_defaultServer;
+   private CodeGenerationCache m_cache;
+   private IStepExecutor       m_executor;
+
+   /**
+    * Constructs the simulator.
+    *
+    * @param job           the job
+    * @param defaultServer the default server of the job
+    * @param cache         the code generation cache used to resolve step
+    *                      servers and work table lifetimes
+    * @param executor      the step executor
+    */
+   public JobSimulator( IJob job, IServer defaultServer, CodeGenerationCache cache, IStepExecutor executor )
+   {
+      m_job           = job;
+      m_defaultServer = defaultServer;
+      m_cache         = cache;
+      m_executor      = executor;
+   }
+
+   /**
+    * Simulates a run of the job.  Whenever a session is free, the ready step
+    * that comes first in the specified order is started.
+    *
+    * @param lOrder    the order of the steps (ITransform) or null for control
+    *                  order
+    * @param nSessions the number of steps that can run at the same time
+    *
+    * @return the timeline of the run
+    *
+    * @throws BadServerDefinitionException
+    * @throws BadLibraryDefinitionException
+    */
+   public SimulationTimeline run( List lOrder, int nSessions )
+   throws BadServerDefinitionException, BadLibraryDefinitionException
+   {
+      JobDependencyGraph        graph     = m_cache.getDependencyGraph( m_job );
+      WorkTableLifetimeAnalyzer lifetimes = m_cache.getWorkTableLifetimes( m_job, m_defaultServer );
+      List                      lSteps    = graph.getSteps();
+      int                       nSteps    = lSteps.size();
+      nSessions = Math.max( nSessions, 1 );
+
+      // rank the steps by the order, steps not in it go last in control order
+      int[] aRanks = new int[ nSteps ];
+      for ( int iStep=0; iStep<nSteps; iStep++ )
+      {
+         int iOrder = (lOrder == null) ? iStep : lOrder.indexOf( lSteps.get( iStep ) );
+         aRanks[ iStep ] = (iOrder < 0) ? nSteps + iStep : iOrder;
+      }
+
+      int[]                        aWaiting    = new int[     nSteps ];   // number of unfinished predecessors
+      boolean[]                    aReady      = new boolean[ nSteps ];
+      SimulationTimeline.StepRun[] aRunning    = new SimulationTimeline.StepRun[ nSteps ];
+      boolean[]                    aBusy       = new boolean[ nSessions ];
+      Map                          mapRows     = new IdentityHashMap();   // data object to Long rows written
+      Map                          mapServers  = new IdentityHashMap();   // data object to server it was written on
+      Map                          mapWork     = new IdentityHashMap();   // work table to Long bytes held in WORK
+      Set                          setMoved    = new HashSet();           // server key + table id of tables moved
+      SimulationTimeline           timeline    = new SimulationTimeline();
+
+      for ( int iStep=0; iStep<nSteps; iStep++ )
+      {
+         aWaiting[ iStep ] = graph.getPredecessors( (ITransform) lSteps.get( iStep ) ).size();
+         aReady[   iStep ] = (aWaiting[ iStep ] == 0);
+      }
+
+      double dTime      = 0;
+      long   lWorkBytes = 0;
+      int    nRunning   = 0;
+      int    nStarted   = 0;
+      while (nStarted < nSteps || nRunning > 0)
+      {
+         // start ready steps on the free sessions
+         while (nRunning < nSessions)
+         {
+            int iBest = -1;
+            for ( int iStep=0; iStep<nSteps; iStep++ )
+            {
+               if (aReady[ iStep ] && ((iBest < 0) || (aRanks[ iStep ] < aRanks[ iBest ])))
+                  iBest = iStep;
+            }
+            if (iBest < 0)
+               break;
+
+            int iSession = 0;
+            while (aBusy[ iSession ])
+               iSession++;
+
+            aReady[ iBest    ] = false;
+            aBusy[  iSession ] = true;
+            aRunning[ iBest ]  = start( (ITransform) lSteps.get( iBest ), iSession, dTime, mapRows, mapServers, setMoved, timeline );
+            nStarted++;
+            nRunning++;
+         }
+
+         // advance to the next step to end
+         double dNext = Double.MAX_VALUE;
+         for ( int iStep=0; iStep<nSteps; iStep++ )
+         {
+            if (aRunning[ iStep ] != null)
+               dNext = Math.min( dNext, aRunning[ iStep ].getEnd() );
+         }
+         if (dNext == Double.MAX_VALUE)
+            break;
+
+         dTime = dNext;
+         for ( int iStep=0; iStep<nSteps; iStep++ )
+         {
+            SimulationTimeline.StepRun run = aRunning[ iStep ];
+            if ((run == null) || (run.getEnd() > dTime))
+               continue;
+
+            aRunning[ iStep ]         = null;
+            aBusy[ run.getSession() ] = false;
+            nRunning--;
+
+            // the step's work tables now occupy WORK, the ones last used are deleted
+            ITransform step = run.getStep();
+            if (step instanceof IDataTransform)
+            {
+               IDataObject[] targets = ((IDataTransform) step).getDataTargets();
+               for ( int iTarget=0; iTarget<targets.length; iTarget++ )
+               {
+                  if (!(targets[iTarget] instanceof IWorkTable))
+                     continue;
+
+                  Long lRows  = (Long) mapRows.get( targets[iTarget] );
+                  long lBytes = (lRows == null) ? 0 : lRows.longValue() * m_executor.getRowLength( targets[iTarget] );
+                  Long lOld   = (Long) mapWork.put( targets[iTarget], new Long( lBytes ) );
+                  lWorkBytes += lBytes - ((lOld == null) ? 0 : lOld.longValue());
+               }
+            }
+
+            IWorkTable[] aDeleted = lifetimes.getTablesToDeleteAfter( step );
+            for ( int iDeleted=0; iDeleted<aDeleted.length; iDeleted++ )
+            {
+               Long lBytes = (Long) mapWork.remove( aDeleted[iDeleted] );
+               if (lBytes != null)
+                  lWorkBytes -= lBytes.longValue();
+            }
+
+            run.setWorkBytes( lWorkBytes );
+            timeline.setWorkBytes( lWorkBytes );
+
+            List lSuccessors = graph.getSuccessors( step );
+            for ( int iSucc=0; iSucc<lSuccessors.size(); iSucc++ )
+            {
+               int iSuccIndex = graph.getIndex( (ITransform) lSuccessors.get( iSucc ) );
+               if (--aWaiting[ iSuccIndex ] == 0)
+                  aReady[ iSuccIndex ] = true;
+            }
+         }
+      }
+
+      return timeline;
+   }
+
+   /**
+    * Starts a step: moves the tables it reads from other servers to its
+    * server and runs it through the executor.
+    *
+    * @param step       the step
+    * @param iSession   the session the step runs in
+    * @param dTime      the time the step starts
+    * @param mapRows    the map of data object to rows written so far
+    * @param mapServers the map of data object to the server it was written on
+    * @param setMoved   the keys of the tables moved so far
+    * @param timeline   the timeline the run is added to
+    *
+    * @return the run of the step
+    *
+    * @throws BadServerDefinitionException
+    * @throws BadLibraryDefinitionException
+    */
+   private SimulationTimeline.StepRun start( ITransform step, int iSession, double dTime, Map mapRows, Map mapServers, Set setMoved, SimulationTimeline timeline )
+   throws BadServerDefinitionException, BadLibraryDefinitionException
+   {
+      IServer       server  = m_cache.getServerForStep( step, m_defaultServer );
+      IDataObject[] sources = (step instanceof IDataTransform) ? ((IDataTransform) step).getDataSources() : new IDataObject[ 0 ];
+      IDataObject[] targets = (step instanceof IDataTransform) ? ((IDataTransform) step).getDataTargets() : new IDataObject[ 0 ];
+
+      long   lBytesMoved = 0;
+      long[] aSourceRows = new long[ sources.length ];
+      for ( int iSource=0; iSource<sources.length; iSource++ )
+      {
+         Long lRows = (Long) mapRows.get( sources[iSource] );
+         aSourceRows[iSource] = (lRows == null) ? IStepExecutor.UNKNOWN_ROWS : lRows.longValue();
+
+         if ((lRows == null) || !step.isCodeGenerationEnabled())
+            continue;
+         IServer serverWritten = (IServer) mapServers.get( sources[iSource] );
+         if (ObjectComparator.isEqual( serverWritten, server ))
+            continue;
+         if (setMoved.add( getKey( sources[iSource], server ) ))
+            lBytesMoved += lRows.longValue() * m_executor.getRowLength( sources[iSource] );
+      }
+
+      long[] aTargetRows = new long[ targets.length ];
+      double dRuntime    = m_executor.execute( step, aSourceRows, aTargetRows );
+
+      long lRows = 0;
+      for ( int iTarget=0; iTarget<targets.length; iTarget++ )
+      {
+         long lTarget = Math.max( aTargetRows[iTarget], 0 );
+         mapRows   .put( targets[iTarget], new Long( lTarget ) );
+         mapServers.put( targets[iTarget], server );
+         lRows += lTarget;
+      }
+
+      SimulationTimeline.StepRun run = new SimulationTimeline.StepRun( step, iSession, dTime, dTime + Math.max( dRuntime, 0 ), lRows, lBytesMoved );
+      timeline.addRun( run );
+      return run;
+   }
+
+   /**
+    * Gets the key for a data object on a server.
+    *
+    * @param data   the data object
+    * @param server the server (may be null)
+    *
+    * @return the key
+    */
+   private String getKey( IDataObject data, IServer server )
+   {
+      String sServer = (server == null) ? "" : server.getID();
+      return sServer + "|" + data.getID();
+   }
+}
@@ -0,0 +1,456 @@
+/* $Id$ */
+/**
+ * Title:       JobSnapshot.java
+ * Description: An immutable snapshot of the steps of a job.
+ * Copyright:   Copyright (c) 2012
+ * Company:     SAS Institute
+ */
+package com.sas.etl.models.job.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import com.sas.etl.models.IModel;
+import com.sas.etl.models.data.IDataObject;
+import com.sas.etl.models.data.IWorkTable;
+import com.sas.etl.models.impl.ModelLock;
+import com.sas.etl.models.impl.ModelRevision;
+import com.sas.etl.models.impl.ObjectComparator;
+import com.sas.etl.models.job.IDataTransform;
+import com.sas.etl.models.job.IJob;
+import com.sas.etl.models.job.ITransform;
+
+/**
+ * JobSnapshot is an immutable copy of the structure of a job, for background
+ * work that must not see the job change under it while the user keeps
+ * editing: scheduling, simulation and impact analysis read the steps in
+ * control order, the tables each step reads and writes, whether a table is a
+ * work table, whether a step is a serialization point and the dependencies
+ * between the steps (see JobDependencyGraph).  Code generation reads far more
+ * of the model than a snapshot can hold, so it runs on the thread that edits
+ * the model instead (see JobValidator).
+ * <p>
+ * A snapshot is taken with {@link #take} on the thread that edits the model,
+ * or in a read region of the model (see ModelLock) when all the edits of the
+ * model are compound edits, and can then be read on any thread without
+ * locking.  Snapshots are cheap to take repeatedly:
+ * <ul>
+ * <li>when the model has not changed since the last snapshot of the job (see
+ *     ModelRevision), the last snapshot is returned, and
+ * <li>otherwise the new snapshot shares the step snapshots of the last
+ *     snapshot for the steps that have not changed, so only the changed steps
+ *     are copied and unchanged steps are the same object in both snapshots.
+ * </ul>
+ * The last snapshot of each job is held weakly by the job.  A job that has no
+ * model has no revision, so its snapshot is taken again every time.
+ */
+public final class JobSnapshot
+{
+   // job to its last JobSnapshot, weak so an abandoned job drops its snapshot
+   private static final Map s_mapLastSnapshots = new WeakHashMap();
+
+   private String m_sJobID;
+   private String m_sJobName;
+   private long   m_lRevision;        // the model revision the snapshot was taken at
+   private List   m_lSteps;           // StepSnapshot in control order, unmodifiable
+   private Map    m_mapSteps;         // step id to StepSnapshot
+   private Map    m_mapPredecessors;  // step id to unmodifiable List of the ids of the steps it depends on
+
+   /**
+    * Constructs a snapshot of a job.  The caller must be in a read region of
+    * the job's model.
+    *
+    * @param job       the job
+    * @param lRevision the revision of the job's model
+    * @param previous  the last snapshot of the job (may be null)
+    */
+   private JobSnapshot( IJob job, long lRevision, JobSnapshot previous )
+   {
+      m_sJobID    = job.getID();
+      m_sJobName  = job.getName();
+      m_lRevision = lRevision;
+
+      JobDependencyGraph graph       = new JobDependencyGraph( job, null );
+      List               lTransforms = graph.getSteps();
+      List               lSteps      = new ArrayList( lTransforms.size() );
+      m_mapSteps        = new HashMap( lTransforms.size() * 2 );
+      m_mapPredecessors = new HashMap( lTransforms.size() * 2 );
+      for ( int iStep=0; iStep<lTransforms.size(); iStep++ )
+      {
+         ITransform   step         = (ITransform) lTransforms.get( iStep );
+         StepSnapshot stepSnapshot = (previous == null) ? null : previous.getStep( step.getID() );
+         if (stepSnapshot == null || !stepSnapshot.matches( step ))
+            stepSnapshot = new StepSnapshot( step );
+         lSteps.add( stepSnapshot );
+         m_mapSteps.put( stepSnapshot.getID(), stepSnapshot );
+
+         List lPredecessors   = graph.getPredecessors( step );
+         List lPredecessorIDs = new ArrayList( lPredecessors.size() );
+         for ( int iPredecessor=0; iPredecessor<lPredecessors.size(); iPredecessor++ )
+            lPredecessorIDs.add( ((ITransform) lPredecessors.get( iPredecessor )).getID() );
+         m_mapPredecessors.put( stepSnapshot.getID(), Collections.unmodifiableList( lPredecessorIDs ) );
+      }
+      m_lSteps = Collections.unmodifiableList( lSteps );
+   }
+
+   /**
+    * Takes a snapshot of a job.  This must be called on the thread that edits
+    * the model, unless all the edits of the model are compound edits.
+    *
+    * @param job the job
+    *
+    * @return the snapshot
+    */
+   public static JobSnapshot take( IJob job )
+   {
+      IModel model = job.getModel();
+      ModelLock.beginRead( model );
+      try
+      {
+         long        lRevision = ModelRevision.getRevision( model );
+         JobSnapshot previous;
+         synchronized (s_mapLastSnapshots)
+         {
+            previous = (JobSnapshot) s_mapLastSnapshots.get( job );
+         }
+         if (previous != null && previous.m_lRevision == lRevision && model != null)
+            return previous;
+
+         JobSnapshot snapshot = new JobSnapshot( job, lRevision, previous );
+         synchronized (s_mapLastSnapshots)
+         {
+            s_mapLastSnapshots.put( job, snapshot );
+         }
+         return snapshot;
+      }
+      finally
+      {
+         ModelLock.endRead( model );
+      }
+   }
+
+   /**
+    * Gets the id of the job.
+    *
+    * @return the job id
+    */
+   public String getJobID()
+   {
+      return m_sJobID;
+   }
+
+   /**
+    * Gets the name of the job.
+    *
+    * @return the job name
+    */
+   public String getJobName()
+   {
+      return m_sJobName;
+   }
+
+   /**
+    * Gets the revision of the model the snapshot was taken at.
+    *
+    * @return the revision
+    */
+   public long getRevision()
+   {
+      return m_lRevision;
+   }
+
+   /**
+    * Gets the snapshots of the steps in control order.
+    *
+    * @return an unmodifiable list of StepSnapshot
+    */
+   public List getSteps()
+   {
+      return m_lSteps;
+   }
+
+   /**
+    * Gets the snapshot of a step.
+    *
+    * @param sID the id of the step
+    *
+    * @return the step snapshot or null if the job had no such step
+    */
+   public StepSnapshot getStep( String sID )
+   {
+      return (StepSnapshot) m_mapSteps.get( sID );
+   }
+
+   /**
+    * Gets the ids of the steps a step depends on.
+    *
+    * @param sID the id of the step
+    *
+    * @return an unmodifiable list of String, empty if the job had no such step
+    */
+   public List getPredecessorIDs( String sID )
+   {
+      List lPredecessorIDs = (List) m_mapPredecessors.get( sID );
+      return (lPredecessorIDs == null) ? Collections.EMPTY_LIST : lPredecessorIDs;
+   }
+
+   /**
+    * StepSnapshot is an immutable copy of a step.
+    */
+   public static final class StepSnapshot
+   {
+      private String  m_sID;
+      private String  m_sName;
+      private String  m_sDescription;
+      private String  m_sClassName;
+      private boolean m_bCodeGenerationEnabled;
+      private boolean m_bSerializationPoint;
+      private List    m_lSources;   // TableSnapshot, unmodifiable
+      private List    m_lTargets;   // TableSnapshot, unmodifiable
+
+      /**
+       * Constructs the snapshot of a step.
+       *
+       * @param step the step
+       */
+      StepSnapshot( ITransform step )
+      {
+         m_sID                    = step.getID();
+         m_sName                  = step.getName();
+         m_sDescription           = step.getDescription();
+         m_sClassName             = step.getClass().getName();
+         m_bCodeGenerationEnabled = step.isCodeGenerationEnabled();
+         m_bSerializationPoint    = JobDependencyGraph.isSerializationPoint( step );
+         m_lSources               = createTables( getSources( step ) );
+         m_lTargets               = createTables( getTargets( step ) );
+      }
+
+      /**
+       * Gets the id of the step.
+       *
+       * @return the id
+       */
+      public String getID()
+      {
+         return m_sID;
+      }
+
+      /**
+       * Gets the name of the step.
+       *
+       * @return the name
+       */
+      public String getName()
+      {
+         return m_sName;
+      }
+
+      /**
+       * Gets the description of the step.
+       *
+       * @return the description
+       */
+      public String getDescription()
+      {
+         return m_sDescription;
+      }
+
+      /**
+       * Gets the name of the class of the step.
+       *
+       * @return the class name
+       */
+      public String getClassName()
+      {
+         return m_sClassName;
+      }
+
+      /**
+       * Was code generation enabled for the step?
+       *
+       * @return true = code generation was enabled
+       */
+      public boolean isCodeGenerationEnabled()
+      {
+         return m_bCodeGenerationEnabled;
+      }
+
+      /**
+       * Was the step a serialization point (see JobDependencyGraph)?
+       *
+       * @return true = the step was a serialization point
+       */
+      public boolean isSerializationPoint()
+      {
+         return m_bSerializationPoint;
+      }
+
+      /**
+       * Gets the tables the step read.
+       *
+       * @return an unmodifiable list of TableSnapshot
+       */
+      public List getSources()
+      {
+         return m_lSources;
+      }
+
+      /**
+       * Gets the tables the step wrote.
+       *
+       * @return an unmodifiable list of TableSnapshot
+       */
+      public List getTargets()
+      {
+         return m_lTargets;
+      }
+
+      /**
+       * Does the snapshot still match a step?
+       *
+       * @param step the step
+       *
+       * @return true = the step has not changed since the snapshot
+       */
+      boolean matches( ITransform step )
+      {
+         return ObjectComparator.isEqual( m_sID,          step.getID()          ) &&
+                ObjectComparator.isEqual( m_sName,        step.getName()        ) &&
+                ObjectComparator.isEqual( m_sDescription, step.getDescription() ) &&
+                m_sClassName.equals( step.getClass().getName() ) &&
+                (m_bCodeGenerationEnabled == step.isCodeGenerationEnabled()) &&
+                (m_bSerializationPoint == JobDependencyGraph.isSerializationPoint( step )) &&
+                matches( m_lSources, getSources( step ) ) &&
+                matches( m_lTargets, getTargets( step ) );
+      }
+
+      /**
+       * Do the snapshots of some tables still match the tables?
+       *
+       * @param lTables the table snapshots
+       * @param objects the tables
+       *
+       * @return true = the same tables, unchanged, in the same order
+       */
+      private static boolean matches( List lTables, IDataObject[] objects )
+      {
+         if (lTables.size() != objects.length)
+            return false;
+         for ( int iObject=0; iObject<objects.length; iObject++ )
+         {
+            if (!((TableSnapshot) lTables.get( iObject )).matches( objects[ iObject ] ))
+               return false;
+         }
+         return true;
+      }
+
+      /**
+       * Gets the tables a step reads.
+       *
+       * @param step the step
+       *
+       * @return the tables
+       */
+      private static IDataObject[] getSources( ITransform step )
+      {
+         return (step instanceof IDataTransform) ? ((IDataTransform) step).getDataSources() : new IDataObject[ 0 ];
+      }
+
+      /**
+       * Gets the tables a step writes.
+       *
+       * @param step the step
+       *
+       * @return the tables
+       */
+      private static IDataObject[] getTargets( ITransform step )
+      {
+         return (step instanceof IDataTransform) ? ((IDataTransform) step).getDataTargets() : new IDataObject[ 0 ];
+      }
+
+      /**
+       * Creates the snapshots of some tables.
+       *
+       * @param objects the tables
+       *
+       * @return an unmodifiable list of TableSnapshot
+       */
+      private static List createTables( IDataObject[] objects )
+      {
+         List lTables = new ArrayList( objects.length );
+         for ( int iObject=0; iObject<objects.length; iObject++ )
+            lTables.add( new TableSnapshot( objects[ iObject ] ) );
+         return Collections.unmodifiableList( lTables );
+      }
+   } // StepSnapshot
+
+   /**
+    * TableSnapshot is an immutable copy of a table a step reads or writes.
+    */
+   public static final class TableSnapshot
+   {
+      private String  m_sID;
+      private String  m_sName;
+      private boolean m_bWorkTable;
+
+      /**
+       * Constructs the snapshot of a table.
+       *
+       * @param table the table
+       */
+      TableSnapshot( IDataObject table )
+      {
+         m_sID        = table.getID();
+         m_sName      = table.getName();
+         m_bWorkTable = table instanceof IWorkTable;
+      }
+
+      /**
+       * Gets the id of the table.
+       *
+       * @return the id
+       */
+      public String getID()
+      {
+         return m_sID;
+      }
+
+      /**
+       * Gets the name of the table.
+       *
+       * @return the name
+       */
+      public String getName()
+      {
+         return m_sName;
+      }
+
+      /**
+       * Was the table a work table?
+       *
+       * @return true = the table was a work table
+       */
+      public boolean isWorkTable()
+      {
+         return m_bWorkTable;
+      }
+
+      /**
+       * Does the snapshot still match a table?
+       *
+       * @param table the table
+       *
+       * @return true = the table has not changed since the snapshot
+       */
+      boolean matches( IDataObject table )
+      {
+         return ObjectComparator.isEqual( m_sID,   table.getID()   ) &&
+                ObjectComparator.isEqual( m_sName, table.getName() ) &&
+                (m_bWorkTable == (table instanceof IWorkTable));
+      }
+   } // TableSnapshot
+}
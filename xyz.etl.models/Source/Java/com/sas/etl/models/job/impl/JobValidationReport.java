@@ -0,0 +1,274 @@
+/* $Id$ */
+/**
+ * Title:       JobValidationReport.java
+ * Description: The result of a job-wide validation.
+ * Copyright:   Copyright (c) 2012
+ * Company:     SAS Institute
+ */
+package com.sas.etl.models.job.impl;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.sas.etl.models.job.ITransform;
+import com.sas.etl.models.other.IServer;
+
+/**
+ * JobValidationReport is the result of a job-wide validation.  It holds one
+ * entry for each step, in control order, with the return code, errors,
+ * warnings and log of the step's part of its server's validation program,
+ * and the snapshot of the job the validation code was generated from, so the
+ * report can be read on another thread, or after the user has gone on
+ * editing, without reading the job.
+ *
+ * @see JobValidator
+ */
+public class JobValidationReport
+{
+   private JobSnapshot m_snapshot;     // the job the code was generated from
+   private List        m_lResults;     // StepResult in control order
+   private Map         m_mapResults;   // step to StepResult
+
+   /**
+    * Constructs an empty report.
+    *
+    * @param snapshot the snapshot of the job taken before the code was
+    *                 generated
+    */
+   JobValidationReport( JobSnapshot snapshot )
+   {
+      m_snapshot   = snapshot;
+      m_lResults   = new ArrayList();
+      m_mapResults = new IdentityHashMap();
+   }
+
+   /**
+    * Gets the snapshot of the job the validation code was generated from.  The
+    * job has changed since the validation if the model's revision (see
+    * ModelRevision) is no longer the snapshot's revision.
+    *
+    * @return the snapshot
+    */
+   public JobSnapshot getSnapshot()
+   {
+      return m_snapshot;
+   }
+
+   /**
+    * Adds the result of a step.
+    *
+    * @param result the result of the step
+    */
+   void addResult( StepResult result )
+   {
+      m_lResults.add( result );
+      m_mapResults.put( result.m_step, result );
+   }
+
+   /**
+    * Gets the results of the steps in control order.
+    *
+    * @return an unmodifiable list of the results (StepResult)
+    */
+   public List getResults()
+   {
+      return Collections.unmodifiableList( m_lResults );
+   }
+
+   /**
+    * Gets the result of a step.
+    *
+    * @param step the step
+    *
+    * @return the result of the step or null if the step was not validated
+    */
+   public StepResult getResult( ITransform step )
+   {
+      return (StepResult) m_mapResults.get( step );
+   }
+
+   /**
+    * Did all steps validate?
+    *
+    * @return true = every step validated without errors
+    */
+   public boolean isValid()
+   {
+      for ( int iResult=0; iResult<m_lResults.size(); iResult++ )
+      {
+         if (!((StepResult) m_lResults.get( iResult )).isValid())
+            return false;
+      }
+      return true;
+   }
+
+   /**
+    * Dumps the report.
+    *
+    * @param strm the stream to dump to
+    */
+   public void dump( PrintStream strm )
+   {
+      strm.println( "<Validation>" );   // I18NOK:LINE
+      for ( int iResult=0; iResult<m_lResults.size(); iResult++ )
+      {
+         StepResult               result = (StepResult) m_lResults.get( iResult );
+         JobSnapshot.StepSnapshot step   = m_snapshot.getStep( result.m_step.getID() );
+         strm.println( ((step == null) ? result.m_step.getID() : step.getName()) + "\t" +
+                       "server=" + ((result.m_server == null) ? "" : result.m_server.getName()) + "\t" +
+                       "rc="     + result.m_nReturnCode + "\t" + "errors=" + result.m_lErrors.size() + "\t" +
+                       "warnings=" + result.m_lWarnings.size() );   // I18NOK:LINE
+         for ( int iError=0; iError<result.m_lErrors.size(); iError++ )
+            strm.println( "\t" + result.m_lErrors.get( iError ) );   // I18NOK:LINE
+      }
+      strm.println( "</Validation>" );   // I18NOK:LINE
+   }
+
+   /**
+    * StepResult is the result of the validation of one step.
+    */
+   public static class StepResult
+   {
+      /** the return code used when the step's validation did not run */
+      public static final int NOT_RUN = -1;
+
+      private ITransform   m_step;
+      private IServer      m_server;
+      private int          m_nReturnCode;
+      private List         m_lErrors;     // String
+      private List         m_lWarnings;   // String
+      private StringBuffer m_sbLog;
+
+      /**
+       * Constructs the result of a step that has not run yet.
+       *
+       * @param step   the step
+       * @param server the server the step was validated on
+       */
+      StepResult( ITransform step, IServer server )
+      {
+         m_step        = step;
+         m_server      = server;
+         m_nReturnCode = NOT_RUN;
+         m_lErrors     = new ArrayList();
+         m_lWarnings   = new ArrayList();
+         m_sbLog       = new StringBuffer();
+      }
+
+      /**
+       * Sets the return code of the step's validation.
+       *
+       * @param nReturnCode the value of SYSCC after the step
+       */
+      void setReturnCode( int nReturnCode )
+      {
+         m_nReturnCode = nReturnCode;
+      }
+
+      /**
+       * Adds an error.
+       *
+       * @param sError the error
+       */
+      void addError( String sError )
+      {
+         m_lErrors.add( sError );
+      }
+
+      /**
+       * Adds a warning.
+       *
+       * @param sWarning the warning
+       */
+      void addWarning( String sWarning )
+      {
+         m_lWarnings.add( sWarning );
+      }
+
+      /**
+       * Adds a line of the step's log.
+       *
+       * @param sLine the line
+       */
+      void addLogLine( String sLine )
+      {
+         m_sbLog.append( sLine ).append( '\n' );
+      }
+
+      /**
+       * Gets the step.
+       *
+       * @return the step
+       */
+      public ITransform getStep()
+      {
+         return m_step;
+      }
+
+      /**
+       * Gets the server the step was validated on.
+       *
+       * @return the server (may be null)
+       */
+      public IServer getServer()
+      {
+         return m_server;
+      }
+
+      /**
+       * Gets the return code of the step's validation.
+       *
+       * @return the value of SYSCC after the step or NOT_RUN
+       */
+      public int getReturnCode()
+      {
+         return m_nReturnCode;
+      }
+
+      /**
+       * Gets the errors of the step's validation, including errors generating
+       * or submitting the validation code.
+       *
+       * @return an unmodifiable list of the errors (String)
+       */
+      public List getErrors()
+      {
+         return Collections.unmodifiableList( m_lErrors );
+      }
+
+      /**
+       * Gets the warnings of the step's validation.
+       *
+       * @return an unmodifiable list of the warnings (String)
+       */
+      public List getWarnings()
+      {
+         return Collections.unmodifiableList( m_lWarnings );
+      }
+
+      /**
+       * Gets the step's part of the log of its server's validation program.
+       *
+       * @return the log
+       */
+      public String getLog()
+      {
+         return m_sbLog.toString();
+      }
+
+      /**
+       * Did the step validate?
+       *
+       * @return true = the validation ran with a return code of at most 4 and
+       *         without errors
+       */
+      public boolean isValid()
+      {
+         return (m_nReturnCode != NOT_RUN) && (m_nReturnCode <= 4) && m_lErrors.isEmpty();
+      }
+   } // StepResult
+}
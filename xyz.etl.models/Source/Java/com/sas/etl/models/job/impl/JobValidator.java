@@ -0,0 +1,358 @@
+/* $Id$ */
+/**
+ * Title:       JobValidator.java
+ * Description: Validates all steps of a job with one program per server.
+ * Copyright:   Copyright (c) 2012
+ * Company:     SAS Institute
+ */
+package com.sas.etl.models.job.impl;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.sas.etl.models.data.BadLibraryDefinitionException;
+import com.sas.etl.models.job.ICodeGenerationEnvironment;
+import com.sas.etl.models.job.IJob;
+import com.sas.etl.models.job.ITransform;
+import com.sas.etl.models.job.IValidationExecutor;
+import com.sas.etl.models.other.BadServerDefinitionException;
+import com.sas.etl.models.other.IServer;
+
+/**
+ * JobValidator validates all steps of a job at once.  Validating a job one
+ * step at a time with {@link AbstractTransform#getCompleteValidateCode(ICodeGenerationEnvironment)}
+ * costs a submission, and its round trip to the server, for every step.  The
+ * validator instead:
+ * <ol>
+ * <li>groups the steps by the server they run on,
+ * <li>generates the validation code of the steps one after another, each
+ *     step in its own code generation environment,
+ * <li>combines the code of the steps of each server into one program, in
+ *     control order, with markers written to the log around each step,
+ * <li>submits the programs of the servers concurrently, and
+ * <li>splits each log at the markers to map the return codes, errors and
+ *     warnings back to the steps.
+ * </ol>
+ * The code is generated on the thread that calls {@link #validate}, which
+ * must be the thread that edits the model, because code generation reads the
+ * model and updates state cached in it.  Code generation reads far more of the
+ * model than a JobSnapshot holds, so it can not run from a snapshot on another
+ * thread.  Only the submissions, which do not touch the model, run on other
+ * threads, and the report carries a snapshot of the job, taken before the
+ * code is generated, for reading the results away from the model.
+ * <p>
+ * SYSCC is reset and syntax check mode is turned off before each step, so an
+ * error in one step does not fail the validation of the steps after it.
+ */
+public class JobValidator
+{
+   /** the prefix of the log line written before a step */
+   public static final String BEGIN_MARKER = "ETLS_VALIDATE_BEGIN=";   // I18NOK:LINE
+
+   /** the prefix of the log line written after a step */
+   public static final String END_MARKER   = "ETLS_VALIDATE_END=";     // I18NOK:LINE
+
+   private IJob                m_job;
+   private IServer             m_defaultServer;
+   private CodeGenerationCache m_cache;
+   private IValidationExecutor m_executor;
+
+   /**
+    * Constructs the validator.
+    *
+    * @param job           the job
+    * @param defaultServer the default server of the job
+    * @param cache         the code generation cache used to resolve step
+    *                      servers
+    * @param executor      the executor that supplies code generation
+    *                      environments and runs the validation programs
+    */
+   public JobValidator( IJob job, IServer defaultServer, CodeGenerationCache cache, IValidationExecutor executor )
+   {
+      m_job           = job;
+      m_defaultServer = defaultServer;
+      m_cache         = cache;
+      m_executor      = executor;
+   }
+
+   /**
+    * Validates the steps of the job.  This must be called on the thread that
+    * edits the model.
+    *
+    * @param nThreads the number of threads used to submit the programs
+    *
+    * @return the report of the validation
+    *
+    * @throws BadServerDefinitionException
+    * @throws BadLibraryDefinitionException
+    * @throws InterruptedException
+    */
+   public JobValidationReport validate( int nThreads )
+   throws BadServerDefinitionException, BadLibraryDefinitionException, InterruptedException
+   {
+      List                lSteps = m_cache.getDependencyGraph( m_job ).getSteps();
+      JobValidationReport report = new JobValidationReport( JobSnapshot.take( m_job ) );
+
+      // group the steps by server, keeping control order within each server
+      Map mapServers = new LinkedHashMap();   // server key to List of StepResult
+      for ( int iStep=0; iStep<lSteps.size(); iStep++ )
+      {
+         ITransform                     step   = (ITransform) lSteps.get( iStep );
+         IServer                        server = m_cache.getServerForStep( step, m_defaultServer );
+         JobValidationReport.StepResult result = new JobValidationReport.StepResult( step, server );
+         report.addResult( result );
+
+         String sKey     = (server == null) ? "" : server.getID();
+         List   lResults = (List) mapServers.get( sKey );
+         if (lResults == null)
+         {
+            lResults = new ArrayList();
+            mapServers.put( sKey, lResults );
+         }
+         lResults.add( result );
+      }
+
+      // generate the code of each server's steps and combine it
+      List lPrograms = new ArrayList();   // Object[] { List of StepResult, program }
+      List lServers  = new ArrayList( mapServers.values() );
+      for ( int iServer=0; iServer<lServers.size(); iServer++ )
+      {
+         List         lServerResults = (List) lServers.get( iServer );
+         List         lSubmitted     = new ArrayList();
+         StringBuffer sbProgram      = new StringBuffer();
+         for ( int iResult=0; iResult<lServerResults.size(); iResult++ )
+         {
+            JobValidationReport.StepResult result = (JobValidationReport.StepResult) lServerResults.get( iResult );
+            String                         sCode  = generate( result );
+            if (sCode == null)
+               continue;
+
+            genStep( sbProgram, result.getStep(), sCode );
+            lSubmitted.add( result );
+         }
+
+         if (!lSubmitted.isEmpty())
+            lPrograms.add( new Object[] { lSubmitted, sbProgram.toString() } );
+      }
+
+      ExecutorService threads = Executors.newFixedThreadPool( Math.max( Math.min( nThreads, lPrograms.size() ), 1 ) );
+      try
+      {
+         // submit the programs
+         List lSubmissions = new ArrayList();   // Object[] { List of StepResult, Future of the log }
+         for ( int iProgram=0; iProgram<lPrograms.size(); iProgram++ )
+         {
+            Object[] aProgram   = (Object[]) lPrograms.get( iProgram );
+            List     lSubmitted = (List) aProgram[0];
+            IServer  server     = ((JobValidationReport.StepResult) lSubmitted.get( 0 )).getServer();
+            lSubmissions.add( new Object[] { lSubmitted, threads.submit( new SubmitTask( server, (String) aProgram[1] ) ) } );
+         }
+
+         // map the logs back to the steps
+         for ( int iSubmission=0; iSubmission<lSubmissions.size(); iSubmission++ )
+         {
+            Object[] aSubmission = (Object[]) lSubmissions.get( iSubmission );
+            List     lSubmitted  = (List) aSubmission[0];
+            Future   future      = (Future) aSubmission[1];
+            String   sLog        = (String) getTaskResult( future, (JobValidationReport.StepResult) lSubmitted.get( 0 ) );
+            if (sLog == null)
+            {
+               // the submission failed, so every step of the server failed
+               String sError = (String) ((JobValidationReport.StepResult) lSubmitted.get( 0 )).getErrors().get( 0 );
+               for ( int iResult=1; iResult<lSubmitted.size(); iResult++ )
+                  ((JobValidationReport.StepResult) lSubmitted.get( iResult )).addError( sError );
+            }
+            else
+               parseLog( sLog, lSubmitted );
+         }
+      }
+      finally
+      {
+         threads.shutdownNow();
+      }
+
+      return report;
+   }
+
+   /**
+    * Generates the validation code of a step in its own code generation
+    * environment, recording a failure as an error of the step.
+    *
+    * @param result the result of the step
+    *
+    * @return the validation code or null if it could not be generated
+    */
+   private String generate( JobValidationReport.StepResult result )
+   {
+      ITransform step = result.getStep();
+      if (!(step instanceof AbstractTransform))
+      {
+         result.addError( "steps of a job must be transforms: " + step );   // I18NOK:EMS
+         return null;
+      }
+
+      try
+      {
+         ICodeGenerationEnvironment environment = m_executor.createEnvironment( result.getServer() );
+         return ((AbstractTransform) step).getCompleteValidateCode( environment ).toString();
+      }
+      catch (Exception e)
+      {
+         result.addError( (e.getMessage() == null) ? e.toString() : e.getMessage() );
+         return null;
+      }
+   }
+
+   /**
+    * Gets the result of a task, recording the task's failure as an error of a
+    * step.
+    *
+    * @param future the future of the task
+    * @param result the result of the step the failure is recorded in
+    *
+    * @return the result of the task or null if the task failed
+    *
+    * @throws InterruptedException
+    */
+   private Object getTaskResult( Future future, JobValidationReport.StepResult result )
+   throws InterruptedException
+   {
+      try
+      {
+         return future.get();
+      }
+      catch (ExecutionException e)
+      {
+         Throwable cause = (e.getCause() == null) ? e : e.getCause();
+         result.addError( (cause.getMessage() == null) ? cause.toString() : cause.getMessage() );
+         return null;
+      }
+   }
+
+   /**
+    * Adds a step's validation code to its server's program between the
+    * markers.
+    *
+    * @param sbProgram the program of the server
+    * @param step      the step
+    * @param sCode     the validation code of the step
+    */
+   private void genStep( StringBuffer sbProgram, ITransform step, String sCode )
+   {
+      sbProgram.append( "%let syscc = 0;\n" );                                         // I18NOK:LINE
+      sbProgram.append( "options obs=max replace nosyntaxcheck;\n" );                  // I18NOK:LINE
+      sbProgram.append( "%put " ).append( BEGIN_MARKER ).append( step.getID() ).append( ";\n\n" );   // I18NOK:LINE
+      sbProgram.append( sCode );
+      sbProgram.append( "\n%put " ).append( END_MARKER ).append( step.getID() ).append( " &syscc;\n\n" );   // I18NOK:LINE
+   }
+
+   /**
+    * Parses the log of a server's program and records the return codes,
+    * errors, warnings and log lines of its steps.  A step whose end marker is
+    * missing keeps the NOT_RUN return code.
+    *
+    * @param sLog       the log
+    * @param lSubmitted the results (StepResult) of the steps in the program
+    */
+   private void parseLog( String sLog, List lSubmitted )
+   {
+      Map mapIds = new HashMap();   // step id to StepResult
+      for ( int iResult=0; iResult<lSubmitted.size(); iResult++ )
+      {
+         JobValidationReport.StepResult result = (JobValidationReport.StepResult) lSubmitted.get( iResult );
+         mapIds.put( result.getStep().getID(), result );
+      }
+
+      try
+      {
+         BufferedReader                 rdr     = new BufferedReader( new StringReader( sLog ) );
+         JobValidationReport.StepResult current = null;
+         String                         sLine;
+         while ((sLine = rdr.readLine()) != null)
+         {
+            if (sLine.startsWith( BEGIN_MARKER ))
+            {
+               current = (JobValidationReport.StepResult) mapIds.get( sLine.substring( BEGIN_MARKER.length() ).trim() );
+               continue;
+            }
+
+            if (sLine.startsWith( END_MARKER ))
+            {
+               String                         sRest  = sLine.substring( END_MARKER.length() ).trim();
+               int                            iSpace = sRest.indexOf( ' ' );
+               JobValidationReport.StepResult result = (JobValidationReport.StepResult) mapIds.get( (iSpace < 0) ? sRest : sRest.substring( 0, iSpace ) );
+               if (result != null && iSpace >= 0)
+               {
+                  try
+                  {
+                     result.setReturnCode( Integer.parseInt( sRest.substring( iSpace + 1 ).trim() ) );
+                  }
+                  catch (NumberFormatException e)
+                  {
+                     result.addError( sLine );
+                  }
+               }
+               current = null;
+               continue;
+            }
+
+            if (current == null)
+               continue;
+
+            current.addLogLine( sLine );
+            if (sLine.startsWith( "ERROR" ))            // I18NOK:LINE
+               current.addError( sLine );
+            else if (sLine.startsWith( "WARNING" ))     // I18NOK:LINE
+               current.addWarning( sLine );
+         }
+      }
+      catch (IOException e)
+      {
+         // a string reader does not throw
+      }
+   }
+
+   /**
+    * SubmitTask submits the validation program of one server.
+    */
+   private class SubmitTask implements Callable
+   {
+      private IServer m_server;
+      private String  m_sProgram;
+
+      /**
+       * Constructs the task.
+       *
+       * @param server   the server
+       * @param sProgram the program
+       */
+      SubmitTask( IServer server, String sProgram )
+      {
+         m_server   = server;
+         m_sProgram = sProgram;
+      }
+
+      /**
+       * Submits the program.
+       *
+       * @return the log of the program (String)
+       *
+       * @throws Exception
+       */
+      public Object call() throws Exception
+      {
+         return m_executor.submit( m_server, m_sProgram );
+      }
+   } // SubmitTask
+}
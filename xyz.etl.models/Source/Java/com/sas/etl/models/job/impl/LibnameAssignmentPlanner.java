@@ -0,0 +1,179 @@
+/* $Id$ */
+/**
+ * Title:       LibnameAssignmentPlanner.java
+ * Description: Job-wide planning of library assignments during code generation.
+ * Copyright:   Copyright (c) 2012
+ * Company:     SAS Institute
+ */
+package com.sas.etl.models.job.impl;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.sas.etl.models.data.BadLibraryDefinitionException;
+import com.sas.etl.models.data.IDataObject;
+import com.sas.etl.models.data.ILibrary;
+import com.sas.etl.models.data.IPhysicalTable;
+import com.sas.etl.models.job.IDataTransform;
+import com.sas.etl.models.job.IJob;
+import com.sas.etl.models.job.ITransform;
+import com.sas.etl.models.other.BadServerDefinitionException;
+import com.sas.etl.models.other.IServer;
+
+/**
+ * LibnameAssignmentPlanner plans the LIBNAME statements of a job so that each
+ * library is assigned once per server session, at its first use, instead of
+ * once per step.  The planner collects the libraries used by every step of
+ * the job when it is created and then tracks which libraries have actually
+ * been assigned on each server during the code generation run.
+ * <p>
+ * Only libraries whose assignment was generated earlier in the same run are
+ * skipped, so code generated for a single step still contains its own
+ * LIBNAME statements.  Only the assignments of steps whose code always runs
+ * are recorded (see {@link CodeGenerationCache#isAlwaysRun(ITransform)}):
+ * a step skipped on a checkpoint restart or inside a loop or condition can
+ * not assign a library for the steps after it.
+ */
+public class LibnameAssignmentPlanner
+{
+   private Map m_mapStepIndexes;   // step to index in control order
+   private Map m_mapLastUses;      // server key + library id to index of last step using it
+   private Set m_setAssigned;      // server key + library id of libraries assigned in the run
+
+   /**
+    * Constructs the planner for the job.
+    *
+    * @param job           the job
+    * @param defaultServer the default server of the code generation run
+    * @param cache         the code generation cache of the run
+    *
+    * @throws BadServerDefinitionException
+    * @throws BadLibraryDefinitionException
+    */
+   public LibnameAssignmentPlanner( IJob job, IServer defaultServer, CodeGenerationCache cache )
+   throws BadServerDefinitionException, BadLibraryDefinitionException
+   {
+      m_mapStepIndexes = new IdentityHashMap();
+      m_mapLastUses    = new HashMap();
+      m_setAssigned    = new HashSet();
+
+      List lSteps = job.getControlOrderedTransformsList();
+      for ( int iStep=0; iStep<lSteps.size(); iStep++ )
+      {
+         Object obj = lSteps.get( iStep );
+         m_mapStepIndexes.put( obj, new Integer( iStep ) );
+         if (!(obj instanceof IDataTransform))
+            continue;
+
+         IDataTransform step = (IDataTransform) obj;
+         if (!step.isCodeGenerationEnabled())
+            continue;
+
+         IServer server = cache.getServerForStep( step, defaultServer );
+         addUses( step.getDataSources(), server, iStep );
+         addUses( step.getDataTargets(), server, iStep );
+      }
+   }
+
+   /**
+    * Records the use of the libraries of the tables by a step.
+    *
+    * @param aTables the tables used by the step
+    * @param server  the server the step runs on
+    * @param iStep   the index of the step
+    *
+    * @throws BadLibraryDefinitionException
+    */
+   private void addUses( IDataObject[] aTables, IServer server, int iStep )
+   throws BadLibraryDefinitionException
+   {
+      for ( int iTable=0; iTable<aTables.length; iTable++ )
+      {
+         if (!(aTables[iTable] instanceof IPhysicalTable))
+            continue;
+
+         ILibrary library = ((IPhysicalTable) aTables[iTable]).getCodeGenLibrary( server );
+         if (library != null)
+            m_mapLastUses.put( getKey( library, server ), new Integer( iStep ) );
+      }
+   }
+
+   /**
+    * Has the library already been assigned on the server during this run?
+    *
+    * @param library the library
+    * @param server  the server
+    *
+    * @return true = the library is assigned and its LIBNAME need not be repeated
+    */
+   public boolean isAssigned( ILibrary library, IServer server )
+   {
+      return m_setAssigned.contains( getKey( library, server ) );
+   }
+
+   /**
+    * Sets whether the library is assigned on the server.  Call this with true
+    * after a step that always runs generated the library's LIBNAME statement
+    * and with false after generating its LIBNAME CLEAR statement.
+    *
+    * @param library   the library
+    * @param server    the server
+    * @param bAssigned true = the library is assigned
+    */
+   public void setAssigned( ILibrary library, IServer server, boolean bAssigned )
+   {
+      if (bAssigned)
+         m_setAssigned.add(    getKey( library, server ) );
+      else
+         m_setAssigned.remove( getKey( library, server ) );
+   }
+
+   /**
+    * Forgets all library assignments.  Call this when code starts to be 
+    * generated for a new SAS session, in which no library is assigned yet.
+    */
+   public void clearAssignments()
+   {
+      m_setAssigned.clear();
+   }
+
+   /**
+    * Is the library used on the server by a step that runs after the specified
+    * step?  A library that is used later should not be cleared when it was 
+    * assigned by a step that always runs, because the later step relies on 
+    * that assignment.
+    *
+    * @param library the library
+    * @param server  the server
+    * @param step    the step
+    *
+    * @return true = a later step uses the library on the server
+    */
+   public boolean isUsedAfter( ILibrary library, IServer server, ITransform step )
+   {
+      Integer iStep    = (Integer) m_mapStepIndexes.get( step );
+      Integer iLastUse = (Integer) m_mapLastUses.get( getKey( library, server ) );
+      if ((iStep == null) || (iLastUse == null))
+         return false;
+
+      return iLastUse.intValue() > iStep.intValue();
+   }
+
+   /**
+    * Gets the key for a library on a server.
+    *
+    * @param library the library
+    * @param server  the server (may be null)
+    *
+    * @return the key
+    */
+   private String getKey( ILibrary library, IServer server )
+   {
+      String sServer = (server == null) ? "" : server.getID();
+      return sServer + "|" + library.getID();
+   }
+}
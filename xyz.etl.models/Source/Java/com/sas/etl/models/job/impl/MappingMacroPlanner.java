@@ -0,0 +1,289 @@
+/* $Id$ */
+/**
+ * Title:       MappingMacroPlanner.java
+ * Description: Shares repeated mapping code through generated macros.
+ * Copyright:   Copyright (c) 2012
+ * Company:     SAS Institute
+ */
+package com.sas.etl.models.job.impl;
+
+import java.text.MessageFormat;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.sas.etl.models.job.ICodeSegment;
+
+/**
+ * MappingMacroPlanner shares structurally identical mapping code through
+ * generated macros.  Jobs often map many tables the same way, for example a
+ * set of extracts that load identically shaped tables, and each step repeats
+ * the same PROC SQL step with only the table names and options changed.
+ * <p>
+ * The caller generates the "shape" of the mapping code with the macro's
+ * parameter references ({@link #TARGET_REFERENCE}, {@link #INPUT_REFERENCE},
+ * {@link #SOURCE_OPTIONS_REFERENCE} and {@link #TARGET_OPTIONS_REFERENCE}) in
+ * place of the table names and options and asks the planner to generate a
+ * call for it.  The first time a shape is seen, the planner declines and the
+ * caller generates the code inline as usual, so code that is not repeated is
+ * not changed.  The inline code is made from the shape with 
+ * {@link #resolveShape}, so the mapping code is generated only once.  When 
+ * the same shape is seen again, the planner defines a macro for it, once per
+ * server the code runs on, and generates a call to the macro with the real 
+ * table names and options.
+ * <p>
+ * Only a step whose code always runs (see 
+ * {@link CodeGenerationCache#isAlwaysRun}) defines a macro for the steps 
+ * after it.  A step whose code may not run, in a job restarted from a
+ * checkpoint or in a loop, calls a macro only when an always run step
+ * defined it before and otherwise generates the mapping code inline.
+ * <p>
+ * The planner is owned by the {@link CodeGenerationCache} of a run and is only
+ * available when mapping macros are enabled for the run's environment (see
+ * {@link CodeGenerationCache#setMappingMacrosEnabled(ICodeGenerationEnvironment, boolean)}).
+ * The savings are reported once at the end of the program: a step's own
+ * program reports them when its code generation run ends, and the generator
+ * of a program of several steps calls {@link #genReportComment} after the
+ * last step.
+ */
+public class MappingMacroPlanner
+{
+   /** the reference to the target table parameter */
+   public static final String TARGET_REFERENCE         = "&etls_mapout";      // I18NOK:EMS
+   /** the reference to the input table parameter */
+   public static final String INPUT_REFERENCE          = "&etls_mapin";       // I18NOK:EMS
+   /** the reference to the source table options parameter */
+   public static final String SOURCE_OPTIONS_REFERENCE = "&etls_mapinopt";    // I18NOK:EMS
+   /** the reference to the target table options parameter */
+   public static final String TARGET_OPTIONS_REFERENCE = "&etls_mapoutopt";   // I18NOK:EMS
+
+   private static final String MACRO_PREFIX = "etls_map";   // I18NOK:EMS
+
+   private CodeGenerationCache m_cache;
+   private Map                 m_mapShapes;          // shape hash to macro name
+   private long                m_lInlineCharacters;  // characters the mapping code would have taken inline
+   private long                m_lCharacters;        // characters the mapping code took
+   private int                 m_nCalls;             // calls generated instead of the mapping code
+
+   /**
+    * Constructs the planner.
+    *
+    * @param cache the code generation cache of the run, used to track the
+    *              macros defined in the current session
+    */
+   MappingMacroPlanner( CodeGenerationCache cache )
+   {
+      m_cache     = cache;
+      m_mapShapes = new HashMap();
+   }
+
+   /**
+    * Gets the value to use for table options in the shape of the mapping code.
+    *
+    * @param sOptions   the table options
+    * @param sReference the reference to the options parameter
+    *
+    * @return the reference if there are options, otherwise the options
+    */
+   public static String getOptionsReference( String sOptions, String sReference )
+   {
+      return (sOptions == null || sOptions.length() == 0) ? sOptions : sReference;
+   }
+
+   /**
+    * Generates a call to the macro for the shape of the mapping code, defining
+    * the macro first if it is not yet defined in the current session.  Nothing
+    * is generated the first time a shape is seen; the caller must then
+    * generate the mapping code inline.
+    *
+    * @param codeSegment    the code segment
+    * @param sShape         the shape of the mapping code
+    * @param sTarget        the target table name
+    * @param sInput         the input table name
+    * @param sSourceOptions the source table options (may be null)
+    * @param sTargetOptions the target table options (may be null)
+    * @param bAlwaysRun     true = the step's code always runs, so it may 
+    *                       define the macro for the steps after it
+    *
+    * @return true = a call was generated, false = the caller must generate the
+    *         mapping code inline
+    */
+   public boolean genCall( ICodeSegment codeSegment, String sShape, String sTarget, String sInput, String sSourceOptions, String sTargetOptions, boolean bAlwaysRun )
+   {
+      m_lInlineCharacters += sShape.length();
+
+      if (!isQuotable( sTarget ) || !isQuotable( sInput ) || !isQuotable( sSourceOptions ) || !isQuotable( sTargetOptions ))
+      {
+         m_lCharacters += sShape.length();
+         return false;
+      }
+
+      String sHash = StepFingerprint.getCodeHash( sShape );
+      String sName = (String) m_mapShapes.get( sHash );
+      if (sName == null)
+      {
+         m_mapShapes.put( sHash, MACRO_PREFIX + (m_mapShapes.size() + 1) );
+         m_lCharacters += sShape.length();
+         return false;
+      }
+
+      boolean bDefined = m_cache.isMacroDefined( sName, codeSegment.getCurrentServer() );
+      if (!bDefined && !bAlwaysRun)
+      {
+         m_lCharacters += sShape.length();
+         return false;
+      }
+
+      StringBuffer sbCode = new StringBuffer();
+      if (!bDefined)
+      {
+         sbCode.append( "%macro " ).append( sName )
+               .append( "(etls_mapout=, etls_mapin=, etls_mapinopt=, etls_mapoutopt=);\n\n" );   // I18NOK:LINE
+         sbCode.append( sShape );
+         sbCode.append( "%mend " ).append( sName ).append( ";\n\n" );   // I18NOK:LINE
+         m_cache.setMacroDefined( sName, codeSegment.getCurrentServer() );
+      }
+
+      sbCode.append( "%" ).append( sName ).append( "(" );
+      sbCode.append( "etls_mapout=" ).append( quote( sTarget ) );   // I18NOK:LINE
+      sbCode.append( ", etls_mapin=" ).append( quote( sInput ) );   // I18NOK:LINE
+      if (sSourceOptions != null && sSourceOptions.length() > 0)
+         sbCode.append( ", etls_mapinopt=" ).append( quote( sSourceOptions ) );   // I18NOK:LINE
+      if (sTargetOptions != null && sTargetOptions.length() > 0)
+         sbCode.append( ", etls_mapoutopt=" ).append( quote( sTargetOptions ) );   // I18NOK:LINE
+      sbCode.append( ");\n\n" );
+      m_lCharacters += sbCode.length();
+      m_nCalls++;
+
+      codeSegment.addSourceCode( sbCode );
+      return true;
+   }
+
+   /**
+    * Resolves the shape of the mapping code to the inline mapping code by 
+    * replacing the parameter references with the table names and options.
+    *
+    * @param sShape         the shape of the mapping code
+    * @param sTarget        the target table name
+    * @param sInput         the input table name
+    * @param sSourceOptions the source table options (may be null)
+    * @param sTargetOptions the target table options (may be null)
+    *
+    * @return the mapping code
+    */
+   public static String resolveShape( String sShape, String sTarget, String sInput, String sSourceOptions, String sTargetOptions )
+   {
+      // the references to the options are matched first, because the 
+      // references to the tables are their prefixes
+      String[] aReferences = { SOURCE_OPTIONS_REFERENCE, TARGET_OPTIONS_REFERENCE, TARGET_REFERENCE, INPUT_REFERENCE };
+      String[] aValues     = { sSourceOptions,           sTargetOptions,           sTarget,          sInput          };
+
+      StringBuffer sbCode = new StringBuffer( sShape.length() + 64 );
+      int          iStart = 0;
+      int          iRef   = sShape.indexOf( '&' );
+      while (iRef >= 0)
+      {
+         int iMatch = -1;
+         for ( int i=0; (i<aReferences.length) && (iMatch < 0); i++ )
+         {
+            if (sShape.startsWith( aReferences[i], iRef ))
+               iMatch = i;
+         }
+         if (iMatch < 0)
+         {
+            iRef = sShape.indexOf( '&', iRef + 1 );
+            continue;
+         }
+
+         sbCode.append( sShape.substring( iStart, iRef ) );
+         if (aValues[ iMatch ] != null)
+            sbCode.append( aValues[ iMatch ] );
+         iStart = iRef + aReferences[ iMatch ].length();
+         iRef   = sShape.indexOf( '&', iStart );
+      }
+      sbCode.append( sShape.substring( iStart ) );
+      return sbCode.toString();
+   }
+
+   /**
+    * Gets the number of characters saved so far by calling macros instead of
+    * repeating the mapping code.
+    *
+    * @return the number of characters saved, negative if the macro definitions
+    *         cost more than the calls saved
+    */
+   public long getCharactersSaved()
+   {
+      return m_lInlineCharacters - m_lCharacters;
+   }
+
+   /**
+    * Generates a comment that reports the characters saved in the program.
+    * Call this once, at the end of the program.  Nothing is generated when no
+    * mapping code was shared.
+    *
+    * @param codeSegment the code segment
+    *
+    * @return the code segment
+    */
+   public ICodeSegment genReportComment( ICodeSegment codeSegment )
+   {
+      if (m_nCalls == 0)
+         return codeSegment;
+
+      codeSegment.addCommentLine( MessageFormat.format( RB.getStringResource( "MappingMacroPlanner.Report.txt" ), 
+                                                        new Object[] { new Integer( m_nCalls ), new Long( m_lInlineCharacters ), 
+                                                                       new Long( m_lCharacters ), new Long( getCharactersSaved() ) } ) );
+      return codeSegment;
+   }
+
+   /**
+    * Can a value be passed to the macro?  Values with unbalanced quotes or
+    * parentheses cannot be quoted with %str.
+    *
+    * @param sValue the value (may be null)
+    *
+    * @return true = the value can be passed
+    */
+   private boolean isQuotable( String sValue )
+   {
+      if (sValue == null)
+         return true;
+
+      int nSingle = 0;
+      int nDouble = 0;
+      int nParens = 0;
+      for ( int i=0; i<sValue.length(); i++ )
+      {
+         char c = sValue.charAt( i );
+         if (c == '\'')
+            nSingle++;
+         else if (c == '"')
+            nDouble++;
+         else if (c == '(')
+            nParens++;
+         else if (c == ')' && --nParens < 0)
+            return false;
+         else if (c == ';')
+            return false;
+      }
+      return ((nSingle % 2) == 0) && ((nDouble % 2) == 0) && (nParens == 0);
+   }
+
+   /**
+    * Quotes a value passed to the macro if it contains characters that would
+    * end the parameter.
+    *
+    * @param sValue the value
+    *
+    * @return the value, quoted with %str if necessary
+    */
+   private String quote( String sValue )
+   {
+      for ( int i=0; i<sValue.length(); i++ )
+      {
+         if ("'\",()=".indexOf( sValue.charAt( i ) ) >= 0)   // I18NOK:LINE
+            return "%str(" + sValue + ")";   // I18NOK:LINE
+      }
+      return sValue;
+   }
+}
@@ -0,0 +1,146 @@
+/* $Id$ */
+/**
+ * Title:       ModelStepExecutor.java
+ * Description: A step executor that models step durations and data sizes.
+ * Copyright:   Copyright (c) 2012
+ * Company:     SAS Institute
+ */
+package com.sas.etl.models.job.impl;
+
+import com.sas.etl.models.data.IDataObject;
+import com.sas.etl.models.data.IPhysicalTable;
+import com.sas.etl.models.job.IDataTransform;
+import com.sas.etl.models.job.ISortingTransform;
+import com.sas.etl.models.job.IStepExecutor;
+import com.sas.etl.models.job.IStepRuntimeEstimator;
+import com.sas.etl.models.job.ITableRowCountEstimator;
+import com.sas.etl.models.job.ITransform;
+
+/**
+ * ModelStepExecutor is the default executor of simulated job runs.  It does
+ * not run anything; it models each step:
+ * <ul>
+ * <li>A target has the row count given by the row count estimator, or else
+ *     the sum of the step's source rows.
+ * <li>A step takes the runtime given by the runtime estimator, or else a fixed
+ *     overhead plus a cost per row read and written.  Sorting steps cost
+ *     n log n comparisons instead of a cost per row read.
+ * </ul>
+ * The costs can be changed to calibrate the model against measured runs.
+ */
+public class ModelStepExecutor implements IStepExecutor
+{
+   /** the default overhead of a step in seconds */
+   public static final double DEFAULT_STEP_OVERHEAD      = 0.5;
+   /** the default cost of reading or writing a row in seconds */
+   public static final double DEFAULT_ROW_COST           = 2.0E-6;
+   /** the default cost of a sort comparison in seconds */
+   public static final double DEFAULT_COMPARISON_COST    = 1.0E-7;
+   /** the default row length in bytes */
+   public static final long   DEFAULT_ROW_LENGTH         = 100;
+   /** the row count of sources whose size is not known */
+   public static final long   DEFAULT_SOURCE_ROWS        = 10000;
+
+   private IStepRuntimeEstimator   m_runtimes;
+   private ITableRowCountEstimator m_rows;
+   private double                  m_dStepOverhead;
+   private double                  m_dRowCost;
+   private double                  m_dComparisonCost;
+   private long                    m_lRowLength;
+
+   /**
+    * Constructs the executor.
+    *
+    * @param runtimes the runtime estimator (may be null)
+    * @param rows     the row count estimator (may be null)
+    */
+   public ModelStepExecutor( IStepRuntimeEstimator runtimes, ITableRowCountEstimator rows )
+   {
+      m_runtimes        = runtimes;
+      m_rows            = rows;
+      m_dStepOverhead   = DEFAULT_STEP_OVERHEAD;
+      m_dRowCost        = DEFAULT_ROW_COST;
+      m_dComparisonCost = DEFAULT_COMPARISON_COST;
+      m_lRowLength      = DEFAULT_ROW_LENGTH;
+   }
+
+   /**
+    * Sets the costs of the model.
+    *
+    * @param dStepOverhead   the overhead of a step in seconds
+    * @param dRowCost        the cost of reading or writing a row in seconds
+    * @param dComparisonCost the cost of a sort comparison in seconds
+    * @param lRowLength      the row length in bytes
+    */
+   public void setCosts( double dStepOverhead, double dRowCost, double dComparisonCost, long lRowLength )
+   {
+      m_dStepOverhead   = dStepOverhead;
+      m_dRowCost        = dRowCost;
+      m_dComparisonCost = dComparisonCost;
+      m_lRowLength      = lRowLength;
+   }
+
+   /**
+    * Models the execution of a step.
+    *
+    * @param step        the step
+    * @param aSourceRows the number of rows in each of the step's data sources
+    * @param aTargetRows filled in with the number of rows written to each target
+    *
+    * @return the time the step takes in seconds
+    *
+    * @see com.sas.etl.models.job.IStepExecutor#execute(com.sas.etl.models.job.ITransform, long[], long[])
+    */
+   public double execute( ITransform step, long[] aSourceRows, long[] aTargetRows )
+   {
+      if (!step.isCodeGenerationEnabled())
+      {
+         for ( int i=0; i<aTargetRows.length; i++ )
+            aTargetRows[i] = 0;
+         return 0;
+      }
+
+      long lRead = 0;
+      for ( int i=0; i<aSourceRows.length; i++ )
+         lRead += (aSourceRows[i] < 0) ? DEFAULT_SOURCE_ROWS : aSourceRows[i];
+
+      long          lWritten = 0;
+      IDataObject[] targets  = (step instanceof IDataTransform) ? ((IDataTransform) step).getDataTargets() : new IDataObject[ 0 ];
+      for ( int i=0; i<aTargetRows.length; i++ )
+      {
+         long lRows = IStepExecutor.UNKNOWN_ROWS;
+         if ((m_rows != null) && (i < targets.length) && (targets[i] instanceof IPhysicalTable))
+            lRows = m_rows.getEstimatedRowCount( (IPhysicalTable) targets[i] );
+         aTargetRows[i] = (lRows < 0) ? lRead : lRows;
+         lWritten += aTargetRows[i];
+      }
+
+      if (m_runtimes != null)
+      {
+         double dRuntime = m_runtimes.getEstimatedRuntime( step );
+         if (dRuntime >= 0)
+            return dRuntime;
+      }
+
+      double dRuntime = m_dStepOverhead + lWritten * m_dRowCost;
+      if ((step instanceof ISortingTransform) && (lRead > 1))
+         dRuntime += lRead * (Math.log( lRead ) / Math.log( 2 )) * m_dComparisonCost;
+      else
+         dRuntime += lRead * m_dRowCost;
+      return dRuntime;
+   }
+
+   /**
+    * Gets the average length of a row of a table.
+    *
+    * @param table the table
+    *
+    * @return the row length in bytes
+    *
+    * @see com.sas.etl.models.job.IStepExecutor#getRowLength(com.sas.etl.models.data.IDataObject)
+    */
+   public long getRowLength( IDataObject table )
+   {
+      return m_lRowLength;
+   }
+}
@@ -0,0 +1,451 @@
+/* $Id$ */
+/**
+ * Title:       ParallelExecutionPlan.java
+ * Description: A plan for running independent steps of a job concurrently.
+ * Copyright:   Copyright (c) 2012
+ * Company:     SAS Institute
+ */
+package com.sas.etl.models.job.impl;
+
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.sas.etl.models.ServerException;
+import com.sas.etl.models.data.BadLibraryDefinitionException;
+import com.sas.etl.models.impl.ObjectComparator;
+import com.sas.etl.models.job.ICodeGenerationEnvironment;
+import com.sas.etl.models.job.ICodeSegment;
+import com.sas.etl.models.job.IJob;
+import com.sas.etl.models.job.IStepRuntimeEstimator;
+import com.sas.etl.models.job.ITransform;
+import com.sas.etl.models.other.BadServerDefinitionException;
+import com.sas.etl.models.other.IServer;
+import com.sas.metadata.remote.MdException;
+
+/**
+ * ParallelExecutionPlan assigns the steps of a job to SAS sessions and waves
+ * so that independent branches of the job run concurrently.
+ * <p>
+ * Steps are placed in sessions as follows:
+ * <ul>
+ * <li>Steps that exchange work tables are placed in the same session, because
+ *     a session can not see another session's WORK library.
+ * <li>Serialization points (see {@link JobDependencyGraph}) and steps that run
+ *     on another server are placed in the job's own session, the parent
+ *     session.
+ * <li>The remaining groups of steps are spread over at most the maximum
+ *     parallelism child sessions, longest groups first, using the runtime
+ *     estimates of the steps when there are any.
+ * </ul>
+ * A step is placed in the first wave after the waves of the steps it depends
+ * on in other sessions; within a wave each session runs its steps in control
+ * order.  The waves are separated by barriers, so a barrier only comes before
+ * a step that joins the results of other sessions.
+ * <p>
+ * The child sessions are started with MP CONNECT on the host of the parent
+ * session.  A child session starts with none of the parent's setup, so after
+ * it signs on the job's setup code (options, the return code and performance
+ * macros, the job level library assignments) is replayed in it together with
+ * the return code macro and the environment's remote macro variables.  Global
+ * macro variables are copied to a child session before each of its waves and
+ * the child's job return code is merged back after the barrier.
+ * <p>
+ * A plan is created for a code generation run with
+ * {@link CodeGenerationCache#createParallelExecutionPlan}.  The code of a job
+ * whose branches run in parallel is generated by beginning a run, creating
+ * the plan and calling {@link #genCode} in place of generating the steps one
+ * after another in control order.
+ */
+public class ParallelExecutionPlan
+{
+   /** the session number of the parent session */
+   public static final int PARENT_SESSION = 0;
+
+   private static final String SESSION_PREFIX = "etls_p";   // I18NOK:LINE
+
+   private JobDependencyGraph    m_graph;
+   private IJob                  m_job;
+   private IServer               m_defaultServer;
+   private CodeGenerationCache   m_cache;
+   private IStepRuntimeEstimator m_estimator;
+   private Map                   m_mapSessions;   // step to Integer session
+   private Map                   m_mapWaves;      // step to Integer wave
+   private int                   m_nSessions;     // number of child sessions used
+   private int                   m_nWaves;
+
+   /**
+    * Constructs the plan for a job.
+    *
+    * @param job             the job
+    * @param defaultServer   the default server of the run
+    * @param cache           the code generation cache of the run
+    * @param estimator       the runtime estimator (may be null)
+    * @param nMaxParallelism the maximum number of child sessions
+    *
+    * @throws BadServerDefinitionException
+    * @throws BadLibraryDefinitionException
+    */
+   public ParallelExecutionPlan( IJob job, IServer defaultServer, CodeGenerationCache cache, IStepRuntimeEstimator estimator, int nMaxParallelism )
+   throws BadServerDefinitionException, BadLibraryDefinitionException
+   {
+      if (nMaxParallelism < 1)
+         throw new IllegalArgumentException( "maximum parallelism must be at least 1" );   // I18NOK:EMS
+
+      m_job           = job;
+      m_defaultServer = defaultServer;
+      m_cache         = cache;
+      m_estimator     = estimator;
+      m_graph         = cache.getDependencyGraph( job );
+      m_mapSessions   = new IdentityHashMap();
+      m_mapWaves      = new IdentityHashMap();
+
+      List  lSteps  = m_graph.getSteps();
+      int   nSteps  = lSteps.size();
+      int[] aGroups = new int[ nSteps + 1 ];   // union-find of steps, the last entry is the parent session
+      for ( int i=0; i<aGroups.length; i++ )
+         aGroups[i] = i;
+
+      // group the steps that must share a session
+      for ( int iStep=0; iStep<nSteps; iStep++ )
+      {
+         ITransform step = (ITransform) lSteps.get( iStep );
+         if (m_graph.isSerialized( step ) || 
+             !ObjectComparator.isEqual( cache.getServerForStep( step, defaultServer ), defaultServer ))
+            union( aGroups, iStep, nSteps );
+
+         List lPredecessors = m_graph.getPredecessors( step );
+         for ( int iPred=0; iPred<lPredecessors.size(); iPred++ )
+         {
+            ITransform pred = (ITransform) lPredecessors.get( iPred );
+            if (m_graph.isWorkTableDependency( pred, step ))
+               union( aGroups, iStep, m_graph.getIndex( pred ) );
+         }
+      }
+
+      // spread the groups over the child sessions, longest first
+      int      iParent = find( aGroups, nSteps );
+      double[] aWeight = new double[ nSteps + 1 ];
+      for ( int iStep=0; iStep<nSteps; iStep++ )
+         aWeight[ find( aGroups, iStep ) ] += getEstimatedRuntime( (ITransform) lSteps.get( iStep ) );
+
+      List lGroups = new ArrayList();
+      for ( int i=0; i<nSteps; i++ )
+      {
+         if ((find( aGroups, i ) == i) && (i != iParent))
+            lGroups.add( new Integer( i ) );
+      }
+      final double[] aGroupWeight = aWeight;
+      Integer[] aSorted = (Integer[]) lGroups.toArray( new Integer[ lGroups.size() ] );
+      Arrays.sort( aSorted, new Comparator()
+      {
+         public int compare( Object o1, Object o2 )
+         {
+            return Double.compare( aGroupWeight[ ((Integer) o2).intValue() ], aGroupWeight[ ((Integer) o1).intValue() ] );
+         }
+      } );
+
+      m_nSessions = Math.min( nMaxParallelism, aSorted.length );
+      double[] aLoad          = new double[ m_nSessions + 1 ];
+      int[]    aGroupSessions = new int[ nSteps + 1 ];
+      aGroupSessions[ iParent ] = PARENT_SESSION;
+      for ( int i=0; i<aSorted.length; i++ )
+      {
+         int iSession = 1;
+         for ( int j=2; j<=m_nSessions; j++ )
+         {
+            if (aLoad[j] < aLoad[ iSession ])
+               iSession = j;
+         }
+         aLoad[ iSession ] += aWeight[ aSorted[i].intValue() ];
+         aGroupSessions[ aSorted[i].intValue() ] = iSession;
+      }
+
+      // place the steps in waves
+      for ( int iStep=0; iStep<nSteps; iStep++ )
+      {
+         ITransform step     = (ITransform) lSteps.get( iStep );
+         int        iSession = aGroupSessions[ find( aGroups, iStep ) ];
+         int        iWave    = 0;
+
+         List lPredecessors = m_graph.getPredecessors( step );
+         for ( int iPred=0; iPred<lPredecessors.size(); iPred++ )
+         {
+            ITransform pred      = (ITransform) lPredecessors.get( iPred );
+            int        iPredWave = getWave( pred );
+            iWave = Math.max( iWave, (getSession( pred ) == iSession) ? iPredWave : iPredWave + 1 );
+         }
+
+         m_mapSessions.put( step, new Integer( iSession ) );
+         m_mapWaves   .put( step, new Integer( iWave    ) );
+         m_nWaves = Math.max( m_nWaves, iWave + 1 );
+      }
+   }
+
+   /**
+    * Gets the estimated runtime of a step, used to balance the sessions.
+    *
+    * @param step the step
+    *
+    * @return the estimated runtime of the step or 1 if it is not known
+    */
+   private double getEstimatedRuntime( ITransform step )
+   {
+      double dRuntime = (m_estimator == null) ? IStepRuntimeEstimator.UNKNOWN_RUNTIME : m_estimator.getEstimatedRuntime( step );
+      if (dRuntime < 0)
+         return 1;
+      return Math.max( dRuntime, 0.001 );
+   }
+
+   /**
+    * Finds the representative of a group.
+    */
+   private static int find( int[] aGroups, int i )
+   {
+      while (aGroups[i] != i)
+      {
+         aGroups[i] = aGroups[ aGroups[i] ];
+         i = aGroups[i];
+      }
+      return i;
+   }
+
+   /**
+    * Merges the groups of two entries.  The parent session entry, which is
+    * the highest, is always kept as the representative.
+    */
+   private static void union( int[] aGroups, int i, int j )
+   {
+      int iRoot = find( aGroups, i );
+      int jRoot = find( aGroups, j );
+      if (iRoot < jRoot)
+         aGroups[ iRoot ] = jRoot;
+      else if (jRoot < iRoot)
+         aGroups[ jRoot ] = iRoot;
+   }
+
+   /**
+    * Gets the dependency graph the plan is based on.
+    *
+    * @return the dependency graph
+    */
+   public JobDependencyGraph getDependencyGraph()
+   {
+      return m_graph;
+   }
+
+   /**
+    * Gets the session a step runs in.
+    *
+    * @param step the step
+    *
+    * @return the session, PARENT_SESSION or 1 to the session count
+    */
+   public int getSession( ITransform step )
+   {
+      return ((Integer) m_mapSessions.get( step )).intValue();
+   }
+
+   /**
+    * Gets the wave a step runs in.
+    *
+    * @param step the step
+    *
+    * @return the wave, starting at 0
+    */
+   public int getWave( ITransform step )
+   {
+      return ((Integer) m_mapWaves.get( step )).intValue();
+   }
+
+   /**
+    * Gets the number of child sessions used.
+    *
+    * @return the number of child sessions
+    */
+   public int getSessionCount()
+   {
+      return m_nSessions;
+   }
+
+   /**
+    * Gets the number of waves.
+    *
+    * @return the number of waves
+    */
+   public int getWaveCount()
+   {
+      return m_nWaves;
+   }
+
+   /**
+    * Gets the steps a session runs in a wave.
+    *
+    * @param iWave    the wave
+    * @param iSession the session
+    *
+    * @return the steps in control order
+    */
+   public List getSteps( int iWave, int iSession )
+   {
+      List lSteps = new ArrayList();
+      List lAll   = m_graph.getSteps();
+      for ( int i=0; i<lAll.size(); i++ )
+      {
+         ITransform step = (ITransform) lAll.get( i );
+         if ((getWave( step ) == iWave) && (getSession( step ) == iSession))
+            lSteps.add( step );
+      }
+      return lSteps;
+   }
+
+   /**
+    * Generates the code of the job's steps according to the plan.
+    * <p>
+    * The setup code is the code the job generates before its first step in
+    * the parent session.  It is submitted to each child session after the
+    * session signs on, so it may also be an <code>%include</code> of a file
+    * holding that code.
+    *
+    * @param codeSegment the code segment
+    * @param sSetupCode  the job's setup code (may be null)
+    *
+    * @return the code segment
+    *
+    * @throws CodegenException
+    * @throws MdException
+    * @throws RemoteException
+    * @throws BadServerDefinitionException
+    * @throws BadLibraryDefinitionException
+    * @throws ServerException
+    */
+   public ICodeSegment genCode( ICodeSegment codeSegment, String sSetupCode )
+   throws CodegenException, MdException, RemoteException, BadServerDefinitionException, BadLibraryDefinitionException, ServerException
+   {
+      LibnameAssignmentPlanner planner = m_cache.getLibnameAssignmentPlanner( m_job, m_defaultServer );
+
+      for ( int iSession=1; iSession<=m_nSessions; iSession++ )
+      {
+         codeSegment.addSourceCode( "signon " ).addSourceCode( getSessionName( iSession ) ).addSourceCode( " sascmd=\"!sascmd\" wait=yes;\n" );   // I18NOK:LINE
+         genSessionSetup( codeSegment, getSessionName( iSession ), sSetupCode );
+      }
+      codeSegment.addSourceCode( "\n" );
+
+      for ( int iWave=0; iWave<m_nWaves; iWave++ )
+      {
+         codeSegment.addSourceCode( "/* wave " + (iWave + 1) + " of " + m_nWaves + " */\n" );   // I18NOK:LINE
+
+         // start the child sessions
+         List lActive = new ArrayList();
+         for ( int iSession=1; iSession<=m_nSessions; iSession++ )
+         {
+            List lSteps = getSteps( iWave, iSession );
+            if (lSteps.isEmpty())
+               continue;
+
+            String sSession = getSessionName( iSession );
+            lActive.add( sSession );
+
+            // a new session has none of the libraries assigned or macros defined
+            planner.clearAssignments();
+            m_cache.clearMacroDefinitions();
+
+            codeSegment.addSourceCode( "%syslput _global_ / remote=" ).addSourceCode( sSession ).addSourceCode( ";\n" );   // I18NOK:LINE
+            codeSegment.addSourceCode( "rsubmit " ).addSourceCode( sSession ).addSourceCode( " wait=no sysrputsync=yes;\n" ).indent();   // I18NOK:LINE
+            genSteps( codeSegment, lSteps );
+            codeSegment.addSourceCode( "%sysrput " ).addSourceCode( sSession ).addSourceCode( "_rc=&job_rc;\n" );   // I18NOK:LINE
+            codeSegment.unIndent().addSourceCode( "endrsubmit;\n\n" );   // I18NOK:LINE
+         }
+
+         // the parent session's own steps run while the children run
+         List lSteps = getSteps( iWave, PARENT_SESSION );
+         if (!lSteps.isEmpty())
+         {
+            planner.clearAssignments();
+            m_cache.clearMacroDefinitions();
+            genSteps( codeSegment, lSteps );
+         }
+
+         // barrier
+         if (!lActive.isEmpty())
+         {
+            codeSegment.addSourceCode( "waitfor _all_" );   // I18NOK:LINE
+            for ( int i=0; i<lActive.size(); i++ )
+               codeSegment.addSourceCode( " " ).addSourceCode( (String) lActive.get( i ) );
+            codeSegment.addSourceCode( ";\n" );
+
+            codeSegment.addSourceCode( "%let job_rc = %sysfunc(max(&job_rc" );   // I18NOK:LINE
+            for ( int i=0; i<lActive.size(); i++ )
+               codeSegment.addSourceCode( ", &" ).addSourceCode( (String) lActive.get( i ) ).addSourceCode( "_rc" );
+            codeSegment.addSourceCode( "));\n\n" );
+         }
+      }
+
+      for ( int iSession=1; iSession<=m_nSessions; iSession++ )
+         codeSegment.addSourceCode( "signoff " ).addSourceCode( getSessionName( iSession ) ).addSourceCode( ";\n" );   // I18NOK:LINE
+      codeSegment.addSourceCode( "\n" );
+
+      return codeSegment;
+   }
+
+   /**
+    * Generates the code that sets up a child session after it signs on: the
+    * remote macro variables, the job's setup code and the return code macro.
+    *
+    * @param codeSegment the code segment
+    * @param sSession    the name of the child session
+    * @param sSetupCode  the job's setup code (may be null)
+    */
+   private void genSessionSetup( ICodeSegment codeSegment, String sSession, String sSetupCode )
+   throws CodegenException, MdException, RemoteException, BadServerDefinitionException, BadLibraryDefinitionException, ServerException
+   {
+      ICodeGenerationEnvironment environment = codeSegment.getCodeGenerationEnvironment();
+
+      codeSegment.addSourceCode( "%syslput _global_ / remote=" ).addSourceCode( sSession ).addSourceCode( ";\n" );   // I18NOK:LINE
+      codeSegment.genRemoteMacroVariablesSetup( environment.getRemoteMacroVariables(), sSession, true );
+      codeSegment.addSourceCode( "rsubmit " ).addSourceCode( sSession ).addSourceCode( " wait=yes;\n" ).indent();   // I18NOK:LINE
+      if (environment.isQuoting())
+         codeSegment.genValidvarnameOptionAny( true );
+      if (sSetupCode != null)
+         codeSegment.addSourceCode( sSetupCode ).addSourceCode( "\n" );
+      codeSegment.getRCSetMacro();
+      codeSegment.unIndent().addSourceCode( "endrsubmit;\n" );   // I18NOK:LINE
+   }
+
+   /**
+    * Generates the code of steps into a code segment.
+    *
+    * @param codeSegment the code segment
+    * @param lSteps      the steps
+    */
+   private void genSteps( ICodeSegment codeSegment, List lSteps )
+   throws CodegenException, MdException, RemoteException, BadServerDefinitionException, BadLibraryDefinitionException, ServerException
+   {
+      for ( int iStep=0; iStep<lSteps.size(); iStep++ )
+      {
+         Object step = lSteps.get( iStep );
+         if (!(step instanceof AbstractTransform))
+            throw new IllegalStateException( "steps of a parallel plan must be transforms: " + step );   // I18NOK:EMS
+
+         ICodeSegment stepSegment = codeSegment.createNewCodeSegment( (AbstractTransform) step );
+         stepSegment.setIndent( codeSegment.getIndents() );
+         ((AbstractTransform) step).getCompleteCode( stepSegment );
+      }
+   }
+
+   /**
+    * Gets the name of a child session.
+    *
+    * @param iSession the session
+    *
+    * @return the session's name
+    */
+   private String getSessionName( int iSession )
+   {
+      return SESSION_PREFIX + iSession;
+   }
+}
@@ -0,0 +1,259 @@
+/* $Id$ */
+/**
+ * Title:       SimulationTimeline.java
+ * Description: The result of a simulated run of a job.
+ * Copyright:   Copyright (c) 2012
+ * Company:     SAS Institute
+ */
+package com.sas.etl.models.job.impl;
+
+import java.io.PrintStream;
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.sas.etl.models.job.ITransform;
+
+/**
+ * SimulationTimeline is the result of a simulated run of a job.  It holds one
+ * entry for each step, in the order the steps started, with the step's start
+ * and end, the rows it wrote, the bytes moved to its server and the WORK
+ * space in use once it ended.
+ *
+ * @see JobSimulator
+ */
+public class SimulationTimeline
+{
+   private List   m_lRuns;             // StepRun in start order
+   private double m_dMakespan;
+   private long   m_lBytesTransferred;
+   private long   m_lPeakWorkBytes;
+
+   /**
+    * Constructs an empty timeline.
+    */
+   SimulationTimeline()
+   {
+      m_lRuns = new ArrayList();
+   }
+
+   /**
+    * Adds the run of a step.
+    *
+    * @param run the run of the step
+    */
+   void addRun( StepRun run )
+   {
+      m_lRuns.add( run );
+      m_dMakespan          = Math.max( m_dMakespan, run.m_dEnd );
+      m_lBytesTransferred += run.m_lBytesTransferred;
+   }
+
+   /**
+    * Records the WORK space in use.  The peak is kept.
+    *
+    * @param lWorkBytes the WORK space in use in bytes
+    */
+   void setWorkBytes( long lWorkBytes )
+   {
+      m_lPeakWorkBytes = Math.max( m_lPeakWorkBytes, lWorkBytes );
+   }
+
+   /**
+    * Gets the runs of the steps in the order they started.
+    *
+    * @return an unmodifiable list of the runs (StepRun)
+    */
+   public List getRuns()
+   {
+      return Collections.unmodifiableList( m_lRuns );
+   }
+
+   /**
+    * Gets the run of a step.
+    *
+    * @param step the step
+    *
+    * @return the run of the step or null if the step was not run
+    */
+   public StepRun getRun( ITransform step )
+   {
+      for ( int iRun=0; iRun<m_lRuns.size(); iRun++ )
+      {
+         StepRun run = (StepRun) m_lRuns.get( iRun );
+         if (run.m_step == step)
+            return run;
+      }
+      return null;
+   }
+
+   /**
+    * Gets the time the job took.
+    *
+    * @return the makespan in seconds
+    */
+   public double getMakespan()
+   {
+      return m_dMakespan;
+   }
+
+   /**
+    * Gets the bytes moved between servers during the job.
+    *
+    * @return the bytes transferred
+    */
+   public long getBytesTransferred()
+   {
+      return m_lBytesTransferred;
+   }
+
+   /**
+    * Gets the largest WORK space in use, summed over all servers, at any time
+    * during the job.
+    *
+    * @return the peak WORK space in bytes
+    */
+   public long getPeakWorkBytes()
+   {
+      return m_lPeakWorkBytes;
+   }
+
+   /**
+    * Dumps the timeline.
+    *
+    * @param strm the stream to dump to
+    */
+   public void dump( PrintStream strm )
+   {
+      DecimalFormat format = new DecimalFormat( "0.000" );   // I18NOK:LINE
+      strm.println( "<Timeline>" );   // I18NOK:LINE
+      for ( int iRun=0; iRun<m_lRuns.size(); iRun++ )
+      {
+         StepRun run = (StepRun) m_lRuns.get( iRun );
+         strm.println( format.format( run.m_dStart ) + "\t" + format.format( run.m_dEnd ) + "\t" +
+                       "session=" + run.m_iSession + "\t" + run.m_step.getName()  + "\t" +
+                       "rows="    + run.m_lRows + "\t" + "transferred=" + run.m_lBytesTransferred + "\t" +
+                       "work="    + run.m_lWorkBytes );   // I18NOK:LINE
+      }
+      strm.println( "</Timeline>" );   // I18NOK:LINE
+      strm.println( "Makespan="    + format.format( m_dMakespan ) );   // I18NOK:LINE
+      strm.println( "Transferred=" + m_lBytesTransferred );            // I18NOK:LINE
+      strm.println( "PeakWork="    + m_lPeakWorkBytes );               // I18NOK:LINE
+   }
+
+   /**
+    * StepRun is the simulated run of one step.
+    */
+   public static class StepRun
+   {
+      private ITransform m_step;
+      private int        m_iSession;
+      private double     m_dStart;
+      private double     m_dEnd;
+      private long       m_lRows;
+      private long       m_lBytesTransferred;
+      private long       m_lWorkBytes;
+
+      /**
+       * Constructs the run of a step.
+       *
+       * @param step              the step
+       * @param iSession          the session the step ran in
+       * @param dStart            the start of the step in seconds
+       * @param dEnd              the end of the step in seconds
+       * @param lRows             the rows written by the step
+       * @param lBytesTransferred the bytes moved to the step's server
+       */
+      StepRun( ITransform step, int iSession, double dStart, double dEnd, long lRows, long lBytesTransferred )
+      {
+         m_step              = step;
+         m_iSession          = iSession;
+         m_dStart            = dStart;
+         m_dEnd              = dEnd;
+         m_lRows             = lRows;
+         m_lBytesTransferred = lBytesTransferred;
+      }
+
+      /**
+       * Sets the WORK space in use once the step ended.
+       *
+       * @param lWorkBytes the WORK space in bytes
+       */
+      void setWorkBytes( long lWorkBytes )
+      {
+         m_lWorkBytes = lWorkBytes;
+      }
+
+      /**
+       * Gets the step.
+       *
+       * @return the step
+       */
+      public ITransform getStep()
+      {
+         return m_step;
+      }
+
+      /**
+       * Gets the session the step ran in.
+       *
+       * @return the session number, starting at 0
+       */
+      public int getSession()
+      {
+         return m_iSession;
+      }
+
+      /**
+       * Gets the start of the step.
+       *
+       * @return the start in seconds from the start of the job
+       */
+      public double getStart()
+      {
+         return m_dStart;
+      }
+
+      /**
+       * Gets the end of the step.
+       *
+       * @return the end in seconds from the start of the job
+       */
+      public double getEnd()
+      {
+         return m_dEnd;
+      }
+
+      /**
+       * Gets the rows written by the step to all its targets.
+       *
+       * @return the number of rows
+       */
+      public long getRows()
+      {
+         return m_lRows;
+      }
+
+      /**
+       * Gets the bytes moved to the step's server before the step ran.
+       *
+       * @return the bytes transferred
+       */
+      public long getBytesTransferred()
+      {
+         return m_lBytesTransferred;
+      }
+
+      /**
+       * Gets the WORK space in use, summed over all servers, once the step
+       * ended and the work tables it last used were deleted.
+       *
+       * @return the WORK space in bytes
+       */
+      public long getWorkBytes()
+      {
+         return m_lWorkBytes;
+      }
+   } // StepRun
+}
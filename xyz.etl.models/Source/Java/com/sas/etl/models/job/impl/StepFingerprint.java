@@ -0,0 +1,348 @@
+/* $Id$ */
+/**
+ * Title:       StepFingerprint.java
+ * Description: Generation of the code that skips steps that are unchanged since they last succeeded.
+ * Copyright:   Copyright (c) 2012
+ * Company:     SAS Institute
+ */
+package com.sas.etl.models.job.impl;
+
+import java.io.UnsupportedEncodingException;
+import java.rmi.RemoteException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.sas.etl.models.ServerException;
+import com.sas.etl.models.data.BadLibraryDefinitionException;
+import com.sas.etl.models.data.IDataObject;
+import com.sas.etl.models.data.IPhysicalTable;
+import com.sas.etl.models.impl.ObjectComparator;
+import com.sas.etl.models.job.ICodeGenerationEnvironment;
+import com.sas.etl.models.job.ICodeSegment;
+import com.sas.etl.models.job.ITransform;
+import com.sas.etl.models.other.BadServerDefinitionException;
+import com.sas.etl.models.other.IServer;
+import com.sas.metadata.remote.MdException;
+
+/**
+ * StepFingerprint generates the code that lets a rerun of a job skip the steps
+ * that succeeded in an earlier run and whose code and inputs have not changed
+ * since.  A step's fingerprint is made of:
+ * <ul>
+ * <li>a hash of the step's generated code, computed during code generation,
+ *     and
+ * <li>a hash of the modification stamps of the step's input tables, computed
+ *     when the step is about to run.
+ * </ul>
+ * The step's code, after its header, is wrapped in a macro, so the macro
+ * variables set by the header stay global.  Before the macro is run, the
+ * fingerprint is looked up in the fingerprint table of the library whose
+ * libref is in the etls_fplib macro variable.  When the fingerprint is found
+ * and all the step's targets exist the step is skipped, otherwise the step is
+ * run and, when it succeeds, its fingerprint is recorded.  When etls_fplib is
+ * not defined the step always runs.
+ * <p>
+ * The step is run with syscc reset, so only its own errors keep its
+ * fingerprint from being recorded, and syscc is then set back to the higher
+ * of its value before the step and the step's own.
+ * <p>
+ * The step's code is generated without the definitions shared with other
+ * steps, such as librefs assigned earlier in the run, so the hash does not
+ * change with the steps generated before it (see AbstractTransform's 
+ * isSkippable).
+ * <p>
+ * A step that is rerun changes the stamps of its targets, so the steps that
+ * read them are rerun as well.  Work tables do not survive the session that
+ * failed, so steps writing work tables are rerun along with their readers.
+ * <p>
+ * Only steps whose effects are known from their tables can be skipped: see
+ * {@link #isSupported(ITransform, IServer, ICodeGenerationEnvironment)}.
+ */
+public class StepFingerprint
+{
+   /** the macro variable holding the libref of the fingerprint table's library */
+   public static final String LIBRARY_MACRO_VARIABLE = "etls_fplib";          // I18NOK:EMS
+   /** the name of the fingerprint table */
+   public static final String FINGERPRINT_TABLE      = "etls_fingerprints";   // I18NOK:EMS
+
+   private static final String RUN_MACRO  = "etls_fprun";    // I18NOK:EMS
+   private static final String STEP_MACRO = "etls_fpstep";   // I18NOK:EMS
+   private static final String SEPARATOR  = "|";             // I18NOK:EMS
+
+   private AbstractDataTransform m_step;
+
+   /**
+    * Constructs the fingerprint of a step.
+    *
+    * @param step the step
+    */
+   public StepFingerprint( AbstractDataTransform step )
+   {
+      m_step = step;
+   }
+
+   /**
+    * Can the step be skipped based on its fingerprint?  It can when it is a
+    * data transform that generates code, does not use user written code or
+    * post-process code, is not run always, writes at least one table and 
+    * reads no views, whose modification stamps do not reflect changes to the
+    * data they read.  User written and post-process code are run inside the
+    * step's macro, where DATALINES and CARDS statements are not allowed, and
+    * their effects are not known from the step's tables.
+    *
+    * @param step the step
+    *
+    * @return true = the step can be skipped
+    */
+   public static boolean isSupported( ITransform step )
+   {
+      if (!(step instanceof AbstractDataTransform) || JobDependencyGraph.isSerializationPoint( step ) || !step.isCodeGenerationEnabled())
+         return false;
+
+      AbstractDataTransform dataStep = (AbstractDataTransform) step;
+      if (dataStep.isUsingUserWrittenCode() || (dataStep.isPostProcessEnabled() && dataStep.isUsingPostProcessCode()))
+         return false;
+
+      IDataObject[]         sources  = dataStep.getDataSources();
+      for ( int iSource=0; iSource<sources.length; iSource++ )
+      {
+         if (!(sources[iSource] instanceof IPhysicalTable) || ((IPhysicalTable) sources[iSource]).isView())
+            return false;
+      }
+
+      IDataObject[] targets = dataStep.getDataTargets();
+      if (targets.length == 0)
+         return false;
+      for ( int iTarget=0; iTarget<targets.length; iTarget++ )
+      {
+         if (!(targets[iTarget] instanceof IPhysicalTable))
+            return false;
+      }
+      return true;
+   }
+
+   /**
+    * Can the step be skipped based on its fingerprint when it is generated in
+    * a code generation run?  It can when it is supported (see 
+    * {@link #isSupported(ITransform)}), runs on the current server and moves
+    * no tables from other servers.  Steps run in a remote submit are always
+    * run, because their errors do not reach the local syscc.
+    *
+    * @param step          the step
+    * @param currentServer the server the code before the step runs on (may 
+    *                      be null)
+    * @param environment   the code generation environment
+    *
+    * @return true = the step can be skipped
+    *
+    * @throws BadServerDefinitionException
+    * @throws BadLibraryDefinitionException
+    */
+   public static boolean isSupported( ITransform step, IServer currentServer, ICodeGenerationEnvironment environment )
+   throws BadServerDefinitionException, BadLibraryDefinitionException
+   {
+      if (!isSupported( step ))
+         return false;
+
+      AbstractDataTransform dataStep = (AbstractDataTransform) step;
+      if ((currentServer != null) && !ObjectComparator.isEqual( currentServer, dataStep.getServerForStep( currentServer, environment ) ))
+         return false;
+      return dataStep.getTablesForTransfer( environment.getDefaultServer(), environment ).length == 0;
+   }
+
+   /**
+    * Generates the code that precedes the step's code.  The fingerprint macro
+    * is defined once per session and the definition of the step's macro is
+    * started.
+    *
+    * @param codeSegment the code segment
+    *
+    * @return the code segment
+    */
+   public ICodeSegment genPreStepCode( ICodeSegment codeSegment )
+   {
+      CodeGenerationCache cache = CodeGenerationCache.getCache( codeSegment.getCodeGenerationEnvironment() );
+      if (!cache.isMacroDefined( RUN_MACRO, codeSegment.getCurrentServer() ))
+      {
+         genRunMacro( codeSegment );
+         cache.setMacroDefined( RUN_MACRO, codeSegment.getCurrentServer() );
+      }
+
+      codeSegment.addSourceCode( "%macro " ).addSourceCode( STEP_MACRO ).addSourceCode( ";\n" );   // I18NOK:LINE
+      return codeSegment;
+   }
+
+   /**
+    * Generates the code that follows the step's code.  The definition of the
+    * step's macro is ended and the fingerprint macro is called to run it.
+    *
+    * @param codeSegment the code segment
+    * @param sCode       the step's generated code, including its header
+    *
+    * @return the code segment
+    *
+    * @throws RemoteException
+    * @throws MdException
+    * @throws BadServerDefinitionException
+    * @throws BadLibraryDefinitionException
+    * @throws ServerException
+    */
+   public ICodeSegment genPostStepCode( ICodeSegment codeSegment, String sCode )
+   throws RemoteException, MdException, BadServerDefinitionException, BadLibraryDefinitionException, ServerException
+   {
+      CodeGenerationCache cache   = CodeGenerationCache.getCache( codeSegment.getCodeGenerationEnvironment() );
+      List                lInputs = new ArrayList();
+      IDataObject[]       sources = m_step.getDataSources();
+      for ( int iSource=0; iSource<sources.length; iSource++ )
+         lInputs.add( sources[iSource] );
+      IPhysicalTable syslast = m_step.getPreviousSyslastTable( cache );
+      if ((syslast != null) && !lInputs.contains( syslast ))
+         lInputs.add( syslast );
+
+      codeSegment.addSourceCode( "%mend " ).addSourceCode( STEP_MACRO ).addSourceCode( ";\n" );   // I18NOK:LINE
+      codeSegment.addSourceCode( "%" ).addSourceCode( RUN_MACRO ).addSourceCode( "(step=" ).addSourceCode( m_step.getID() )
+                 .addSourceCode( ", hash=" ).addSourceCode( getCodeHash( sCode ) ).addSourceCode( ",\n" ).indent();   // I18NOK:LINE
+      codeSegment.addSourceCode( "inputs=%str(" );   // I18NOK:LINE
+      genTableList( codeSegment, (IDataObject[]) lInputs.toArray( new IDataObject[ lInputs.size() ] ) );
+      codeSegment.addSourceCode( "),\n" );   // I18NOK:LINE
+      codeSegment.addSourceCode( "targets=%str(" );   // I18NOK:LINE
+      genTableList( codeSegment, m_step.getDataTargets() );
+      codeSegment.addSourceCode( "));\n\n" ).unIndent();   // I18NOK:LINE
+      return codeSegment;
+   }
+
+   /**
+    * Generates a list of table names separated by vertical bars.
+    *
+    * @param codeSegment the code segment
+    * @param aTables     the tables
+    *
+    * @throws RemoteException
+    * @throws MdException
+    * @throws BadServerDefinitionException
+    * @throws BadLibraryDefinitionException
+    * @throws ServerException
+    */
+   private void genTableList( ICodeSegment codeSegment, IDataObject[] aTables )
+   throws RemoteException, MdException, BadServerDefinitionException, BadLibraryDefinitionException, ServerException
+   {
+      for ( int iTable=0; iTable<aTables.length; iTable++ )
+      {
+         if (iTable > 0)
+            codeSegment.addSourceCode( SEPARATOR );
+         codeSegment.addSourceCode( ((IPhysicalTable) aTables[iTable]).getFullNameQuotedAsNeeded( codeSegment ) );
+      }
+   }
+
+   /**
+    * Generates the fingerprint macro.  The macro computes the input stamps,
+    * skips the step when its fingerprint is recorded and its targets exist,
+    * and otherwise runs the step with syscc reset and records its fingerprint
+    * if the step succeeds.
+    * An input whose engine keeps no modification stamp always causes the step
+    * to run.
+    *
+    * @param codeSegment the code segment
+    */
+   private void genRunMacro( ICodeSegment codeSegment )
+   {
+      String sTable = "&" + LIBRARY_MACRO_VARIABLE + ".." + FINGERPRINT_TABLE;   // I18NOK:LINE
+
+      codeSegment.addSourceCode( "%macro " ).addSourceCode( RUN_MACRO ).addSourceCode( "(step=, hash=, inputs=, targets=);\n" ).indent();   // I18NOK:LINE
+      codeSegment.addSourceCode( "%local etls_i etls_ds etls_dsid etls_stamp etls_stamps etls_skip etls_syscc;\n" );   // I18NOK:LINE
+      codeSegment.addSourceCode( "%let etls_skip = 0;\n" );   // I18NOK:LINE
+      codeSegment.addSourceCode( "%if %symexist(" ).addSourceCode( LIBRARY_MACRO_VARIABLE ).addSourceCode( ") %then\n" );   // I18NOK:LINE
+      codeSegment.addSourceCode( "%do;\n" ).indent();   // I18NOK:LINE
+      codeSegment.addSourceCode( "%let etls_skip = 1;\n" );   // I18NOK:LINE
+      codeSegment.addSourceCode( "%let etls_stamps = ;\n" );   // I18NOK:LINE
+      codeSegment.addSourceCode( "%do etls_i = 1 %to %sysfunc(countw(&inputs, |));\n" ).indent();   // I18NOK:LINE
+      codeSegment.addSourceCode( "%let etls_ds = %scan(&inputs, &etls_i, |);\n" );   // I18NOK:LINE
+      codeSegment.addSourceCode( "%let etls_stamp = 0;\n" );   // I18NOK:LINE
+      codeSegment.addSourceCode( "%let etls_dsid = %sysfunc(open(&etls_ds));\n" );   // I18NOK:LINE
+      codeSegment.addSourceCode( "%if (&etls_dsid > 0) %then\n" );   // I18NOK:LINE
+      codeSegment.addSourceCode( "%do;\n" ).indent();   // I18NOK:LINE
+      codeSegment.addSourceCode( "%let etls_stamp = %sysfunc(attrn(&etls_dsid, MODTE));\n" );   // I18NOK:LINE
+      codeSegment.addSourceCode( "%let etls_dsid = %sysfunc(close(&etls_dsid));\n" );   // I18NOK:LINE
+      codeSegment.unIndent().addSourceCode( "%end;\n" );   // I18NOK:LINE
+      codeSegment.addSourceCode( "%if (&etls_stamp = 0 or &etls_stamp = .) %then\n" ).indent();   // I18NOK:LINE
+      codeSegment.addSourceCode( "%let etls_skip = 0;\n" ).unIndent();   // I18NOK:LINE
+      codeSegment.addSourceCode( "%let etls_stamps = &etls_stamps|&etls_stamp;\n" );   // I18NOK:LINE
+      codeSegment.unIndent().addSourceCode( "%end;\n" );   // I18NOK:LINE
+      codeSegment.addSourceCode( "%do etls_i = 1 %to %sysfunc(countw(&targets, |));\n" ).indent();   // I18NOK:LINE
+      codeSegment.addSourceCode( "%let etls_ds = %scan(&targets, &etls_i, |);\n" );   // I18NOK:LINE
+      codeSegment.addSourceCode( "%if not (%sysfunc(exist(&etls_ds)) or %sysfunc(exist(&etls_ds, VIEW))) %then\n" ).indent();   // I18NOK:LINE
+      codeSegment.addSourceCode( "%let etls_skip = 0;\n" ).unIndent();   // I18NOK:LINE
+      codeSegment.unIndent().addSourceCode( "%end;\n" );   // I18NOK:LINE
+      codeSegment.addSourceCode( "%let etls_stamps = %sysfunc(md5(&etls_stamps), $hex32.);\n" );   // I18NOK:LINE
+      codeSegment.addSourceCode( "%if (&etls_skip = 1 and %sysfunc(exist(" ).addSourceCode( sTable ).addSourceCode( "))) %then\n" );   // I18NOK:LINE
+      codeSegment.addSourceCode( "%do;\n" ).indent();   // I18NOK:LINE
+      codeSegment.addSourceCode( "proc sql noprint;\n" ).indent();   // I18NOK:LINE
+      codeSegment.addSourceCode( "select count(*) into :etls_skip trimmed from " ).addSourceCode( sTable ).addSourceCode( "\n" );   // I18NOK:LINE
+      codeSegment.addSourceCode( "where step = \"&step\" and hash = \"&hash\" and stamps = \"&etls_stamps\";\n" );   // I18NOK:LINE
+      codeSegment.unIndent().addSourceCode( "quit;\n" );   // I18NOK:LINE
+      codeSegment.unIndent().addSourceCode( "%end;\n" );   // I18NOK:LINE
+      codeSegment.addSourceCode( "%else\n" ).indent();   // I18NOK:LINE
+      codeSegment.addSourceCode( "%let etls_skip = 0;\n" ).unIndent();   // I18NOK:LINE
+      codeSegment.unIndent().addSourceCode( "%end;\n" );   // I18NOK:LINE
+      codeSegment.addSourceCode( "%if (&etls_skip > 0) %then\n" ).indent();   // I18NOK:LINE
+      codeSegment.genPercentPutStatement( RB.getStringResource( "StepFingerprint.StepSkipped.msg.sasmacro.notrans" ), ICodeSegment.NOTE_LABEL ).unIndent();
+      codeSegment.addSourceCode( "%else\n" );   // I18NOK:LINE
+      codeSegment.addSourceCode( "%do;\n" ).indent();   // I18NOK:LINE
+      codeSegment.addSourceCode( "%let etls_syscc = &syscc;\n" );   // I18NOK:LINE
+      codeSegment.addSourceCode( "%let syscc = 0;\n" );   // I18NOK:LINE
+      codeSegment.addSourceCode( "%" ).addSourceCode( STEP_MACRO ).addSourceCode( "\n" );   // I18NOK:LINE
+      codeSegment.addSourceCode( "%if (%symexist(" ).addSourceCode( LIBRARY_MACRO_VARIABLE ).addSourceCode( ") and &syscc <= 4) %then\n" );   // I18NOK:LINE
+      codeSegment.addSourceCode( "%do;\n" ).indent();   // I18NOK:LINE
+      codeSegment.addSourceCode( "data work.etls_fpnew;\n" ).indent();   // I18NOK:LINE
+      codeSegment.addSourceCode( "length step $64 hash $40 stamps $32;\n" );   // I18NOK:LINE
+      codeSegment.addSourceCode( "step = \"&step\"; hash = \"&hash\"; stamps = \"&etls_stamps\";\n" );   // I18NOK:LINE
+      codeSegment.unIndent().addSourceCode( "run;\n" );   // I18NOK:LINE
+      codeSegment.addSourceCode( "data " ).addSourceCode( sTable ).addSourceCode( ";\n" ).indent();   // I18NOK:LINE
+      codeSegment.addSourceCode( "set\n" );   // I18NOK:LINE
+      codeSegment.addSourceCode( "%if %sysfunc(exist(" ).addSourceCode( sTable ).addSourceCode( ")) %then\n" ).indent();   // I18NOK:LINE
+      codeSegment.addSourceCode( sTable ).addSourceCode( "(where=(step ne \"&step\"))\n" ).unIndent();   // I18NOK:LINE
+      codeSegment.addSourceCode( "work.etls_fpnew;\n" );   // I18NOK:LINE
+      codeSegment.unIndent().addSourceCode( "run;\n" );   // I18NOK:LINE
+      codeSegment.addSourceCode( "proc datasets lib=work nolist;\n" ).indent();   // I18NOK:LINE
+      codeSegment.addSourceCode( "delete etls_fpnew;\n" );   // I18NOK:LINE
+      codeSegment.unIndent().addSourceCode( "quit;\n" );   // I18NOK:LINE
+      codeSegment.unIndent().addSourceCode( "%end;\n" );   // I18NOK:LINE
+      codeSegment.addSourceCode( "%let syscc = %sysfunc(max(&etls_syscc, &syscc));\n" );   // I18NOK:LINE
+      codeSegment.unIndent().addSourceCode( "%end;\n" );   // I18NOK:LINE
+      codeSegment.unIndent().addSourceCode( "%mend " ).addSourceCode( RUN_MACRO ).addSourceCode( ";\n\n" );   // I18NOK:LINE
+   }
+
+   /**
+    * Gets the hash of a step's code.
+    *
+    * @param sCode the code
+    *
+    * @return the hash as 40 hexadecimal digits
+    */
+   public static String getCodeHash( String sCode )
+   {
+      try
+      {
+         byte[]       aHash = MessageDigest.getInstance( "SHA-1" ).digest( sCode.getBytes( "UTF-8" ) );   // I18NOK:LINE
+         StringBuffer sb    = new StringBuffer( aHash.length * 2 );
+         for ( int i=0; i<aHash.length; i++ )
+         {
+            sb.append( Character.forDigit( (aHash[i] >> 4) & 0xF, 16 ) );
+            sb.append( Character.forDigit(  aHash[i]       & 0xF, 16 ) );
+         }
+         return sb.toString();
+      }
+      catch (NoSuchAlgorithmException e)
+      {
+         // every Java platform supports SHA-1
+         throw new IllegalStateException( e.getMessage() );
+      }
+      catch (UnsupportedEncodingException e)
+      {
+         // every Java platform supports UTF-8
+         throw new IllegalStateException( e.getMessage() );
+      }
+   }
+}
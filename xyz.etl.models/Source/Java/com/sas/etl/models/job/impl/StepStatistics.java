@@ -0,0 +1,237 @@
+/* $Id$ */
+/**
+ * Title:       StepStatistics.java
+ * Description: Historical runtime statistics of a step.
+ * Copyright:   Copyright (c) 2012
+ * Company:     SAS Institute
+ */
+package com.sas.etl.models.job.impl;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * StepStatistics holds the measurements of the most recent runs of a step
+ * (transform): the elapsed time, the CPU time, the time spent waiting (mostly
+ * on I/O, elapsed time less CPU time) and the row count.  Only the last
+ * {@link #MAX_RUNS} runs are kept, in fixed size arrays, so the statistics of
+ * every step of a large repository stay small.  Percentiles are computed from
+ * the runs kept.
+ *
+ * @see StepStatisticsStore
+ * @see ArmLogParser
+ */
+public class StepStatistics
+{
+   /** the maximum number of runs kept for a step */
+   public static final int MAX_RUNS = 32;
+
+   /** the value returned for a statistic that has not been measured */
+   public static final long UNKNOWN = -1;
+
+   private String  m_sTransformID;
+   private float[] m_aElapsed;     // elapsed seconds
+   private float[] m_aCPU;         // CPU seconds
+   private long[]  m_aRows;        // row counts, UNKNOWN if not collected
+   private int     m_iCount;       // number of runs kept
+   private int     m_iNext;        // slot for the next run
+   private long    m_lTotalRuns;   // number of runs ever recorded
+
+   /**
+    * Constructs empty statistics for a transform.
+    *
+    * @param sTransformID the transform's id
+    */
+   public StepStatistics( String sTransformID )
+   {
+      m_sTransformID = sTransformID;
+      m_aElapsed     = new float[ MAX_RUNS ];
+      m_aCPU         = new float[ MAX_RUNS ];
+      m_aRows        = new long[  MAX_RUNS ];
+   }
+
+   /**
+    * Gets the id of the transform the statistics are for.
+    *
+    * @return the transform's id
+    */
+   public String getTransformID()
+   {
+      return m_sTransformID;
+   }
+
+   /**
+    * Records a run of the step.  When {@link #MAX_RUNS} runs are already kept
+    * the oldest run is replaced.
+    *
+    * @param dElapsed the elapsed seconds
+    * @param dCPU     the CPU seconds
+    * @param lRows    the row count or UNKNOWN
+    */
+   public synchronized void addRun( double dElapsed, double dCPU, long lRows )
+   {
+      m_aElapsed[ m_iNext ] = (float) Math.max( dElapsed, 0 );
+      m_aCPU[     m_iNext ] = (float) Math.max( dCPU,     0 );
+      m_aRows[    m_iNext ] = (lRows < 0) ? UNKNOWN : lRows;
+
+      m_iNext = (m_iNext + 1) % MAX_RUNS;
+      if (m_iCount < MAX_RUNS)
+         m_iCount++;
+      m_lTotalRuns++;
+   }
+
+   /**
+    * Gets the number of runs kept.
+    *
+    * @return the number of runs kept
+    */
+   public synchronized int getRunCount()
+   {
+      return m_iCount;
+   }
+
+   /**
+    * Gets the number of runs ever recorded, including the ones no longer kept.
+    *
+    * @return the total number of runs
+    */
+   public synchronized long getTotalRunCount()
+   {
+      return m_lTotalRuns;
+   }
+
+   /**
+    * Gets a percentile of the elapsed time.
+    *
+    * @param dPercentile the percentile (0-100)
+    *
+    * @return the elapsed seconds or UNKNOWN if there are no runs
+    */
+   public synchronized double getElapsedPercentile( double dPercentile )
+   {
+      double[] aValues = new double[ m_iCount ];
+      for ( int i=0; i<m_iCount; i++ )
+         aValues[i] = m_aElapsed[i];
+      return getPercentile( aValues, aValues.length, dPercentile );
+   }
+
+   /**
+    * Gets a percentile of the CPU time.
+    *
+    * @param dPercentile the percentile (0-100)
+    *
+    * @return the CPU seconds or UNKNOWN if there are no runs
+    */
+   public synchronized double getCPUPercentile( double dPercentile )
+   {
+      double[] aValues = new double[ m_iCount ];
+      for ( int i=0; i<m_iCount; i++ )
+         aValues[i] = m_aCPU[i];
+      return getPercentile( aValues, aValues.length, dPercentile );
+   }
+
+   /**
+    * Gets a percentile of the time spent waiting, which is the elapsed time
+    * not spent on the CPU.  For steps that read and write tables this is
+    * mostly I/O time.
+    *
+    * @param dPercentile the percentile (0-100)
+    *
+    * @return the wait seconds or UNKNOWN if there are no runs
+    */
+   public synchronized double getIOWaitPercentile( double dPercentile )
+   {
+      double[] aValues = new double[ m_iCount ];
+      for ( int i=0; i<m_iCount; i++ )
+         aValues[i] = Math.max( m_aElapsed[i] - m_aCPU[i], 0 );
+      return getPercentile( aValues, aValues.length, dPercentile );
+   }
+
+   /**
+    * Gets a percentile of the row count.  Runs without a row count are
+    * ignored.
+    *
+    * @param dPercentile the percentile (0-100)
+    *
+    * @return the row count or UNKNOWN if no run has a row count
+    */
+   public synchronized long getRowCountPercentile( double dPercentile )
+   {
+      double[] aValues = new double[ m_iCount ];
+      int      nValues = 0;
+      for ( int i=0; i<m_iCount; i++ )
+      {
+         if (m_aRows[i] != UNKNOWN)
+            aValues[ nValues++ ] = m_aRows[i];
+      }
+      return (long) getPercentile( aValues, nValues, dPercentile );
+   }
+
+   /**
+    * Gets a percentile of values using the nearest rank method.
+    *
+    * @param aValues     the values (the array is sorted in place)
+    * @param nValues     the number of values used from the array
+    * @param dPercentile the percentile (0-100)
+    *
+    * @return the percentile or UNKNOWN if there are no values
+    */
+   private static double getPercentile( double[] aValues, int nValues, double dPercentile )
+   {
+      if (nValues == 0)
+         return UNKNOWN;
+
+      Arrays.sort( aValues, 0, nValues );
+      int iRank = (int) Math.ceil( (dPercentile / 100.0) * nValues ) - 1;
+      iRank = Math.min( Math.max( iRank, 0 ), nValues - 1 );
+      return aValues[ iRank ];
+   }
+
+   /**
+    * Writes the statistics.
+    *
+    * @param out the data output
+    *
+    * @throws IOException
+    */
+   public synchronized void write( DataOutput out )
+   throws IOException
+   {
+      out.writeUTF(  m_sTransformID );
+      out.writeLong( m_lTotalRuns   );
+      out.writeByte( m_iCount       );
+
+      // oldest run first so the runs are kept in order when read back
+      int iFirst = (m_iCount < MAX_RUNS) ? 0 : m_iNext;
+      for ( int i=0; i<m_iCount; i++ )
+      {
+         int iRun = (iFirst + i) % MAX_RUNS;
+         out.writeFloat( m_aElapsed[ iRun ] );
+         out.writeFloat( m_aCPU[     iRun ] );
+         out.writeLong(  m_aRows[    iRun ] );
+      }
+   }
+
+   /**
+    * Reads statistics written by {@link #write(DataOutput)}.
+    *
+    * @param in the data input
+    *
+    * @return the statistics
+    *
+    * @throws IOException
+    */
+   public static StepStatistics read( DataInput in )
+   throws IOException
+   {
+      StepStatistics stats  = new StepStatistics( in.readUTF() );
+      long           lTotal = in.readLong();
+      int            nRuns  = in.readUnsignedByte();
+      for ( int i=0; i<nRuns; i++ )
+         stats.addRun( in.readFloat(), in.readFloat(), in.readLong() );
+      stats.m_lTotalRuns = Math.max( lTotal, stats.m_lTotalRuns );
+      return stats;
+   }
+}
@@ -0,0 +1,255 @@
+/* $Id$ */
+/**
+ * Title:       StepStatisticsStore.java
+ * Description: Local store of historical step runtime statistics.
+ * Copyright:   Copyright (c) 2012
+ * Company:     SAS Institute
+ */
+package com.sas.etl.models.job.impl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.sas.etl.models.data.IPhysicalTable;
+import com.sas.etl.models.job.IDataTransform;
+import com.sas.etl.models.job.IStepRuntimeEstimator;
+import com.sas.etl.models.job.ITableRowCountEstimator;
+import com.sas.etl.models.job.ITransform;
+
+/**
+ * StepStatisticsStore holds the historical runtime statistics of steps, keyed
+ * by transform id.  The statistics are usually collected from ARM logs by an
+ * {@link ArmLogParser} and kept between sessions in a small local file.
+ * <p>
+ * The store is also a row count and runtime estimator: the estimated row count
+ * of a table is the median row count recorded by the step that produces it
+ * and the estimated runtime of a step is its median elapsed time.
+ */
+public class StepStatisticsStore implements ITableRowCountEstimator, IStepRuntimeEstimator
+{
+   private static final int FILE_MAGIC   = 0x44495353;   // "DISS"
+   private static final int FILE_VERSION = 1;
+
+   private static StepStatisticsStore s_store;
+
+   private Map m_mapStatistics;   // transform id to StepStatistics
+
+   /**
+    * Constructs an empty store.
+    */
+   public StepStatisticsStore()
+   {
+      m_mapStatistics = new HashMap();
+   }
+
+   /**
+    * Gets the store used by the models of this session.
+    *
+    * @return the default store
+    */
+   public static synchronized StepStatisticsStore getDefaultStore()
+   {
+      if (s_store == null)
+         s_store = new StepStatisticsStore();
+      return s_store;
+   }
+
+   /**
+    * Sets the store used by the models of this session, for example after
+    * loading it from a file.
+    *
+    * @param store the default store
+    */
+   public static synchronized void setDefaultStore( StepStatisticsStore store )
+   {
+      s_store = store;
+   }
+
+   /**
+    * Gets the statistics of a transform.
+    *
+    * @param sTransformID the transform's id
+    *
+    * @return the statistics or null if the transform has never been measured
+    */
+   public synchronized StepStatistics getStatistics( String sTransformID )
+   {
+      return (StepStatistics) m_mapStatistics.get( sTransformID );
+   }
+
+   /**
+    * Gets the statistics of a transform.
+    *
+    * @param transform the transform
+    *
+    * @return the statistics or null if the transform has never been measured
+    */
+   public StepStatistics getStatistics( ITransform transform )
+   {
+      return getStatistics( transform.getID() );
+   }
+
+   /**
+    * Gets the statistics of all the measured transforms.
+    *
+    * @return the statistics
+    */
+   public synchronized StepStatistics[] getAllStatistics()
+   {
+      return (StepStatistics[]) m_mapStatistics.values().toArray( new StepStatistics[ m_mapStatistics.size() ] );
+   }
+
+   /**
+    * Records a run of a transform.
+    *
+    * @param sTransformID the transform's id
+    * @param dElapsed     the elapsed seconds
+    * @param dCPU         the CPU seconds
+    * @param lRows        the row count or StepStatistics.UNKNOWN
+    */
+   public synchronized void addRun( String sTransformID, double dElapsed, double dCPU, long lRows )
+   {
+      StepStatistics stats = (StepStatistics) m_mapStatistics.get( sTransformID );
+      if (stats == null)
+      {
+         stats = new StepStatistics( sTransformID );
+         m_mapStatistics.put( sTransformID, stats );
+      }
+      stats.addRun( dElapsed, dCPU, lRows );
+   }
+
+   /**
+    * Removes the statistics of a transform.
+    *
+    * @param sTransformID the transform's id
+    */
+   public synchronized void remove( String sTransformID )
+   {
+      m_mapStatistics.remove( sTransformID );
+   }
+
+   /**
+    * Gets the estimated number of rows in a table.  The estimate is the median
+    * row count recorded by the table's producer.
+    *
+    * @param table the table
+    *
+    * @return the estimated number of rows or UNKNOWN_ROW_COUNT
+    *
+    * @see com.sas.etl.models.job.ITableRowCountEstimator#getEstimatedRowCount(com.sas.etl.models.data.IPhysicalTable)
+    */
+   public long getEstimatedRowCount( IPhysicalTable table )
+   {
+      IDataTransform[] producers = table.getProducerTransforms();
+      if ((producers == null) || (producers.length != 1))
+         return UNKNOWN_ROW_COUNT;
+
+      StepStatistics stats = getStatistics( producers[0] );
+      if (stats == null)
+         return UNKNOWN_ROW_COUNT;
+
+      long lRows = stats.getRowCountPercentile( 50 );
+      return (lRows < 0) ? UNKNOWN_ROW_COUNT : lRows;
+   }
+
+   /**
+    * Gets the estimated runtime of a step.  The estimate is the step's median
+    * elapsed time.
+    *
+    * @param step the step
+    *
+    * @return the estimated runtime in seconds or UNKNOWN_RUNTIME
+    *
+    * @see com.sas.etl.models.job.IStepRuntimeEstimator#getEstimatedRuntime(com.sas.etl.models.job.ITransform)
+    */
+   public double getEstimatedRuntime( ITransform step )
+   {
+      StepStatistics stats = getStatistics( step );
+      if ((stats == null) || (stats.getRunCount() == 0))
+         return UNKNOWN_RUNTIME;
+      return stats.getElapsedPercentile( 50 );
+   }
+
+   /**
+    * Loads statistics from a file, adding them to the store.  Statistics for a
+    * transform already in the store are replaced.
+    *
+    * @param file the file
+    *
+    * @throws IOException
+    */
+   public void load( File file )
+   throws IOException
+   {
+      List            lStats = new ArrayList();
+      DataInputStream in     = new DataInputStream( new BufferedInputStream( new FileInputStream( file ) ) );
+      try
+      {
+         if (in.readInt() != FILE_MAGIC)
+            throw new IOException( "not a step statistics file: " + file );   // I18NOK:EMS
+         if (in.readInt() != FILE_VERSION)
+            throw new IOException( "unsupported step statistics file version: " + file );   // I18NOK:EMS
+
+         int nStats = in.readInt();
+         for ( int i=0; i<nStats; i++ )
+            lStats.add( StepStatistics.read( in ) );
+      }
+      finally
+      {
+         in.close();
+      }
+
+      synchronized (this)
+      {
+         for ( int i=0; i<lStats.size(); i++ )
+         {
+            StepStatistics stats = (StepStatistics) lStats.get( i );
+            m_mapStatistics.put( stats.getTransformID(), stats );
+         }
+      }
+   }
+
+   /**
+    * Saves the store to a file.  The file is written to a temporary file first
+    * and then renamed, so an interrupted save does not lose the previous file.
+    *
+    * @param file the file
+    *
+    * @throws IOException
+    */
+   public void save( File file )
+   throws IOException
+   {
+      StepStatistics[] aStats = getAllStatistics();
+
+      File             fileTemp = new File( file.getPath() + ".tmp" );   // I18NOK:LINE
+      DataOutputStream out      = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( fileTemp ) ) );
+      try
+      {
+         out.writeInt( FILE_MAGIC     );
+         out.writeInt( FILE_VERSION   );
+         out.writeInt( aStats.length  );
+         for ( int i=0; i<aStats.length; i++ )
+            aStats[i].write( out );
+      }
+      finally
+      {
+         out.close();
+      }
+
+      if (file.exists() && !file.delete())
+         throw new IOException( "unable to replace " + file );   // I18NOK:EMS
+      if (!fileTemp.renameTo( file ))
+         throw new IOException( "unable to rename " + fileTemp + " to " + file );   // I18NOK:EMS
+   }
+}
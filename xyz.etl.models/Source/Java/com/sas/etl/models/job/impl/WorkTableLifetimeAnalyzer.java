@@ -0,0 +1,273 @@
+/* $Id$ */
+/**
+ * Title:       WorkTableLifetimeAnalyzer.java
+ * Description: Liveness analysis of the intermediate work tables of a job.
+ * Copyright:   Copyright (c) 2012
+ * Company:     SAS Institute
+ */
+package com.sas.etl.models.job.impl;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import com.sas.etl.models.data.BadLibraryDefinitionException;
+import com.sas.etl.models.data.IDataObject;
+import com.sas.etl.models.data.IPhysicalTable;
+import com.sas.etl.models.data.IWorkTable;
+import com.sas.etl.models.impl.ObjectComparator;
+import com.sas.etl.models.job.IDataTransform;
+import com.sas.etl.models.job.IJob;
+import com.sas.etl.models.job.ITransform;
+import com.sas.etl.models.other.BadServerDefinitionException;
+import com.sas.etl.models.other.IServer;
+
+/**
+ * WorkTableLifetimeAnalyzer computes, for each intermediate work table of a
+ * job, the last step (in control order) that reads it.  A step reads a table
+ * when the table is one of its sources or when the table is the step's SYSLAST
+ * table.  A table read through a view lives as long as the view, whether
+ * or not the view itself is a work table.
+ * <p>
+ * A work table is only scheduled for deletion when:
+ * <ul>
+ * <li>its single producer has deletion after last use enabled
+ *     (see {@link AbstractDataTransform#isDeleteWorkTablesAfterLastUse()}),
+ * <li>it is read by at least one later step,
+ * <li>every step that reads it runs on the producer's server, and
+ * <li>its last reader generates code.
+ * </ul>
+ * Any other work table is left in place until the job ends, as before.
+ */
+public class WorkTableLifetimeAnalyzer
+{
+   private static final IWorkTable[] NO_TABLES = new IWorkTable[0];
+
+   private Map m_mapDeletions;   // step to list of work tables to delete after it
+
+   /**
+    * Constructs the analyzer and analyzes the job.
+    *
+    * @param job           the job
+    * @param defaultServer the default server of the code generation run
+    * @param cache         the code generation cache of the run
+    *
+    * @throws BadServerDefinitionException
+    * @throws BadLibraryDefinitionException
+    */
+   public WorkTableLifetimeAnalyzer( IJob job, IServer defaultServer, CodeGenerationCache cache )
+   throws BadServerDefinitionException, BadLibraryDefinitionException
+   {
+      m_mapDeletions = new IdentityHashMap();
+
+      List lSteps    = job.getControlOrderedTransformsList();
+      Map  mapUses   = new IdentityHashMap();   // work table or view to Lifetime
+
+      // record every read of a work table
+      for ( int iStep=0; iStep<lSteps.size(); iStep++ )
+      {
+         Object obj = lSteps.get( iStep );
+         if (!(obj instanceof IDataTransform))
+            continue;
+
+         IDataTransform  step    = (IDataTransform) obj;
+         IServer         server  = cache.getServerForStep( step, defaultServer );
+         IDataObject[]   sources = step.getDataSources();
+         for ( int iSource=0; iSource<sources.length; iSource++ )
+            addUse( mapUses, sources[iSource], step, iStep, server );
+
+         if (step instanceof AbstractDataTransform)
+            addUse( mapUses, ((AbstractDataTransform) step).getPreviousSyslastTable( cache ), step, iStep, server );
+      }
+
+      // a table read by a view lives as long as the view, walk backwards so
+      // chains of views are extended transitively
+      for ( int iStep=lSteps.size()-1; iStep>=0; iStep-- )
+      {
+         Object obj = lSteps.get( iStep );
+         if (!(obj instanceof IDataTransform))
+            continue;
+
+         IDataTransform step    = (IDataTransform) obj;
+         IDataObject[]  targets = step.getDataTargets();
+         for ( int iTarget=0; iTarget<targets.length; iTarget++ )
+         {
+            if (!isView( targets[iTarget] ))
+               continue;
+
+            Lifetime view = (Lifetime) mapUses.get( targets[iTarget] );
+            if (view == null)
+               continue;
+
+            IDataObject[] sources = step.getDataSources();
+            for ( int iSource=0; iSource<sources.length; iSource++ )
+            {
+               Lifetime table = (Lifetime) mapUses.get( sources[iSource] );
+               if (table != null)
+                  table.extend( view );
+            }
+         }
+      }
+
+      // schedule the deletions
+      Iterator iter = mapUses.entrySet().iterator();
+      while (iter.hasNext())
+      {
+         Map.Entry entry = (Map.Entry) iter.next();
+         if (!(entry.getKey() instanceof IWorkTable))
+            continue;
+         IWorkTable table    = (IWorkTable) entry.getKey();
+         Lifetime   lifetime = (Lifetime) entry.getValue();
+
+         if (isDeletable( table, lifetime, lSteps, defaultServer, cache ))
+         {
+            List lTables = (List) m_mapDeletions.get( lifetime.m_lastReader );
+            if (lTables == null)
+            {
+               lTables = new ArrayList();
+               m_mapDeletions.put( lifetime.m_lastReader, lTables );
+            }
+            lTables.add( table );
+         }
+      }
+   }
+
+   /**
+    * Records the read of a data object by a step.  Only work tables and views
+    * are tracked, views so the tables they read can live as long as they do.
+    *
+    * @param mapUses the map of work table to lifetime
+    * @param data    the data object read (may be null)
+    * @param step    the step reading the data object
+    * @param iStep   the index of the step
+    * @param server  the server the step runs on
+    */
+   private void addUse( Map mapUses, IDataObject data, IDataTransform step, int iStep, IServer server )
+   {
+      if (!(data instanceof IWorkTable) && !isView( data ))
+         return;
+
+      Lifetime lifetime = (Lifetime) mapUses.get( data );
+      if (lifetime == null)
+      {
+         lifetime = new Lifetime();
+         mapUses.put( data, lifetime );
+      }
+      lifetime.addReader( step, iStep, server );
+   }
+
+   /**
+    * Is a data object a view?
+    *
+    * @param data the data object (may be null)
+    *
+    * @return true = the data object is a view
+    */
+   private static boolean isView( IDataObject data )
+   {
+      return (data instanceof IPhysicalTable) && ((IPhysicalTable) data).isView();
+   }
+
+   /**
+    * Can the work table be deleted after its last reader?
+    *
+    * @param table         the work table
+    * @param lifetime      the table's lifetime
+    * @param lSteps        the steps in control order
+    * @param defaultServer the default server
+    * @param cache         the code generation cache
+    *
+    * @return true = delete the table after its last reader
+    *
+    * @throws BadServerDefinitionException
+    * @throws BadLibraryDefinitionException
+    */
+   private boolean isDeletable( IWorkTable table, Lifetime lifetime, List lSteps, IServer defaultServer, CodeGenerationCache cache )
+   throws BadServerDefinitionException, BadLibraryDefinitionException
+   {
+      IDataTransform[] producers = table.getProducerTransforms();
+      if ((producers == null) || (producers.length != 1))
+         return false;
+
+      if (!(producers[0] instanceof AbstractDataTransform) ||
+          !((AbstractDataTransform) producers[0]).isDeleteWorkTablesAfterLastUse())
+         return false;
+
+      int iProducer = lSteps.indexOf( producers[0] );
+      if ((iProducer < 0) || (lifetime.m_iLastRead <= iProducer))
+         return false;
+
+      if (!lifetime.m_lastReader.isCodeGenerationEnabled())
+         return false;
+
+      IServer serverProducer = cache.getServerForStep( producers[0], defaultServer );
+      for ( int iServer=0; iServer<lifetime.m_lServers.size(); iServer++ )
+      {
+         if (!ObjectComparator.isEqual( serverProducer, lifetime.m_lServers.get( iServer ) ))
+            return false;
+      }
+
+      return true;
+   }
+
+   /**
+    * Gets the work tables whose last reader is the step.  The tables can be
+    * deleted once the step has run.
+    *
+    * @param step the step
+    *
+    * @return the work tables to delete after the step
+    */
+   public IWorkTable[] getTablesToDeleteAfter( ITransform step )
+   {
+      List lTables = (List) m_mapDeletions.get( step );
+      if (lTables == null)
+         return NO_TABLES;
+
+      return (IWorkTable[]) lTables.toArray( new IWorkTable[ lTables.size() ] );
+   }
+
+   /**
+    * Lifetime tracks the readers of a work table.
+    */
+   private static class Lifetime
+   {
+      private int            m_iLastRead = -1;
+      private IDataTransform m_lastReader;
+      private List           m_lServers  = new ArrayList();   // servers of all readers
+
+      /**
+       * Adds a reader of the table.
+       *
+       * @param step   the reading step
+       * @param iStep  the index of the reading step
+       * @param server the server the step runs on
+       */
+      public void addReader( IDataTransform step, int iStep, IServer server )
+      {
+         if (iStep > m_iLastRead)
+         {
+            m_iLastRead  = iStep;
+            m_lastReader = step;
+         }
+         m_lServers.add( server );
+      }
+
+      /**
+       * Extends this lifetime to cover another one.
+       *
+       * @param other the other lifetime
+       */
+      public void extend( Lifetime other )
+      {
+         if (other.m_iLastRead > m_iLastRead)
+         {
+            m_iLastRead  = other.m_iLastRead;
+            m_lastReader = other.m_lastReader;
+         }
+         m_lServers.addAll( other.m_lServers );
+      }
+   }
+}
@@ -31,9 +31,11 @@ import com.sas.etl.models.data.IColumn;
 import com.sas.etl.models.data.IDataObject;
 import com.sas.etl.models.data.IPhysicalTable;
 import com.sas.etl.models.data.ITable;
+import com.sas.etl.models.impl.BaseObject;
 import com.sas.etl.models.impl.ModelEvent;
 import com.sas.etl.models.impl.ModelLogger;
 import com.sas.etl.models.impl.OMRAdapter;
+import com.sas.etl.models.job.CodeTemplate;
 import com.sas.etl.models.job.ICodeSegment;
 import com.sas.etl.models.job.ISortingTransform;
 import com.sas.etl.models.job.ITransformTableOptions;
@@ -107,6 +109,27 @@ public class SortTransformModel extends AbstractDataTransform implements ISortin
    private static final String SORT_SEQUENCE_OPTION            = "sortseq";
    private static final String SORT_SIZE_OPTION                = "sortsize";
    private static final String PROC_SORT_OPTIONS               = "ProcSortOptions";
+
+   // the PROC SORT statement, the BY statement is generated by the sort order
+   private static final CodeTemplate PROC_SORT_TEMPLATE = new CodeTemplate(
+      "proc sort data = &SYSLAST \n"      +
+      "#if sourceOptions\n"               +
+      "      (${sourceOptions}) \n"       +
+      "#end\n"                            +
+      "   out = ${target}\\\n"            +
+      "#if targetOptions\n"               +
+      "\n"                                +
+      "      ${targetOptions}\\\n"        +
+      "#end\n"                            +
+      "#if sortOptions\n"                 +
+      "\n"                                +
+      "      ${sortOptions}\\\n"          +
+      "#end\n"                            +
+      "; \n" );                           // I18NOK:EMS
+   private static final int SLOT_SOURCE_OPTIONS = PROC_SORT_TEMPLATE.getSlot( "sourceOptions" );   // I18NOK:EMS
+   private static final int SLOT_TARGET         = PROC_SORT_TEMPLATE.getSlot( "target" );          // I18NOK:EMS
+   private static final int SLOT_TARGET_OPTIONS = PROC_SORT_TEMPLATE.getSlot( "targetOptions" );   // I18NOK:EMS
+   private static final int SLOT_SORT_OPTIONS   = PROC_SORT_TEMPLATE.getSlot( "sortOptions" );     // I18NOK:EMS
    
    // event types
    /** event type for whether a stable sort is used has changed */
@@ -162,6 +185,7 @@ public class SortTransformModel extends AbstractDataTransform implements ISortin
       // only want to create a new order is it's a brand new object
       m_order = getModel().getObjectFactory().createNewSorting( getID() );
       m_order.addNotifyListener( this );
+      addChangeTrackedChild( m_order );
    }
 
    /**
@@ -301,16 +325,17 @@ public class SortTransformModel extends AbstractDataTransform implements ISortin
    }
 
    /**
-    * Is the transform changed?  This method is overridden to return true if any
-    * of the sources, any of the targets, or any of the mappings have changed.
+    * Gets the children whose changed state is part of the transform's changed
+    * state, which include the sort order.
     * 
-    * @return true = the object has changed
+    * @param lChildren the list the children are added to
     * 
-    * @see com.sas.etl.models.IObject#isChanged()
+    * @see com.sas.etl.models.job.impl.AbstractDataTransform#getChangeTrackedChildren(java.util.List)
     */
-   public boolean isChanged()
+   protected void getChangeTrackedChildren( List lChildren )
    {
-      return super.isChanged() || m_order.isChanged();
+      super.getChangeTrackedChildren( lChildren );
+      lChildren.add( m_order );
    }
    
    /**
@@ -725,6 +750,7 @@ public class SortTransformModel extends AbstractDataTransform implements ISortin
       if (m_order!=null)
       {
          m_order.removeNotifyListener( this );
+         removeChangeTrackedChild( m_order );
          addToDeletedObjects( m_order );
       }
       
@@ -736,6 +762,7 @@ public class SortTransformModel extends AbstractDataTransform implements ISortin
       if (m_order!=null)
       {
          m_order.addNotifyListener( this );
+         addChangeTrackedChild( m_order );
          removeFromDeletedObjects( m_order );
       }
       
@@ -907,41 +934,15 @@ public class SortTransformModel extends AbstractDataTransform implements ISortin
          }
             
          // proc sort statement
-         codeSegment.addSourceCode( "proc sort data = &SYSLAST \n");
-         codeSegment.indent();
-
-         // data= option
-       if (!mappingNeeded && sourceTableOptions.length() > 0)
-       {
-          codeSegment.indent()
-          .addSourceCode("(" + sourceTableOptions + ") \n")
-          .unIndent()
-          ;
-       }
-
-         // out= option
-         codeSegment.addSourceCode("out = " + target.getFullNameQuotedAsNeeded( codeSegment ));
-
          ITransformTableOptions targetOptionObj = getTableOptionObject( target, false );
-         String targetOptions = targetOptionObj.getTableOptions(true, codeSegment.getCurrentServer());
-         if (targetOptions.length() > 0)
-         {
-            codeSegment.addSourceCode("\n")
-            .indent()
-            .addSourceCode(targetOptions.trim())
-            .unIndent();
-         }
-
-         // proc sort options
-         if (sortOptions!=null && sortOptions.length()>0) 
-         {
-            codeSegment.addSourceCode("\n")
-            .indent()
-            .addSourceCode(sortOptions)
-            .unIndent();
-         }
+         Object[] aValues = new Object[ PROC_SORT_TEMPLATE.getSlotCount() ];
+         aValues[ SLOT_SOURCE_OPTIONS ] = mappingNeeded ? null : sourceTableOptions;
+         aValues[ SLOT_TARGET         ] = target.getFullNameQuotedAsNeeded( codeSegment );
+         aValues[ SLOT_TARGET_OPTIONS ] = targetOptionObj.getTableOptions( true, codeSegment.getCurrentServer() ).trim();
+         aValues[ SLOT_SORT_OPTIONS   ] = sortOptions;
+         PROC_SORT_TEMPLATE.render( codeSegment, aValues );
+         codeSegment.indent();
 
-         codeSegment.addSourceCode("; \n");
          // generate by statement
          m_order.getGeneratedCode( codeSegment, false ) ;
 
@@ -1193,7 +1194,7 @@ public class SortTransformModel extends AbstractDataTransform implements ISortin
             if (!isListeningForChanges())
                return;
 
-            getOwner().getModel().startCompoundUndoable();
+            BaseObject.startCompoundUndoable( getOwner().getModel() );
 
             try
             {
@@ -1243,12 +1244,9 @@ public class SortTransformModel extends AbstractDataTransform implements ISortin
                   setProcSortOptions( value.toString() );
                }
             }
-            
             finally
             {
-               getOwner().getModel().endCompoundUndoable();
-
-
+               BaseObject.endCompoundUndoable( getOwner().getModel() );
             }
          }         
       }//end SortTransformValueChangedListener
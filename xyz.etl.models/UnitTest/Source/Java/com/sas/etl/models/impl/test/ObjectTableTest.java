@@ -0,0 +1,150 @@
+/* $Id$ */
+/**
+ * Title:       ObjectTableTest.java
+ * Description: Tests the table of the objects of a model.
+ * Copyright:   Copyright (c) 2012
+ * Company:     SAS Institute
+ */
+package com.sas.etl.models.impl.test;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import com.sas.etl.models.impl.ObjectTable;
+
+/**
+ * The class <code>ObjectTableTest</code> contains tests for the class
+ * {@link ObjectTable}.
+ */
+public class ObjectTableTest extends TestCase
+{
+   /**
+    * Construct new test instance
+    *
+    * @param name the test name
+    */
+   public ObjectTableTest( String name )
+   {
+      super( name );
+   }
+
+   /**
+    * Tests that a metadata id gets a handle that is the same for every copy
+    * of the id and that turns back into the id.
+    */
+   public void testHandles()
+   {
+      ObjectTable table = new ObjectTable();
+      String      sID   = "A5XXXXXX.B6000123";
+      assertEquals( ObjectTable.NO_HANDLE, table.getHandle( sID ) );
+
+      table.put( sID, "column" );
+      long lHandle = table.getHandle( new String( sID ) );
+      assertTrue( lHandle != ObjectTable.NO_HANDLE );
+      assertEquals( sID, table.getID( lHandle ) );
+      assertEquals( "A5XXXXXX.$az09AZ$", table.getID( table.getHandle( "A5XXXXXX.$az09AZ$" ) ) );
+      assertTrue( table.getHandle( "A5XXXXXX.B6000124" ) != lHandle );
+      assertTrue( table.getHandle( "A5YYYYYY.B6000123" ) == ObjectTable.NO_HANDLE );
+   }
+
+   /**
+    * Tests that ids that are not metadata ids are kept too.
+    */
+   public void testOtherIDs()
+   {
+      ObjectTable table = new ObjectTable();
+      String[]    aIDs  = { "$1", "A5XXXXXX.B600012", "A5XXXXXX-B6000123", "A5XXXXXX.B60001#3", "" };
+      for ( int iID=0; iID<aIDs.length; iID++ )
+      {
+         assertEquals( ObjectTable.NO_HANDLE, table.getHandle( aIDs[ iID ] ) );
+         table.put( aIDs[ iID ], aIDs[ iID ] );
+      }
+      table.put( null, "null" );
+
+      assertEquals( aIDs.length + 1, table.size() );
+      for ( int iID=0; iID<aIDs.length; iID++ )
+         assertEquals( aIDs[ iID ], table.get( aIDs[ iID ] ) );
+      assertEquals( "null", table.get( null ) );
+      assertEquals( "$1", table.remove( "$1" ) );
+      assertNull( table.get( "$1" ) );
+   }
+
+   /**
+    * Tests put, replace, get and remove against a HashMap with ids handed out
+    * in sequence, as the server does, in two repositories.
+    */
+   public void testAgainstHashMap()
+   {
+      ObjectTable table    = new ObjectTable();
+      Map         mapCheck = new HashMap();
+      Random      random   = new Random( 49 );
+      for ( int iOp=0; iOp<20000; iOp++ )
+      {
+         String sID = createID( random.nextInt( 2 ), random.nextInt( 3000 ) );
+         switch (random.nextInt( 3 ))
+         {
+            case 0:
+            case 1:
+               Object value = new Integer( iOp );
+               assertEquals( mapCheck.put( sID, value ), table.put( sID, value ) );
+               break;
+            default:
+               assertEquals( mapCheck.remove( sID ), table.remove( sID ) );
+               break;
+         }
+         assertEquals( mapCheck.size(), table.size() );
+      }
+
+      Iterator iter = mapCheck.entrySet().iterator();
+      while (iter.hasNext())
+      {
+         Map.Entry entry = (Map.Entry) iter.next();
+         assertEquals( entry.getValue(), table.get( (String) entry.getKey() ) );
+      }
+      for ( int iObject=0; iObject<3000; iObject++ )
+      {
+         String sID = createID( 0, iObject );
+         assertEquals( mapCheck.get( sID ), table.get( sID ) );
+      }
+   }
+
+   /**
+    * Tests that an id updated after a save, a remove of the new id followed
+    * by a put of the metadata id, finds the object by the metadata id only.
+    */
+   public void testUpdateID()
+   {
+      ObjectTable table = new ObjectTable();
+      Object      obj   = new Object();
+      table.put( "$5", obj );
+
+      table.remove( "$5" );
+      table.put( "A5XXXXXX.B6000005", obj );
+
+      assertNull( table.get( "$5" ) );
+      assertSame( obj, table.get( "A5XXXXXX.B6000005" ) );
+      assertEquals( 1, table.size() );
+
+      table.clear();
+      assertEquals( 0, table.size() );
+      assertNull( table.get( "A5XXXXXX.B6000005" ) );
+   }
+
+   /**
+    * Creates a metadata id.
+    *
+    * @param iRepository the index of the repository
+    * @param iObject     the sequence number of the object
+    *
+    * @return the id
+    */
+   private static String createID( int iRepository, int iObject )
+   {
+      String sObject = Integer.toString( iObject, 36 ).toUpperCase();
+      return ((iRepository == 0) ? "A5XXXXXX" : "A5YYYYYY") + ".B" + "0000000".substring( sObject.length() ) + sObject;   // I18NOK:LINE
+   }
+}
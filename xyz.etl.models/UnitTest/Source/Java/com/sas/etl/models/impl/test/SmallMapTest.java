@@ -0,0 +1,207 @@
+/* $Id$ */
+/**
+ * Title:       SmallMapTest.java
+ * Description: Tests the map that stores a few entries in an array.
+ * Copyright:   Copyright (c) 2012
+ * Company:     SAS Institute
+ */
+package com.sas.etl.models.impl.test;
+
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import com.sas.etl.models.impl.SmallMap;
+
+/**
+ * The class <code>SmallMapTest</code> contains tests for the class
+ * {@link SmallMap}.
+ */
+public class SmallMapTest extends TestCase
+{
+   /**
+    * Construct new test instance
+    *
+    * @param name the test name
+    */
+   public SmallMapTest( String name )
+   {
+      super( name );
+   }
+
+   /**
+    * Tests that the map stays in the array up to MAX_INLINE entries and is
+    * promoted when the next entry is added.
+    */
+   public void testPromotion()
+   {
+      SmallMap map = new SmallMap();
+      fill( map, SmallMap.MAX_INLINE );
+      assertTrue( map.isInline() );
+      assertEquals( SmallMap.MAX_INLINE, map.size() );
+
+      map.put( "key0", "replaced" );
+      assertTrue( map.isInline() );
+
+      map.put( "key" + SmallMap.MAX_INLINE, "value" + SmallMap.MAX_INLINE );
+      assertFalse( map.isInline() );
+      assertEquals( SmallMap.MAX_INLINE + 1, map.size() );
+      assertEquals( "replaced", map.get( "key0" ) );
+      for ( int iKey=1; iKey<=SmallMap.MAX_INLINE; iKey++ )
+         assertEquals( "value" + iKey, map.get( "key" + iKey ) );
+   }
+
+   /**
+    * Tests that clearing a promoted map goes back to the array.
+    */
+   public void testClear()
+   {
+      SmallMap map = new SmallMap();
+      fill( map, SmallMap.MAX_INLINE + 1 );
+      assertFalse( map.isInline() );
+
+      map.clear();
+      assertTrue( map.isInline() );
+      assertTrue( map.isEmpty() );
+      assertNull( map.get( "key0" ) );
+
+      map.put( "key", "value" );
+      assertTrue( map.isInline() );
+      assertEquals( "value", map.get( "key" ) );
+   }
+
+   /**
+    * Tests null keys and values and that the map equals a HashMap with the
+    * same entries.
+    */
+   public void testNullsAndEquality()
+   {
+      SmallMap map = new SmallMap();
+      map.put( null,  "null key" );
+      map.put( "key", null );
+
+      assertTrue( map.containsKey( null ) );
+      assertTrue( map.containsKey( "key" ) );
+      assertEquals( "null key", map.get( null ) );
+
+      Map mapHash = new HashMap();
+      mapHash.put( null,  "null key" );
+      mapHash.put( "key", null );
+      assertEquals( mapHash, map );
+      assertEquals( mapHash.hashCode(), map.hashCode() );
+
+      assertEquals( "null key", map.remove( null ) );
+      assertFalse( map.containsKey( null ) );
+   }
+
+   /**
+    * Tests removing entries through the iterator.
+    */
+   public void testIteratorRemove()
+   {
+      SmallMap map = new SmallMap();
+      fill( map, 4 );
+
+      Iterator iter = map.entrySet().iterator();
+      while (iter.hasNext())
+      {
+         Map.Entry entry = (Map.Entry) iter.next();
+         if (entry.getKey().equals( "key1" ) || entry.getKey().equals( "key2" ))
+            iter.remove();
+      }
+      assertEquals( 2, map.size() );
+      assertTrue( map.containsKey( "key0" ) );
+      assertTrue( map.containsKey( "key3" ) );
+
+      iter = map.entrySet().iterator();
+      iter.next();
+      iter.remove();
+      try
+      {
+         iter.remove();
+         fail( "a second remove must fail" );
+      }
+      catch (IllegalStateException e)
+      {
+         // expected
+      }
+      assertEquals( 1, map.size() );
+   }
+
+   /**
+    * Tests that changing the map while iterating fails the iteration.
+    */
+   public void testConcurrentModification()
+   {
+      SmallMap map = new SmallMap();
+      fill( map, 3 );
+
+      Iterator iter = map.entrySet().iterator();
+      iter.next();
+      map.put( "added", "value" );
+      try
+      {
+         iter.next();
+         fail( "the iteration must fail after the map changed" );
+      }
+      catch (ConcurrentModificationException e)
+      {
+         // expected
+      }
+
+      iter = map.entrySet().iterator();
+      iter.next();
+      map.remove( "key1" );
+      try
+      {
+         iter.remove();
+         fail( "the iteration must fail after the map changed" );
+      }
+      catch (ConcurrentModificationException e)
+      {
+         // expected
+      }
+   }
+
+   /**
+    * Tests that an entry kept after the map changes keeps its key and value
+    * and writes setValue through while its key is in the map.
+    */
+   public void testEntrySnapshot()
+   {
+      SmallMap map = new SmallMap();
+      fill( map, 3 );
+
+      Iterator  iter  = map.entrySet().iterator();
+      Map.Entry first = (Map.Entry) iter.next();
+      Map.Entry next  = (Map.Entry) iter.next();
+      assertEquals( "key1", next.getKey() );
+
+      assertEquals( "value1", next.setValue( "changed" ) );
+      assertEquals( "changed", map.get( "key1" ) );
+
+      map.remove( "key0" );
+      assertEquals( "key0",    first.getKey()   );
+      assertEquals( "value0",  first.getValue() );
+      assertEquals( "key1",    next .getKey()   );
+      assertEquals( "changed", next .getValue() );
+
+      first.setValue( "gone" );
+      assertFalse( map.containsKey( "key0" ) );
+   }
+
+   /**
+    * Puts entries key0=value0, key1=value1, ... into a map.
+    *
+    * @param map      the map
+    * @param nEntries the number of entries
+    */
+   private void fill( Map map, int nEntries )
+   {
+      for ( int iKey=0; iKey<nEntries; iKey++ )
+         map.put( "key" + iKey, "value" + iKey );
+   }
+}
@@ -0,0 +1,166 @@
+/* $Id$ */
+/**
+ * Title:       UndoHistoryTest.java
+ * Description: Tests the undo history bounded by a memory budget.
+ * Copyright:   Copyright (c) 2012
+ * Company:     SAS Institute
+ */
+package com.sas.etl.models.impl.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.swing.undo.AbstractUndoableEdit;
+
+import junit.framework.TestCase;
+
+import com.sas.etl.models.impl.UndoHistory;
+
+/**
+ * The class <code>UndoHistoryTest</code> contains tests for the class
+ * {@link UndoHistory}.
+ */
+public class UndoHistoryTest extends TestCase
+{
+   private List m_lUndone;   // String names of the edits in the order undone
+
+   /**
+    * Construct new test instance
+    *
+    * @param name the test name
+    */
+   public UndoHistoryTest( String name )
+   {
+      super( name );
+   }
+
+   protected void setUp() throws Exception
+   {
+      super.setUp();
+      m_lUndone = new ArrayList();
+   }
+
+   /**
+    * Tests that the footprint counts the values an edit owns and is given back
+    * when the edits are discarded.
+    */
+   public void testFootprint()
+   {
+      UndoHistory history = new UndoHistory();
+      history.addEdit( new PayloadEdit( "small", 10 ) );
+      long lSmall = history.getFootprint();
+      history.addEdit( new PayloadEdit( "large", 1000 ) );
+      long lLarge = history.getFootprint() - lSmall;
+
+      assertTrue( lSmall > 0 );
+      assertTrue( lLarge >= lSmall + 2 * 990 );
+
+      history.discardAllEdits();
+      assertEquals( 0, history.getFootprint() );
+      assertEquals( 0, history.getEditCount() );
+   }
+
+   /**
+    * Tests that the oldest edits are discarded to stay within the budget and
+    * that the edits kept are undone one at a time, newest first.
+    */
+   public void testBudgetDiscardsOldest()
+   {
+      UndoHistory history = new UndoHistory();
+      history.addEdit( new PayloadEdit( "1", 1000 ) );
+      long lEdit = history.getFootprint();
+      history.setMemoryBudget( 3 * lEdit + lEdit / 2 );
+
+      for ( int iEdit=2; iEdit<=5; iEdit++ )
+         history.addEdit( new PayloadEdit( String.valueOf( iEdit ), 1000 ) );
+
+      assertEquals( 3, history.getEditCount() );
+      assertTrue( history.getFootprint() <= history.getMemoryBudget() );
+
+      while (history.canUndo())
+         history.undo();
+      assertEquals( Arrays.asList( new Object[] { "5", "4", "3" } ), m_lUndone );
+   }
+
+   /**
+    * Tests that the most recent edit is kept even if it is over the budget.
+    */
+   public void testMostRecentEditKept()
+   {
+      UndoHistory history = new UndoHistory( 1 );
+      history.addEdit( new PayloadEdit( "1", 100 ) );
+      history.addEdit( new PayloadEdit( "2", 100 ) );
+
+      assertEquals( 1, history.getEditCount() );
+      assertTrue( history.canUndo() );
+      history.undo();
+      assertEquals( Arrays.asList( new Object[] { "2" } ), m_lUndone );
+   }
+
+   /**
+    * Tests that many edits within the budget keep their own undo steps.
+    */
+   public void testEditsNotMerged()
+   {
+      UndoHistory history = new UndoHistory();
+      for ( int iEdit=0; iEdit<200; iEdit++ )
+         history.addEdit( new PayloadEdit( String.valueOf( iEdit ), 10 ) );
+
+      assertEquals( 200, history.getEditCount() );
+      history.undo();
+      assertEquals( Arrays.asList( new Object[] { "199" } ), m_lUndone );
+      assertTrue( history.canUndo() );
+   }
+
+   /**
+    * Tests that the edits that can be redone are forgotten when an edit is
+    * added.
+    */
+   public void testRedoEditsForgotten()
+   {
+      UndoHistory history = new UndoHistory();
+      history.addEdit( new PayloadEdit( "1", 100 ) );
+      long lEdit = history.getFootprint();
+      history.addEdit( new PayloadEdit( "2", 100 ) );
+      history.undo();
+      history.addEdit( new PayloadEdit( "3", 100 ) );
+
+      assertEquals( 2, history.getEditCount() );
+      assertEquals( 2 * lEdit, history.getFootprint() );
+      assertFalse( history.canRedo() );
+   }
+
+   /**
+    * PayloadEdit is an edit that owns a string of a given length and records
+    * when it is undone.
+    */
+   private class PayloadEdit extends AbstractUndoableEdit
+   {
+      private String m_sName;
+      private String m_sPayload;
+
+      /**
+       * Constructs the edit.
+       *
+       * @param sName   the name of the edit
+       * @param nLength the length of the payload
+       */
+      PayloadEdit( String sName, int nLength )
+      {
+         m_sName    = sName;
+         char[] aPayload = new char[ nLength ];
+         Arrays.fill( aPayload, 'x' );
+         m_sPayload = new String( aPayload );
+      }
+
+      /**
+       * @see javax.swing.undo.AbstractUndoableEdit#undo()
+       */
+      public void undo()
+      {
+         super.undo();
+         m_lUndone.add( m_sName );
+      }
+   } // PayloadEdit
+}
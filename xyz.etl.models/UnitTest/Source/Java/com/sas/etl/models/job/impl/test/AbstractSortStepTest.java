@@ -0,0 +1,69 @@
+/* $Id$ */
+/**
+ * Title:       AbstractSortStepTest.java
+ * Description: The base of the tests of jobs made of sort steps.
+ * Copyright:   Copyright (c) 2012
+ * Company:     SAS Institute
+ */
+package com.sas.etl.models.job.impl.test;
+
+import com.sas.etl.models.IObject;
+import com.sas.etl.models.data.IDataObject;
+import com.sas.etl.models.data.IPhysicalTable;
+import com.sas.etl.models.job.transforms.SortTransformModel;
+
+/**
+ * The class <code>AbstractSortStepTest</code> is the base of the tests whose
+ * test object is a sort transform and whose jobs are sort steps linked by
+ * tables.  It creates the test object and the steps and tables of the jobs.
+ */
+public abstract class AbstractSortStepTest extends AbstractDataTransformTest
+{
+   /**
+    * Construct new test instance
+    *
+    * @param name the test name
+    */
+   public AbstractSortStepTest( String name )
+   {
+      super( name );
+   }
+
+   protected IObject createNewTestObject()
+   {
+      return getModel().getObjectFactory().createNewTransform( SortTransformModel.getTransformTypeID(), getFullRepositoryID() );
+   }
+
+   protected IObject createTestObject( String sID )
+   {
+      return getModel().getObjectFactory().createTransform( SortTransformModel.getTransformTypeID(), sID );
+   }
+
+   /**
+    * Creates a sort step reading a table.
+    *
+    * @param source the table
+    *
+    * @return the step
+    */
+   protected SortTransformModel createStep( IDataObject source )
+   {
+      SortTransformModel step = (SortTransformModel) createNewTestObject();
+      step.addDataSource( source );
+      return step;
+   }
+
+   /**
+    * Creates a permanent table.
+    *
+    * @param sName the name of the table
+    *
+    * @return the table
+    */
+   protected IPhysicalTable createPhysicalTable( String sName )
+   {
+      IPhysicalTable tbl = getModel().getObjectFactory().createNewPhysicalTable( getFullRepositoryID() );
+      tbl.setName( sName );
+      return tbl;
+   }
+}
@@ -0,0 +1,120 @@
+/* $Id$ */
+/**
+ * Title:       ArmLogParserTest.java
+ * Description: Tests the ARM log parser and the step statistics store.
+ * Copyright:   Copyright (c) 2012
+ * Company:     SAS Institute
+ */
+package com.sas.etl.models.job.impl.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+
+import junit.framework.TestCase;
+
+import com.sas.etl.models.job.impl.ArmLogParser;
+import com.sas.etl.models.job.impl.StepStatistics;
+import com.sas.etl.models.job.impl.StepStatisticsStore;
+
+/**
+ * The class <code>ArmLogParserTest</code> contains tests for the classes
+ * {@link ArmLogParser} and {@link StepStatisticsStore}.
+ */
+public class ArmLogParserTest extends TestCase
+{
+   private static final String LOG =
+      "I,1000.0,1,0.5,0.1,DIS,sasdemo\n"                                  +
+      "G,1000.1,1,2,_DISARM|A5X.B1|host|Sort,,_DISROWCNT,Count32\n"       +
+      "G,1000.1,1,3,_DISARM|A5X.B2|host|Append,\n"                        +
+      "G,1000.1,1,4,OTHER|A5X.B3,\n"                                      +
+      "S,1000.2,1,2,7,1.0,0.5\n"                                          +
+      "P,1010.2,1,2,7,4.0,1.5,0,500\n"                                    +
+      "S,1010.3,1,3,8,4.0,1.5\n"                                          +
+      "P,1012.3,1,3,8,4.5,1.5,0\n"                                        +
+      "S,1012.4,1,4,9,4.5,1.5\n"                                          +
+      "P,1013.4,1,4,9,4.6,1.5,0\n"                                        +
+      "S,1020.0,1,2,10,5.0,2.0\n"                                         +
+      "P,1040.0,1,2,10,9.0,2.0,0,-1\n";
+
+   /**
+    * Construct new test instance
+    *
+    * @param name the test name
+    */
+   public ArmLogParserTest( String name )
+   {
+      super( name );
+   }
+
+   /**
+    * Tests that the runs of steps are recorded by transform id.
+    *
+    * @throws IOException
+    */
+   public void testParse() throws IOException
+   {
+      StepStatisticsStore store  = new StepStatisticsStore();
+      ArmLogParser        parser = new ArmLogParser( store );
+      parser.parse( new StringReader( LOG ) );
+
+      assertEquals( 3, parser.getRunCount() );
+      assertNull( store.getStatistics( "A5X.B3" ) );
+
+      StepStatistics sort = store.getStatistics( "A5X.B1" );
+      assertEquals( 2, sort.getRunCount() );
+      assertEquals( 10.0, sort.getElapsedPercentile( 0 ),   0.01 );
+      assertEquals( 20.0, sort.getElapsedPercentile( 100 ), 0.01 );
+      assertEquals(  4.0, sort.getCPUPercentile( 0 ),       0.01 );
+      assertEquals(  6.0, sort.getIOWaitPercentile( 0 ),    0.01 );
+      assertEquals( 500,  sort.getRowCountPercentile( 50 ) );
+
+      StepStatistics append = store.getStatistics( "A5X.B2" );
+      assertEquals( 1, append.getRunCount() );
+      assertEquals( StepStatistics.UNKNOWN, append.getRowCountPercentile( 50 ) );
+   }
+
+   /**
+    * Tests that only the most recent runs are kept.
+    */
+   public void testMaxRuns()
+   {
+      StepStatistics stats = new StepStatistics( "A5X.B1" );
+      for ( int i=0; i<StepStatistics.MAX_RUNS + 8; i++ )
+         stats.addRun( i, 0, i );
+
+      assertEquals( StepStatistics.MAX_RUNS,     stats.getRunCount() );
+      assertEquals( StepStatistics.MAX_RUNS + 8, stats.getTotalRunCount() );
+      assertEquals( 8.0, stats.getElapsedPercentile( 0 ), 0.01 );
+   }
+
+   /**
+    * Tests that the store can be saved and loaded.
+    *
+    * @throws IOException
+    */
+   public void testSaveLoad() throws IOException
+   {
+      StepStatisticsStore store = new StepStatisticsStore();
+      store.addRun( "A5X.B1", 10, 4, 500 );
+      store.addRun( "A5X.B1", 20, 5, 700 );
+
+      File file = File.createTempFile( "steps", ".dat" );
+      try
+      {
+         store.save( file );
+
+         StepStatisticsStore loaded = new StepStatisticsStore();
+         loaded.load( file );
+
+         StepStatistics stats = loaded.getStatistics( "A5X.B1" );
+         assertEquals( 2,   stats.getRunCount() );
+         assertEquals( 700, stats.getRowCountPercentile( 100 ) );
+         assertEquals( 20.0, stats.getElapsedPercentile( 100 ), 0.01 );
+      }
+      finally
+      {
+         file.delete();
+      }
+   }
+}
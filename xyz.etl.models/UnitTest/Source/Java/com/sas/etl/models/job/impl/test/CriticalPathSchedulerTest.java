@@ -0,0 +1,144 @@
+/* $Id$ */
+/**
+ * Title:       CriticalPathSchedulerTest.java
+ * Description: Tests the ordering of the steps of a job by critical path.
+ * Copyright:   Copyright (c) 2012
+ * Company:     SAS Institute
+ */
+package com.sas.etl.models.job.impl.test;
+
+import java.util.Arrays;
+
+import com.sas.etl.models.IObject;
+import com.sas.etl.models.data.IDataObject;
+import com.sas.etl.models.data.IWorkTable;
+import com.sas.etl.models.job.ITransform;
+import com.sas.etl.models.job.impl.CriticalPathScheduler;
+import com.sas.etl.models.job.impl.JobDependencyGraph;
+import com.sas.etl.models.job.transforms.SortTransformModel;
+
+/**
+ * The class <code>CriticalPathSchedulerTest</code> contains tests for the 
+ * class {@link CriticalPathScheduler}.  The steps of the jobs are sort 
+ * transforms linked by tables, with the runtimes set as the user's estimates.
+ */
+public class CriticalPathSchedulerTest extends AbstractSortStepTest
+{
+   private SortTransformModel m_sort;
+
+   /**
+    * Construct new test instance
+    *
+    * @param name the test name
+    */
+   public CriticalPathSchedulerTest( String name )
+   {
+      super( name );
+   }
+
+   protected void setTestObject( IObject object )
+   {
+      super.setTestObject( object );
+      m_sort = (SortTransformModel) object;
+   }
+
+   /**
+    * Tests that the reader of a work table is moved ahead of an independent
+    * step, which keeps the makespan and shortens the time the work table is
+    * held.
+    */
+   public void testCriticalPathFirst()
+   {
+      m_sort.addDataSource( createPhysicalTable( "source" ) );
+      m_sort.setEstimatedRuntime( 1 );
+      IWorkTable tblWork = m_sort.addNewWorkTable();
+      SortTransformModel independent = createStep( createPhysicalTable( "other" ), 5 );
+      SortTransformModel reader      = createStep( tblWork, 10 );
+
+      CriticalPathScheduler scheduler = createScheduler( new ITransform[] { m_sort, independent, reader }, 1 );
+
+      assertEquals( Arrays.asList( new Object[] { m_sort, reader, independent } ), scheduler.getOrderedSteps() );
+      assertEquals( Arrays.asList( new Object[] { m_sort, reader } ), scheduler.getCriticalPath() );
+      assertEquals( 11, scheduler.getCriticalPathLength(), 0.001 );
+      assertEquals( 16, scheduler.getMakespanBefore(),     0.001 );
+      assertEquals( 16, scheduler.getMakespanAfter(),      0.001 );
+      assertEquals( 15, scheduler.getWorkOccupancyBefore(), 0.001 );
+      assertEquals( 10, scheduler.getWorkOccupancyAfter(),  0.001 );
+   }
+
+   /**
+    * Tests that independent steps run side by side when there are sessions 
+    * for them.
+    */
+   public void testParallelism()
+   {
+      m_sort.addDataSource( createPhysicalTable( "source" ) );
+      m_sort.setEstimatedRuntime( 4 );
+      SortTransformModel independent = createStep( createPhysicalTable( "other" ), 6 );
+
+      CriticalPathScheduler scheduler = createScheduler( new ITransform[] { m_sort, independent }, 2 );
+
+      assertEquals( Arrays.asList( new Object[] { independent, m_sort } ), scheduler.getOrderedSteps() );
+      assertEquals( 6, scheduler.getMakespanAfter(), 0.001 );
+   }
+
+   /**
+    * Tests that a step without a runtime is given the average of the known
+    * runtimes.
+    */
+   public void testUnknownRuntime()
+   {
+      m_sort.addDataSource( createPhysicalTable( "source" ) );
+      m_sort.setEstimatedRuntime( 2 );
+      SortTransformModel unknown = createStep( createPhysicalTable( "other" ), -1 );
+      SortTransformModel known   = createStep( createPhysicalTable( "third" ), 4 );
+
+      CriticalPathScheduler scheduler = createScheduler( new ITransform[] { m_sort, unknown, known }, 1 );
+
+      assertEquals( 3, scheduler.getRuntime( unknown ), 0.001 );
+   }
+
+   /**
+    * Tests that the scheduler rejects a parallelism below 1.
+    */
+   public void testInvalidParallelism()
+   {
+      try
+      {
+         createScheduler( new ITransform[] { m_sort }, 0 );
+         fail( "no exception thrown for parallelism 0" );
+      }
+      catch (IllegalArgumentException expected)
+      {
+      }
+   }
+
+   /**
+    * Creates the scheduler of a job without a runtime estimator.
+    *
+    * @param steps        the steps of the job in control order
+    * @param nParallelism the number of steps that can run at the same time
+    *
+    * @return the scheduler
+    */
+   private CriticalPathScheduler createScheduler( ITransform[] steps, int nParallelism )
+   {
+      JobDependencyGraph graph = new JobDependencyGraph( JobDependencyGraphTest.createJob( steps ), null );
+      return new CriticalPathScheduler( graph, null, nParallelism );
+   }
+
+   /**
+    * Creates a sort step reading a table with an estimated runtime.
+    *
+    * @param source   the table
+    * @param dRuntime the estimated runtime of the step
+    *
+    * @return the step
+    */
+   private SortTransformModel createStep( IDataObject source, double dRuntime )
+   {
+      SortTransformModel step = createStep( source );
+      step.setEstimatedRuntime( dRuntime );
+      return step;
+   }
+}
@@ -0,0 +1,124 @@
+/* $Id$ */
+/**
+ * Title:       DataTransformChangedTest.java
+ * Description: Tests the changed state of a transform and its tables.
+ * Copyright:   Copyright (c) 2012
+ * Company:     SAS Institute
+ */
+package com.sas.etl.models.job.impl.test;
+
+import com.sas.etl.models.IObject;
+import com.sas.etl.models.data.IPhysicalTable;
+import com.sas.etl.models.job.transforms.SortTransformModel;
+import com.sas.etl.models.other.INote;
+
+/**
+ * The class <code>DataTransformChangedTest</code> contains tests for the
+ * changed state of a transform, which includes the changed state of its
+ * sources and targets.
+ */
+public class DataTransformChangedTest extends AbstractSortStepTest
+{
+   private SortTransformModel m_sort;
+
+   /**
+    * Construct new test instance
+    *
+    * @param name the test name
+    */
+   public DataTransformChangedTest( String name )
+   {
+      super( name );
+   }
+
+   protected void setTestObject( IObject object )
+   {
+      super.setTestObject( object );
+      m_sort = (SortTransformModel) object;
+   }
+
+   /**
+    * Tests that a change to a target table is a change to the transform.
+    */
+   public void testTargetChanged()
+   {
+      IPhysicalTable tbl = createPhysicalTable( "target" );
+      m_sort.addDataTarget( tbl );
+      resetChanged( tbl );
+
+      tbl.setDescription( "changed" );
+      assertTrue( m_sort.isChanged() );
+
+      resetChanged( tbl );
+      m_sort.removeDataTarget( tbl );
+      m_sort.setChanged( false );
+      tbl.setDescription( "changed again" );
+      assertFalse( m_sort.isChanged() );
+   }
+
+   /**
+    * Tests that a note added to a target table, which marks the table
+    * changed, is a change to the transform.
+    */
+   public void testTargetNoteChanged()
+   {
+      IPhysicalTable tbl = createPhysicalTable( "target" );
+      m_sort.addDataTarget( tbl );
+      resetChanged( tbl );
+
+      INote note = getModel().getObjectFactory().createNewNote( tbl.getID() );
+      tbl.getNotesList().add( note );
+      assertTrue( tbl.isChanged() );
+      assertTrue( m_sort.isChanged() );
+   }
+
+   /**
+    * Tests that a change to a note of a target table, which the table tracks
+    * through its notes list, is a change to the transform.
+    */
+   public void testTargetNoteContentChanged()
+   {
+      IPhysicalTable tbl = createPhysicalTable( "target" );
+      m_sort.addDataTarget( tbl );
+      INote note = getModel().getObjectFactory().createNewNote( tbl.getID() );
+      tbl.getNotesList().add( note );
+      note.setChanged( false );
+      resetChanged( tbl );
+
+      note.setName( "changed" );
+      assertTrue( tbl.isChanged() );
+      assertTrue( m_sort.isChanged() );
+
+      note.setChanged( false );
+      tbl.getNotesList().remove( note );
+      assertTrue( tbl.isChanged() );
+      resetChanged( tbl );
+      note.setName( "changed again" );
+      assertFalse( m_sort.isChanged() );
+   }
+
+   /**
+    * Tests that a change to a source table is a change to the transform.
+    */
+   public void testSourceChanged()
+   {
+      IPhysicalTable tbl = createPhysicalTable( "source" );
+      m_sort.addDataSource( tbl );
+      resetChanged( tbl );
+
+      tbl.setName( "renamed" );
+      assertTrue( m_sort.isChanged() );
+   }
+
+   /**
+    * Marks the transform and a table of it unchanged.
+    *
+    * @param tbl the table
+    */
+   private void resetChanged( IPhysicalTable tbl )
+   {
+      tbl   .setChanged( false );
+      m_sort.setChanged( false );
+      assertFalse( m_sort.isChanged() );
+   }
+}
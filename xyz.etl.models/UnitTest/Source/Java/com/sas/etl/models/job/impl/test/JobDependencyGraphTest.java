@@ -0,0 +1,137 @@
+/* $Id$ */
+/**
+ * Title:       JobDependencyGraphTest.java
+ * Description: Tests the dependency graph of the steps of a job.
+ * Copyright:   Copyright (c) 2012
+ * Company:     SAS Institute
+ */
+package com.sas.etl.models.job.impl.test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+
+import com.sas.etl.models.IObject;
+import com.sas.etl.models.data.IPhysicalTable;
+import com.sas.etl.models.data.IWorkTable;
+import com.sas.etl.models.job.IJob;
+import com.sas.etl.models.job.ITransform;
+import com.sas.etl.models.job.impl.JobDependencyGraph;
+import com.sas.etl.models.job.transforms.SortTransformModel;
+
+/**
+ * The class <code>JobDependencyGraphTest</code> contains tests for the class
+ * {@link JobDependencyGraph}.  The steps of the jobs are sort transforms
+ * linked by tables.
+ */
+public class JobDependencyGraphTest extends AbstractSortStepTest
+{
+   private SortTransformModel m_sort;
+
+   /**
+    * Construct new test instance
+    *
+    * @param name the test name
+    */
+   public JobDependencyGraphTest( String name )
+   {
+      super( name );
+   }
+
+   protected void setTestObject( IObject object )
+   {
+      super.setTestObject( object );
+      m_sort = (SortTransformModel) object;
+   }
+
+   /**
+    * Tests that a step reading a work table depends on the step writing it
+    * and that the steps exchange the work table.
+    */
+   public void testWorkTableDependency()
+   {
+      m_sort.addDataSource( createPhysicalTable( "source" ) );
+      IWorkTable tblWork = m_sort.addNewWorkTable();
+      SortTransformModel reader      = createStep( tblWork );
+      SortTransformModel independent = createStep( createPhysicalTable( "other" ) );
+      reader.addNewWorkTable();
+      independent.addNewWorkTable();
+
+      JobDependencyGraph graph = new JobDependencyGraph( createJob( new ITransform[] { m_sort, reader, independent } ), null );
+
+      assertEquals( 3, graph.getSteps().size() );
+      assertEquals( 1, graph.getIndex( reader ) );
+      assertEquals( Arrays.asList( new Object[] { m_sort } ), graph.getPredecessors( reader ) );
+      assertEquals( Arrays.asList( new Object[] { reader } ), graph.getSuccessors( m_sort ) );
+      assertTrue( graph.isWorkTableDependency( m_sort, reader ) );
+      assertTrue( graph.getPredecessors( independent ).isEmpty() );
+      assertTrue( graph.getSuccessors( independent ).isEmpty() );
+      assertFalse( graph.isSerialized( reader ) );
+   }
+
+   /**
+    * Tests that a step writing a permanent table depends on the earlier step
+    * reading it, without exchanging a work table.
+    */
+   public void testWriteAfterRead()
+   {
+      IPhysicalTable tbl = createPhysicalTable( "shared" );
+      m_sort.addDataSource( tbl );
+      m_sort.addNewWorkTable();
+      SortTransformModel writer = createStep( createPhysicalTable( "source" ) );
+      writer.addDataTarget( tbl );
+
+      JobDependencyGraph graph = new JobDependencyGraph( createJob( new ITransform[] { m_sort, writer } ), null );
+
+      assertEquals( Arrays.asList( new Object[] { m_sort } ), graph.getPredecessors( writer ) );
+      assertFalse( graph.isWorkTableDependency( m_sort, writer ) );
+   }
+
+   /**
+    * Tests that a step that always runs depends on every earlier step and
+    * that every later step depends on it.
+    */
+   public void testSerializationPoint()
+   {
+      m_sort.addDataSource( createPhysicalTable( "source" ) );
+      m_sort.addNewWorkTable();
+      SortTransformModel always = createStep( createPhysicalTable( "other" ) );
+      always.addNewWorkTable();
+      always.setRunAlways( true );
+      SortTransformModel after = createStep( createPhysicalTable( "third" ) );
+      after.addNewWorkTable();
+
+      JobDependencyGraph graph = new JobDependencyGraph( createJob( new ITransform[] { m_sort, always, after } ), null );
+
+      assertTrue( JobDependencyGraph.isSerializationPoint( always ) );
+      assertTrue( graph.isSerialized( always ) );
+      assertFalse( graph.isSerialized( after ) );
+      assertEquals( Arrays.asList( new Object[] { m_sort } ), graph.getPredecessors( always ) );
+      assertEquals( Arrays.asList( new Object[] { always } ), graph.getPredecessors( after ) );
+   }
+
+   /**
+    * Creates a job that has steps in control order.
+    *
+    * @param steps the steps
+    *
+    * @return the job
+    */
+   static IJob createJob( final ITransform[] steps )
+   {
+      return (IJob) Proxy.newProxyInstance( IJob.class.getClassLoader(), new Class[] { IJob.class }, new InvocationHandler()
+      {
+         public Object invoke( Object proxy, Method method, Object[] args )
+         {
+            if (method.getName().equals( "getControlOrderedTransformsList" ))
+               return Arrays.asList( steps );
+            if (method.getName().equals( "equals" ))
+               return Boolean.valueOf( proxy == args[0] );
+            if (method.getName().equals( "hashCode" ))
+               return new Integer( System.identityHashCode( proxy ) );
+            return null;
+         }
+      } );
+   }
+}
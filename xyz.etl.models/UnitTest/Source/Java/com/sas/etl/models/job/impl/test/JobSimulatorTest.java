@@ -0,0 +1,233 @@
+/* $Id$ */
+/**
+ * Title:       JobSimulatorTest.java
+ * Description: Tests the offline simulation of a run of a job.
+ * Copyright:   Copyright (c) 2012
+ * Company:     SAS Institute
+ */
+package com.sas.etl.models.job.impl.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.sas.etl.models.IObject;
+import com.sas.etl.models.data.BadLibraryDefinitionException;
+import com.sas.etl.models.data.IDataObject;
+import com.sas.etl.models.data.IWorkTable;
+import com.sas.etl.models.job.IStepExecutor;
+import com.sas.etl.models.job.ITransform;
+import com.sas.etl.models.job.impl.CodeGenerationCache;
+import com.sas.etl.models.job.impl.CodeGenerationEnvironment;
+import com.sas.etl.models.job.impl.JobSimulator;
+import com.sas.etl.models.job.impl.SimulationTimeline;
+import com.sas.etl.models.job.transforms.SortTransformModel;
+import com.sas.etl.models.other.BadServerDefinitionException;
+
+/**
+ * The class <code>JobSimulatorTest</code> contains tests for the classes
+ * {@link JobSimulator} and {@link SimulationTimeline}.  The steps of the jobs
+ * are sort transforms linked by tables, run by an executor with fixed 
+ * runtimes and row counts.
+ */
+public class JobSimulatorTest extends AbstractSortStepTest
+{
+   private static final long ROWS       = 100;
+   private static final long ROW_LENGTH = 10;
+
+   private SortTransformModel m_sort;
+   private SortTransformModel m_reader;
+   private SortTransformModel m_independent;
+   private FixedStepExecutor  m_executor;
+
+   /**
+    * Construct new test instance
+    *
+    * @param name the test name
+    */
+   public JobSimulatorTest( String name )
+   {
+      super( name );
+   }
+
+   protected void setTestObject( IObject object )
+   {
+      super.setTestObject( object );
+      m_sort = (SortTransformModel) object;
+   }
+
+   /**
+    * Creates a job of three steps: the test object writes a work table read 
+    * by the reader, and an independent step reads another table.
+    */
+   private void createSteps()
+   {
+      m_sort.addDataSource( createPhysicalTable( "source" ) );
+      IWorkTable tblWork = m_sort.addNewWorkTable();
+      m_reader = createStep( tblWork );
+      m_reader.addNewWorkTable();
+      m_independent = createStep( createPhysicalTable( "other" ) );
+
+      m_executor = new FixedStepExecutor();
+      m_executor.setRuntime( m_sort,        2 );
+      m_executor.setRuntime( m_reader,      3 );
+      m_executor.setRuntime( m_independent, 4 );
+   }
+
+   /**
+    * Tests that one session runs the steps one after another in control 
+    * order.
+    *
+    * @throws BadServerDefinitionException
+    * @throws BadLibraryDefinitionException
+    */
+   public void testControlOrder() throws BadServerDefinitionException, BadLibraryDefinitionException
+   {
+      createSteps();
+      SimulationTimeline timeline = simulate( null, 1 );
+
+      assertEquals( 9, timeline.getMakespan(), 0.001 );
+      assertEquals( 3, timeline.getRuns().size() );
+      assertSame( m_sort,        ((SimulationTimeline.StepRun) timeline.getRuns().get( 0 )).getStep() );
+      assertSame( m_reader,      ((SimulationTimeline.StepRun) timeline.getRuns().get( 1 )).getStep() );
+      assertSame( m_independent, ((SimulationTimeline.StepRun) timeline.getRuns().get( 2 )).getStep() );
+      assertEquals( 2, timeline.getRun( m_reader ).getStart(), 0.001 );
+      assertEquals( 5, timeline.getRun( m_reader ).getEnd(),   0.001 );
+      assertEquals( ROWS, timeline.getRun( m_reader ).getRows() );
+      assertEquals( 0, timeline.getBytesTransferred() );
+   }
+
+   /**
+    * Tests that the ready step first in the specified order is started 
+    * first.
+    *
+    * @throws BadServerDefinitionException
+    * @throws BadLibraryDefinitionException
+    */
+   public void testSpecifiedOrder() throws BadServerDefinitionException, BadLibraryDefinitionException
+   {
+      createSteps();
+      SimulationTimeline timeline = simulate( Arrays.asList( new Object[] { m_independent, m_sort, m_reader } ), 1 );
+
+      assertEquals( 0, timeline.getRun( m_independent ).getStart(), 0.001 );
+      assertEquals( 4, timeline.getRun( m_sort        ).getStart(), 0.001 );
+      assertEquals( 6, timeline.getRun( m_reader      ).getStart(), 0.001 );
+      assertEquals( 9, timeline.getMakespan(), 0.001 );
+   }
+
+   /**
+    * Tests that independent steps run at the same time in separate sessions
+    * and that a step waits for the steps it depends on.
+    *
+    * @throws BadServerDefinitionException
+    * @throws BadLibraryDefinitionException
+    */
+   public void testSessions() throws BadServerDefinitionException, BadLibraryDefinitionException
+   {
+      createSteps();
+      SimulationTimeline timeline = simulate( null, 2 );
+
+      assertEquals( 5, timeline.getMakespan(), 0.001 );
+      assertEquals( 0, timeline.getRun( m_sort        ).getSession() );
+      assertEquals( 1, timeline.getRun( m_independent ).getSession() );
+      assertEquals( 0, timeline.getRun( m_independent ).getStart(), 0.001 );
+      assertEquals( 2, timeline.getRun( m_reader      ).getStart(), 0.001 );
+   }
+
+   /**
+    * Tests that the WORK space of a work table is released after its last 
+    * reader when its producer deletes work tables after their last use.
+    *
+    * @throws BadServerDefinitionException
+    * @throws BadLibraryDefinitionException
+    */
+   public void testWorkSpace() throws BadServerDefinitionException, BadLibraryDefinitionException
+   {
+      createSteps();
+      SimulationTimeline timeline = simulate( null, 1 );
+      assertEquals( 2 * ROWS * ROW_LENGTH, timeline.getPeakWorkBytes() );
+      assertEquals( 2 * ROWS * ROW_LENGTH, timeline.getRun( m_reader ).getWorkBytes() );
+
+      m_sort.setDeleteWorkTablesAfterLastUse( true );
+      timeline = simulate( null, 1 );
+      assertEquals( ROWS * ROW_LENGTH, timeline.getPeakWorkBytes() );
+      assertEquals( ROWS * ROW_LENGTH, timeline.getRun( m_sort   ).getWorkBytes() );
+      assertEquals( ROWS * ROW_LENGTH, timeline.getRun( m_reader ).getWorkBytes() );
+   }
+
+   /**
+    * Tests the dump of a timeline.
+    *
+    * @throws BadServerDefinitionException
+    * @throws BadLibraryDefinitionException
+    */
+   public void testDump() throws BadServerDefinitionException, BadLibraryDefinitionException
+   {
+      createSteps();
+      SimulationTimeline timeline = simulate( null, 1 );
+
+      ByteArrayOutputStream strmOut = new ByteArrayOutputStream();
+      timeline.dump( new PrintStream( strmOut, true ) );
+      String sDump = strmOut.toString();
+      assertTrue( sDump, sDump.indexOf( "Makespan=9.000" ) >= 0 );
+      assertTrue( sDump, sDump.indexOf( "Transferred=0"  ) >= 0 );
+   }
+
+   /**
+    * Simulates a run of the job of the steps.  Each run uses a new code 
+    * generation cache, as a new code generation run would.
+    *
+    * @param lOrder    the order of the steps or null for control order
+    * @param nSessions the number of sessions
+    *
+    * @return the timeline
+    */
+   private SimulationTimeline simulate( List lOrder, int nSessions )
+   throws BadServerDefinitionException, BadLibraryDefinitionException
+   {
+      CodeGenerationCache cache     = CodeGenerationCache.getCache( new CodeGenerationEnvironment( null ) );
+      JobSimulator        simulator = new JobSimulator( JobDependencyGraphTest.createJob( new ITransform[] { m_sort, m_reader, m_independent } ), null, cache, m_executor );
+      return simulator.run( lOrder, nSessions );
+   }
+
+   /**
+    * FixedStepExecutor runs each step in a fixed time and writes a fixed 
+    * number of rows of a fixed length to each target.
+    */
+   private static class FixedStepExecutor implements IStepExecutor
+   {
+      private Map m_mapRuntimes = new IdentityHashMap();   // step to Double runtime
+
+      /**
+       * Sets the runtime of a step.
+       *
+       * @param step     the step
+       * @param dRuntime the runtime in seconds
+       */
+      void setRuntime( ITransform step, double dRuntime )
+      {
+         m_mapRuntimes.put( step, new Double( dRuntime ) );
+      }
+
+      /**
+       * @see com.sas.etl.models.job.IStepExecutor#execute(com.sas.etl.models.job.ITransform, long[], long[])
+       */
+      public double execute( ITransform step, long[] aSourceRows, long[] aTargetRows )
+      {
+         Arrays.fill( aTargetRows, ROWS );
+         Double dRuntime = (Double) m_mapRuntimes.get( step );
+         return (dRuntime == null) ? 1 : dRuntime.doubleValue();
+      }
+
+      /**
+       * @see com.sas.etl.models.job.IStepExecutor#getRowLength(com.sas.etl.models.data.IDataObject)
+       */
+      public long getRowLength( IDataObject table )
+      {
+         return ROW_LENGTH;
+      }
+   } // FixedStepExecutor
+}
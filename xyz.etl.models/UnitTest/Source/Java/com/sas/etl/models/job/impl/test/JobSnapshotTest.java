@@ -0,0 +1,180 @@
+/* $Id$ */
+/**
+ * Title:       JobSnapshotTest.java
+ * Description: Tests the immutable snapshots of jobs.
+ * Copyright:   Copyright (c) 2012
+ * Company:     SAS Institute
+ */
+package com.sas.etl.models.job.impl.test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Collections;
+
+import com.sas.etl.models.IModel;
+import com.sas.etl.models.IObject;
+import com.sas.etl.models.data.IWorkTable;
+import com.sas.etl.models.job.IJob;
+import com.sas.etl.models.job.ITransform;
+import com.sas.etl.models.job.impl.JobSnapshot;
+import com.sas.etl.models.job.transforms.SortTransformModel;
+
+/**
+ * The class <code>JobSnapshotTest</code> contains tests for the class
+ * {@link JobSnapshot}.
+ */
+public class JobSnapshotTest extends AbstractSortStepTest
+{
+   private SortTransformModel m_sort;
+   private SortTransformModel m_reader;
+   private IJob               m_job;
+
+   /**
+    * Construct new test instance
+    *
+    * @param name the test name
+    */
+   public JobSnapshotTest( String name )
+   {
+      super( name );
+   }
+
+   protected void setTestObject( IObject object )
+   {
+      super.setTestObject( object );
+      m_sort = (SortTransformModel) object;
+   }
+
+   /**
+    * Creates a job of a sort writing a work table and a step reading it.
+    */
+   private void createSteps()
+   {
+      m_sort.setName( "sort" );
+      m_sort.addDataSource( createPhysicalTable( "source" ) );
+      IWorkTable tblWork = m_sort.addNewWorkTable();
+
+      m_reader = createStep( tblWork );
+      m_reader.setName( "reader" );
+      m_reader.addDataTarget( createPhysicalTable( "target" ) );
+
+      m_job = createJob( getModel(), new ITransform[] { m_sort, m_reader } );
+   }
+
+   /**
+    * Tests that the snapshot holds the steps, their tables and their
+    * dependencies.
+    */
+   public void testContents()
+   {
+      createSteps();
+      JobSnapshot snapshot = JobSnapshot.take( m_job );
+
+      assertEquals( 2, snapshot.getSteps().size() );
+      JobSnapshot.StepSnapshot sort   = (JobSnapshot.StepSnapshot) snapshot.getSteps().get( 0 );
+      JobSnapshot.StepSnapshot reader = (JobSnapshot.StepSnapshot) snapshot.getSteps().get( 1 );
+      assertEquals( m_sort  .getID(), sort  .getID() );
+      assertEquals( "sort",   sort  .getName() );
+      assertEquals( "reader", reader.getName() );
+      assertSame( reader, snapshot.getStep( m_reader.getID() ) );
+      assertFalse( sort.isSerializationPoint() );
+
+      JobSnapshot.TableSnapshot source = (JobSnapshot.TableSnapshot) sort.getSources().get( 0 );
+      JobSnapshot.TableSnapshot work   = (JobSnapshot.TableSnapshot) sort.getTargets().get( 0 );
+      assertEquals( "source", source.getName() );
+      assertFalse( source.isWorkTable() );
+      assertTrue( work.isWorkTable() );
+      assertEquals( work.getID(), ((JobSnapshot.TableSnapshot) reader.getSources().get( 0 )).getID() );
+
+      assertEquals( Collections.EMPTY_LIST, snapshot.getPredecessorIDs( m_sort.getID() ) );
+      assertEquals( Arrays.asList( new Object[] { m_sort.getID() } ), snapshot.getPredecessorIDs( m_reader.getID() ) );
+   }
+
+   /**
+    * Tests that the snapshot does not change when the job does.
+    */
+   public void testImmutable()
+   {
+      createSteps();
+      JobSnapshot snapshot = JobSnapshot.take( m_job );
+
+      m_sort.setName( "renamed" );
+      m_reader.addDataTarget( createPhysicalTable( "second" ) );
+      assertEquals( "sort", snapshot.getStep( m_sort.getID() ).getName() );
+      assertEquals( 1, snapshot.getStep( m_reader.getID() ).getTargets().size() );
+
+      try
+      {
+         snapshot.getSteps().clear();
+         fail( "the steps of a snapshot must not be modifiable" );
+      }
+      catch (UnsupportedOperationException e)
+      {
+         // expected
+      }
+   }
+
+   /**
+    * Tests that an unchanged job returns the last snapshot and that a changed
+    * job shares the snapshots of its unchanged steps.
+    */
+   public void testSharing()
+   {
+      createSteps();
+      JobSnapshot first = JobSnapshot.take( m_job );
+      assertSame( first, JobSnapshot.take( m_job ) );
+
+      m_reader.setName( "renamed" );
+      JobSnapshot second = JobSnapshot.take( m_job );
+      assertNotSame( first, second );
+      assertTrue( second.getRevision() > first.getRevision() );
+      assertSame(    first.getStep( m_sort  .getID() ), second.getStep( m_sort  .getID() ) );
+      assertNotSame( first.getStep( m_reader.getID() ), second.getStep( m_reader.getID() ) );
+      assertEquals( "renamed", second.getStep( m_reader.getID() ).getName() );
+   }
+
+   /**
+    * Tests that a job without a model is taken again every time.
+    */
+   public void testNoModel()
+   {
+      createSteps();
+      IJob        job   = createJob( null, new ITransform[] { m_sort } );
+      JobSnapshot first = JobSnapshot.take( job );
+
+      m_sort.setName( "renamed" );
+      assertEquals( "renamed", JobSnapshot.take( job ).getStep( m_sort.getID() ).getName() );
+      assertEquals( "sort", first.getStep( m_sort.getID() ).getName() );
+   }
+
+   /**
+    * Creates a job of a model that has steps in control order.
+    *
+    * @param model the model (may be null)
+    * @param steps the steps
+    *
+    * @return the job
+    */
+   private static IJob createJob( final IModel model, final ITransform[] steps )
+   {
+      return (IJob) Proxy.newProxyInstance( IJob.class.getClassLoader(), new Class[] { IJob.class }, new InvocationHandler()
+      {
+         public Object invoke( Object proxy, Method method, Object[] args )
+         {
+            if (method.getName().equals( "getControlOrderedTransformsList" ))
+               return Arrays.asList( steps );
+            if (method.getName().equals( "getModel" ))
+               return model;
+            if (method.getName().equals( "getID" ))
+               return "job";
+            if (method.getName().equals( "equals" ))
+               return Boolean.valueOf( proxy == args[0] );
+            if (method.getName().equals( "hashCode" ))
+               return new Integer( System.identityHashCode( proxy ) );
+            return null;
+         }
+      } );
+   }
+}
@@ -0,0 +1,240 @@
+/* $Id$ */
+/**
+ * Title:       JobValidatorTest.java
+ * Description: Tests the validation of all steps of a job at once.
+ * Copyright:   Copyright (c) 2012
+ * Company:     SAS Institute
+ */
+package com.sas.etl.models.job.impl.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.sas.etl.models.IObject;
+import com.sas.etl.models.job.ICodeGenerationEnvironment;
+import com.sas.etl.models.job.ITransform;
+import com.sas.etl.models.job.IValidationExecutor;
+import com.sas.etl.models.job.impl.CodeGenerationCache;
+import com.sas.etl.models.job.impl.CodeGenerationEnvironment;
+import com.sas.etl.models.job.impl.JobValidationReport;
+import com.sas.etl.models.job.impl.JobValidator;
+import com.sas.etl.models.job.transforms.SortTransformModel;
+import com.sas.etl.models.other.IServer;
+
+/**
+ * The class <code>JobValidatorTest</code> contains tests for the class
+ * {@link JobValidator}.  The programs are run by an executor that writes a
+ * scripted log for each step between the markers of the program.
+ */
+public class JobValidatorTest extends AbstractSortStepTest
+{
+   private SortTransformModel m_sort;
+   private SortTransformModel m_second;
+   private ScriptedExecutor   m_executor;
+
+   /**
+    * Construct new test instance
+    *
+    * @param name the test name
+    */
+   public JobValidatorTest( String name )
+   {
+      super( name );
+   }
+
+   protected void setTestObject( IObject object )
+   {
+      super.setTestObject( object );
+      m_sort = (SortTransformModel) object;
+   }
+
+   /**
+    * Creates a job of two independent steps.
+    */
+   private void createSteps()
+   {
+      m_sort.addDataSource( createPhysicalTable( "source" ) );
+      m_sort.addDataTarget( createPhysicalTable( "target" ) );
+      m_second = createStep( createPhysicalTable( "other" ) );
+      m_second.addDataTarget( createPhysicalTable( "otherTarget" ) );
+      m_executor = new ScriptedExecutor();
+   }
+
+   /**
+    * Tests that the steps of one server are validated in one program, in
+    * control order.
+    *
+    * @throws Exception
+    */
+   public void testOneProgramPerServer() throws Exception
+   {
+      createSteps();
+      JobValidationReport report = validate();
+
+      assertEquals( 1, m_executor.m_lPrograms.size() );
+      String sProgram = (String) m_executor.m_lPrograms.get( 0 );
+      int    iFirst   = sProgram.indexOf( JobValidator.BEGIN_MARKER + m_sort  .getID() );
+      int    iSecond  = sProgram.indexOf( JobValidator.BEGIN_MARKER + m_second.getID() );
+      assertTrue( sProgram, iFirst >= 0 && iFirst < iSecond );
+
+      assertTrue( report.isValid() );
+      assertEquals( 0, report.getResult( m_sort   ).getReturnCode() );
+      assertEquals( 0, report.getResult( m_second ).getReturnCode() );
+   }
+
+   /**
+    * Tests that the log is split at the markers and that the return code,
+    * errors and warnings of each step are recorded for the step.
+    *
+    * @throws Exception
+    */
+   public void testLogMappedToSteps() throws Exception
+   {
+      createSteps();
+      m_executor.setLog( m_sort,   new String[] { "NOTE: The data set has 0 observations." }, 0 );
+      m_executor.setLog( m_second, new String[] { "ERROR: Variable x not found.", "WARNING: Apparent symbolic reference y not resolved." }, 8 );
+      JobValidationReport report = validate();
+
+      JobValidationReport.StepResult first  = report.getResult( m_sort );
+      JobValidationReport.StepResult second = report.getResult( m_second );
+      assertTrue( first.isValid() );
+      assertTrue( first.getLog(), first.getLog().indexOf( "NOTE: The data set has 0 observations." ) >= 0 );
+      assertTrue( first.getLog(), first.getLog().indexOf( ScriptedExecutor.LOG_HEADER ) < 0 );
+      assertTrue( first.getWarnings().isEmpty() );
+
+      assertFalse( second.isValid() );
+      assertEquals( 8, second.getReturnCode() );
+      assertEquals( Arrays.asList( new Object[] { "ERROR: Variable x not found." } ), second.getErrors() );
+      assertEquals( Arrays.asList( new Object[] { "WARNING: Apparent symbolic reference y not resolved." } ), second.getWarnings() );
+      assertTrue( second.getLog(), second.getLog().indexOf( "NOTE: The data set has 0 observations." ) < 0 );
+      assertFalse( report.isValid() );
+   }
+
+   /**
+    * Tests that a step whose end marker is missing from the log did not run.
+    *
+    * @throws Exception
+    */
+   public void testMissingEndMarker() throws Exception
+   {
+      createSteps();
+      m_executor.m_setUnfinished.add( m_second.getID() );
+      JobValidationReport report = validate();
+
+      assertTrue( report.getResult( m_sort ).isValid() );
+      assertEquals( JobValidationReport.StepResult.NOT_RUN, report.getResult( m_second ).getReturnCode() );
+      assertFalse( report.getResult( m_second ).isValid() );
+   }
+
+   /**
+    * Tests that a failed submission fails every step of the program.
+    *
+    * @throws Exception
+    */
+   public void testSubmissionFailure() throws Exception
+   {
+      createSteps();
+      m_executor.m_bFail = true;
+      JobValidationReport report = validate();
+
+      assertEquals( Arrays.asList( new Object[] { ScriptedExecutor.FAILURE } ), report.getResult( m_sort   ).getErrors() );
+      assertEquals( Arrays.asList( new Object[] { ScriptedExecutor.FAILURE } ), report.getResult( m_second ).getErrors() );
+      assertEquals( JobValidationReport.StepResult.NOT_RUN, report.getResult( m_second ).getReturnCode() );
+   }
+
+   /**
+    * Validates the job of the steps.
+    *
+    * @return the report
+    *
+    * @throws Exception
+    */
+   private JobValidationReport validate() throws Exception
+   {
+      CodeGenerationCache cache     = CodeGenerationCache.getCache( new CodeGenerationEnvironment( null ) );
+      JobValidator        validator = new JobValidator( JobDependencyGraphTest.createJob( new ITransform[] { m_sort, m_second } ), null, cache, m_executor );
+      return validator.validate( 2 );
+   }
+
+   /**
+    * ScriptedExecutor runs a validation program by writing the log scripted
+    * for each step between the step's markers.
+    */
+   private static class ScriptedExecutor implements IValidationExecutor
+   {
+      static final String LOG_HEADER = "NOTE: SAS initialization used:";
+      static final String FAILURE    = "server unavailable";
+
+      private static final String BEGIN_PUT = "%put " + JobValidator.BEGIN_MARKER;
+      private static final String END_PUT   = "%put " + JobValidator.END_MARKER;
+
+      private Map     m_mapLogs       = new HashMap();     // step id to String[] log lines
+      private Map     m_mapCodes      = new HashMap();     // step id to Integer syscc, 0 if missing
+      private Set     m_setUnfinished = new HashSet();     // ids of the steps without an end marker
+      private List    m_lPrograms     = new ArrayList();   // String
+      private boolean m_bFail;
+
+      /**
+       * Sets the log of a step.
+       *
+       * @param step   the step
+       * @param aLines the lines of the log
+       * @param nCode  the value of syscc after the step
+       */
+      void setLog( ITransform step, String[] aLines, int nCode )
+      {
+         m_mapLogs .put( step.getID(), aLines );
+         m_mapCodes.put( step.getID(), new Integer( nCode ) );
+      }
+
+      /**
+       * @see com.sas.etl.models.job.IValidationExecutor#createEnvironment(com.sas.etl.models.other.IServer)
+       */
+      public ICodeGenerationEnvironment createEnvironment( IServer server )
+      {
+         return new CodeGenerationEnvironment( null );
+      }
+
+      /**
+       * @see com.sas.etl.models.job.IValidationExecutor#submit(com.sas.etl.models.other.IServer, java.lang.String)
+       */
+      public String submit( IServer server, String sCode )
+      {
+         synchronized (m_lPrograms)
+         {
+            m_lPrograms.add( sCode );
+         }
+         if (m_bFail)
+            throw new IllegalStateException( FAILURE );
+
+         StringBuffer sbLog  = new StringBuffer( LOG_HEADER ).append( '\n' );
+         String[]     aLines = sCode.split( "\n" );
+         for ( int iLine=0; iLine<aLines.length; iLine++ )
+         {
+            String sLine = aLines[iLine];
+            if (sLine.startsWith( BEGIN_PUT ))
+            {
+               String sID = sLine.substring( BEGIN_PUT.length(), sLine.indexOf( ';' ) );
+               sbLog.append( JobValidator.BEGIN_MARKER ).append( sID ).append( '\n' );
+               String[] aLog = (String[]) m_mapLogs.get( sID );
+               for ( int i=0; (aLog != null) && (i<aLog.length); i++ )
+                  sbLog.append( aLog[i] ).append( '\n' );
+            }
+            else if (sLine.startsWith( END_PUT ))
+            {
+               String sID = sLine.substring( END_PUT.length(), sLine.indexOf( ' ', END_PUT.length() ) );
+               if (m_setUnfinished.contains( sID ))
+                  continue;
+               Integer nCode = (Integer) m_mapCodes.get( sID );
+               sbLog.append( JobValidator.END_MARKER ).append( sID ).append( ' ' ).append( (nCode == null) ? 0 : nCode.intValue() ).append( '\n' );
+            }
+         }
+         return sbLog.toString();
+      }
+   } // ScriptedExecutor
+}
@@ -0,0 +1,217 @@
+/* $Id$ */
+/**
+ * Title:       ModelEventBatcherTest.java
+ * Description: Tests the batching of the model events of compound edits.
+ * Copyright:   Copyright (c) 2012
+ * Company:     SAS Institute
+ */
+package com.sas.etl.models.job.impl.test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.sas.etl.models.IModelListener;
+import com.sas.etl.models.IObject;
+import com.sas.etl.models.data.IColumn;
+import com.sas.etl.models.data.ITable;
+import com.sas.etl.models.impl.IModelBatchListener;
+import com.sas.etl.models.impl.ModelBatchEvent;
+import com.sas.etl.models.impl.ModelEvent;
+import com.sas.etl.models.impl.ModelEventBatcher;
+import com.sas.etl.models.job.transforms.SortTransformModel;
+import com.sas.etl.models.job.transforms.common.ISortColumn;
+import com.sas.etl.models.job.transforms.common.ISorting;
+
+/**
+ * The class <code>ModelEventBatcherTest</code> contains tests for the class
+ * {@link ModelEventBatcher}.
+ */
+public class ModelEventBatcherTest extends AbstractDataTransformTest
+{
+   private SortTransformModel m_sort;
+   private List               m_lEvents  = new ArrayList();   // ModelEvent replayed for the sort
+   private List               m_lBatches = new ArrayList();   // ModelBatchEvent
+
+   private IModelListener m_lsnrModel = new IModelListener()
+   {
+      public void modelChanged( ModelEvent ev )
+      {
+         if (ev.getModelObject() == m_sort || ev.getModelObject() == m_sort.getSortOrder())
+            m_lEvents.add( ev );
+      }
+   };
+
+   private IModelBatchListener m_lsnrBatch = new IModelBatchListener()
+   {
+      public void modelChanged( ModelBatchEvent ev )
+      {
+         m_lBatches.add( ev );
+      }
+   };
+
+   /**
+    * Construct new test instance
+    *
+    * @param name the test name
+    */
+   public ModelEventBatcherTest( String name )
+   {
+      super( name );
+   }
+
+   protected void setTestObject( IObject object )
+   {
+      super.setTestObject( object );
+      m_sort = (SortTransformModel) object;
+   }
+
+   protected IObject createNewTestObject()
+   {
+      return getModel().getObjectFactory().createNewTransform( SortTransformModel.getTransformTypeID(), getFullRepositoryID() );
+   }
+
+   protected IObject createTestObject( String sID )
+   {
+      return getModel().getObjectFactory().createTransform( SortTransformModel.getTransformTypeID(), sID );
+   }
+
+   /**
+    * Tests that every added child is replayed, in order, and that the state
+    * change repeated for each addition is merged into one event.
+    */
+   public void testReplayAdded()
+   {
+      ISortColumn[] aColumns = createSortColumns( 3 );
+      ISorting      sorting  = m_sort.getSortOrder();
+
+      beginBatch();
+      try
+      {
+         for ( int iColumn=0; iColumn<aColumns.length; iColumn++ )
+            sorting.addSortColumn( aColumns[iColumn] );
+      }
+      finally
+      {
+         endBatch();
+      }
+
+      List lAdded = getEvents( ISorting.SORTING_COLUMN_ADDED );
+      assertEquals( 3, lAdded.size() );
+      for ( int iColumn=0; iColumn<aColumns.length; iColumn++ )
+         assertSame( aColumns[iColumn], ((ModelEvent) lAdded.get( iColumn )).getData() );
+      assertEquals( 1, getEvents( SortTransformModel.SORT_COLUMNS_CHANGED ).size() );
+
+      assertEquals( 1, m_lBatches.size() );
+      ModelBatchEvent evBatch = (ModelBatchEvent) m_lBatches.get( 0 );
+      assertEquals( m_lEvents.size(), evBatch.getEvents().size() );
+      int iChanged = evBatch.getEvents().indexOf( getEvents( SortTransformModel.SORT_COLUMNS_CHANGED ).get( 0 ) );
+      assertEquals( 3, evBatch.getCount( iChanged ) );
+   }
+
+   /**
+    * Tests that additions and removals of the same child keep their order.
+    */
+   public void testAddRemoveOrder()
+   {
+      ISortColumn column  = createSortColumns( 1 )[0];
+      ISorting    sorting = m_sort.getSortOrder();
+
+      beginBatch();
+      try
+      {
+         sorting.addSortColumn(    column );
+         sorting.removeSortColumn( column );
+         sorting.addSortColumn(    column );
+      }
+      finally
+      {
+         endBatch();
+      }
+
+      List lTypes = new ArrayList();
+      for ( int iEvent=0; iEvent<m_lEvents.size(); iEvent++ )
+      {
+         ModelEvent ev = (ModelEvent) m_lEvents.get( iEvent );
+         if (ev.getModelObject() == sorting)
+            lTypes.add( ev.getType() );
+      }
+      assertEquals( 3, lTypes.size() );
+      assertEquals( ISorting.SORTING_COLUMN_ADDED,   lTypes.get( 0 ) );
+      assertEquals( ISorting.SORTING_COLUMN_REMOVED, lTypes.get( 1 ) );
+      assertEquals( ISorting.SORTING_COLUMN_ADDED,   lTypes.get( 2 ) );
+      assertEquals( 1, sorting.getSortColumns().length );
+   }
+
+   /**
+    * Starts a batched compound edit with the listeners added.
+    */
+   private void beginBatch()
+   {
+      m_lEvents .clear();
+      m_lBatches.clear();
+      getModel().addModelListener( m_lsnrModel );
+      ModelEventBatcher.addBatchListener( getModel(), m_lsnrBatch );
+      ModelEventBatcher.setEnabled( getModel(), true );
+      ModelEventBatcher.begin( getModel() );
+   }
+
+   /**
+    * Ends the batched compound edit and removes the listeners.
+    */
+   private void endBatch()
+   {
+      try
+      {
+         ModelEventBatcher.end( getModel() );
+      }
+      finally
+      {
+         ModelEventBatcher.setEnabled( getModel(), false );
+         ModelEventBatcher.removeBatchListener( getModel(), m_lsnrBatch );
+         getModel().removeModelListener( m_lsnrModel );
+      }
+   }
+
+   /**
+    * Gets the replayed events of a type.
+    *
+    * @param sType the type
+    *
+    * @return the events (ModelEvent) in the order replayed
+    */
+   private List getEvents( String sType )
+   {
+      List lEvents = new ArrayList();
+      for ( int iEvent=0; iEvent<m_lEvents.size(); iEvent++ )
+      {
+         ModelEvent ev = (ModelEvent) m_lEvents.get( iEvent );
+         if (sType.equals( ev.getType() ))
+            lEvents.add( ev );
+      }
+      return lEvents;
+   }
+
+   /**
+    * Creates sort columns for the columns of a new target table of the sort.
+    *
+    * @param nColumns the number of columns
+    *
+    * @return the sort columns
+    */
+   private ISortColumn[] createSortColumns( int nColumns )
+   {
+      ITable tbl = getModel().getObjectFactory().createNewPhysicalTable( getFullRepositoryID() );
+      tbl.setName( "target" );
+      ISortColumn[] aSortColumns = new ISortColumn[ nColumns ];
+      for ( int iColumn=0; iColumn<nColumns; iColumn++ )
+      {
+         IColumn col = getModel().getObjectFactory().createNewColumn( tbl.getID() );
+         col.setName( "col" + iColumn );
+         tbl.addColumn( col );
+      }
+      m_sort.addDataTarget( tbl );
+      for ( int iColumn=0; iColumn<nColumns; iColumn++ )
+         aSortColumns[iColumn] = getModel().getObjectFactory().createNewSortColumn( m_sort.getID(), tbl.getColumns()[iColumn] );
+      return aSortColumns;
+   }
+}
@@ -0,0 +1,230 @@
+/* $Id$ */
+/**
+ * Title:       ModelEventBusTest.java
+ * Description: Tests the asynchronous delivery of model events.
+ * Copyright:   Copyright (c) 2012
+ * Company:     SAS Institute
+ */
+package com.sas.etl.models.job.impl.test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import com.sas.etl.models.IModel;
+import com.sas.etl.models.IModelListener;
+import com.sas.etl.models.IObject;
+import com.sas.etl.models.impl.ModelEvent;
+import com.sas.etl.models.impl.ModelEventBus;
+import com.sas.etl.models.job.transforms.SortTransformModel;
+
+/**
+ * The class <code>ModelEventBusTest</code> contains tests for the class
+ * {@link ModelEventBus}.
+ */
+public class ModelEventBusTest extends AbstractDataTransformTest
+{
+   private SortTransformModel m_sort;
+   private RecordingListener  m_lsnr;
+
+   /**
+    * Construct new test instance
+    *
+    * @param name the test name
+    */
+   public ModelEventBusTest( String name )
+   {
+      super( name );
+   }
+
+   protected void setTestObject( IObject object )
+   {
+      super.setTestObject( object );
+      m_sort = (SortTransformModel) object;
+   }
+
+   protected IObject createNewTestObject()
+   {
+      return getModel().getObjectFactory().createNewTransform( SortTransformModel.getTransformTypeID(), getFullRepositoryID() );
+   }
+
+   protected IObject createTestObject( String sID )
+   {
+      return getModel().getObjectFactory().createTransform( SortTransformModel.getTransformTypeID(), sID );
+   }
+
+   protected void setUp() throws Exception
+   {
+      super.setUp();
+      m_lsnr = new RecordingListener( 0 );
+   }
+
+   protected void tearDown() throws Exception
+   {
+      ModelEventBus.removeAsyncModelListener( getModel(), m_lsnr );
+      super.tearDown();
+   }
+
+   /**
+    * Tests that the events are delivered in order on the listener's own
+    * thread and that flush waits for them.
+    */
+   public void testOrderAndFlush()
+   {
+      m_lsnr = new RecordingListener( 20 );
+      ModelEventBus.addAsyncModelListener( getModel(), m_lsnr );
+
+      m_sort.setName(        "sorted"     );
+      m_sort.setDescription( "sorts rows" );
+      m_sort.setStable(      true         );
+      ModelEventBus.flush( getModel() );
+
+      assertEquals( 0, ModelEventBus.getQueuedEventCount( getModel() ) );
+      assertEquals( 3, m_lsnr.getTypes().size() );
+      assertEquals( SortTransformModel.NAME_CHANGED,        m_lsnr.getTypes().get( 0 ) );
+      assertEquals( SortTransformModel.DESCRIPTION_CHANGED, m_lsnr.getTypes().get( 1 ) );
+      assertEquals( SortTransformModel.STABLE_CHANGED,      m_lsnr.getTypes().get( 2 ) );
+      assertFalse( m_lsnr.m_lThreads.contains( Thread.currentThread() ) );
+   }
+
+   /**
+    * Tests that a repeated event for the same object, type and data replaces
+    * the queued one.
+    */
+   public void testCoalescing()
+   {
+      HeldExecutor executor = new HeldExecutor();
+      ModelEventBus.addAsyncModelListener( getModel(), m_lsnr, executor, ModelEventBus.DEFAULT_CAPACITY );
+
+      m_sort.setStable( true  );
+      m_sort.setStable( false );
+      m_sort.setStable( true  );
+      assertEquals( 1, ModelEventBus.getQueuedEventCount( getModel() ) );
+      assertTrue( m_lsnr.getTypes().isEmpty() );
+
+      executor.runAll();
+      assertEquals( Collections.singletonList( SortTransformModel.STABLE_CHANGED ), m_lsnr.getTypes() );
+   }
+
+   /**
+    * Tests that a full queue is replaced by one unknown changes event instead
+    * of being delivered by the firing thread.
+    */
+   public void testFullQueue()
+   {
+      HeldExecutor executor = new HeldExecutor();
+      ModelEventBus.addAsyncModelListener( getModel(), m_lsnr, executor, 2 );
+
+      m_sort.setName(        "sorted"     );
+      m_sort.setDescription( "sorts rows" );
+      m_sort.setStable(      true         );
+      assertTrue( m_lsnr.getTypes().isEmpty() );
+      assertEquals( 1, ModelEventBus.getQueuedEventCount( getModel() ) );
+
+      m_sort.setStable( false );
+      executor.runAll();
+      assertEquals( 2, m_lsnr.getTypes().size() );
+      assertEquals( IModel.UNKNOWN_CHANGES,            m_lsnr.getTypes().get( 0 ) );
+      assertEquals( SortTransformModel.STABLE_CHANGED, m_lsnr.getTypes().get( 1 ) );
+      assertFalse( m_lsnr.m_lThreads.isEmpty() );
+   }
+
+   /**
+    * RecordingListener records the types of the events of the sort and the
+    * threads it was called on.
+    */
+   private class RecordingListener implements IModelListener
+   {
+      private long m_lDelay;                     // milliseconds spent on each event
+      private List m_lTypes   = new ArrayList();  // String
+      private List m_lThreads = new ArrayList();  // Thread
+
+      /**
+       * Constructs the listener.
+       *
+       * @param lDelay the milliseconds spent on each event
+       */
+      RecordingListener( long lDelay )
+      {
+         m_lDelay = lDelay;
+      }
+
+      /**
+       * @see com.sas.etl.models.IModelListener#modelChanged(com.sas.etl.models.impl.ModelEvent)
+       */
+      public synchronized void modelChanged( ModelEvent ev )
+      {
+         if ((ev.getModelObject() != m_sort) && !IModel.UNKNOWN_CHANGES.equals( ev.getType() ))
+            return;
+
+         try
+         {
+            Thread.sleep( m_lDelay );
+         }
+         catch (InterruptedException e)
+         {
+            Thread.currentThread().interrupt();
+         }
+         m_lTypes  .add( ev.getType() );
+         m_lThreads.add( Thread.currentThread() );
+      }
+
+      /**
+       * Gets the types of the events received.
+       *
+       * @return the list of String
+       */
+      synchronized List getTypes()
+      {
+         return new ArrayList( m_lTypes );
+      }
+   } // RecordingListener
+
+   /**
+    * HeldExecutor holds the tasks it is given until they are run by the test
+    * on a thread of their own.
+    */
+   private class HeldExecutor implements Executor
+   {
+      private List m_lTasks = new ArrayList();   // Runnable
+
+      /**
+       * @see java.util.concurrent.Executor#execute(java.lang.Runnable)
+       */
+      public synchronized void execute( Runnable task )
+      {
+         m_lTasks.add( task );
+      }
+
+      /**
+       * Runs the held tasks on another thread and waits for them.
+       */
+      void runAll()
+      {
+         final Runnable[] aTasks;
+         synchronized (this)
+         {
+            aTasks = (Runnable[]) m_lTasks.toArray( new Runnable[ m_lTasks.size() ] );
+            m_lTasks.clear();
+         }
+         Thread thread = new Thread()
+         {
+            public void run()
+            {
+               for ( int iTask=0; iTask<aTasks.length; iTask++ )
+                  aTasks[iTask].run();
+            }
+         };
+         thread.start();
+         try
+         {
+            thread.join();
+         }
+         catch (InterruptedException e)
+         {
+            fail( e.toString() );
+         }
+      }
+   } // HeldExecutor
+}
@@ -0,0 +1,135 @@
+/* $Id$ */
+/**
+ * Title:       ModelLockTest.java
+ * Description: Tests the read-write locks of models.
+ * Copyright:   Copyright (c) 2012
+ * Company:     SAS Institute
+ */
+package com.sas.etl.models.job.impl.test;
+
+import com.sas.etl.models.IObject;
+import com.sas.etl.models.impl.ModelLock;
+import com.sas.etl.models.job.transforms.SortTransformModel;
+
+/**
+ * The class <code>ModelLockTest</code> contains tests for the class
+ * {@link ModelLock}.
+ */
+public class ModelLockTest extends AbstractDataTransformTest
+{
+   /**
+    * Construct new test instance
+    *
+    * @param name the test name
+    */
+   public ModelLockTest( String name )
+   {
+      super( name );
+   }
+
+   protected IObject createNewTestObject()
+   {
+      return getModel().getObjectFactory().createNewTransform( SortTransformModel.getTransformTypeID(), getFullRepositoryID() );
+   }
+
+   protected IObject createTestObject( String sID )
+   {
+      return getModel().getObjectFactory().createTransform( SortTransformModel.getTransformTypeID(), sID );
+   }
+
+   protected void tearDown() throws Exception
+   {
+      ModelLock.setEnabled( getModel(), false );
+      super.tearDown();
+   }
+
+   /**
+    * Tests that a reader on another thread waits for a write region to end.
+    *
+    * @throws Exception
+    */
+   public void testReaderWaitsForWriter() throws Exception
+   {
+      ModelLock.setEnabled( getModel(), true );
+      final long[] aRead = new long[ 1 ];
+      Thread reader = new Thread()
+      {
+         public void run()
+         {
+            ModelLock.beginRead( getModel() );
+            aRead[0] = System.nanoTime();
+            ModelLock.endRead( getModel() );
+         }
+      };
+
+      ModelLock.beginWrite( getModel() );
+      long lEndWrite;
+      try
+      {
+         assertTrue( ModelLock.isWriting( getModel() ) );
+         reader.start();
+         reader.join( 200 );
+         assertTrue( reader.isAlive() );
+      }
+      finally
+      {
+         lEndWrite = System.nanoTime();
+         ModelLock.endWrite( getModel() );
+      }
+      reader.join();
+      assertTrue( aRead[0] >= lEndWrite );
+      assertFalse( ModelLock.isWriting( getModel() ) );
+   }
+
+   /**
+    * Tests that the model can not be edited in a read region.
+    */
+   public void testNoWriteInReadRegion()
+   {
+      ModelLock.setEnabled( getModel(), true );
+      ModelLock.beginRead( getModel() );
+      try
+      {
+         ModelLock.beginWrite( getModel() );
+         fail( "a write region must not start in a read region" );
+      }
+      catch (IllegalStateException e)
+      {
+         // expected
+      }
+      finally
+      {
+         ModelLock.endRead( getModel() );
+      }
+   }
+
+   /**
+    * Tests that the regions of a model that does not lock do not lock.
+    *
+    * @throws Exception
+    */
+   public void testDisabled() throws Exception
+   {
+      Thread reader = new Thread()
+      {
+         public void run()
+         {
+            ModelLock.beginRead( getModel() );
+            ModelLock.endRead( getModel() );
+         }
+      };
+
+      ModelLock.beginWrite( getModel() );
+      try
+      {
+         assertFalse( ModelLock.isWriting( getModel() ) );
+         reader.start();
+         reader.join( 5000 );
+         assertFalse( reader.isAlive() );
+      }
+      finally
+      {
+         ModelLock.endWrite( getModel() );
+      }
+   }
+}
@@ -0,0 +1,156 @@
+/* $Id$ */
+/**
+ * Title:       ParallelExecutionPlanTest.java
+ * Description: Tests the plan for running independent steps concurrently.
+ * Copyright:   Copyright (c) 2012
+ * Company:     SAS Institute
+ */
+package com.sas.etl.models.job.impl.test;
+
+import java.util.Arrays;
+
+import com.sas.etl.models.IObject;
+import com.sas.etl.models.data.BadLibraryDefinitionException;
+import com.sas.etl.models.data.IWorkTable;
+import com.sas.etl.models.job.ITransform;
+import com.sas.etl.models.job.impl.CodeGenerationCache;
+import com.sas.etl.models.job.impl.CodeGenerationEnvironment;
+import com.sas.etl.models.job.impl.ParallelExecutionPlan;
+import com.sas.etl.models.job.impl.StepStatisticsStore;
+import com.sas.etl.models.job.transforms.SortTransformModel;
+import com.sas.etl.models.other.BadServerDefinitionException;
+
+/**
+ * The class <code>ParallelExecutionPlanTest</code> contains tests for the 
+ * class {@link ParallelExecutionPlan}.  The steps of the jobs are sort 
+ * transforms linked by tables.
+ */
+public class ParallelExecutionPlanTest extends AbstractSortStepTest
+{
+   private SortTransformModel m_sort;
+
+   /**
+    * Construct new test instance
+    *
+    * @param name the test name
+    */
+   public ParallelExecutionPlanTest( String name )
+   {
+      super( name );
+   }
+
+   protected void setTestObject( IObject object )
+   {
+      super.setTestObject( object );
+      m_sort = (SortTransformModel) object;
+   }
+
+   /**
+    * Tests that steps exchanging a work table share a session and that an
+    * independent branch runs in another session in the same wave.
+    *
+    * @throws BadServerDefinitionException
+    * @throws BadLibraryDefinitionException
+    */
+   public void testIndependentBranches() throws BadServerDefinitionException, BadLibraryDefinitionException
+   {
+      m_sort.addDataSource( createPhysicalTable( "source" ) );
+      IWorkTable tblWork = m_sort.addNewWorkTable();
+      SortTransformModel reader      = createStep( tblWork );
+      SortTransformModel independent = createStep( createPhysicalTable( "other" ) );
+
+      ParallelExecutionPlan plan = createPlan( new ITransform[] { m_sort, reader, independent }, null, 2 );
+
+      assertEquals( 2, plan.getSessionCount() );
+      assertEquals( 1, plan.getWaveCount() );
+      assertEquals( plan.getSession( m_sort ), plan.getSession( reader ) );
+      assertTrue( plan.getSession( m_sort ) != plan.getSession( independent ) );
+      assertTrue( plan.getSession( independent ) != ParallelExecutionPlan.PARENT_SESSION );
+      assertEquals( Arrays.asList( new Object[] { m_sort, reader } ), plan.getSteps( 0, plan.getSession( m_sort ) ) );
+   }
+
+   /**
+    * Tests that all branches share one child session when the maximum 
+    * parallelism is 1.
+    *
+    * @throws BadServerDefinitionException
+    * @throws BadLibraryDefinitionException
+    */
+   public void testMaximumParallelism() throws BadServerDefinitionException, BadLibraryDefinitionException
+   {
+      m_sort.addDataSource( createPhysicalTable( "source" ) );
+      SortTransformModel independent = createStep( createPhysicalTable( "other" ) );
+
+      ParallelExecutionPlan plan = createPlan( new ITransform[] { m_sort, independent }, null, 1 );
+
+      assertEquals( 1, plan.getSessionCount() );
+      assertEquals( 1, plan.getSession( m_sort ) );
+      assertEquals( 1, plan.getSession( independent ) );
+      assertEquals( 1, plan.getWaveCount() );
+   }
+
+   /**
+    * Tests that a serialization point runs in the parent session in a wave 
+    * after the steps before it and before the steps after it.
+    *
+    * @throws BadServerDefinitionException
+    * @throws BadLibraryDefinitionException
+    */
+   public void testSerializationPoint() throws BadServerDefinitionException, BadLibraryDefinitionException
+   {
+      m_sort.addDataSource( createPhysicalTable( "source" ) );
+      m_sort.addNewWorkTable();
+      SortTransformModel always = createStep( createPhysicalTable( "other" ) );
+      always.setRunAlways( true );
+      SortTransformModel after = createStep( createPhysicalTable( "third" ) );
+
+      ParallelExecutionPlan plan = createPlan( new ITransform[] { m_sort, always, after }, null, 2 );
+
+      assertEquals( ParallelExecutionPlan.PARENT_SESSION, plan.getSession( always ) );
+      assertEquals( 3, plan.getWaveCount() );
+      assertEquals( 0, plan.getWave( m_sort ) );
+      assertEquals( 1, plan.getWave( always ) );
+      assertEquals( 2, plan.getWave( after ) );
+   }
+
+   /**
+    * Tests that the runtime estimates balance the sessions: the long branch
+    * gets a session of its own and the short branches share the other.
+    *
+    * @throws BadServerDefinitionException
+    * @throws BadLibraryDefinitionException
+    */
+   public void testEstimatesBalanceSessions() throws BadServerDefinitionException, BadLibraryDefinitionException
+   {
+      m_sort.addDataSource( createPhysicalTable( "source" ) );
+      SortTransformModel shortFirst  = createStep( createPhysicalTable( "other" ) );
+      SortTransformModel shortSecond = createStep( createPhysicalTable( "third" ) );
+
+      StepStatisticsStore store = new StepStatisticsStore();
+      store.addRun( m_sort     .getID(), 100, 10, 1000 );
+      store.addRun( shortFirst .getID(),   1,  1,   10 );
+      store.addRun( shortSecond.getID(),   1,  1,   10 );
+
+      ParallelExecutionPlan plan = createPlan( new ITransform[] { shortFirst, shortSecond, m_sort }, store, 2 );
+
+      assertEquals( 2, plan.getSessionCount() );
+      assertEquals( plan.getSession( shortFirst ), plan.getSession( shortSecond ) );
+      assertTrue( plan.getSession( m_sort ) != plan.getSession( shortFirst ) );
+   }
+
+   /**
+    * Creates the plan of a job.
+    *
+    * @param steps           the steps of the job in control order
+    * @param store           the runtime estimates (may be null)
+    * @param nMaxParallelism the maximum number of child sessions
+    *
+    * @return the plan
+    */
+   private ParallelExecutionPlan createPlan( ITransform[] steps, StepStatisticsStore store, int nMaxParallelism )
+   throws BadServerDefinitionException, BadLibraryDefinitionException
+   {
+      CodeGenerationCache cache = CodeGenerationCache.getCache( new CodeGenerationEnvironment( null ) );
+      return cache.createParallelExecutionPlan( JobDependencyGraphTest.createJob( steps ), null, store, nMaxParallelism );
+   }
+}
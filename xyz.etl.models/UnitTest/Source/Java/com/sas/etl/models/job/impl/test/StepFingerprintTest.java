@@ -0,0 +1,137 @@
+/* $Id$ */
+/**
+ * Title:       StepFingerprintTest.java
+ * Description: Tests the skipping of steps that are unchanged on rerun.
+ * Copyright:   Copyright (c) 2012
+ * Company:     SAS Institute
+ */
+package com.sas.etl.models.job.impl.test;
+
+import com.sas.etl.models.IObject;
+import com.sas.etl.models.job.ICodeGenerationEnvironment;
+import com.sas.etl.models.job.impl.CodeGenerationEnvironment;
+import com.sas.etl.models.job.impl.StepFingerprint;
+import com.sas.etl.models.job.transforms.SortTransformModel;
+
+/**
+ * The class <code>StepFingerprintTest</code> contains tests for the class 
+ * {@link StepFingerprint}.
+ */
+public class StepFingerprintTest extends AbstractSortStepTest
+{
+   private SortTransformModel m_sort;
+
+   /**
+    * Construct new test instance
+    *
+    * @param name the test name
+    */
+   public StepFingerprintTest( String name )
+   {
+      super( name );
+   }
+
+   protected void setTestObject( IObject object )
+   {
+      super.setTestObject( object );
+      m_sort = (SortTransformModel) object;
+   }
+
+   /**
+    * Tests that a step reading and writing permanent tables can be skipped,
+    * also in a run on one server.
+    *
+    * @throws Exception
+    */
+   public void testSupported() throws Exception
+   {
+      m_sort.addDataSource( createPhysicalTable( "source" ) );
+      m_sort.addDataTarget( createPhysicalTable( "target" ) );
+
+      assertTrue( StepFingerprint.isSupported( m_sort ) );
+      assertTrue( StepFingerprint.isSupported( m_sort, null, new CodeGenerationEnvironment( null ) ) );
+   }
+
+   /**
+    * Tests that a step run always can not be skipped.
+    */
+   public void testRunAlwaysNotSupported()
+   {
+      m_sort.addDataSource( createPhysicalTable( "source" ) );
+      m_sort.addDataTarget( createPhysicalTable( "target" ) );
+      m_sort.setRunAlways( true );
+
+      assertFalse( StepFingerprint.isSupported( m_sort ) );
+   }
+
+   /**
+    * Tests that a step using user written or post-process code, which may
+    * contain DATALINES, can not be skipped.
+    */
+   public void testUserWrittenCodeNotSupported()
+   {
+      m_sort.addDataSource( createPhysicalTable( "source" ) );
+      m_sort.addDataTarget( createPhysicalTable( "target" ) );
+      m_sort.setUseUserWrittenCode( true );
+
+      assertFalse( StepFingerprint.isSupported( m_sort ) );
+
+      m_sort.setUseUserWrittenCode( false );
+      m_sort.setPostProcessEnabled( true );
+      m_sort.setUsePostProcessCode( true );
+
+      assertFalse( StepFingerprint.isSupported( m_sort ) );
+   }
+
+   /**
+    * Tests that a step writing no tables can not be skipped.
+    */
+   public void testNoTargetsNotSupported()
+   {
+      m_sort.addDataSource( createPhysicalTable( "source" ) );
+
+      assertFalse( StepFingerprint.isSupported( m_sort ) );
+   }
+
+   /**
+    * Tests that the hash of a step's code depends only on the code.
+    */
+   public void testCodeHash()
+   {
+      String sHash = StepFingerprint.getCodeHash( "proc sort data=a out=b; by x; run;\n" );
+      assertEquals( 40, sHash.length() );
+      assertEquals( sHash, StepFingerprint.getCodeHash( "proc sort data=a out=b; by x; run;\n" ) );
+      assertFalse( sHash.equals( StepFingerprint.getCodeHash( "proc sort data=a out=b; by y; run;\n" ) ) );
+   }
+
+   /**
+    * Tests that the header is generated before the step's macro, that the 
+    * step is run with syscc reset, that syscc is restored after it and that 
+    * the code and its fingerprint are the same in every run.
+    *
+    * @throws Exception
+    */
+   public void testGeneratedCode() throws Exception
+   {
+      m_sort.addDataSource( createPhysicalTable( "source" ) );
+      m_sort.addDataTarget( createPhysicalTable( "target" ) );
+      m_sort.setSkipIfUnchanged( true );
+
+      ICodeGenerationEnvironment environment = new CodeGenerationEnvironment( null );
+      String sCode = m_sort.getCompleteCode( environment ).toString();
+      assertTrue( sCode, sCode.indexOf( "%macro etls_fprun(" ) >= 0 );
+      assertTrue( sCode, sCode.indexOf( "%etls_fprun(step=" + m_sort.getID() ) >= 0 );
+
+      // the macro variables of the header stay global
+      int iHeader  = sCode.indexOf( "%let transformID = " );
+      int iMacro   = sCode.indexOf( "%macro etls_fpstep;" );
+      assertTrue( sCode, iHeader >= 0 && iHeader < iMacro );
+
+      int iReset   = sCode.indexOf( "%let syscc = 0;" );
+      int iRun     = sCode.indexOf( "%etls_fpstep\n" );
+      int iRestore = sCode.indexOf( "%let syscc = %sysfunc(max(&etls_syscc, &syscc));" );
+      assertTrue( sCode, iReset >= 0 && iReset < iRun && iRun < iRestore );
+
+      assertEquals( sCode, m_sort.getCompleteCode( environment ).toString() );
+   }
+}
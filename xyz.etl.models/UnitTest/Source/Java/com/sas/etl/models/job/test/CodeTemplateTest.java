@@ -0,0 +1,271 @@
+/* $Id$ */
+/**
+ * Title:       CodeTemplateTest.java
+ * Description: Tests and measures the precompiled code templates.
+ * Copyright:   Copyright (c) 2012
+ * Company:     SAS Institute
+ */
+package com.sas.etl.models.job.test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import junit.framework.TestCase;
+
+import com.sas.etl.models.job.CodeTemplate;
+
+/**
+ * The class <code>CodeTemplateTest</code> contains tests for the class
+ * {@link CodeTemplate}.  {@link #testAllocation} and the main method compare
+ * the memory allocated by rendering the PROC SORT statement with the template
+ * into a code target to the memory allocated by building it with string
+ * concatenation and adding the result, as the Sort code generator did before.
+ */
+public class CodeTemplateTest extends TestCase
+{
+   private static final String INDENT = "          ";
+
+   private static final CodeTemplate TEMPLATE = new CodeTemplate(
+      "proc sort data = &SYSLAST \n"                    +
+      "#if sourceOptions\n"                             +
+      "                    (${sourceOptions}) \n"       +
+      "#end\n"                                          +
+      "          out = ${target}\\\n"                   +
+      "#if targetOptions\n"                             +
+      "\n"                                              +
+      "                    ${targetOptions}\\\n"        +
+      "#end\n"                                          +
+      "#if sortOptions\n"                               +
+      "\n"                                              +
+      "          ${sortOptions}\\\n"                    +
+      "#end\n"                                          +
+      "; \n", INDENT.length() );
+
+   private static final int SLOT_SOURCE_OPTIONS = TEMPLATE.getSlot( "sourceOptions" );
+   private static final int SLOT_TARGET         = TEMPLATE.getSlot( "target" );
+   private static final int SLOT_TARGET_OPTIONS = TEMPLATE.getSlot( "targetOptions" );
+   private static final int SLOT_SORT_OPTIONS   = TEMPLATE.getSlot( "sortOptions" );
+
+   /**
+    * Construct new test instance
+    *
+    * @param name the test name
+    */
+   public CodeTemplateTest( String name )
+   {
+      super( name );
+   }
+
+   /**
+    * Tests that the template renders the same code as string concatenation
+    * for every combination of options.
+    */
+   public void testRender()
+   {
+      String[] aSource = { "", "keep=a b" };
+      String[] aTarget = { "", "compress=yes" };
+      String[] aSort   = { "", "nodupkey" };
+      for ( int iSource=0; iSource<aSource.length; iSource++ )
+      {
+         for ( int iTarget=0; iTarget<aTarget.length; iTarget++ )
+         {
+            for ( int iSort=0; iSort<aSort.length; iSort++ )
+            {
+               String sExpected = concatenate( aSource[iSource], "work.sorted", aTarget[iTarget], aSort[iSort] );
+               String sActual   = render( aSource[iSource], "work.sorted", aTarget[iTarget], aSort[iSort] ).toString();
+               assertEquals( "source=" + iSource + " target=" + iTarget + " sort=" + iSort, sExpected, sActual );
+            }
+         }
+      }
+   }
+
+   /**
+    * Tests that sections are skipped for null and empty StringBuffer values.
+    */
+   public void testEmptyValues()
+   {
+      Object[] aValues = new Object[ TEMPLATE.getSlotCount() ];
+      aValues[ SLOT_TARGET       ] = "work.sorted";
+      aValues[ SLOT_SORT_OPTIONS ] = new StringBuffer();
+      assertEquals( "proc sort data = &SYSLAST \n          out = work.sorted; \n",
+                    TEMPLATE.render( new BufferTarget(), aValues, INDENT ).toString() );
+   }
+
+   /**
+    * Tests that malformed templates are rejected.
+    */
+   public void testMalformed()
+   {
+      try
+      {
+         new CodeTemplate( "#if a\nx\n" );
+         fail( "no exception thrown for #if without #end" );
+      }
+      catch (IllegalArgumentException e)
+      {
+      }
+
+      try
+      {
+         new CodeTemplate( "x ${a\n" );
+         fail( "no exception thrown for unterminated slot" );
+      }
+      catch (IllegalArgumentException e)
+      {
+      }
+   }
+
+   /**
+    * Tests that rendering the PROC SORT statement with the template allocates
+    * less memory than building it with concatenation.  The test passes 
+    * without measuring on a platform that can not measure the memory a 
+    * thread allocates.
+    */
+   public void testAllocation()
+   {
+      long[] aBytes = measure( 100000 );
+      if (aBytes == null)
+         return;
+      assertTrue( "template " + aBytes[1] + " bytes, concatenation " + aBytes[0] + " bytes", aBytes[1] < aBytes[0] );
+   }
+
+   /**
+    * Measures the memory allocated by building the PROC SORT statement with
+    * concatenation and by rendering it with the template.  Both add the 
+    * statement to the same reused code target.
+    *
+    * @param nIterations the number of statements built
+    *
+    * @return the bytes allocated per statement by concatenation and by the
+    *         template or null if the platform can not measure them
+    */
+   private static long[] measure( int nIterations )
+   {
+      ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+      if (!(bean instanceof com.sun.management.ThreadMXBean) || 
+          !((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported())
+         return null;
+      com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+      sunBean.setThreadAllocatedMemoryEnabled( true );
+      long                            lThread = Thread.currentThread().getId();
+      BufferTarget                    target  = new BufferTarget();
+
+      // warm up both paths
+      for ( int i=0; i<10000; i++ )
+      {
+         target.reset();
+         target.addSourceCode( concatenate( "keep=a b", "work.sorted", "compress=yes", "nodupkey" ) );
+         target.reset();
+         render( target, "keep=a b", "work.sorted", "compress=yes", "nodupkey" );
+      }
+
+      long lStart = sunBean.getThreadAllocatedBytes( lThread );
+      for ( int i=0; i<nIterations; i++ )
+      {
+         target.reset();
+         target.addSourceCode( concatenate( "keep=a b", "work.sorted", "compress=yes", "nodupkey" ) );
+      }
+      long lConcatBytes = sunBean.getThreadAllocatedBytes( lThread ) - lStart;
+
+      lStart = sunBean.getThreadAllocatedBytes( lThread );
+      for ( int i=0; i<nIterations; i++ )
+      {
+         target.reset();
+         render( target, "keep=a b", "work.sorted", "compress=yes", "nodupkey" );
+      }
+      long lTemplateBytes = sunBean.getThreadAllocatedBytes( lThread ) - lStart;
+
+      return new long[] { lConcatBytes / nIterations, lTemplateBytes / nIterations };
+   }
+
+   /**
+    * Prints the memory allocated per PROC SORT statement by concatenation and
+    * by the template.
+    *
+    * @param args the number of iterations (optional)
+    */
+   public static void main( String[] args )
+   {
+      int    nIterations = (args.length > 0) ? Integer.parseInt( args[0] ) : 1000000;
+      long[] aBytes      = measure( nIterations );
+      if (aBytes == null)
+      {
+         System.out.println( "the platform can not measure allocated memory" );
+         return;
+      }
+      System.out.println( "iterations:    " + nIterations );
+      System.out.println( "concatenation: " + aBytes[0] + " bytes per statement" );
+      System.out.println( "template:      " + aBytes[1] + " bytes per statement" );
+   }
+
+   /**
+    * Renders the PROC SORT statement with the template.
+    */
+   private static CodeTemplate.ICodeTarget render( String sSource, String sTarget, String sTargetOptions, String sSortOptions )
+   {
+      return render( new BufferTarget(), sSource, sTarget, sTargetOptions, sSortOptions );
+   }
+
+   /**
+    * Renders the PROC SORT statement with the template into a code target.
+    */
+   private static CodeTemplate.ICodeTarget render( CodeTemplate.ICodeTarget target, String sSource, String sTarget, String sTargetOptions, String sSortOptions )
+   {
+      Object[] aValues = new Object[ TEMPLATE.getSlotCount() ];
+      aValues[ SLOT_SOURCE_OPTIONS ] = sSource;
+      aValues[ SLOT_TARGET         ] = sTarget;
+      aValues[ SLOT_TARGET_OPTIONS ] = sTargetOptions;
+      aValues[ SLOT_SORT_OPTIONS   ] = sSortOptions;
+      return TEMPLATE.render( target, aValues, INDENT );
+   }
+
+   /**
+    * Builds the PROC SORT statement with string concatenation, as the Sort
+    * code generator did before it used a template.
+    */
+   private static String concatenate( String sSource, String sTarget, String sTargetOptions, String sSortOptions )
+   {
+      String sCode = "proc sort data = &SYSLAST \n";
+      if (sSource.trim().length() > 0)
+         sCode += "                    (" + sSource.trim() + ") \n";
+      sCode += "          out = " + sTarget;
+      if (sTargetOptions.length() > 0)
+         sCode += "\n" + "                    " + sTargetOptions.trim();
+      if (sSortOptions.trim().length() > 0)
+         sCode += "\n" + "          " + sSortOptions.trim();
+      sCode += "; \n";
+      return sCode;
+   }
+
+   /**
+    * BufferTarget collects rendered code in a string buffer.
+    */
+   private static class BufferTarget implements CodeTemplate.ICodeTarget
+   {
+      private StringBuffer m_sb = new StringBuffer( 256 );
+
+      /**
+       * @see com.sas.etl.models.job.CodeTemplate.ICodeTarget#addSourceCode(java.lang.String)
+       */
+      public void addSourceCode( String sCode )
+      {
+         m_sb.append( sCode );
+      }
+
+      /**
+       * Empties the buffer, keeping its capacity.
+       */
+      public void reset()
+      {
+         m_sb.setLength( 0 );
+      }
+
+      /**
+       * @see java.lang.Object#toString()
+       */
+      public String toString()
+      {
+         return m_sb.toString();
+      }
+   } // BufferTarget
+}
@@ -17,7 +17,13 @@ import com.sas.etl.models.data.IDataObject;
 import com.sas.etl.models.data.ITable;
 import com.sas.etl.models.data.IWorkTable;
 import com.sas.etl.models.impl.ModelEvent;
+import com.sas.etl.models.job.ICodeGenerationEnvironment;
 import com.sas.etl.models.job.IDataTransform;
+import com.sas.etl.models.job.IStepRuntimeEstimator;
+import com.sas.etl.models.job.impl.AbstractDataTransform;
+import com.sas.etl.models.job.impl.AbstractTransform;
+import com.sas.etl.models.job.impl.CodeGenerationCache;
+import com.sas.etl.models.job.impl.CodeGenerationEnvironment;
 import com.sas.etl.models.job.impl.test.AbstractDataTransformTest;
 import com.sas.etl.models.job.transforms.SortTransformModel;
 import com.sas.etl.models.job.transforms.common.ISortColumn;
@@ -813,12 +819,175 @@ public class SortTransformModelTest extends AbstractDataTransformTest
       assertUnchanged();
    }
    
+   public void testDeleteWorkTablesAfterLastUse()
+   {
+      assertFalse( "default", m_sort.isDeleteWorkTablesAfterLastUse() );
+
+      enableUndo();
+
+      // test no changes
+      m_sort.setDeleteWorkTablesAfterLastUse( false );
+      assertUnchanged();
+      assertNoEvents();
+      
+      m_sort.setDeleteWorkTablesAfterLastUse( true );
+      assertChangedAndReset();
+      assertTrue( m_sort.isDeleteWorkTablesAfterLastUse() );
+      assertEvent( m_sort, AbstractDataTransform.DELETE_WORK_TABLES_AFTER_LAST_USE_CHANGED, null );
+      getUndoManager().undo();
+      assertChangedAndReset();
+      assertFalse( m_sort.isDeleteWorkTablesAfterLastUse() );
+      assertEvent( m_sort, AbstractDataTransform.DELETE_WORK_TABLES_AFTER_LAST_USE_CHANGED, null );
+      getUndoManager().redo();
+      assertChanged();
+      assertTrue( m_sort.isDeleteWorkTablesAfterLastUse() );
+      assertEvent( m_sort, AbstractDataTransform.DELETE_WORK_TABLES_AFTER_LAST_USE_CHANGED, null );
+
+      // persist
+      saveTestObject();
+      loadNewTestObjectInstance();
+
+      assertTrue( m_sort.isDeleteWorkTablesAfterLastUse() );
+   }
+   
+   public void testRowCountStrategy()
+   {
+      assertEquals( "default", AbstractDataTransform.ROW_COUNT_EXACT, m_sort.getRowCountStrategy() );
+      assertEquals( "default", AbstractDataTransform.DEFAULT_ROW_COUNT_SAMPLE_SIZE, m_sort.getRowCountSampleSize() );
+
+      enableUndo();
+
+      // test no changes
+      m_sort.setRowCountStrategy( AbstractDataTransform.ROW_COUNT_EXACT );
+      m_sort.setRowCountSampleSize( AbstractDataTransform.DEFAULT_ROW_COUNT_SAMPLE_SIZE );
+      assertUnchanged();
+      assertNoEvents();
+      
+      m_sort.setRowCountStrategy( AbstractDataTransform.ROW_COUNT_SAMPLED );
+      assertChangedAndReset();
+      assertEvent( m_sort, AbstractDataTransform.ROW_COUNT_STRATEGY_CHANGED, null );
+      m_sort.setRowCountSampleSize( 500 );
+      assertChangedAndReset();
+      assertEvent( m_sort, AbstractDataTransform.ROW_COUNT_SAMPLE_SIZE_CHANGED, null );
+      
+      getUndoManager().undo();
+      assertEquals( AbstractDataTransform.DEFAULT_ROW_COUNT_SAMPLE_SIZE, m_sort.getRowCountSampleSize() );
+      assertEvent( m_sort, AbstractDataTransform.ROW_COUNT_SAMPLE_SIZE_CHANGED, null );
+      getUndoManager().undo();
+      assertEquals( AbstractDataTransform.ROW_COUNT_EXACT, m_sort.getRowCountStrategy() );
+      assertEvent( m_sort, AbstractDataTransform.ROW_COUNT_STRATEGY_CHANGED, null );
+      getUndoManager().redo();
+      getUndoManager().redo();
+      assertChanged();
+      assertEquals( AbstractDataTransform.ROW_COUNT_SAMPLED, m_sort.getRowCountStrategy() );
+      assertEquals( 500, m_sort.getRowCountSampleSize() );
+
+      // persist
+      saveTestObject();
+      loadNewTestObjectInstance();
+
+      assertEquals( AbstractDataTransform.ROW_COUNT_SAMPLED, m_sort.getRowCountStrategy() );
+      assertEquals( 500, m_sort.getRowCountSampleSize() );
+   }
+   
+   public void testEstimatedRuntime()
+   {
+      assertEquals( "default", IStepRuntimeEstimator.UNKNOWN_RUNTIME, m_sort.getEstimatedRuntime(), 0 );
+
+      enableUndo();
+
+      // test no changes
+      m_sort.setEstimatedRuntime( -5 );
+      assertUnchanged();
+      assertNoEvents();
+      
+      m_sort.setEstimatedRuntime( 12.5 );
+      assertChangedAndReset();
+      assertEvent( m_sort, AbstractTransform.ESTIMATED_RUNTIME_CHANGED, null );
+      
+      getUndoManager().undo();
+      assertChangedAndReset();
+      assertEquals( IStepRuntimeEstimator.UNKNOWN_RUNTIME, m_sort.getEstimatedRuntime(), 0 );
+      assertEvent( m_sort, AbstractTransform.ESTIMATED_RUNTIME_CHANGED, null );
+      getUndoManager().redo();
+      assertChanged();
+      assertEquals( 12.5, m_sort.getEstimatedRuntime(), 0 );
+
+      // persist
+      saveTestObject();
+      loadNewTestObjectInstance();
+
+      assertEquals( 12.5, m_sort.getEstimatedRuntime(), 0 );
+   }
+   
+   public void testSkipIfUnchanged()
+   {
+      assertFalse( "default", m_sort.isSkipIfUnchanged() );
+
+      enableUndo();
+
+      // test no changes
+      m_sort.setSkipIfUnchanged( false );
+      assertUnchanged();
+      assertNoEvents();
+      
+      m_sort.setSkipIfUnchanged( true );
+      assertChangedAndReset();
+      assertEvent( m_sort, AbstractTransform.SKIP_IF_UNCHANGED_CHANGED, null );
+      
+      getUndoManager().undo();
+      assertChangedAndReset();
+      assertFalse( m_sort.isSkipIfUnchanged() );
+      assertEvent( m_sort, AbstractTransform.SKIP_IF_UNCHANGED_CHANGED, null );
+      getUndoManager().redo();
+      assertChanged();
+      assertTrue( m_sort.isSkipIfUnchanged() );
+
+      // persist
+      saveTestObject();
+      loadNewTestObjectInstance();
+
+      assertTrue( m_sort.isSkipIfUnchanged() );
+   }
+   
    public void testDefaultWorkTableIsNotAView()
    {
       IWorkTable tbl = m_sort.addNewWorkTable();
       assertFalse( tbl.isView() );
    }
    
+   public void testGenerateTwiceInOneEnvironment() throws Exception
+   {
+      m_sort.addDataSource( m_tblSource );
+      m_sort.addDataTarget( getTestTargetTable() );
+      
+      // the second run must define and assign again everything the first did
+      ICodeGenerationEnvironment environment = new CodeGenerationEnvironment( null );
+      String sFirst  = m_sort.getCompleteCode( environment ).toString();
+      CodeGenerationCache cache = CodeGenerationCache.getCache( environment );
+      String sSecond = m_sort.getCompleteCode( environment ).toString();
+      assertEquals( sFirst, sSecond );
+      assertNotSame( cache, CodeGenerationCache.getCache( environment ) );
+   }
+   
+   public void testNoCacheOutsideRun()
+   {
+      // outside a run nothing is memoized, so every request gets a new cache
+      ICodeGenerationEnvironment environment = new CodeGenerationEnvironment( null );
+      assertNotSame( CodeGenerationCache.getCache( environment ), CodeGenerationCache.getCache( environment ) );
+      
+      CodeGenerationCache cache = CodeGenerationCache.beginRun( environment );
+      try
+      {
+         assertSame( cache, CodeGenerationCache.getCache( environment ) );
+      }
+      finally
+      {
+         CodeGenerationCache.endRun( environment );
+      }
+      assertNotSame( cache, CodeGenerationCache.getCache( environment ) );
+   }
+   
    private ITable createTable( String sName, String sColumnNamePreFix )
    {
       ITable tbl = getModel().getObjectFactory().createNewPhysicalTable( getFullRepositoryID() );